@@ -15,7 +15,9 @@
  */
 package org.glowroot.agent.advicegen;
 
+import java.lang.ref.SoftReference;
 import java.util.List;
+import java.util.Map;
 
 import javax.annotation.Nullable;
 
@@ -26,11 +28,29 @@ class PathEvaluator {
 
     private static final Splitter splitter = Splitter.on('.').omitEmptyStrings();
 
+    // after this many different runtime classes are seen for the remaining path, it is treated as
+    // polymorphic and always evaluated using (slow) Beans
+    private static final int MAX_REMAINING_PATH_CLASSES = 8;
+
+    private final Class<?> baseClass;
     private final Accessor[] accessors;
     private final String /*@Nullable*/[] remainingPath;
 
+    // monomorphic inline cache for the remaining path, holding a path evaluator that has been
+    // resolved against the runtime class of the most recent value that the remaining path was
+    // evaluated on, so that the common case of a single runtime class can use pre-resolved
+    // accessors instead of the per-class accessor lookups in Beans
+    //
+    // soft reference since the resolved accessors retain the runtime class (and its class loader)
+    private volatile @Nullable SoftReference<PathEvaluator> remainingPathEvaluator;
+    // racy increments are ok, this is only a heuristic
+    private volatile int remainingPathClassCount;
+
     PathEvaluator(Class<?> baseClass, String path) {
-        List<String> parts = Lists.newArrayList(splitter.split(path));
+        this(baseClass, Lists.newArrayList(splitter.split(path)));
+    }
+
+    private PathEvaluator(Class<?> baseClass, List<String> parts) {
         List<Accessor> accessors = Lists.newArrayList();
         Class<?> currClass = baseClass;
         while (!parts.isEmpty()) {
@@ -43,6 +63,7 @@ class PathEvaluator {
             accessors.add(accessor);
             currClass = accessor.getValueType();
         }
+        this.baseClass = baseClass;
         this.accessors = accessors.toArray(new Accessor[accessors.size()]);
         if (parts.isEmpty()) {
             remainingPath = null;
@@ -61,9 +82,31 @@ class PathEvaluator {
             }
         }
         if (remainingPath != null) {
+            return evaluateRemainingPath(curr, remainingPath);
+        }
+        return curr;
+    }
+
+    private @Nullable Object evaluateRemainingPath(Object curr, String[] remainingPath)
+            throws Exception {
+        if (curr instanceof Map || curr instanceof Object[]
+                || remainingPathClassCount > MAX_REMAINING_PATH_CLASSES) {
             // too bad, revert to slow Beans
             return Beans.value(curr, remainingPath);
         }
-        return curr;
+        Class<?> currClass = curr.getClass();
+        SoftReference<PathEvaluator> ref = remainingPathEvaluator;
+        PathEvaluator pathEvaluator = ref == null ? null : ref.get();
+        if (pathEvaluator == null || pathEvaluator.baseClass != currClass) {
+            pathEvaluator = new PathEvaluator(currClass, Lists.newArrayList(remainingPath));
+            remainingPathEvaluator = new SoftReference<PathEvaluator>(pathEvaluator);
+            remainingPathClassCount++;
+        }
+        if (pathEvaluator.accessors.length == 0) {
+            // no accessors could be resolved against the runtime class either (e.g. dynamic
+            // paths that may or may not resolve correctly), revert to slow Beans
+            return Beans.value(curr, remainingPath);
+        }
+        return pathEvaluator.evaluateOnBase(curr);
     }
 }
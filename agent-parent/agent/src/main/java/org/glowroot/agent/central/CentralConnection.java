@@ -19,8 +19,20 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 
+import javax.annotation.Nullable;
+
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.ClientInterceptors;
+import io.grpc.ForwardingClientCall.SimpleForwardingClientCall;
+import io.grpc.ForwardingClientCallListener.SimpleForwardingClientCallListener;
 import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
 import io.grpc.netty.NegotiationType;
 import io.grpc.netty.NettyChannelBuilder;
 import io.grpc.stub.StreamObserver;
@@ -29,6 +41,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import org.glowroot.common.util.OnlyUsedByTests;
+import org.glowroot.wire.api.RetryAfter;
 
 import static java.util.concurrent.TimeUnit.SECONDS;
 
@@ -46,7 +59,8 @@ class CentralConnection {
 
     private final EventLoopGroup eventLoopGroup;
     private final ExecutorService executor;
-    private final ManagedChannel channel;
+    private final ManagedChannel managedChannel;
+    private final Channel channel;
 
     private final ScheduledExecutorService scheduledExecutor;
 
@@ -59,12 +73,13 @@ class CentralConnection {
                 .setDaemon(true)
                 .setNameFormat("Glowroot-grpc-executor-%d")
                 .build());
-        channel = NettyChannelBuilder
+        managedChannel = NettyChannelBuilder
                 .forAddress(collectorHost, collectorPort)
                 .eventLoopGroup(eventLoopGroup)
                 .executor(executor)
                 .negotiationType(NegotiationType.PLAINTEXT)
                 .build();
+        channel = ClientInterceptors.intercept(managedChannel, new RetryAfterInterceptor());
         this.scheduledExecutor = scheduledExecutor;
     }
 
@@ -72,7 +87,7 @@ class CentralConnection {
         return suppressLogCollector.get();
     }
 
-    ManagedChannel getChannel() {
+    Channel getChannel() {
         return channel;
     }
 
@@ -113,12 +128,12 @@ class CentralConnection {
     @OnlyUsedByTests
     void close() {
         closed = true;
-        channel.shutdown();
+        managedChannel.shutdown();
     }
 
     @OnlyUsedByTests
     void awaitClose() throws InterruptedException {
-        if (!channel.awaitTermination(10, SECONDS)) {
+        if (!managedChannel.awaitTermination(10, SECONDS)) {
             throw new IllegalStateException("Could not terminate gRPC channel");
         }
         executor.shutdown();
@@ -170,6 +185,15 @@ class CentralConnection {
                 return;
             }
             // TODO revisit retry/backoff after next grpc version
+            long delayInSeconds = nextDelayInSeconds;
+            Long retryAfterSeconds = getRetryAfterSeconds(t);
+            if (retryAfterSeconds != null) {
+                // central is overloaded and told us when to come back, no need to also back off
+                // exponentially
+                delayInSeconds = retryAfterSeconds;
+            } else {
+                nextDelayInSeconds = Math.min(nextDelayInSeconds * 2, maxDelayInSeconds);
+            }
             scheduledExecutor.schedule(new Runnable() {
                 @Override
                 public void run() {
@@ -186,11 +210,63 @@ class CentralConnection {
                         });
                     }
                 }
-            }, nextDelayInSeconds, SECONDS);
-            nextDelayInSeconds = Math.min(nextDelayInSeconds * 2, maxDelayInSeconds);
+            }, delayInSeconds, SECONDS);
         }
 
         @Override
         public void onCompleted() {}
     }
+
+    private static @Nullable Long getRetryAfterSeconds(Throwable t) {
+        Throwable cause = Status.fromThrowable(t).getCause();
+        if (cause instanceof RetryAfterException) {
+            return ((RetryAfterException) cause).seconds;
+        }
+        return null;
+    }
+
+    // moves the retry delay from the trailer sent by central onto the status (as its cause) so
+    // that it is available to RetryingStreamObserver.onError()
+    private static class RetryAfterInterceptor implements ClientInterceptor {
+
+        @Override
+        public <ReqT, RespT> ClientCall<ReqT, RespT> interceptCall(
+                MethodDescriptor<ReqT, RespT> method, CallOptions callOptions, Channel next) {
+            return new SimpleForwardingClientCall<ReqT, RespT>(
+                    next.newCall(method, callOptions)) {
+                @Override
+                public void start(Listener<RespT> responseListener, Metadata headers) {
+                    super.start(new SimpleForwardingClientCallListener<RespT>(responseListener) {
+                        @Override
+                        public void onClose(Status status, Metadata trailers) {
+                            super.onClose(withRetryAfter(status, trailers), trailers);
+                        }
+                    }, headers);
+                }
+            };
+        }
+
+        private static Status withRetryAfter(Status status, Metadata trailers) {
+            String value = trailers.get(RetryAfter.SECONDS_KEY);
+            if (value == null) {
+                return status;
+            }
+            try {
+                return status.withCause(new RetryAfterException(Long.parseLong(value)));
+            } catch (NumberFormatException e) {
+                // fall back to exponential backoff
+                return status;
+            }
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private static class RetryAfterException extends Exception {
+
+        private final long seconds;
+
+        private RetryAfterException(long seconds) {
+            this.seconds = seconds;
+        }
+    }
 }
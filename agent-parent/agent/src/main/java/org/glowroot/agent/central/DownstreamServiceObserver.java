@@ -60,6 +60,8 @@ import org.glowroot.wire.api.model.DownstreamServiceOuterClass.MethodSignature;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.MethodSignaturesRequest;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.MethodSignaturesResponse;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.PreloadClasspathCacheResponse;
+import org.glowroot.wire.api.model.DownstreamServiceOuterClass.ReweaveProgress;
+import org.glowroot.wire.api.model.DownstreamServiceOuterClass.ReweaveProgressResponse;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.ReweaveResponse;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.ServerRequest;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.ServerRequest.MessageCase;
@@ -172,7 +174,8 @@ class DownstreamServiceObserver implements StreamObserver<ServerRequest> {
 
     void connectAsync() {
         // these are async so never fail, onError() will be called on failure
-        StreamObserver<ClientResponse> responseObserver = downstreamServiceStub.connect(this);
+        StreamObserver<ClientResponse> responseObserver =
+                new SynchronizedStreamObserver<ClientResponse>(downstreamServiceStub.connect(this));
         currResponseObserver = responseObserver;
         responseObserver.onNext(ClientResponse.newBuilder()
                 .setHello(Hello.newBuilder()
@@ -230,7 +233,10 @@ class DownstreamServiceObserver implements StreamObserver<ServerRequest> {
                 methodSignaturesAndRespond(request, responseObserver);
                 return;
             case REWEAVE_REQUEST:
-                reweaveAndRespond(request, responseObserver);
+                reweaveAndRespondAsync(request, responseObserver);
+                return;
+            case REWEAVE_PROGRESS_REQUEST:
+                reweaveProgressAndRespond(request, responseObserver);
                 return;
             default:
                 responseObserver.onNext(ClientResponse.newBuilder()
@@ -486,6 +492,26 @@ class DownstreamServiceObserver implements StreamObserver<ServerRequest> {
                 .build());
     }
 
+    // requests are processed one at a time, so reweave (which can take a while since classes are
+    // retransformed in batches) is performed in the background so that other requests (e.g. reweave
+    // progress) can still be answered in the meantime
+    private void reweaveAndRespondAsync(final ServerRequest request,
+            final StreamObserver<ClientResponse> responseObserver) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    reweaveAndRespond(request, responseObserver);
+                } catch (Throwable t) {
+                    logger.error(t.getMessage(), t);
+                }
+            }
+        });
+        thread.setDaemon(true);
+        thread.setName("Glowroot-Temporary-Thread");
+        thread.start();
+    }
+
     private void reweaveAndRespond(ServerRequest request,
             StreamObserver<ClientResponse> responseObserver) throws Exception {
         int classUpdateCount;
@@ -503,6 +529,23 @@ class DownstreamServiceObserver implements StreamObserver<ServerRequest> {
                 .build());
     }
 
+    private void reweaveProgressAndRespond(ServerRequest request,
+            StreamObserver<ClientResponse> responseObserver) {
+        ReweaveProgress reweaveProgress;
+        try {
+            reweaveProgress = liveWeavingService.getReweaveProgress("");
+        } catch (Exception e) {
+            logger.error(e.getMessage(), e);
+            sendExceptionResponse(request, responseObserver);
+            return;
+        }
+        responseObserver.onNext(ClientResponse.newBuilder()
+                .setRequestId(request.getRequestId())
+                .setReweaveProgressResponse(ReweaveProgressResponse.newBuilder()
+                        .setReweaveProgress(reweaveProgress))
+                .build());
+    }
+
     private void sendExceptionResponse(ServerRequest request,
             StreamObserver<ClientResponse> responseObserver) {
         responseObserver.onNext(ClientResponse.newBuilder()
@@ -525,4 +568,30 @@ class DownstreamServiceObserver implements StreamObserver<ServerRequest> {
         }
         checkState(closedByServer);
     }
+
+    // grpc stream observers are not thread safe, and responses can be sent from the background
+    // reweave thread (see reweaveAndRespondAsync())
+    private static class SynchronizedStreamObserver<T> implements StreamObserver<T> {
+
+        private final StreamObserver<T> delegate;
+
+        private SynchronizedStreamObserver(StreamObserver<T> delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public synchronized void onNext(T value) {
+            delegate.onNext(value);
+        }
+
+        @Override
+        public synchronized void onError(Throwable t) {
+            delegate.onError(t);
+        }
+
+        @Override
+        public synchronized void onCompleted() {
+            delegate.onCompleted();
+        }
+    }
 }
@@ -21,6 +21,7 @@ import org.immutables.value.Value;
 
 import org.glowroot.storage.config.ConfigDefaults;
 import org.glowroot.wire.api.model.AgentConfigOuterClass.AgentConfig;
+import org.glowroot.wire.api.model.Proto.OptionalDouble;
 import org.glowroot.wire.api.model.Proto.OptionalInt32;
 
 @Value.Immutable
@@ -70,6 +71,20 @@ public abstract class AdvancedConfig {
         return 60;
     }
 
+    // percentage of transactions (0-100) that are sampled, unsampled transactions are still
+    // counted in the aggregates but do not capture timers, queries, profiles or traces
+    @Value.Default
+    public double samplingPercentage() {
+        return 100;
+    }
+
+    // 0 means no limit
+    @Value.Default
+    @JsonInclude(value = Include.NON_EMPTY)
+    public int samplingMaxPerSecondPerTransactionName() {
+        return 0;
+    }
+
     public AgentConfig.AdvancedConfig toProto() {
         return AgentConfig.AdvancedConfig.newBuilder()
                 .setWeavingTimer(weavingTimer())
@@ -81,6 +96,9 @@ public abstract class AdvancedConfig {
                 .setMaxTraceEntriesPerTransaction(of(maxTraceEntriesPerTransaction()))
                 .setMaxStackTraceSamplesPerTransaction(of(maxStackTraceSamplesPerTransaction()))
                 .setMbeanGaugeNotFoundDelaySeconds(of(mbeanGaugeNotFoundDelaySeconds()))
+                .setSamplingPercentage(of(samplingPercentage()))
+                .setSamplingMaxPerSecondPerTransactionName(
+                        samplingMaxPerSecondPerTransactionName())
                 .build();
     }
 
@@ -111,10 +129,19 @@ public abstract class AdvancedConfig {
             builder.mbeanGaugeNotFoundDelaySeconds(
                     config.getMbeanGaugeNotFoundDelaySeconds().getValue());
         }
-        return builder.build();
+        if (config.hasSamplingPercentage()) {
+            builder.samplingPercentage(config.getSamplingPercentage().getValue());
+        }
+        return builder.samplingMaxPerSecondPerTransactionName(
+                config.getSamplingMaxPerSecondPerTransactionName())
+                .build();
     }
 
     private static OptionalInt32 of(int value) {
         return OptionalInt32.newBuilder().setValue(value).build();
     }
+
+    private static OptionalDouble of(double value) {
+        return OptionalDouble.newBuilder().setValue(value).build();
+    }
 }
@@ -18,6 +18,7 @@ package org.glowroot.agent.fat.init;
 import java.io.Closeable;
 import java.io.File;
 import java.lang.instrument.Instrumentation;
+import java.sql.DriverManager;
 import java.util.Map;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -31,6 +32,8 @@ import com.google.common.base.Strings;
 import com.google.common.base.Ticker;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import org.glowroot.agent.config.ConfigService;
 import org.glowroot.agent.config.PluginCache;
@@ -51,18 +54,24 @@ import org.glowroot.wire.api.Collector.AgentConfigUpdater;
 import org.glowroot.wire.api.model.AgentConfigOuterClass.AgentConfig;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.SECONDS;
 
 class FatAgentModule {
 
+    private static final Logger logger = LoggerFactory.getLogger(FatAgentModule.class);
+
     private final Ticker ticker;
     private final Clock clock;
     // only null in viewer mode
     private final @Nullable ScheduledExecutorService scheduledExecutor;
-    private final SimpleRepoModule simpleRepoModule;
     private final @Nullable AgentModule agentModule;
     private final @Nullable ViewerAgentModule viewerAgentModule;
     private final File baseDir;
+    private final File dataDir;
+    private final PluginCache pluginCache;
+    // only null in viewer mode
+    private final @Nullable CollectorProxy collectorProxy;
 
     private final Closeable dataDirLockingCloseable;
 
@@ -71,12 +80,29 @@ class FatAgentModule {
 
     private final boolean h2MemDb;
 
+    // in fast start mode, storage initialization is deferred until after premain, so that the
+    // monitored application's startup is not held up by H2 schema sync, and only the parts that
+    // are needed for weaving (and DriverManager, see preInitializeDriverManager()) are initialized
+    // up front
+    //
+    // gauge collection is also not started until storage is initialized (see initStorage()), and
+    // the classpath cache needs no deferral since it is already only built on first use by the UI
+    //
+    // any data captured before storage is initialized is dropped by the collector proxy
+    private final boolean fastStart;
+
+    // these are only used for logging the startup phase breakdown
+    private final long agentStartupMillis;
+    private volatile long storageStartupMillis;
+
+    private volatile @MonotonicNonNull SimpleRepoModule simpleRepoModule;
     private volatile @MonotonicNonNull UiModule uiModule;
 
     FatAgentModule(File baseDir, Map<String, String> properties,
             @Nullable Instrumentation instrumentation, @Nullable File glowrootJarFile,
             String glowrootVersion, boolean viewerMode) throws Exception {
 
+        Stopwatch stopwatch = Stopwatch.createStarted();
         dataDirLockingCloseable = DataDirLocking.lockDataDir(baseDir);
 
         ticker = Ticker.systemTicker();
@@ -84,71 +110,119 @@ class FatAgentModule {
 
         // mem db is only used for testing (by glowroot-test-container)
         h2MemDb = Boolean.parseBoolean(properties.get("glowroot.internal.h2.memdb"));
+        fastStart = Boolean.parseBoolean(properties.get("glowroot.fast.start")) && !viewerMode;
 
-        File dataDir = new File(baseDir, "data");
-        DataSource dataSource;
-        if (h2MemDb) {
-            // mem db is only used for testing (by glowroot-test-container)
-            dataSource = new DataSource();
-        } else {
-            dataSource = new DataSource(new File(dataDir, "data.h2.db"));
-        }
+        dataDir = new File(baseDir, "data");
+        this.baseDir = baseDir;
+        this.version = glowrootVersion;
+        bindAddress = getBindAddress(properties);
 
-        PluginCache pluginCache = PluginCache.create(glowrootJarFile, false);
+        pluginCache = PluginCache.create(glowrootJarFile, false);
         if (viewerMode) {
             viewerAgentModule = new ViewerAgentModule(baseDir, glowrootJarFile);
             scheduledExecutor = null;
             agentModule = null;
+            collectorProxy = null;
+            agentStartupMillis = stopwatch.elapsed(MILLISECONDS);
+            stopwatch.reset().start();
             ConfigRepository configRepository = ConfigRepositoryImpl.create(baseDir,
                     viewerAgentModule.getConfigService(), pluginCache);
-            simpleRepoModule = new SimpleRepoModule(dataSource, dataDir, clock, ticker,
+            simpleRepoModule = new SimpleRepoModule(createDataSource(), dataDir, clock, ticker,
                     configRepository, null, true);
+            storageStartupMillis = stopwatch.elapsed(MILLISECONDS);
         } else {
             // trace module needs to be started as early as possible, so that weaving will be
             // applied to as many classes as possible
             // in particular, it needs to be started before StorageModule which uses shaded H2,
             // which loads java.sql.DriverManager, which loads 3rd party jdbc drivers found via
             // services/java.sql.Driver, and those drivers need to be woven
-            CollectorProxy collectorProxy = new CollectorProxy();
+            collectorProxy = new CollectorProxy();
             ConfigService configService =
                     ConfigService.create(baseDir, pluginCache.pluginDescriptors());
             agentModule = new AgentModule(clock, null, pluginCache, configService, collectorProxy,
                     instrumentation, baseDir);
+            agentStartupMillis = stopwatch.elapsed(MILLISECONDS);
 
             PreInitializeStorageShutdownClasses.preInitializeClasses();
-            ConfigRepository configRepository = ConfigRepositoryImpl.create(baseDir,
-                    agentModule.getConfigService(), pluginCache);
             ThreadFactory threadFactory = new ThreadFactoryBuilder().setDaemon(true)
                     .setNameFormat("Glowroot-Background-%d").build();
             scheduledExecutor = Executors.newScheduledThreadPool(2, threadFactory);
-            simpleRepoModule = new SimpleRepoModule(dataSource, dataDir, clock, ticker,
-                    configRepository, scheduledExecutor, false);
-            simpleRepoModule.registerMBeans(
-                    new PlatformMBeanServerLifecycleImpl(agentModule.getLazyPlatformMBeanServer()));
-
-            // now inject the real collector into the proxy
-            CollectorImpl collectorImpl =
-                    new CollectorImpl(simpleRepoModule.getServerDao(),
-                            simpleRepoModule.getAggregateRepository(),
-                            simpleRepoModule.getTraceRepository(),
-                            simpleRepoModule.getGaugeValueRepository(),
-                            simpleRepoModule.getAlertingService());
-            collectorProxy.setInstance(collectorImpl);
-            // fat agent's CollectorImpl does nothing with agent config parameter
-            collectorImpl.init(baseDir, ProcessInfoCreator.create(glowrootVersion),
-                    AgentConfig.getDefaultInstance(), new AgentConfigUpdater() {
-                        @Override
-                        public void update(AgentConfig agentConfig) {}
-                    });
             viewerAgentModule = null;
+            if (fastStart) {
+                preInitializeDriverManager();
+            } else {
+                initStorage();
+            }
         }
+    }
 
-        bindAddress = getBindAddress(properties);
-        this.baseDir = baseDir;
-        this.version = glowrootVersion;
+    // in fast start mode, this is called from the same (non-premain) thread that then starts the
+    // embedded server, see GlowrootFatAgentInit
+    void initStorageIfDeferred() throws Exception {
+        if (simpleRepoModule == null) {
+            initStorage();
+        }
+    }
+
+    private void initStorage() throws Exception {
+        AgentModule agentModule = checkNotNull(this.agentModule);
+        CollectorProxy collectorProxy = checkNotNull(this.collectorProxy);
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        ConfigRepository configRepository = ConfigRepositoryImpl.create(baseDir,
+                agentModule.getConfigService(), pluginCache);
+        SimpleRepoModule simpleRepoModule = new SimpleRepoModule(createDataSource(), dataDir,
+                clock, ticker, configRepository, scheduledExecutor, false);
+        simpleRepoModule.registerMBeans(
+                new PlatformMBeanServerLifecycleImpl(agentModule.getLazyPlatformMBeanServer()));
+
+        // now inject the real collector into the proxy
+        CollectorImpl collectorImpl =
+                new CollectorImpl(simpleRepoModule.getServerDao(),
+                        simpleRepoModule.getAggregateRepository(),
+                        simpleRepoModule.getTraceRepository(),
+                        simpleRepoModule.getGaugeValueRepository(),
+                        simpleRepoModule.getAlertingService());
+        collectorProxy.setInstance(collectorImpl);
+        // fat agent's CollectorImpl does nothing with agent config parameter
+        collectorImpl.init(baseDir, ProcessInfoCreator.create(version),
+                AgentConfig.getDefaultInstance(), new AgentConfigUpdater() {
+                    @Override
+                    public void update(AgentConfig agentConfig) {}
+                });
+        agentModule.startGaugeCollection();
+        this.simpleRepoModule = simpleRepoModule;
+        storageStartupMillis = stopwatch.elapsed(MILLISECONDS);
+    }
+
+    // DriverManager's static initializer loads (and initializes) the 3rd party jdbc drivers found
+    // via services/java.sql.Driver, and each of those drivers registers itself with DriverManager
+    // from its own static initializer, so initializing DriverManager off of the premain thread can
+    // deadlock with the application initializing one of those drivers at the same time
+    //
+    // so in fast start mode, DriverManager and the (shaded) H2 driver are still initialized here
+    // on the premain thread (after AgentModule, so that the 3rd party drivers are woven), and only
+    // the H2 schema sync and the rest of storage initialization are deferred
+    private static void preInitializeDriverManager() {
+        DriverManager.getDrivers();
+        try {
+            Class.forName("org.h2.Driver");
+        } catch (ClassNotFoundException e) {
+            logger.error(e.getMessage(), e);
+        }
+    }
+
+    private DataSource createDataSource() throws Exception {
+        if (h2MemDb) {
+            // mem db is only used for testing (by glowroot-test-container)
+            return new DataSource();
+        } else {
+            return new DataSource(new File(dataDir, "data.h2.db"));
+        }
     }
 
     void initEmbeddedServer() throws Exception {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        SimpleRepoModule simpleRepoModule = checkNotNull(this.simpleRepoModule);
         if (agentModule != null) {
             uiModule = new CreateUiModuleBuilder()
                     .central(false)
@@ -193,6 +267,15 @@ class FatAgentModule {
                     .version(version)
                     .build();
         }
+        long uiStartupMillis = stopwatch.elapsed(MILLISECONDS);
+        if (fastStart) {
+            logger.info("startup phases (fast start): agent {} ms, storage {} ms (deferred),"
+                    + " ui {} ms (deferred)", agentStartupMillis, storageStartupMillis,
+                    uiStartupMillis);
+        } else {
+            logger.debug("startup phases: agent {} ms, storage {} ms, ui {} ms",
+                    agentStartupMillis, storageStartupMillis, uiStartupMillis);
+        }
     }
 
     private static String getBindAddress(Map<String, String> properties) {
@@ -207,7 +290,7 @@ class FatAgentModule {
 
     @OnlyUsedByTests
     public SimpleRepoModule getSimpleRepoModule() {
-        return simpleRepoModule;
+        return checkNotNull(simpleRepoModule);
     }
 
     @OnlyUsedByTests
@@ -236,7 +319,9 @@ class FatAgentModule {
         if (agentModule != null) {
             agentModule.close();
         }
-        simpleRepoModule.close();
+        if (simpleRepoModule != null) {
+            simpleRepoModule.close();
+        }
         if (scheduledExecutor != null) {
             // close scheduled executor last to prevent exceptions due to above modules attempting
             // to use a shutdown executor
@@ -48,6 +48,7 @@ public class GlowrootFatAgentInit implements GlowrootAgentInit {
             @Override
             public @Nullable Void call() throws Exception {
                 checkNotNull(fatAgentModule);
+                fatAgentModule.initStorageIfDeferred();
                 fatAgentModule.initEmbeddedServer();
                 return null;
             }
@@ -0,0 +1,296 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.fat.storage;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.common.collect.Lists;
+
+import org.glowroot.wire.api.model.CollectorServiceOuterClass.GaugeValue;
+
+// compressed columnar encoding of the gauge values for a single gauge over a block of time
+//
+// capture times and weights are encoded using delta-of-delta, and values are encoded using xor
+// with the prior value (see "Gorilla: A Fast, Scalable, In-Memory Time Series Database")
+//
+// layout: count (int), capture times length (int), values length (int), weights length (int),
+// followed by the three bit-packed columns
+class GaugeValueBlocks {
+
+    private static final int HEADER_SIZE = 16;
+
+    private GaugeValueBlocks() {}
+
+    static List<GaugeValue> decode(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        int count = buffer.getInt();
+        int captureTimesLength = buffer.getInt();
+        int valuesLength = buffer.getInt();
+        int weightsLength = buffer.getInt();
+        int offset = HEADER_SIZE;
+        long[] captureTimes =
+                readDeltaOfDeltas(new BitReader(bytes, offset, captureTimesLength), count);
+        offset += captureTimesLength;
+        double[] values = readXors(new BitReader(bytes, offset, valuesLength), count);
+        offset += valuesLength;
+        long[] weights = readDeltaOfDeltas(new BitReader(bytes, offset, weightsLength), count);
+        List<GaugeValue> gaugeValues = Lists.newArrayListWithCapacity(count);
+        for (int i = 0; i < count; i++) {
+            gaugeValues.add(GaugeValue.newBuilder()
+                    .setCaptureTime(captureTimes[i])
+                    .setValue(values[i])
+                    .setWeight(weights[i])
+                    .build());
+        }
+        return gaugeValues;
+    }
+
+    private static long[] readDeltaOfDeltas(BitReader reader, int count) {
+        long[] longs = new long[count];
+        long prior = 0;
+        long priorDelta = 0;
+        for (int i = 0; i < count; i++) {
+            long value;
+            if (i == 0) {
+                value = reader.readBits(64);
+            } else {
+                long deltaOfDelta;
+                if (!reader.readBit()) {
+                    deltaOfDelta = 0;
+                } else if (!reader.readBit()) {
+                    deltaOfDelta = unzigzag(reader.readBits(7));
+                } else if (!reader.readBit()) {
+                    deltaOfDelta = unzigzag(reader.readBits(9));
+                } else if (!reader.readBit()) {
+                    deltaOfDelta = unzigzag(reader.readBits(12));
+                } else {
+                    deltaOfDelta = unzigzag(reader.readBits(64));
+                }
+                long delta = priorDelta + deltaOfDelta;
+                value = prior + delta;
+                priorDelta = delta;
+            }
+            longs[i] = value;
+            prior = value;
+        }
+        return longs;
+    }
+
+    private static double[] readXors(BitReader reader, int count) {
+        double[] doubles = new double[count];
+        long prior = 0;
+        int priorLeadingZeros = 0;
+        int priorTrailingZeros = 0;
+        for (int i = 0; i < count; i++) {
+            long bits;
+            if (i == 0) {
+                bits = reader.readBits(64);
+            } else if (!reader.readBit()) {
+                bits = prior;
+            } else {
+                if (reader.readBit()) {
+                    priorLeadingZeros = (int) reader.readBits(5);
+                    int meaningfulBits = (int) reader.readBits(6) + 1;
+                    priorTrailingZeros = 64 - priorLeadingZeros - meaningfulBits;
+                }
+                int meaningfulBits = 64 - priorLeadingZeros - priorTrailingZeros;
+                long xor = reader.readBits(meaningfulBits) << priorTrailingZeros;
+                bits = prior ^ xor;
+            }
+            doubles[i] = Double.longBitsToDouble(bits);
+            prior = bits;
+        }
+        return doubles;
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static class Encoder {
+
+        private final BitWriter captureTimes = new BitWriter();
+        private final BitWriter values = new BitWriter();
+        private final BitWriter weights = new BitWriter();
+
+        private int count;
+
+        private long priorCaptureTime;
+        private long priorCaptureTimeDelta;
+        private long priorValue;
+        private int priorLeadingZeros = -1;
+        private int priorTrailingZeros;
+        private long priorWeight;
+        private long priorWeightDelta;
+
+        long getLastCaptureTime() {
+            return priorCaptureTime;
+        }
+
+        // capture times must be added in increasing order
+        void add(long captureTime, double value, long weight) {
+            long valueBits = Double.doubleToRawLongBits(value);
+            if (count == 0) {
+                captureTimes.writeBits(captureTime, 64);
+                values.writeBits(valueBits, 64);
+                weights.writeBits(weight, 64);
+            } else {
+                long captureTimeDelta = captureTime - priorCaptureTime;
+                writeDeltaOfDelta(captureTimes, captureTimeDelta - priorCaptureTimeDelta);
+                priorCaptureTimeDelta = captureTimeDelta;
+                writeXor(valueBits ^ priorValue);
+                long weightDelta = weight - priorWeight;
+                writeDeltaOfDelta(weights, weightDelta - priorWeightDelta);
+                priorWeightDelta = weightDelta;
+            }
+            priorCaptureTime = captureTime;
+            priorValue = valueBits;
+            priorWeight = weight;
+            count++;
+        }
+
+        byte[] toByteArray() {
+            int captureTimesLength = captureTimes.getByteLength();
+            int valuesLength = values.getByteLength();
+            int weightsLength = weights.getByteLength();
+            ByteBuffer buffer = ByteBuffer.allocate(
+                    HEADER_SIZE + captureTimesLength + valuesLength + weightsLength);
+            buffer.putInt(count);
+            buffer.putInt(captureTimesLength);
+            buffer.putInt(valuesLength);
+            buffer.putInt(weightsLength);
+            buffer.put(captureTimes.bytes, 0, captureTimesLength);
+            buffer.put(values.bytes, 0, valuesLength);
+            buffer.put(weights.bytes, 0, weightsLength);
+            return buffer.array();
+        }
+
+        private void writeXor(long xor) {
+            if (xor == 0) {
+                values.writeBit(false);
+                return;
+            }
+            values.writeBit(true);
+            // leading zeros is capped so that it fits in 5 bits
+            int leadingZeros = Math.min(Long.numberOfLeadingZeros(xor), 31);
+            int trailingZeros = Long.numberOfTrailingZeros(xor);
+            if (priorLeadingZeros != -1 && leadingZeros >= priorLeadingZeros
+                    && trailingZeros >= priorTrailingZeros) {
+                // meaningful bits fall within the prior meaningful bits
+                values.writeBit(false);
+                values.writeBits(xor >>> priorTrailingZeros,
+                        64 - priorLeadingZeros - priorTrailingZeros);
+            } else {
+                int meaningfulBits = 64 - leadingZeros - trailingZeros;
+                values.writeBit(true);
+                values.writeBits(leadingZeros, 5);
+                values.writeBits(meaningfulBits - 1, 6);
+                values.writeBits(xor >>> trailingZeros, meaningfulBits);
+                priorLeadingZeros = leadingZeros;
+                priorTrailingZeros = trailingZeros;
+            }
+        }
+
+        private static void writeDeltaOfDelta(BitWriter writer, long deltaOfDelta) {
+            if (deltaOfDelta == 0) {
+                writer.writeBit(false);
+                return;
+            }
+            long zigzag = zigzag(deltaOfDelta);
+            // zigzag is negative when deltaOfDelta overflowed
+            if (zigzag < 0) {
+                writer.writeBits(0xF, 4);
+                writer.writeBits(zigzag, 64);
+            } else if (zigzag < 1 << 7) {
+                writer.writeBits(0x2, 2);
+                writer.writeBits(zigzag, 7);
+            } else if (zigzag < 1 << 9) {
+                writer.writeBits(0x6, 3);
+                writer.writeBits(zigzag, 9);
+            } else if (zigzag < 1 << 12) {
+                writer.writeBits(0xE, 4);
+                writer.writeBits(zigzag, 12);
+            } else {
+                writer.writeBits(0xF, 4);
+                writer.writeBits(zigzag, 64);
+            }
+        }
+    }
+
+    private static class BitWriter {
+
+        private byte[] bytes = new byte[64];
+        private int bitLength;
+
+        private void writeBit(boolean bit) {
+            int byteIndex = bitLength >> 3;
+            if (byteIndex == bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            if (bit) {
+                bytes[byteIndex] |= 0x80 >>> (bitLength & 7);
+            }
+            bitLength++;
+        }
+
+        // writes the lowest numBits bits of value, most significant bit first
+        private void writeBits(long value, int numBits) {
+            for (int i = numBits - 1; i >= 0; i--) {
+                writeBit(((value >>> i) & 1) != 0);
+            }
+        }
+
+        private int getByteLength() {
+            return (bitLength + 7) >> 3;
+        }
+    }
+
+    private static class BitReader {
+
+        private final byte[] bytes;
+        private final int endBitIndex;
+        private int bitIndex;
+
+        private BitReader(byte[] bytes, int offset, int length) {
+            this.bytes = bytes;
+            bitIndex = offset << 3;
+            endBitIndex = (offset + length) << 3;
+        }
+
+        private boolean readBit() {
+            if (bitIndex >= endBitIndex) {
+                throw new IllegalStateException("Read past end of gauge value block column");
+            }
+            boolean bit = (bytes[bitIndex >> 3] & (0x80 >>> (bitIndex & 7))) != 0;
+            bitIndex++;
+            return bit;
+        }
+
+        private long readBits(int numBits) {
+            long value = 0;
+            for (int i = 0; i < numBits; i++) {
+                value = (value << 1) | (readBit() ? 1 : 0);
+            }
+            return value;
+        }
+    }
+}
@@ -18,6 +18,8 @@ package org.glowroot.agent.fat.storage;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.TimeZone;
 import java.util.concurrent.atomic.AtomicLongArray;
@@ -27,6 +29,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.primitives.Longs;
 import org.checkerframework.checker.tainting.qual.Untainted;
+import org.immutables.value.Value;
 
 import org.glowroot.agent.fat.storage.util.DataSource;
 import org.glowroot.agent.fat.storage.util.DataSource.JdbcQuery;
@@ -38,6 +41,7 @@ import org.glowroot.agent.fat.storage.util.Schemas.Column;
 import org.glowroot.agent.fat.storage.util.Schemas.ColumnType;
 import org.glowroot.agent.fat.storage.util.Schemas.Index;
 import org.glowroot.common.util.Clock;
+import org.glowroot.common.util.Styles;
 import org.glowroot.storage.repo.ConfigRepository;
 import org.glowroot.storage.repo.ConfigRepository.RollupConfig;
 import org.glowroot.storage.repo.GaugeValueRepository;
@@ -45,6 +49,8 @@ import org.glowroot.storage.repo.helper.Gauges;
 import org.glowroot.storage.repo.helper.RollupLevelService;
 import org.glowroot.wire.api.model.CollectorServiceOuterClass.GaugeValue;
 
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.util.concurrent.TimeUnit.HOURS;
 import static org.glowroot.agent.fat.storage.util.Checkers.castUntainted;
 
 public class GaugeValueDao implements GaugeValueRepository {
@@ -58,6 +64,30 @@ public class GaugeValueDao implements GaugeValueRepository {
             // for counters, it is the interval of time that the (averaged) value represents
             ImmutableColumn.of("weight", ColumnType.BIGINT));
 
+    // gauge values are first stored one row per value in gauge_value_rollup_*, and then once a
+    // block of time has passed (and has been rolled up to the next rollup level), the values in
+    // that block are sealed into one compressed row per gauge in gauge_value_block_rollup_*,
+    // which keeps the number of rows small (see GaugeValueBlocks)
+    private static final ImmutableList<Column> blockColumns = ImmutableList.<Column>of(
+            ImmutableColumn.of("gauge_id", ColumnType.BIGINT),
+            // capture_time is the end of the block (inclusive), so that expiration works the same
+            // as for the other tables
+            ImmutableColumn.of("capture_time", ColumnType.BIGINT),
+            ImmutableColumn.of("data", ColumnType.VARBINARY));
+
+    // level 0 gauge values are collected every 5 seconds by default, so 720 per block
+    private static final long ROLLUP_0_BLOCK_MILLIS = HOURS.toMillis(1);
+
+    // rollup levels have 720 values per block
+    private static final int ROLLUP_VALUES_PER_BLOCK = 720;
+
+    private static final Comparator<GaugeValue> captureTimeOrdering = new Comparator<GaugeValue>() {
+        @Override
+        public int compare(GaugeValue left, GaugeValue right) {
+            return Longs.compare(left.getCaptureTime(), right.getCaptureTime());
+        }
+    };
+
     private final GaugeDao gaugeMetaDao;
     private final DataSource dataSource;
     private final ConfigRepository configRepository;
@@ -67,6 +97,14 @@ public class GaugeValueDao implements GaugeValueRepository {
     // AtomicLongArray used for visibility
     private final AtomicLongArray lastRollupTimes;
 
+    // indexed by rollup level, and only accessed under rollupLock
+    private final long[] blockMillis;
+    private final long[] lastBlockTimes;
+    // earliest block end time that can still contain unsealed values, tracked in memory so that
+    // store() doesn't need to query gauge_value_rollup_* (which are not indexed by capture_time
+    // alone) until a block can actually be sealed
+    private final long[] nextBlockTimes;
+
     private final Object rollupLock = new Object();
 
     GaugeValueDao(DataSource dataSource, GaugeDao gaugeMetaDao,
@@ -96,7 +134,8 @@ public class GaugeValueDao implements GaugeValueRepository {
         }
         Joiner joiner = Joiner.on(", ");
         String selectClause = castUntainted(joiner.join(columnNames));
-        long[] lastRollupTimes = dataSource.query(new LastRollupTimesQuery(selectClause));
+        long[] lastRollupTimes = dataSource.query(
+                new LastRollupTimesQuery(selectClause, "gauge_value_last_rollup_times"));
         if (lastRollupTimes == null) {
             long[] values = new long[rollupConfigs.size()];
             String valueClause = castUntainted(joiner.join(Longs.asList(values)));
@@ -107,6 +146,43 @@ public class GaugeValueDao implements GaugeValueRepository {
             this.lastRollupTimes = new AtomicLongArray(lastRollupTimes);
         }
 
+        blockMillis = new long[rollupConfigs.size() + 1];
+        blockMillis[0] = ROLLUP_0_BLOCK_MILLIS;
+        for (int i = 1; i <= rollupConfigs.size(); i++) {
+            blockMillis[i] = rollupConfigs.get(i - 1).intervalMillis() * ROLLUP_VALUES_PER_BLOCK;
+        }
+        for (int i = 0; i <= rollupConfigs.size(); i++) {
+            dataSource.syncTable("gauge_value_block_rollup_" + castUntainted(i), blockColumns);
+            dataSource.syncIndexes("gauge_value_block_rollup_" + castUntainted(i),
+                    ImmutableList.<Index>of(ImmutableIndex.of(
+                            "gauge_value_block_rollup_" + castUntainted(i) + "_idx",
+                            ImmutableList.of("gauge_id", "capture_time"))));
+        }
+        List<Column> blockTimeColumns = Lists.newArrayList();
+        List<String> blockTimeColumnNames = Lists.newArrayList();
+        for (int i = 0; i <= rollupConfigs.size(); i++) {
+            blockTimeColumns.add(
+                    ImmutableColumn.of("last_block_" + i + "_time", ColumnType.BIGINT));
+            blockTimeColumnNames.add("last_block_" + i + "_time");
+        }
+        dataSource.syncTable("gauge_value_last_block_times", blockTimeColumns);
+        String blockTimeSelectClause = castUntainted(joiner.join(blockTimeColumnNames));
+        long[] lastBlockTimes = dataSource.query(new LastRollupTimesQuery(blockTimeSelectClause,
+                "gauge_value_last_block_times"));
+        if (lastBlockTimes == null) {
+            long[] values = new long[rollupConfigs.size() + 1];
+            String valueClause = castUntainted(joiner.join(Longs.asList(values)));
+            dataSource.update("insert into gauge_value_last_block_times ("
+                    + blockTimeSelectClause + ") values (" + valueClause + ")");
+            this.lastBlockTimes = values;
+        } else {
+            this.lastBlockTimes = lastBlockTimes;
+        }
+        nextBlockTimes = new long[rollupConfigs.size() + 1];
+        for (int i = 0; i <= rollupConfigs.size(); i++) {
+            nextBlockTimes[i] = this.lastBlockTimes[i] + blockMillis[i];
+        }
+
         // TODO initial rollup in case store is not called in a reasonable time
     }
 
@@ -148,6 +224,12 @@ public class GaugeValueDao implements GaugeValueRepository {
                     lastRollupTimes.set(i, safeRollupTime);
                 }
             }
+            // values can only be sealed into blocks once they have been rolled up to the next
+            // rollup level, and the values of the last rollup level are complete up to the last
+            // rollup time of the prior level
+            for (int i = 0; i <= rollupConfigs.size(); i++) {
+                sealBlocks(i, lastRollupTimes.get(Math.min(i, rollupConfigs.size() - 1)));
+            }
         }
     }
 
@@ -159,10 +241,32 @@ public class GaugeValueDao implements GaugeValueRepository {
             // not necessarily an error, gauge id not created until first store
             return ImmutableList.of();
         }
+        List<GaugeValue> gaugeValues = Lists.newArrayList();
+        List<byte[]> blocks = dataSource.query(new GaugeValueBlockQuery(gaugeId, from,
+                to + blockMillis[rollupLevel], rollupLevel));
+        for (byte[] block : blocks) {
+            for (GaugeValue gaugeValue : GaugeValueBlocks.decode(block)) {
+                long captureTime = gaugeValue.getCaptureTime();
+                if (captureTime >= from && captureTime <= to) {
+                    gaugeValues.add(gaugeValue);
+                }
+            }
+        }
         // the distinct clause is needed for the rollup tables in order to handle corner case where
         // JVM termination occurs in between rollup and updating gauge_value_last_rollup_times
         // in which case a duplicate entry will occur after the next startup
-        return dataSource.query(new GaugeValueQuery(gaugeId, from, to, rollupLevel));
+        gaugeValues.addAll(dataSource.query(new GaugeValueQuery(gaugeId, from, to, rollupLevel)));
+        // similarly, JVM termination in between sealing a block and deleting the values that were
+        // sealed can leave the same value in both tables
+        Collections.sort(gaugeValues, captureTimeOrdering);
+        List<GaugeValue> distinctGaugeValues = Lists.newArrayList();
+        for (GaugeValue gaugeValue : gaugeValues) {
+            if (distinctGaugeValues.isEmpty() || gaugeValue.getCaptureTime() != distinctGaugeValues
+                    .get(distinctGaugeValues.size() - 1).getCaptureTime()) {
+                distinctGaugeValues.add(gaugeValue);
+            }
+        }
+        return distinctGaugeValues;
     }
 
     @Override
@@ -171,11 +275,53 @@ public class GaugeValueDao implements GaugeValueRepository {
         for (int i = 1; i <= configRepository.getRollupConfigs().size(); i++) {
             dataSource.execute("truncate table gauge_value_rollup_" + castUntainted(i));
         }
+        for (int i = 0; i <= configRepository.getRollupConfigs().size(); i++) {
+            dataSource.execute("truncate table gauge_value_block_rollup_" + castUntainted(i));
+        }
         gaugeMetaDao.deleteAll();
     }
 
     void deleteBefore(long captureTime, int rollupLevel) throws Exception {
         dataSource.deleteBefore("gauge_value_rollup_" + castUntainted(rollupLevel), captureTime);
+        dataSource.deleteBefore("gauge_value_block_rollup_" + castUntainted(rollupLevel),
+                captureTime);
+    }
+
+    private void sealBlocks(int rollupLevel, long sealableTime) throws Exception {
+        long millis = blockMillis[rollupLevel];
+        while (nextBlockTimes[rollupLevel] <= sealableTime) {
+            // skip over empty blocks, e.g. when the JVM was not running
+            Long nextCaptureTime = dataSource.queryForOptionalLong(
+                    "select min(capture_time) from gauge_value_rollup_"
+                            + castUntainted(rollupLevel) + " where capture_time > ?",
+                    lastBlockTimes[rollupLevel]);
+            if (nextCaptureTime == null) {
+                return;
+            }
+            long blockTime = (long) Math.ceil(nextCaptureTime / (double) millis) * millis;
+            // values are stored in capture time order, so the skipped blocks will stay empty
+            nextBlockTimes[rollupLevel] = blockTime;
+            if (blockTime > sealableTime) {
+                return;
+            }
+            sealBlock(rollupLevel, blockTime);
+            lastBlockTimes[rollupLevel] = blockTime;
+            nextBlockTimes[rollupLevel] = blockTime + millis;
+        }
+    }
+
+    private void sealBlock(int rollupLevel, long blockTime) throws Exception {
+        List<GaugeValueBlock> blocks = dataSource.query(new GaugeValueSealQuery(rollupLevel,
+                blockTime - blockMillis[rollupLevel], blockTime));
+        // in case of JVM termination in between inserting the blocks and updating
+        // gauge_value_last_block_times
+        dataSource.update("delete from gauge_value_block_rollup_" + castUntainted(rollupLevel)
+                + " where capture_time = ?", blockTime);
+        dataSource.batchUpdate(new GaugeValueBlocksBinder(rollupLevel, blockTime, blocks));
+        dataSource.update("update gauge_value_last_block_times set last_block_"
+                + castUntainted(rollupLevel) + "_time = ?", blockTime);
+        dataSource.deleteBefore("gauge_value_rollup_" + castUntainted(rollupLevel),
+                blockTime + 1);
     }
 
     private void rollup(long lastRollupTime, long safeRollupTime, long fixedIntervalMillis,
@@ -235,17 +381,50 @@ public class GaugeValueDao implements GaugeValueRepository {
         }
     }
 
+    private static class GaugeValueBlocksBinder implements JdbcUpdate {
+
+        private final int rollupLevel;
+        private final long blockTime;
+        private final List<GaugeValueBlock> blocks;
+
+        private GaugeValueBlocksBinder(int rollupLevel, long blockTime,
+                List<GaugeValueBlock> blocks) {
+            this.rollupLevel = rollupLevel;
+            this.blockTime = blockTime;
+            this.blocks = blocks;
+        }
+
+        @Override
+        public @Untainted String getSql() {
+            return "insert into gauge_value_block_rollup_" + castUntainted(rollupLevel)
+                    + " (gauge_id, capture_time, data) values (?, ?, ?)";
+        }
+
+        @Override
+        public void bind(PreparedStatement preparedStatement) throws SQLException {
+            for (GaugeValueBlock block : blocks) {
+                preparedStatement.setLong(1, block.gaugeId());
+                preparedStatement.setLong(2, blockTime);
+                preparedStatement.setBytes(3, block.data());
+                preparedStatement.addBatch();
+            }
+        }
+    }
+
     private static class LastRollupTimesQuery implements JdbcQuery<long/*@Nullable*/[]> {
 
         private final @Untainted String selectClause;
+        private final @Untainted String tableName;
 
-        public LastRollupTimesQuery(@Untainted String selectClause) {
+        private LastRollupTimesQuery(@Untainted String selectClause,
+                @Untainted String tableName) {
             this.selectClause = selectClause;
+            this.tableName = tableName;
         }
 
         @Override
         public @Untainted String getSql() {
-            return "select " + selectClause + " from gauge_value_last_rollup_times";
+            return "select " + selectClause + " from " + tableName;
         }
 
         @Override
@@ -307,4 +486,103 @@ public class GaugeValueDao implements GaugeValueRepository {
                     .build();
         }
     }
+
+    private static class GaugeValueSealQuery implements JdbcQuery<List<GaugeValueBlock>> {
+
+        private final int rollupLevel;
+        private final long from;
+        private final long to;
+
+        private GaugeValueSealQuery(int rollupLevel, long from, long to) {
+            this.rollupLevel = rollupLevel;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public @Untainted String getSql() {
+            return "select gauge_id, capture_time, value, weight from gauge_value_rollup_"
+                    + castUntainted(rollupLevel) + " where capture_time > ? and capture_time <= ?"
+                    + " order by gauge_id, capture_time";
+        }
+
+        @Override
+        public void bind(PreparedStatement preparedStatement) throws SQLException {
+            preparedStatement.setLong(1, from);
+            preparedStatement.setLong(2, to);
+        }
+
+        @Override
+        public List<GaugeValueBlock> processResultSet(ResultSet resultSet) throws Exception {
+            List<GaugeValueBlock> blocks = Lists.newArrayList();
+            long currGaugeId = 0;
+            GaugeValueBlocks.Encoder encoder = null;
+            while (resultSet.next()) {
+                long gaugeId = resultSet.getLong(1);
+                long captureTime = resultSet.getLong(2);
+                if (encoder == null || gaugeId != currGaugeId) {
+                    if (encoder != null) {
+                        blocks.add(ImmutableGaugeValueBlock.of(currGaugeId, encoder.toByteArray()));
+                    }
+                    currGaugeId = gaugeId;
+                    encoder = new GaugeValueBlocks.Encoder();
+                } else if (captureTime == encoder.getLastCaptureTime()) {
+                    // duplicate, see comment in readGaugeValues()
+                    continue;
+                }
+                encoder.add(captureTime, resultSet.getDouble(3), resultSet.getLong(4));
+            }
+            if (encoder != null) {
+                blocks.add(ImmutableGaugeValueBlock.of(currGaugeId, encoder.toByteArray()));
+            }
+            return blocks;
+        }
+
+        @Override
+        public List<GaugeValueBlock> valueIfDataSourceClosing() {
+            return ImmutableList.of();
+        }
+    }
+
+    private static class GaugeValueBlockQuery implements JdbcRowQuery<byte[]> {
+
+        private final long gaugeId;
+        private final long from;
+        private final long to;
+        private final int rollupLevel;
+
+        // from and to are block capture times (block end times)
+        private GaugeValueBlockQuery(long gaugeId, long from, long to, int rollupLevel) {
+            this.gaugeId = gaugeId;
+            this.from = from;
+            this.to = to;
+            this.rollupLevel = rollupLevel;
+        }
+
+        @Override
+        public @Untainted String getSql() {
+            return "select data from gauge_value_block_rollup_" + castUntainted(rollupLevel)
+                    + " where gauge_id = ? and capture_time >= ? and capture_time < ?"
+                    + " order by capture_time";
+        }
+
+        @Override
+        public void bind(PreparedStatement preparedStatement) throws SQLException {
+            preparedStatement.setLong(1, gaugeId);
+            preparedStatement.setLong(2, from);
+            preparedStatement.setLong(3, to);
+        }
+
+        @Override
+        public byte[] mapRow(ResultSet resultSet) throws SQLException {
+            return checkNotNull(resultSet.getBytes(1));
+        }
+    }
+
+    @Value.Immutable
+    @Styles.AllParameters
+    interface GaugeValueBlock {
+        long gaugeId();
+        byte[] data();
+    }
 }
@@ -19,6 +19,8 @@ import java.io.File;
 import java.io.IOException;
 import java.lang.management.ManagementFactory;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 
 import javax.annotation.Nullable;
@@ -29,6 +31,7 @@ import javax.management.ObjectName;
 import com.google.common.base.Ticker;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -51,11 +54,16 @@ import org.glowroot.storage.util.MailService;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
 
 public class SimpleRepoModule {
 
     private static final long SNAPSHOT_REAPER_PERIOD_MINUTES = 5;
 
+    // h2 queries are serialized by DataSource anyway, so this is mostly so that sending mail for
+    // one alert (e.g. to a slow smtp server) doesn't hold up checking the other alerts
+    private static final int ALERT_CHECKING_THREADS = 2;
+
     private static final Logger logger = LoggerFactory.getLogger(SimpleRepoModule.class);
 
     private final DataSource dataSource;
@@ -69,6 +77,7 @@ public class SimpleRepoModule {
     private final ConfigRepository configRepository;
     private final RepoAdmin repoAdmin;
     private final RollupLevelService rollupLevelService;
+    private final ExecutorService alertCheckingExecutor;
     private final AlertingService alertingService;
     private final @Nullable ReaperRunnable reaperRunnable;
 
@@ -107,8 +116,13 @@ public class SimpleRepoModule {
                 configRepository);
 
         TriggeredAlertDao triggeredAlertDao = new TriggeredAlertDao(dataSource);
+        alertCheckingExecutor = Executors.newFixedThreadPool(ALERT_CHECKING_THREADS,
+                new ThreadFactoryBuilder()
+                        .setDaemon(true)
+                        .setNameFormat("Glowroot-Alert-Checking-%d")
+                        .build());
         alertingService = new AlertingService(configRepository, serverDao, triggeredAlertDao,
-                aggregateDao, rollupLevelService, new MailService());
+                aggregateDao, rollupLevelService, new MailService(), alertCheckingExecutor);
         if (reaperDisabled) {
             reaperRunnable = null;
         } else {
@@ -198,6 +212,10 @@ public class SimpleRepoModule {
         if (reaperRunnable != null) {
             reaperRunnable.cancel();
         }
+        alertCheckingExecutor.shutdown();
+        if (!alertCheckingExecutor.awaitTermination(10, SECONDS)) {
+            throw new IllegalStateException("Could not terminate executor");
+        }
         for (CappedDatabase cappedDatabase : rollupCappedDatabases) {
             cappedDatabase.close();
         }
@@ -74,6 +74,10 @@ public class AdviceCache {
 
     private volatile ImmutableList<Advice> reweavableAdvisors;
     private volatile ImmutableSet<String> reweavableConfigVersions;
+    // advice is re-used across updates for unchanged configs, so that classes woven with that
+    // advice do not need to be reweaved (see LiveWeavingServiceImpl)
+    private volatile ImmutableMap<InstrumentationConfig, Advice> reweavableAdvisorsByConfig =
+            ImmutableMap.of();
 
     private volatile ImmutableList<Advice> allAdvisors;
 
@@ -155,8 +159,23 @@ public class AdviceCache {
     @EnsuresNonNull({"reweavableAdvisors", "reweavableConfigVersions", "allAdvisors"})
     public void updateAdvisors(/*>>>@UnknownInitialization(AdviceCache.class) AdviceCache this,*/
             List<InstrumentationConfig> reweavableConfigs, boolean cleanTmpDir) throws Exception {
-        ImmutableMap<Advice, LazyDefinedClass> advisors =
-                AdviceGenerator.createAdvisors(reweavableConfigs, null, true);
+        Map<InstrumentationConfig, Advice> advisorsByConfig = Maps.newLinkedHashMap();
+        // only the advice for new (or changed) configs needs to be generated and defined
+        Map<Advice, LazyDefinedClass> advisors = Maps.newHashMap();
+        for (InstrumentationConfig reweavableConfig : reweavableConfigs) {
+            Advice advice = reweavableAdvisorsByConfig.get(reweavableConfig);
+            if (advice == null) {
+                for (Entry<Advice, LazyDefinedClass> entry : AdviceGenerator
+                        .createAdvisors(ImmutableList.of(reweavableConfig), null, true)
+                        .entrySet()) {
+                    advice = entry.getKey();
+                    advisors.put(advice, entry.getValue());
+                }
+            }
+            if (advice != null) {
+                advisorsByConfig.put(reweavableConfig, advice);
+            }
+        }
         if (instrumentation == null) {
             // this is for tests that don't run with javaagent container
             ClassLoader loader = AdviceCache.class.getClassLoader();
@@ -179,11 +198,17 @@ public class AdviceCache {
                         jarFile);
             }
         }
-        reweavableAdvisors = advisors.keySet().asList();
+        reweavableAdvisorsByConfig = ImmutableMap.copyOf(advisorsByConfig);
+        reweavableAdvisors = ImmutableList.copyOf(advisorsByConfig.values());
         reweavableConfigVersions = createReweavableConfigVersions(reweavableConfigs);
         allAdvisors = ImmutableList.copyOf(Iterables.concat(pluginAdvisors, reweavableAdvisors));
     }
 
+    // the reweavable configs that currently have advice
+    public Set<InstrumentationConfig> getReweavableConfigs() {
+        return reweavableAdvisorsByConfig.keySet();
+    }
+
     public boolean isOutOfSync(List<InstrumentationConfig> reweavableConfigs) {
         Set<String> versions = Sets.newHashSet();
         for (InstrumentationConfig reweavableConfig : reweavableConfigs) {
@@ -24,6 +24,7 @@ import javax.annotation.Nullable;
 import com.google.common.collect.Lists;
 
 import org.glowroot.agent.config.AdvancedConfig;
+import org.glowroot.agent.impl.UnsampledAggregates.UnsampledAggregate;
 import org.glowroot.agent.model.CommonTimerImpl;
 import org.glowroot.agent.model.Profile;
 import org.glowroot.agent.model.QueryData;
@@ -46,6 +47,11 @@ class AggregateCollector {
     private final @Nullable String transactionName;
     private long totalNanos;
     private long transactionCount;
+    // when transaction sampling is enabled, only sampled transactions contribute timers, thread
+    // stats, profiles and queries, so these are scaled up by transactionCount
+    // / sampledTransactionCount when building the aggregate (profiles are not scaled since they are
+    // only ever viewed relative to their own total sample count)
+    private long sampledTransactionCount;
     private long errorCount;
     private final List<MutableTimer> mainThreadRootTimers = Lists.newArrayList();
     private final List<MutableTimer> auxThreadRootTimers = Lists.newArrayList();
@@ -73,6 +79,7 @@ class AggregateCollector {
         long totalNanos = transaction.getDurationNanos();
         this.totalNanos += totalNanos;
         transactionCount++;
+        sampledTransactionCount++;
         if (transaction.getErrorMessage() != null) {
             errorCount++;
         }
@@ -88,11 +95,19 @@ class AggregateCollector {
         lazyHistogram.add(totalNanos);
     }
 
+    // must also be called under the unsampled aggregate's lock
+    void mergeUnsampled(UnsampledAggregate unsampledAggregate) {
+        totalNanos += unsampledAggregate.getTotalNanos();
+        transactionCount += unsampledAggregate.getTransactionCount();
+        errorCount += unsampledAggregate.getErrorCount();
+        lazyHistogram.merge(unsampledAggregate.getLazyHistogram());
+    }
+
     void mergeMainThreadRootTimer(TimerImpl toBeMergedRootTimer) {
         mergeRootTimer(toBeMergedRootTimer, mainThreadRootTimers);
     }
 
-    void mergeAuxThreadRootTimer(TimerImpl toBeMergedRootTimer) {
+    void mergeAuxThreadRootTimer(CommonTimerImpl toBeMergedRootTimer) {
         mergeRootTimer(toBeMergedRootTimer, auxThreadRootTimers);
     }
 
@@ -118,19 +133,21 @@ class AggregateCollector {
     }
 
     Aggregate build(ScratchBuffer scratchBuffer) throws IOException {
+        double scale = sampledTransactionCount == 0 ? 1
+                : transactionCount / (double) sampledTransactionCount;
         Aggregate.Builder builder = Aggregate.newBuilder()
                 .setTotalDurationNanos(totalNanos)
                 .setTransactionCount(transactionCount)
                 .setErrorCount(errorCount)
-                .addAllMainThreadRootTimer(getRootTimersProtobuf(mainThreadRootTimers))
-                .addAllAuxThreadRootTimer(getRootTimersProtobuf(auxThreadRootTimers))
-                .addAllAsyncRootTimer(getRootTimersProtobuf(asyncRootTimers))
+                .addAllMainThreadRootTimer(getRootTimersProtobuf(mainThreadRootTimers, scale))
+                .addAllAuxThreadRootTimer(getRootTimersProtobuf(auxThreadRootTimers, scale))
+                .addAllAsyncRootTimer(getRootTimersProtobuf(asyncRootTimers, scale))
                 .setTotalNanosHistogram(lazyHistogram.toProto(scratchBuffer));
         if (!mainThreadStats.isNA()) {
-            builder.setMainThreadStats(mainThreadStats.toProto());
+            builder.setMainThreadStats(mainThreadStats.toProto(scale));
         }
         if (!auxThreadStats.isNA()) {
-            builder.setAuxThreadStats(auxThreadStats.toProto());
+            builder.setAuxThreadStats(auxThreadStats.toProto(scale));
         }
         if (mainThreadProfile.getSampleCount() > 0) {
             builder.setMainThreadProfile(mainThreadProfile.toProto());
@@ -138,7 +155,7 @@ class AggregateCollector {
         if (auxThreadProfile.getSampleCount() > 0) {
             builder.setAuxThreadProfile(auxThreadProfile.toProto());
         }
-        return builder.addAllQueriesByType(queries.toProto(true))
+        return builder.addAllQueriesByType(scale(queries.toProto(true), scale))
                 .build();
     }
 
@@ -156,15 +173,38 @@ class AggregateCollector {
         rootTimers.add(rootTimer);
     }
 
-    private static List<Aggregate.Timer> getRootTimersProtobuf(List<MutableTimer> rootTimers) {
+    private static List<Aggregate.Timer> getRootTimersProtobuf(List<MutableTimer> rootTimers,
+            double scale) {
         List<Aggregate.Timer> protobufRootTimers =
                 Lists.newArrayListWithCapacity(rootTimers.size());
         for (MutableTimer rootTimer : rootTimers) {
-            protobufRootTimers.add(rootTimer.toProto());
+            protobufRootTimers.add(rootTimer.toProto(scale));
         }
         return protobufRootTimers;
     }
 
+    private static List<Aggregate.QueriesByType> scale(List<Aggregate.QueriesByType> queriesByType,
+            double scale) {
+        if (scale == 1) {
+            return queriesByType;
+        }
+        List<Aggregate.QueriesByType> scaledQueriesByType =
+                Lists.newArrayListWithCapacity(queriesByType.size());
+        for (Aggregate.QueriesByType queriesForType : queriesByType) {
+            Aggregate.QueriesByType.Builder builder = Aggregate.QueriesByType.newBuilder()
+                    .setType(queriesForType.getType());
+            for (Aggregate.Query query : queriesForType.getQueryList()) {
+                builder.addQuery(Aggregate.Query.newBuilder()
+                        .setText(query.getText())
+                        .setTotalNanos(query.getTotalNanos() * scale)
+                        .setTotalRows(Math.round(query.getTotalRows() * scale))
+                        .setExecutionCount(Math.round(query.getExecutionCount() * scale)));
+            }
+            scaledQueriesByType.add(builder.build());
+        }
+        return scaledQueriesByType;
+    }
+
     private static class MutableThreadStats {
 
         private double totalCpuNanos;
@@ -195,24 +235,24 @@ class AggregateCollector {
                     && NotAvailableAware.isNA(totalAllocatedBytes);
         }
 
-        public Aggregate.ThreadStats toProto() {
+        public Aggregate.ThreadStats toProto(double scale) {
             Aggregate.ThreadStats.Builder builder = Aggregate.ThreadStats.newBuilder();
             if (!NotAvailableAware.isNA(totalCpuNanos)) {
-                builder.setTotalCpuNanos(toProto(totalCpuNanos));
+                builder.setTotalCpuNanos(toOptionalDouble(totalCpuNanos * scale));
             }
             if (!NotAvailableAware.isNA(totalBlockedNanos)) {
-                builder.setTotalBlockedNanos(toProto(totalBlockedNanos));
+                builder.setTotalBlockedNanos(toOptionalDouble(totalBlockedNanos * scale));
             }
             if (!NotAvailableAware.isNA(totalWaitedNanos)) {
-                builder.setTotalWaitedNanos(toProto(totalWaitedNanos));
+                builder.setTotalWaitedNanos(toOptionalDouble(totalWaitedNanos * scale));
             }
             if (!NotAvailableAware.isNA(totalAllocatedBytes)) {
-                builder.setTotalAllocatedBytes(toProto(totalAllocatedBytes));
+                builder.setTotalAllocatedBytes(toOptionalDouble(totalAllocatedBytes * scale));
             }
             return builder.build();
         }
 
-        private static OptionalDouble toProto(double value) {
+        private static OptionalDouble toOptionalDouble(double value) {
             return OptionalDouble.newBuilder().setValue(value).build();
         }
     }
@@ -28,6 +28,7 @@ import com.google.common.collect.Maps;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import org.glowroot.agent.impl.UnsampledAggregates.UnsampledAggregate;
 import org.glowroot.agent.model.CommonTimerImpl;
 import org.glowroot.agent.model.Profile;
 import org.glowroot.agent.model.TimerImpl;
@@ -51,8 +52,7 @@ public class AggregateIntervalCollector {
 
     AggregateIntervalCollector(long currentTime, long aggregateIntervalMillis,
             int maxAggregateTransactionsPerTransactionType, int maxAggregateQueriesPerQueryType) {
-        captureTime = (long) Math.ceil(currentTime / (double) aggregateIntervalMillis)
-                * aggregateIntervalMillis;
+        captureTime = getCaptureTime(currentTime, aggregateIntervalMillis);
         this.maxAggregateTransactionsPerTransactionType =
                 maxAggregateTransactionsPerTransactionType;
         this.maxAggregateQueriesPerQueryType = maxAggregateQueriesPerQueryType;
@@ -62,11 +62,24 @@ public class AggregateIntervalCollector {
         return captureTime;
     }
 
+    static long getCaptureTime(long currentTime, long aggregateIntervalMillis) {
+        return (long) Math.ceil(currentTime / (double) aggregateIntervalMillis)
+                * aggregateIntervalMillis;
+    }
+
     public void add(Transaction transaction) {
         IntervalTypeCollector typeCollector = getTypeCollector(transaction.getTransactionType());
         typeCollector.add(transaction);
     }
 
+    // transactionName is null for unsampled transactions beyond the max transaction names per
+    // transaction type, which only contribute to the overall aggregate
+    void mergeUnsampled(String transactionType, @Nullable String transactionName,
+            UnsampledAggregate unsampledAggregate) {
+        IntervalTypeCollector typeCollector = getTypeCollector(transactionType);
+        typeCollector.mergeUnsampled(transactionName, unsampledAggregate);
+    }
+
     void flush(Collector collector) throws Exception {
         List<AggregatesByType> aggregatesByTypeList = Lists.newArrayList();
         ScratchBuffer scratchBuffer = new ScratchBuffer();
@@ -140,12 +153,34 @@ public class AggregateIntervalCollector {
         private void add(Transaction transaction) {
             merge(transaction, overallAggregateCollector);
             AggregateCollector transactionAggregateCollector =
-                    transactionAggregateCollectors.get(transaction.getTransactionName());
+                    getOrCreateTransactionAggregateCollector(transaction.getTransactionName());
+            if (transactionAggregateCollector != null) {
+                merge(transaction, transactionAggregateCollector);
+            }
+        }
+
+        private void mergeUnsampled(@Nullable String transactionName,
+                UnsampledAggregate unsampledAggregate) {
+            merge(unsampledAggregate, overallAggregateCollector);
+            if (transactionName == null) {
+                return;
+            }
+            AggregateCollector transactionAggregateCollector =
+                    getOrCreateTransactionAggregateCollector(transactionName);
+            if (transactionAggregateCollector != null) {
+                merge(unsampledAggregate, transactionAggregateCollector);
+            }
+        }
+
+        private @Nullable AggregateCollector getOrCreateTransactionAggregateCollector(
+                String transactionName) {
+            AggregateCollector transactionAggregateCollector =
+                    transactionAggregateCollectors.get(transactionName);
             if (transactionAggregateCollector == null && transactionAggregateCollectors
                     .size() < maxAggregateTransactionsPerTransactionType) {
-                transactionAggregateCollector = new AggregateCollector(
-                        transaction.getTransactionName(), maxAggregateQueriesPerQueryType);
-                transactionAggregateCollectors.put(transaction.getTransactionName(),
+                transactionAggregateCollector =
+                        new AggregateCollector(transactionName, maxAggregateQueriesPerQueryType);
+                transactionAggregateCollectors.put(transactionName,
                         transactionAggregateCollector);
             }
             if (transactionAggregateCollector == null) {
@@ -156,9 +191,15 @@ public class AggregateIntervalCollector {
                             + " names by configuring instrumentation points under Configuration"
                             + " > Instrumentation that override the transaction name.");
                 }
-                return;
             }
-            merge(transaction, transactionAggregateCollector);
+            return transactionAggregateCollector;
+        }
+
+        private void merge(UnsampledAggregate unsampledAggregate,
+                AggregateCollector aggregateCollector) {
+            synchronized (aggregateCollector) {
+                aggregateCollector.mergeUnsampled(unsampledAggregate);
+            }
         }
 
         private void merge(Transaction transaction, AggregateCollector aggregateCollector) {
@@ -171,7 +212,7 @@ public class AggregateIntervalCollector {
                 } else {
                     aggregateCollector.mergeMainThreadRootTimer(mainThreadRootTimer);
                 }
-                for (TimerImpl rootTimer : transaction.getAuxThreadRootTimers()) {
+                for (CommonTimerImpl rootTimer : transaction.getAuxThreadRootTimers()) {
                     aggregateCollector.mergeAuxThreadRootTimer(rootTimer);
                 }
                 for (CommonTimerImpl rootTimer : transaction.getAsyncRootTimers()) {
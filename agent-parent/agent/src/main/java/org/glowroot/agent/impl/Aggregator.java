@@ -15,8 +15,11 @@
  */
 package org.glowroot.agent.impl;
 
+import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ScheduledExecutorService;
 
 import com.google.common.collect.ImmutableList;
@@ -26,6 +29,7 @@ import org.immutables.value.Value;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import org.glowroot.agent.config.AdvancedConfig;
 import org.glowroot.agent.config.ConfigService;
 import org.glowroot.agent.model.Transaction;
 import org.glowroot.common.util.Clock;
@@ -53,6 +57,10 @@ public class Aggregator {
     private final BlockingQueue<PendingTransaction> pendingTransactionQueue =
             Queues.newLinkedBlockingQueue();
 
+    // keyed by interval capture time
+    private final ConcurrentNavigableMap<Long, UnsampledAggregates> unsampledAggregates =
+            new ConcurrentSkipListMap<Long, UnsampledAggregates>();
+
     private final Thread processingThread;
 
     private final Object lock = new Object();
@@ -64,11 +72,7 @@ public class Aggregator {
         this.configService = configService;
         this.clock = clock;
         this.aggregateIntervalMillis = aggregateIntervalMillis;
-        activeIntervalCollector =
-                new AggregateIntervalCollector(clock.currentTimeMillis(), aggregateIntervalMillis,
-                        configService.getAdvancedConfig()
-                                .maxAggregateTransactionsPerTransactionType(),
-                        configService.getAdvancedConfig().maxAggregateQueriesPerQueryType());
+        activeIntervalCollector = createIntervalCollector(clock.currentTimeMillis());
         // dedicated thread to aggregating transaction data
         processingThread = new Thread(new TransactionProcessor());
         processingThread.setDaemon(true);
@@ -95,11 +99,28 @@ public class Aggregator {
         // flush, then no new traces will come in with prior captureTime)
         synchronized (lock) {
             long captureTime = clock.currentTimeMillis();
-            pendingTransactionQueue.add(ImmutablePendingTransaction.of(captureTime, transaction));
+            pendingTransactionQueue
+                    .add(ImmutablePendingTransaction.of(captureTime, transaction));
             return captureTime;
         }
     }
 
+    void add(UnsampledTransaction unsampledTransaction) {
+        // unsampled transactions do not go through the processing queue (and do not take the lock
+        // above), they are accumulated per interval and merged into the interval collector just
+        // before it is flushed, see UnsampledAggregates
+        while (true) {
+            long captureTime = AggregateIntervalCollector
+                    .getCaptureTime(clock.currentTimeMillis(), aggregateIntervalMillis);
+            if (getOrCreateUnsampledAggregates(captureTime).add(unsampledTransaction)) {
+                return;
+            }
+            // the interval was merged just as this transaction was completing, looping back
+            // creates a new UnsampledAggregates for the same interval, which will then be merged
+            // into the next interval collector that is flushed
+        }
+    }
+
     private List<AggregateIntervalCollector> getOrderedAllIntervalCollectors() {
         // grab active first then pending (and de-dup) to make sure one is not missed between states
         AggregateIntervalCollector activeIntervalCollector = this.activeIntervalCollector;
@@ -116,6 +137,39 @@ public class Aggregator {
         }
     }
 
+    private UnsampledAggregates getOrCreateUnsampledAggregates(long captureTime) {
+        UnsampledAggregates aggregates = unsampledAggregates.get(captureTime);
+        if (aggregates == null) {
+            aggregates = new UnsampledAggregates(
+                    configService.getAdvancedConfig().maxAggregateTransactionsPerTransactionType());
+            UnsampledAggregates existing = unsampledAggregates.putIfAbsent(captureTime, aggregates);
+            if (existing != null) {
+                aggregates = existing;
+            }
+        }
+        return aggregates;
+    }
+
+    // must be called under the interval collector's lock
+    private void mergeUnsampledAggregates(AggregateIntervalCollector intervalCollector) {
+        // this also picks up any stragglers from prior intervals (see add(UnsampledTransaction))
+        Iterator<UnsampledAggregates> i = unsampledAggregates
+                .headMap(intervalCollector.getCaptureTime(), true).values().iterator();
+        while (i.hasNext()) {
+            UnsampledAggregates aggregates = i.next();
+            i.remove();
+            aggregates.mergeInto(intervalCollector);
+        }
+    }
+
+    // advanced config is read once so that both limits come from the same config snapshot
+    private AggregateIntervalCollector createIntervalCollector(long captureTime) {
+        AdvancedConfig advancedConfig = configService.getAdvancedConfig();
+        return new AggregateIntervalCollector(captureTime, aggregateIntervalMillis,
+                advancedConfig.maxAggregateTransactionsPerTransactionType(),
+                advancedConfig.maxAggregateQueriesPerQueryType());
+    }
+
     @OnlyUsedByTests
     public void close() {
         processingThread.interrupt();
@@ -150,11 +204,8 @@ public class Aggregator {
             if (pendingTransaction.captureTime() > activeIntervalCollector.getCaptureTime()) {
                 // flush in separate thread to avoid pending transactions from piling up quickly
                 scheduledExecutor.execute(new IntervalFlusher(activeIntervalCollector));
-                activeIntervalCollector = new AggregateIntervalCollector(
-                        pendingTransaction.captureTime(), aggregateIntervalMillis,
-                        configService.getAdvancedConfig()
-                                .maxAggregateTransactionsPerTransactionType(),
-                        configService.getAdvancedConfig().maxAggregateQueriesPerQueryType());
+                activeIntervalCollector =
+                        createIntervalCollector(pendingTransaction.captureTime());
             }
             // the synchronized block is to ensure visibility of updates to this particular
             // activeIntervalCollector
@@ -179,11 +230,7 @@ public class Aggregator {
                     //
                     // flush in separate thread to avoid pending transactions from piling up quickly
                     scheduledExecutor.execute(new IntervalFlusher(activeIntervalCollector));
-                    activeIntervalCollector = new AggregateIntervalCollector(currentTime,
-                            aggregateIntervalMillis,
-                            configService.getAdvancedConfig()
-                                    .maxAggregateTransactionsPerTransactionType(),
-                            configService.getAdvancedConfig().maxAggregateQueriesPerQueryType());
+                    activeIntervalCollector = createIntervalCollector(currentTime);
                 }
             }
         }
@@ -204,6 +251,7 @@ public class Aggregator {
             // activeIntervalCollector
             synchronized (intervalCollector) {
                 try {
+                    mergeUnsampledAggregates(intervalCollector);
                     intervalCollector.flush(collector);
                 } catch (Throwable t) {
                     // log and terminate successfully
@@ -15,7 +15,7 @@
  */
 package org.glowroot.agent.impl;
 
-import org.glowroot.agent.model.ThreadContextImpl;
+import org.glowroot.agent.model.ThreadContextPlus;
 import org.glowroot.agent.model.TraceEntryImpl;
 import org.glowroot.agent.model.Transaction;
 import org.glowroot.agent.plugin.api.AuxThreadContext;
@@ -40,7 +40,7 @@ public class AsyncContextImpl implements AuxThreadContext {
 
     @Override
     public TraceEntry start() {
-        Holder</*@Nullable*/ ThreadContextImpl> threadContextHolder =
+        Holder</*@Nullable*/ ThreadContextPlus> threadContextHolder =
                 transactionRegistry.getCurrentThreadContextHolder();
         if (threadContextHolder.get() != null) {
             return NopTraceEntry.INSTANCE;
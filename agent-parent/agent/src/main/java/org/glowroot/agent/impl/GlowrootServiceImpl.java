@@ -46,6 +46,12 @@ public class GlowrootServiceImpl implements GlowrootService {
         Transaction transaction = transactionRegistry.getCurrentTransaction();
         if (transaction != null) {
             transaction.setTransactionType(transactionType, OverrideSource.USER_API);
+            return;
+        }
+        UnsampledTransaction unsampledTransaction =
+                transactionRegistry.getCurrentUnsampledTransaction();
+        if (unsampledTransaction != null) {
+            unsampledTransaction.setTransactionType(transactionType, OverrideSource.USER_API);
         }
     }
 
@@ -57,6 +63,12 @@ public class GlowrootServiceImpl implements GlowrootService {
         Transaction transaction = transactionRegistry.getCurrentTransaction();
         if (transaction != null) {
             transaction.setTransactionName(transactionName, OverrideSource.USER_API);
+            return;
+        }
+        UnsampledTransaction unsampledTransaction =
+                transactionRegistry.getCurrentUnsampledTransaction();
+        if (unsampledTransaction != null) {
+            unsampledTransaction.setTransactionName(transactionName, OverrideSource.USER_API);
         }
     }
 
@@ -100,4 +112,13 @@ public class GlowrootServiceImpl implements GlowrootService {
             transaction.setSlowThresholdMillis(thresholdMillis, OverrideSource.USER_API);
         }
     }
+
+    @Override
+    public @Nullable String getTraceId() {
+        Transaction transaction = transactionRegistry.getCurrentTransaction();
+        if (transaction == null) {
+            return null;
+        }
+        return transaction.getTraceId();
+    }
 }
@@ -75,14 +75,15 @@ class MutableTimer {
         }
     }
 
-    Aggregate.Timer toProto() {
+    // scale is used to scale up the timers when transaction sampling is enabled
+    Aggregate.Timer toProto(double scale) {
         Aggregate.Timer.Builder builder = Aggregate.Timer.newBuilder()
                 .setName(name)
                 .setExtended(extended)
-                .setTotalNanos(totalNanos)
-                .setCount(count);
+                .setTotalNanos(totalNanos * scale)
+                .setCount(Math.round(count * scale));
         for (MutableTimer childTimer : childTimers) {
-            builder.addChildTimer(childTimer.toProto());
+            builder.addChildTimer(childTimer.toProto(scale));
         }
         return builder.build();
     }
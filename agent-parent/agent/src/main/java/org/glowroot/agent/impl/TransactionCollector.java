@@ -31,6 +31,7 @@ import org.slf4j.LoggerFactory;
 import org.glowroot.agent.config.ConfigService;
 import org.glowroot.agent.model.TraceCreator;
 import org.glowroot.agent.model.Transaction;
+import org.glowroot.agent.plugin.api.config.ConfigListener;
 import org.glowroot.common.util.Clock;
 import org.glowroot.wire.api.Collector;
 import org.glowroot.wire.api.model.TraceOuterClass.Trace;
@@ -44,7 +45,6 @@ public class TransactionCollector {
     private static final int PENDING_LIMIT = 100;
 
     private final ExecutorService executor;
-    private final ConfigService configService;
     private final Collector collector;
     private final Aggregator aggregator;
     private final Clock clock;
@@ -55,10 +55,19 @@ public class TransactionCollector {
     @GuardedBy("warningRateLimiter")
     private int countSinceLastWarning;
 
-    public TransactionCollector(ExecutorService executor, ConfigService configService,
+    // cache for fast read access, since this is read at the end of every transaction
+    private volatile long slowThresholdNanos;
+
+    public TransactionCollector(ExecutorService executor, final ConfigService configService,
             Collector collector, Aggregator aggregator, Clock clock, Ticker ticker) {
         this.executor = executor;
-        this.configService = configService;
+        configService.addConfigListener(new ConfigListener() {
+            @Override
+            public void onChange() {
+                slowThresholdNanos = MILLISECONDS
+                        .toNanos(configService.getTransactionConfig().slowThresholdMillis());
+            }
+        });
         this.collector = collector;
         this.aggregator = aggregator;
         this.clock = clock;
@@ -75,11 +84,7 @@ public class TransactionCollector {
             return transaction.getDurationNanos() >= MILLISECONDS.toNanos(slowThresholdMillis);
         }
         // fall back to default slow trace threshold
-        slowThresholdMillis = configService.getTransactionConfig().slowThresholdMillis();
-        if (transaction.getDurationNanos() >= MILLISECONDS.toNanos(slowThresholdMillis)) {
-            return true;
-        }
-        return false;
+        return transaction.getDurationNanos() >= slowThresholdNanos;
     }
 
     public boolean shouldStoreError(Transaction transaction) {
@@ -90,6 +95,11 @@ public class TransactionCollector {
         return pendingTransactions;
     }
 
+    void onCompletedUnsampledTransaction(UnsampledTransaction unsampledTransaction) {
+        // unsampled transactions never store traces
+        aggregator.add(unsampledTransaction);
+    }
+
     void onCompletedTransaction(final Transaction transaction) {
         // capture time is calculated by the aggregator because it depends on monotonically
         // increasing capture times so it can flush aggregates without concern for new data
@@ -15,13 +15,26 @@
  */
 package org.glowroot.agent.impl;
 
+import java.lang.ref.WeakReference;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 import javax.annotation.Nullable;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Lists;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 
 import org.glowroot.agent.model.ThreadContextImpl;
+import org.glowroot.agent.model.ThreadContextPlus;
 import org.glowroot.agent.model.Transaction;
 import org.glowroot.agent.plugin.api.util.FastThreadLocal;
 import org.glowroot.agent.plugin.api.util.FastThreadLocal.Holder;
@@ -31,12 +44,48 @@ import static org.glowroot.agent.fat.storage.util.Checkers.castInitialized;
 
 public class TransactionRegistry {
 
-    // collection of active running transactions
-    private final Collection<Transaction> transactions = Sets.newConcurrentHashSet();
+    // active running transactions are registered in the slot of the thread that started them, so
+    // that registering and unregistering a transaction is just a write to that slot (no hashing or
+    // allocation), and iterating over the active transactions is a walk over the slots
+    //
+    // a thread can start a new transaction while a previous (async) transaction that it started is
+    // still active, in which case the new transaction is registered in its own single use slot,
+    // which is removed when that transaction completes
+    private final Queue<Slot> slots = new ConcurrentLinkedQueue<Slot>();
 
-    // active thread context being executed by the current thread
-    private final FastThreadLocal</*@Nullable*/ ThreadContextImpl> currentThreadContext =
-            new FastThreadLocal</*@Nullable*/ ThreadContextImpl>();
+    private final FastThreadLocal<Slot> currentThreadSlot = new FastThreadLocal<Slot>() {
+        @Override
+        protected Slot initialValue() {
+            // new threads are relatively rare, so this is a good time to discard the slots of
+            // threads that have terminated, which otherwise are only discarded by getTransactions()
+            removeDiscardableSlots();
+            Slot slot = new Slot(Thread.currentThread());
+            slots.add(slot);
+            return slot;
+        }
+    };
+
+    // index of the slots by the transaction type of the transaction they hold (or last held), so
+    // that filtering by transaction type does not walk every slot
+    //
+    // slots are indexed instead of transactions, since a thread's slot usually holds transactions
+    // of the same transaction type, so registering a transaction normally only needs to compare
+    // against the slot's indexed transaction type, see addTransaction()
+    //
+    // the number of transaction types is small so empty buckets are not removed
+    private final ConcurrentMap<String, Set<Slot>> slotsByTransactionType =
+            Maps.newConcurrentMap();
+
+    // index of active running transactions by trace id, trace ids are generated lazily, so
+    // transactions are only added to this index once their trace id has been generated (which is
+    // always the case for any trace id that has been exposed outside of the agent)
+    private final ConcurrentMap<String, Transaction> transactionsByTraceId =
+            Maps.newConcurrentMap();
+
+    // active thread context being executed by the current thread, which is a ThreadContextImpl,
+    // an UnsampledTransaction, an UnsampledAuxThread or an OverflowAuxThreadContext
+    private final FastThreadLocal</*@Nullable*/ ThreadContextPlus> currentThreadContext =
+            new FastThreadLocal</*@Nullable*/ ThreadContextPlus>();
 
     public TransactionRegistry() {
         TransactionRegistryHolder.transactionRegistry = castInitialized(this);
@@ -44,30 +93,240 @@ public class TransactionRegistry {
 
     @Nullable
     Transaction getCurrentTransaction() {
-        ThreadContextImpl threadContext = currentThreadContext.get();
-        if (threadContext == null) {
+        ThreadContextPlus threadContext = currentThreadContext.get();
+        if (!(threadContext instanceof ThreadContextImpl)) {
             return null;
         }
-        return threadContext.getTransaction();
+        return ((ThreadContextImpl) threadContext).getTransaction();
+    }
+
+    @Nullable
+    UnsampledTransaction getCurrentUnsampledTransaction() {
+        ThreadContextPlus threadContext = currentThreadContext.get();
+        if (threadContext instanceof UnsampledTransaction) {
+            return (UnsampledTransaction) threadContext;
+        }
+        if (threadContext instanceof UnsampledAuxThread) {
+            return ((UnsampledAuxThread) threadContext).getTransaction();
+        }
+        return null;
+    }
+
+    boolean isInTransaction() {
+        return currentThreadContext.get() != null;
     }
 
-    public Holder</*@Nullable*/ ThreadContextImpl> getCurrentThreadContextHolder() {
+    public Holder</*@Nullable*/ ThreadContextPlus> getCurrentThreadContextHolder() {
         return currentThreadContext.getHolder();
     }
 
+    // must be called by the thread that started the transaction
     void addTransaction(Transaction transaction) {
-        transactions.add(transaction);
+        // registry slot is set on the transaction before the transaction is visible to other
+        // threads via the slot, see isRegistered()
+        Slot slot = currentThreadSlot.get();
+        if (slot.transaction == null) {
+            transaction.setRegistrySlot(slot);
+            slot.transaction = transaction;
+        } else {
+            slot = new Slot(transaction);
+            transaction.setRegistrySlot(slot);
+            slots.add(slot);
+        }
+        if (!transaction.getTransactionType().equals(slot.indexedTransactionType)) {
+            reindex(slot);
+        }
+    }
+
+    // called by the thread that changed the transaction type
+    public void onTransactionTypeChanged(Transaction transaction) {
+        Slot slot = transaction.getRegistrySlot();
+        if (slot != null && slot.transaction == transaction) {
+            reindex(slot);
+        }
     }
 
     void removeTransaction(Transaction transaction) {
         currentThreadContext.set(null);
-        transactions.remove(transaction);
+        Slot slot = transaction.getRegistrySlot();
+        if (slot != null) {
+            // unregistering first, see onTraceIdGenerated()
+            slot.clear(transaction);
+            if (slot.threadRef == null) {
+                slots.remove(slot);
+                unindex(slot);
+            }
+        }
+        String traceId = transaction.getTraceIdIfGenerated();
+        if (traceId != null) {
+            transactionsByTraceId.remove(traceId, transaction);
+        }
     }
 
     public Collection<Transaction> getTransactions() {
+        List<Transaction> transactions = Lists.newArrayList();
+        Iterator<Slot> i = slots.iterator();
+        while (i.hasNext()) {
+            Slot slot = i.next();
+            Transaction transaction = slot.transaction;
+            if (transaction != null) {
+                transactions.add(transaction);
+            } else if (slot.isDiscardable()) {
+                i.remove();
+                unindex(slot);
+            }
+        }
+        return transactions;
+    }
+
+    public Collection<Transaction> getTransactions(String transactionType) {
+        Set<Slot> bucket = slotsByTransactionType.get(transactionType);
+        if (bucket == null) {
+            return ImmutableList.of();
+        }
+        List<Transaction> transactions = Lists.newArrayList();
+        for (Slot slot : bucket) {
+            Transaction transaction = slot.transaction;
+            // still need to check the transaction type since it can change after the slot is
+            // indexed (the slot is re-indexed shortly after)
+            if (transaction != null && transaction.getTransactionType().equals(transactionType)) {
+                transactions.add(transaction);
+            }
+        }
         return transactions;
     }
 
+    public @Nullable Transaction getTransaction(String traceId) {
+        return transactionsByTraceId.get(traceId);
+    }
+
+    // called by the thread that generated the trace id
+    public void onTraceIdGenerated(Transaction transaction, String traceId) {
+        transactionsByTraceId.put(traceId, transaction);
+        if (!isRegistered(transaction)) {
+            // the transaction was not yet added or has already been removed (e.g. trace id is
+            // generated while storing the completed trace), and removeTransaction() may not have
+            // seen the trace id
+            transactionsByTraceId.remove(traceId, transaction);
+        }
+    }
+
+    @VisibleForTesting
+    int getSlotCount() {
+        return slots.size();
+    }
+
+    private void removeDiscardableSlots() {
+        Iterator<Slot> i = slots.iterator();
+        while (i.hasNext()) {
+            Slot slot = i.next();
+            if (slot.transaction == null && slot.isDiscardable()) {
+                i.remove();
+                unindex(slot);
+            }
+        }
+    }
+
+    // moves the slot to the bucket for the transaction type of the transaction it currently holds,
+    // re-checking after each move since the slot's transaction (or its transaction type) can be
+    // changed concurrently by another thread, which will then either see the updated indexed
+    // transaction type or be waiting on the slot's lock to re-index it
+    private void reindex(Slot slot) {
+        synchronized (slot) {
+            while (true) {
+                Transaction transaction = slot.transaction;
+                if (transaction == null) {
+                    return;
+                }
+                String transactionType = transaction.getTransactionType();
+                String indexedTransactionType = slot.indexedTransactionType;
+                if (transactionType.equals(indexedTransactionType)) {
+                    return;
+                }
+                // adding to the new bucket before removing from the old one so that the slot is
+                // always in at least one bucket
+                getOrCreateBucket(transactionType).add(slot);
+                if (indexedTransactionType != null) {
+                    removeFromBucket(slot, indexedTransactionType);
+                }
+                slot.indexedTransactionType = transactionType;
+            }
+        }
+    }
+
+    // the slot's transaction is null when this is called, and it will not be re-indexed after this
+    // since no new transaction can be registered in it
+    private void unindex(Slot slot) {
+        synchronized (slot) {
+            String indexedTransactionType = slot.indexedTransactionType;
+            if (indexedTransactionType != null) {
+                removeFromBucket(slot, indexedTransactionType);
+                slot.indexedTransactionType = null;
+            }
+        }
+    }
+
+    private void removeFromBucket(Slot slot, String transactionType) {
+        Set<Slot> bucket = slotsByTransactionType.get(transactionType);
+        if (bucket != null) {
+            bucket.remove(slot);
+        }
+    }
+
+    private Set<Slot> getOrCreateBucket(String transactionType) {
+        Set<Slot> bucket = slotsByTransactionType.get(transactionType);
+        if (bucket != null) {
+            return bucket;
+        }
+        bucket = Sets.newConcurrentHashSet();
+        Set<Slot> existing = slotsByTransactionType.putIfAbsent(transactionType, bucket);
+        return existing == null ? bucket : existing;
+    }
+
+    private static boolean isRegistered(Transaction transaction) {
+        Slot slot = transaction.getRegistrySlot();
+        return slot != null && slot.transaction == transaction;
+    }
+
+    public static class Slot {
+
+        private static final AtomicReferenceFieldUpdater<Slot, Transaction> transactionUpdater =
+                AtomicReferenceFieldUpdater.newUpdater(Slot.class, Transaction.class,
+                        "transaction");
+
+        // null for single use slots
+        private final @Nullable WeakReference<Thread> threadRef;
+
+        private volatile @Nullable Transaction transaction;
+
+        // only written under the slot's lock, see reindex()
+        private volatile @Nullable String indexedTransactionType;
+
+        private Slot(Thread thread) {
+            threadRef = new WeakReference<Thread>(thread);
+        }
+
+        private Slot(Transaction transaction) {
+            threadRef = null;
+            this.transaction = transaction;
+        }
+
+        // the thread that started the transaction may have already started another transaction in
+        // the same slot, in which case this does nothing
+        private void clear(Transaction transaction) {
+            transactionUpdater.compareAndSet(this, transaction, null);
+        }
+
+        // empty slots can be discarded once no new transaction can be registered in them
+        private boolean isDiscardable() {
+            if (threadRef == null) {
+                return true;
+            }
+            Thread thread = threadRef.get();
+            return thread == null || !thread.isAlive();
+        }
+    }
+
     @UsedByGeneratedBytecode
     public static class TransactionRegistryHolder {
 
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.impl;
+
+import java.util.Random;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Maps;
+
+import org.glowroot.agent.config.AdvancedConfig;
+import org.glowroot.agent.config.ConfigService;
+import org.glowroot.agent.plugin.api.config.ConfigListener;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+// decides which transactions get full capture (trace entries, timers, queries, profiles, traces),
+// the remaining (unsampled) transactions only contribute their duration and error status to the
+// aggregates
+//
+// a transaction is sampled if it passes the sampling percentage and, if a max per second is
+// configured, it is within the max per second for its transaction name (both are configured in
+// AdvancedConfig, so they can be changed at runtime, including being pushed from central)
+//
+// the sampling decision has to be made when the transaction starts (that is what decides whether
+// trace entries, timers, etc are captured), so the max per second is applied to the transaction
+// name at that time, before any transaction name override (e.g. servlet transactions start with
+// the request uri and may later be renamed by a framework plugin), while the aggregates are
+// recorded under the final transaction name
+//
+// this means that with per name rate limiting, a final transaction name whose transactions start
+// under many different initial names can be sampled at more than the configured max per second
+// (and different final names that share an initial name share its limit)
+class TransactionSampler implements ConfigListener {
+
+    // this is just to limit memory, transaction names beyond this limit share a single rate limiter
+    private static final int MAX_RATE_LIMITERS = 10000;
+
+    private final @Nullable ConfigService configService;
+
+    // published as a single immutable snapshot (see onChange()) so that a sampling decision never
+    // sees a mix of settings from before and after an update
+    private volatile SamplingSettings settings;
+
+    private final ConcurrentMap<String, RateLimiter> rateLimiters = Maps.newConcurrentMap();
+    private final RateLimiter overflowRateLimiter = new RateLimiter();
+
+    private final ThreadLocal<Random> randoms = new ThreadLocal<Random>() {
+        @Override
+        protected Random initialValue() {
+            return new Random();
+        }
+    };
+
+    static TransactionSampler create(ConfigService configService) {
+        TransactionSampler transactionSampler = new TransactionSampler(configService);
+        configService.addConfigListener(transactionSampler);
+        return transactionSampler;
+    }
+
+    private TransactionSampler(ConfigService configService) {
+        this.configService = configService;
+        settings = new SamplingSettings(100, 0);
+    }
+
+    @VisibleForTesting
+    TransactionSampler(double samplingPercentage, int maxPerSecondPerTransactionName) {
+        configService = null;
+        settings = new SamplingSettings(samplingPercentage, maxPerSecondPerTransactionName);
+    }
+
+    @Override
+    public void onChange() {
+        if (configService != null) {
+            AdvancedConfig advancedConfig = configService.getAdvancedConfig();
+            settings = new SamplingSettings(advancedConfig.samplingPercentage(),
+                    advancedConfig.samplingMaxPerSecondPerTransactionName());
+        }
+    }
+
+    boolean isEnabled() {
+        return settings.enabled;
+    }
+
+    boolean isSampled(String transactionName, long startTick) {
+        SamplingSettings settings = this.settings;
+        if (settings.fraction < 1 && randoms.get().nextDouble() >= settings.fraction) {
+            return false;
+        }
+        if (settings.maxPerSecondPerTransactionName <= 0) {
+            return true;
+        }
+        return getRateLimiter(transactionName).tryAcquire(NANOSECONDS.toSeconds(startTick),
+                settings.maxPerSecondPerTransactionName);
+    }
+
+    private RateLimiter getRateLimiter(String transactionName) {
+        RateLimiter rateLimiter = rateLimiters.get(transactionName);
+        if (rateLimiter != null) {
+            return rateLimiter;
+        }
+        if (rateLimiters.size() >= MAX_RATE_LIMITERS) {
+            return overflowRateLimiter;
+        }
+        rateLimiter = new RateLimiter();
+        RateLimiter existing = rateLimiters.putIfAbsent(transactionName, rateLimiter);
+        return existing == null ? rateLimiter : existing;
+    }
+
+    private static class SamplingSettings {
+
+        private final double fraction;
+        private final int maxPerSecondPerTransactionName;
+        private final boolean enabled;
+
+        private SamplingSettings(double samplingPercentage, int maxPerSecondPerTransactionName) {
+            fraction = samplingPercentage / 100;
+            this.maxPerSecondPerTransactionName = maxPerSecondPerTransactionName;
+            enabled = fraction < 1 || maxPerSecondPerTransactionName > 0;
+        }
+    }
+
+    // permits are tracked per second, with the second and the number of permits acquired during
+    // that second packed into a single atomic value, so that once the permits for the current
+    // second are used up, rejecting further transactions is just a volatile read
+    private static class RateLimiter {
+
+        private final AtomicLong secondAndCount = new AtomicLong();
+
+        private boolean tryAcquire(long second, int maxPerSecond) {
+            long packedSecond = second << 32;
+            while (true) {
+                long current = secondAndCount.get();
+                long next;
+                if ((current & 0xffffffff00000000L) != packedSecond) {
+                    next = packedSecond | 1;
+                } else if ((int) current >= maxPerSecond) {
+                    return false;
+                } else {
+                    next = current + 1;
+                }
+                if (secondAndCount.compareAndSet(current, next)) {
+                    return true;
+                }
+            }
+        }
+    }
+}
@@ -28,9 +28,11 @@ import org.slf4j.LoggerFactory;
 import org.glowroot.agent.config.AdvancedConfig;
 import org.glowroot.agent.config.ConfigService;
 import org.glowroot.agent.model.ErrorMessage;
+import org.glowroot.agent.model.GcActivityTracker;
 import org.glowroot.agent.model.QueryData;
 import org.glowroot.agent.model.QueryEntryBase;
 import org.glowroot.agent.model.ThreadContextImpl;
+import org.glowroot.agent.model.ThreadContextPlus;
 import org.glowroot.agent.model.TimerImpl;
 import org.glowroot.agent.model.TimerNameImpl;
 import org.glowroot.agent.model.TraceEntryImpl;
@@ -63,26 +65,30 @@ public class TransactionServiceImpl implements AdvancedService, ConfigListener {
     private final ConfigService configService;
     private final TimerNameCache timerNameCache;
     private final @Nullable ThreadAllocatedBytes threadAllocatedBytes;
+    private final GcActivityTracker gcActivityTracker;
     private final UserProfileScheduler userProfileScheduler;
     private final Clock clock;
     private final Ticker ticker;
 
+    private final TransactionSampler transactionSampler;
+
     private final TransactionCompletionCallback transactionCompletionCallback =
             new TransactionCompletionCallback();
 
     // cache for fast read access
-    // visibility is provided by memoryBarrier below
-    private boolean captureThreadStats;
-    private int maxAggregateQueriesPerQueryType;
-    private int maxTraceEntriesPerTransaction;
+    // published as a single immutable snapshot (see onChange()) so that reading it is a single
+    // volatile read and a transaction never sees a mix of settings from before and after an update
+    private volatile TransactionSettings settings;
 
     public static TransactionServiceImpl create(TransactionRegistry transactionRegistry,
             TransactionCollector transactionCollector, ConfigService configService,
             TimerNameCache timerNameCache, @Nullable ThreadAllocatedBytes threadAllocatedBytes,
-            UserProfileScheduler userProfileScheduler, Ticker ticker, Clock clock) {
+            GcActivityTracker gcActivityTracker, UserProfileScheduler userProfileScheduler,
+            Ticker ticker, Clock clock) {
         TransactionServiceImpl transactionServiceImpl =
                 new TransactionServiceImpl(transactionRegistry, transactionCollector, configService,
-                        timerNameCache, threadAllocatedBytes, userProfileScheduler, ticker, clock);
+                        timerNameCache, threadAllocatedBytes, gcActivityTracker,
+                        userProfileScheduler, ticker, clock);
         configService.addConfigListener(transactionServiceImpl);
         return transactionServiceImpl;
     }
@@ -90,22 +96,26 @@ public class TransactionServiceImpl implements AdvancedService, ConfigListener {
     private TransactionServiceImpl(TransactionRegistry transactionRegistry,
             TransactionCollector transactionCollector, ConfigService configService,
             TimerNameCache timerNameCache, @Nullable ThreadAllocatedBytes threadAllocatedBytes,
-            UserProfileScheduler userProfileScheduler, Ticker ticker, Clock clock) {
+            GcActivityTracker gcActivityTracker, UserProfileScheduler userProfileScheduler,
+            Ticker ticker, Clock clock) {
         this.transactionRegistry = transactionRegistry;
         this.transactionCollector = transactionCollector;
         this.configService = configService;
         this.timerNameCache = timerNameCache;
         this.threadAllocatedBytes = threadAllocatedBytes;
+        this.gcActivityTracker = gcActivityTracker;
         this.userProfileScheduler = userProfileScheduler;
         this.clock = clock;
         this.ticker = ticker;
+        transactionSampler = TransactionSampler.create(configService);
+        settings = TransactionSettings.create(configService);
         TransactionServiceHolder.transactionService = castInitialized(this);
     }
 
     // this is used by OptionalThreadContextImpl
     public TraceEntry startTransaction(String transactionType, String transactionName,
             MessageSupplier messageSupplier, TimerName timerName,
-            Holder</*@Nullable*/ ThreadContextImpl> threadContextHolder) {
+            Holder</*@Nullable*/ ThreadContextPlus> threadContextHolder) {
         if (transactionType == null) {
             logger.error("startTransaction(): argument 'transactionType' must be non-null");
             return NopTraceEntry.INSTANCE;
@@ -130,18 +140,29 @@ public class TransactionServiceImpl implements AdvancedService, ConfigListener {
 
     @Override
     public boolean isInTransaction() {
-        return transactionRegistry.getCurrentTransaction() != null;
+        return transactionRegistry.isInTransaction();
     }
 
     private TraceEntry startTransactionInternal(String transactionType, String transactionName,
             MessageSupplier messageSupplier, TimerName timerName,
-            Holder</*@Nullable*/ ThreadContextImpl> threadContextHolder) {
+            Holder</*@Nullable*/ ThreadContextPlus> threadContextHolder) {
         long startTick = ticker.read();
+        if (transactionSampler.isEnabled() && !transactionType.equals("Startup")) {
+            // split out to separate method so as not to affect inlining budget of common path
+            TraceEntry unsampledTransaction = maybeStartUnsampledTransaction(transactionType,
+                    transactionName, messageSupplier, startTick, threadContextHolder);
+            if (unsampledTransaction != null) {
+                return unsampledTransaction;
+            }
+        }
+        TransactionSettings settings = this.settings;
         Transaction transaction = new Transaction(clock.currentTimeMillis(), startTick,
-                transactionType, transactionName, messageSupplier, timerName, captureThreadStats,
-                maxTraceEntriesPerTransaction, maxAggregateQueriesPerQueryType,
-                threadAllocatedBytes, transactionCompletionCallback, ticker, transactionRegistry,
-                this, configService, userProfileScheduler, threadContextHolder);
+                transactionType, transactionName, messageSupplier, timerName,
+                settings.captureThreadStats, settings.maxTraceEntriesPerTransaction,
+                settings.maxAggregateQueriesPerQueryType,
+                threadAllocatedBytes, gcActivityTracker, transactionCompletionCallback, ticker,
+                transactionRegistry, this, configService, userProfileScheduler,
+                threadContextHolder);
         if (transactionType.equals("Startup")) {
             transaction.setSlowThresholdMillis(0, OverrideSource.STARTUP);
         }
@@ -150,11 +171,27 @@ public class TransactionServiceImpl implements AdvancedService, ConfigListener {
         return transaction.getMainThreadContext().getRootEntry();
     }
 
+    private @Nullable TraceEntry maybeStartUnsampledTransaction(String transactionType,
+            String transactionName, MessageSupplier messageSupplier, long startTick,
+            Holder</*@Nullable*/ ThreadContextPlus> threadContextHolder) {
+        if (transactionSampler.isSampled(transactionName, startTick)) {
+            return null;
+        }
+        UnsampledTransaction unsampledTransaction = new UnsampledTransaction(transactionType,
+                transactionName, messageSupplier, startTick, ticker, this, transactionRegistry,
+                threadContextHolder);
+        threadContextHolder.set(unsampledTransaction);
+        return unsampledTransaction;
+    }
+
+    void onCompletedUnsampledTransaction(UnsampledTransaction unsampledTransaction) {
+        transactionCollector.onCompletedUnsampledTransaction(unsampledTransaction);
+    }
+
     TraceEntry startAuxThreadContextInternal(Transaction transaction,
             TraceEntryImpl parentTraceEntry,
-            Holder</*@Nullable*/ ThreadContextImpl> threadContextHolder) {
+            Holder</*@Nullable*/ ThreadContextPlus> threadContextHolder) {
         long startTick = ticker.read();
-        // FIXME implement limit on auxiliary thread context creation for a given transaction
         TimerName auxThreadTimerName = timerNameCache.getAuxThreadTimerName();
         return transaction.startAuxThreadContext(parentTraceEntry, auxThreadTimerName,
                 startTick, threadContextHolder, threadAllocatedBytes);
@@ -200,10 +237,29 @@ public class TransactionServiceImpl implements AdvancedService, ConfigListener {
 
     @Override
     public void onChange() {
-        AdvancedConfig advancedConfig = configService.getAdvancedConfig();
-        captureThreadStats = configService.getTransactionConfig().captureThreadStats();
-        maxAggregateQueriesPerQueryType = advancedConfig.maxAggregateQueriesPerQueryType();
-        maxTraceEntriesPerTransaction = advancedConfig.maxTraceEntriesPerTransaction();
+        settings = TransactionSettings.create(configService);
+    }
+
+    private static class TransactionSettings {
+
+        private final boolean captureThreadStats;
+        private final int maxAggregateQueriesPerQueryType;
+        private final int maxTraceEntriesPerTransaction;
+
+        private static TransactionSettings create(ConfigService configService) {
+            AdvancedConfig advancedConfig = configService.getAdvancedConfig();
+            return new TransactionSettings(
+                    configService.getTransactionConfig().captureThreadStats(),
+                    advancedConfig.maxAggregateQueriesPerQueryType(),
+                    advancedConfig.maxTraceEntriesPerTransaction());
+        }
+
+        private TransactionSettings(boolean captureThreadStats,
+                int maxAggregateQueriesPerQueryType, int maxTraceEntriesPerTransaction) {
+            this.captureThreadStats = captureThreadStats;
+            this.maxAggregateQueriesPerQueryType = maxAggregateQueriesPerQueryType;
+            this.maxTraceEntriesPerTransaction = maxTraceEntriesPerTransaction;
+        }
     }
 
     private class TransactionCompletionCallback implements CompletionCallback {
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.impl;
+
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.collect.Maps;
+
+import org.glowroot.common.model.LazyHistogram;
+
+// unsampled transactions for a single aggregate interval are accumulated here instead of going
+// through the aggregator's processing queue, so that completing an unsampled transaction neither
+// allocates a pending transaction nor takes the aggregator's global lock, it only synchronizes on
+// the accumulator for its own transaction name (these are merged into the interval collector just
+// before it is flushed)
+class UnsampledAggregates {
+
+    private final int maxAggregateTransactionsPerTransactionType;
+
+    private final ConcurrentMap<String, TypeAggregates> typeAggregates = Maps.newConcurrentMap();
+
+    // this is set before any of the accumulators are merged, and is read by add() under the
+    // accumulator's lock, so a transaction either makes it into the merge or sees this flag and
+    // records into a newer UnsampledAggregates instead
+    private volatile boolean merged;
+
+    UnsampledAggregates(int maxAggregateTransactionsPerTransactionType) {
+        this.maxAggregateTransactionsPerTransactionType =
+                maxAggregateTransactionsPerTransactionType;
+    }
+
+    // returns false if this has already been merged into its interval collector
+    boolean add(UnsampledTransaction unsampledTransaction) {
+        UnsampledAggregate aggregate =
+                getOrCreateTypeAggregates(unsampledTransaction.getTransactionType())
+                        .getOrCreate(unsampledTransaction.getTransactionName());
+        synchronized (aggregate) {
+            if (merged) {
+                return false;
+            }
+            aggregate.add(unsampledTransaction.getDurationNanos(),
+                    unsampledTransaction.isError());
+        }
+        return true;
+    }
+
+    // must be called under the interval collector's lock
+    void mergeInto(AggregateIntervalCollector intervalCollector) {
+        merged = true;
+        for (Entry<String, TypeAggregates> e : typeAggregates.entrySet()) {
+            String transactionType = e.getKey();
+            TypeAggregates aggregates = e.getValue();
+            for (Entry<String, UnsampledAggregate> f : aggregates.transactionAggregates
+                    .entrySet()) {
+                UnsampledAggregate aggregate = f.getValue();
+                synchronized (aggregate) {
+                    intervalCollector.mergeUnsampled(transactionType, f.getKey(), aggregate);
+                }
+            }
+            UnsampledAggregate overflowAggregate = aggregates.overflowAggregate;
+            synchronized (overflowAggregate) {
+                if (overflowAggregate.getTransactionCount() > 0) {
+                    intervalCollector.mergeUnsampled(transactionType, null, overflowAggregate);
+                }
+            }
+        }
+    }
+
+    private TypeAggregates getOrCreateTypeAggregates(String transactionType) {
+        TypeAggregates aggregates = typeAggregates.get(transactionType);
+        if (aggregates == null) {
+            aggregates = new TypeAggregates();
+            TypeAggregates existing = typeAggregates.putIfAbsent(transactionType, aggregates);
+            if (existing != null) {
+                aggregates = existing;
+            }
+        }
+        return aggregates;
+    }
+
+    private class TypeAggregates {
+
+        private final ConcurrentMap<String, UnsampledAggregate> transactionAggregates =
+                Maps.newConcurrentMap();
+
+        // transaction names beyond the max share this, and only contribute to the overall
+        // aggregate, same as AggregateIntervalCollector does for sampled transactions
+        private final UnsampledAggregate overflowAggregate = new UnsampledAggregate();
+
+        private UnsampledAggregate getOrCreate(String transactionName) {
+            UnsampledAggregate aggregate = transactionAggregates.get(transactionName);
+            if (aggregate != null) {
+                return aggregate;
+            }
+            if (transactionAggregates.size() >= maxAggregateTransactionsPerTransactionType) {
+                return overflowAggregate;
+            }
+            aggregate = new UnsampledAggregate();
+            UnsampledAggregate existing =
+                    transactionAggregates.putIfAbsent(transactionName, aggregate);
+            return existing == null ? aggregate : existing;
+        }
+    }
+
+    // must be used under this aggregate's lock
+    static class UnsampledAggregate {
+
+        private long transactionCount;
+        private long totalNanos;
+        private long errorCount;
+        // histogram values are in nanoseconds, same as AggregateCollector
+        private final LazyHistogram lazyHistogram = new LazyHistogram();
+
+        void add(long durationNanos, boolean error) {
+            transactionCount++;
+            totalNanos += durationNanos;
+            if (error) {
+                errorCount++;
+            }
+            lazyHistogram.add(durationNanos);
+        }
+
+        long getTransactionCount() {
+            return transactionCount;
+        }
+
+        long getTotalNanos() {
+            return totalNanos;
+        }
+
+        long getErrorCount() {
+            return errorCount;
+        }
+
+        LazyHistogram getLazyHistogram() {
+            return lazyHistogram;
+        }
+    }
+}
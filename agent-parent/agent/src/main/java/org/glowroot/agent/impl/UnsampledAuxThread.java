@@ -0,0 +1,200 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.impl;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import org.glowroot.agent.model.ThreadContextPlus;
+import org.glowroot.agent.plugin.api.AsyncQueryEntry;
+import org.glowroot.agent.plugin.api.AsyncTraceEntry;
+import org.glowroot.agent.plugin.api.AuxThreadContext;
+import org.glowroot.agent.plugin.api.MessageSupplier;
+import org.glowroot.agent.plugin.api.QueryEntry;
+import org.glowroot.agent.plugin.api.Timer;
+import org.glowroot.agent.plugin.api.TimerName;
+import org.glowroot.agent.plugin.api.TraceEntry;
+import org.glowroot.agent.plugin.api.internal.NopTransactionService.NopAsyncQueryEntry;
+import org.glowroot.agent.plugin.api.internal.NopTransactionService.NopQueryEntry;
+import org.glowroot.agent.plugin.api.internal.NopTransactionService.NopTimer;
+import org.glowroot.agent.plugin.api.internal.NopTransactionService.NopTraceEntry;
+import org.glowroot.agent.plugin.api.util.FastThreadLocal.Holder;
+
+// thread context of an auxiliary thread of an unsampled transaction, which (like the unsampled
+// transaction itself) captures nothing, but is set as the thread context of the auxiliary thread
+// for the span of the auxiliary thread work, so that the auxiliary thread does not start a
+// separate transaction, and so that transaction level overrides and errors from the auxiliary
+// thread are still applied to the unsampled transaction
+//
+// this is also the root trace entry that is returned to the plugin which started the auxiliary
+// thread context
+class UnsampledAuxThread implements TraceEntry, ThreadContextPlus {
+
+    private final UnsampledTransaction transaction;
+    private final Holder</*@Nullable*/ ThreadContextPlus> threadContextHolder;
+
+    private int currentNestingGroupId;
+
+    UnsampledAuxThread(UnsampledTransaction transaction,
+            Holder</*@Nullable*/ ThreadContextPlus> threadContextHolder) {
+        this.transaction = transaction;
+        this.threadContextHolder = threadContextHolder;
+    }
+
+    UnsampledTransaction getTransaction() {
+        return transaction;
+    }
+
+    // TraceEntry methods
+
+    @Override
+    public void end() {
+        endInternal();
+    }
+
+    @Override
+    public void endWithStackTrace(long threshold, TimeUnit unit) {
+        endInternal();
+    }
+
+    @Override
+    public void endWithError(Throwable t) {
+        endInternal();
+    }
+
+    @Override
+    public void endWithError(@Nullable String message) {
+        endInternal();
+    }
+
+    @Override
+    public void endWithError(@Nullable String message, Throwable t) {
+        endInternal();
+    }
+
+    @Override
+    public @Nullable MessageSupplier getMessageSupplier() {
+        return null;
+    }
+
+    // ThreadContextPlus methods
+
+    @Override
+    public TraceEntry startTransaction(String transactionType, String transactionName,
+            MessageSupplier messageSupplier, TimerName timerName) {
+        // already inside of a transaction
+        return NopTraceEntry.INSTANCE;
+    }
+
+    @Override
+    public TraceEntry startTraceEntry(MessageSupplier messageSupplier, TimerName timerName) {
+        return NopTraceEntry.INSTANCE;
+    }
+
+    @Override
+    public QueryEntry startQueryEntry(String queryType, String queryText,
+            MessageSupplier messageSupplier, TimerName timerName) {
+        return NopQueryEntry.INSTANCE;
+    }
+
+    @Override
+    public QueryEntry startQueryEntry(String queryType, String queryText, long queryExecutionCount,
+            MessageSupplier messageSupplier, TimerName timerName) {
+        return NopQueryEntry.INSTANCE;
+    }
+
+    @Override
+    public AsyncQueryEntry startAsyncQueryEntry(String queryType, String queryText,
+            MessageSupplier messageSupplier, TimerName syncTimerName, TimerName asyncTimerName) {
+        return NopAsyncQueryEntry.INSTANCE;
+    }
+
+    @Override
+    public AsyncTraceEntry startAsyncTraceEntry(MessageSupplier messageSupplier,
+            TimerName syncTimerName, TimerName asyncTimerName) {
+        return NopAsyncQueryEntry.INSTANCE;
+    }
+
+    @Override
+    public Timer startTimer(TimerName timerName) {
+        return NopTimer.INSTANCE;
+    }
+
+    @Override
+    public AuxThreadContext createAuxThreadContext() {
+        return transaction.createAuxThreadContext();
+    }
+
+    @Override
+    public void setTransactionType(@Nullable String transactionType) {
+        transaction.setTransactionType(transactionType);
+    }
+
+    @Override
+    public void setTransactionName(@Nullable String transactionName) {
+        transaction.setTransactionName(transactionName);
+    }
+
+    @Override
+    public void setTransactionUser(@Nullable String user) {}
+
+    @Override
+    public void addTransactionAttribute(String name, @Nullable String value) {}
+
+    @Override
+    public void setTransactionSlowThreshold(long threshold, TimeUnit unit) {}
+
+    @Override
+    public void setTransactionError(Throwable t) {
+        transaction.setTransactionError(t);
+    }
+
+    @Override
+    public void setTransactionError(@Nullable String message) {
+        transaction.setTransactionError(message);
+    }
+
+    @Override
+    public void setTransactionError(@Nullable String message, Throwable t) {
+        transaction.setTransactionError(message, t);
+    }
+
+    @Override
+    public void addErrorEntry(Throwable t) {}
+
+    @Override
+    public void addErrorEntry(@Nullable String message) {}
+
+    @Override
+    public void addErrorEntry(@Nullable String message, Throwable t) {}
+
+    @Override
+    public int getCurrentNestingGroupId() {
+        return currentNestingGroupId;
+    }
+
+    @Override
+    public void setCurrentNestingGroupId(int nestingGroupId) {
+        this.currentNestingGroupId = nestingGroupId;
+    }
+
+    private void endInternal() {
+        if (threadContextHolder.get() == this) {
+            threadContextHolder.set(null);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.impl;
+
+import org.glowroot.agent.model.ThreadContextPlus;
+import org.glowroot.agent.plugin.api.AuxThreadContext;
+import org.glowroot.agent.plugin.api.TraceEntry;
+import org.glowroot.agent.plugin.api.internal.NopTransactionService.NopTraceEntry;
+import org.glowroot.agent.plugin.api.util.FastThreadLocal.Holder;
+
+// auxiliary thread context of an unsampled transaction, this binds the auxiliary thread to the
+// unsampled transaction for the span of the auxiliary thread work (see UnsampledAuxThread), so
+// that the auxiliary thread does not start a separate (possibly sampled) transaction of its own
+class UnsampledAuxThreadContext implements AuxThreadContext {
+
+    private final UnsampledTransaction transaction;
+    private final TransactionRegistry transactionRegistry;
+
+    UnsampledAuxThreadContext(UnsampledTransaction transaction,
+            TransactionRegistry transactionRegistry) {
+        this.transaction = transaction;
+        this.transactionRegistry = transactionRegistry;
+    }
+
+    @Override
+    public TraceEntry start() {
+        Holder</*@Nullable*/ ThreadContextPlus> threadContextHolder =
+                transactionRegistry.getCurrentThreadContextHolder();
+        if (threadContextHolder.get() != null) {
+            return NopTraceEntry.INSTANCE;
+        }
+        UnsampledAuxThread auxThread = new UnsampledAuxThread(transaction, threadContextHolder);
+        threadContextHolder.set(auxThread);
+        return auxThread;
+    }
+}
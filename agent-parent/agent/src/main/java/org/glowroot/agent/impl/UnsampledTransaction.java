@@ -0,0 +1,278 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.impl;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+import com.google.common.base.Strings;
+import com.google.common.base.Ticker;
+
+import org.glowroot.agent.model.ThreadContextPlus;
+import org.glowroot.agent.model.Transaction.OverrideSource;
+import org.glowroot.agent.plugin.api.AsyncQueryEntry;
+import org.glowroot.agent.plugin.api.AsyncTraceEntry;
+import org.glowroot.agent.plugin.api.AuxThreadContext;
+import org.glowroot.agent.plugin.api.MessageSupplier;
+import org.glowroot.agent.plugin.api.QueryEntry;
+import org.glowroot.agent.plugin.api.Timer;
+import org.glowroot.agent.plugin.api.TimerName;
+import org.glowroot.agent.plugin.api.TraceEntry;
+import org.glowroot.agent.plugin.api.internal.NopTransactionService.NopAsyncQueryEntry;
+import org.glowroot.agent.plugin.api.internal.NopTransactionService.NopQueryEntry;
+import org.glowroot.agent.plugin.api.internal.NopTransactionService.NopTimer;
+import org.glowroot.agent.plugin.api.internal.NopTransactionService.NopTraceEntry;
+import org.glowroot.agent.plugin.api.util.FastThreadLocal.Holder;
+
+// transaction that was not sampled by TransactionSampler, so it does not have trace entries, timers
+// or queries, and only its duration and error status are aggregated
+//
+// this is also the root trace entry that is returned to the plugin which started the transaction
+// (the transaction completes when the plugin ends it), and the thread context of the thread that
+// started the transaction, so that transaction type and name overrides (e.g. from the servlet
+// plugin's framework plugins) and transaction errors are still applied, and so that aggregates are
+// recorded under the same (final) transaction name as sampled transactions
+class UnsampledTransaction implements TraceEntry, ThreadContextPlus {
+
+    private final MessageSupplier messageSupplier;
+    private final long startTick;
+    private final Ticker ticker;
+    private final TransactionServiceImpl transactionService;
+    private final TransactionRegistry transactionRegistry;
+    private final Holder</*@Nullable*/ ThreadContextPlus> threadContextHolder;
+
+    // these can be updated by auxiliary threads (see UnsampledAuxThread), so are guarded by this
+    @GuardedBy("this")
+    private String transactionType;
+    @GuardedBy("this")
+    private String transactionName;
+    @GuardedBy("this")
+    private @Nullable OverrideSource transactionTypeOverrideSource;
+    @GuardedBy("this")
+    private @Nullable OverrideSource transactionNameOverrideSource;
+    private volatile boolean error;
+
+    // this is only accessed by the thread that ends the transaction
+    private long durationNanos = -1;
+
+    private int currentNestingGroupId;
+
+    UnsampledTransaction(String transactionType, String transactionName,
+            MessageSupplier messageSupplier, long startTick, Ticker ticker,
+            TransactionServiceImpl transactionService, TransactionRegistry transactionRegistry,
+            Holder</*@Nullable*/ ThreadContextPlus> threadContextHolder) {
+        this.transactionType = transactionType;
+        this.transactionName = transactionName;
+        this.messageSupplier = messageSupplier;
+        this.startTick = startTick;
+        this.ticker = ticker;
+        this.transactionService = transactionService;
+        this.transactionRegistry = transactionRegistry;
+        this.threadContextHolder = threadContextHolder;
+    }
+
+    synchronized String getTransactionType() {
+        return transactionType;
+    }
+
+    synchronized String getTransactionName() {
+        return transactionName;
+    }
+
+    long getDurationNanos() {
+        return durationNanos;
+    }
+
+    boolean isError() {
+        return error;
+    }
+
+    synchronized void setTransactionType(String transactionType, OverrideSource overrideSource) {
+        if (overrideSource.overrides(transactionTypeOverrideSource)) {
+            this.transactionType = transactionType;
+            transactionTypeOverrideSource = overrideSource;
+        }
+    }
+
+    synchronized void setTransactionName(String transactionName, OverrideSource overrideSource) {
+        if (overrideSource.overrides(transactionNameOverrideSource)) {
+            this.transactionName = transactionName;
+            transactionNameOverrideSource = overrideSource;
+        }
+    }
+
+    // TraceEntry methods
+
+    @Override
+    public void end() {
+        endInternal(false);
+    }
+
+    @Override
+    public void endWithStackTrace(long threshold, TimeUnit unit) {
+        endInternal(false);
+    }
+
+    @Override
+    public void endWithError(Throwable t) {
+        endInternal(true);
+    }
+
+    @Override
+    public void endWithError(@Nullable String message) {
+        endInternal(true);
+    }
+
+    @Override
+    public void endWithError(@Nullable String message, Throwable t) {
+        endInternal(true);
+    }
+
+    @Override
+    public MessageSupplier getMessageSupplier() {
+        return messageSupplier;
+    }
+
+    // ThreadContextPlus methods
+
+    @Override
+    public TraceEntry startTransaction(String transactionType, String transactionName,
+            MessageSupplier messageSupplier, TimerName timerName) {
+        // already inside of a transaction
+        return NopTraceEntry.INSTANCE;
+    }
+
+    @Override
+    public TraceEntry startTraceEntry(MessageSupplier messageSupplier, TimerName timerName) {
+        return NopTraceEntry.INSTANCE;
+    }
+
+    @Override
+    public QueryEntry startQueryEntry(String queryType, String queryText,
+            MessageSupplier messageSupplier, TimerName timerName) {
+        return NopQueryEntry.INSTANCE;
+    }
+
+    @Override
+    public QueryEntry startQueryEntry(String queryType, String queryText, long queryExecutionCount,
+            MessageSupplier messageSupplier, TimerName timerName) {
+        return NopQueryEntry.INSTANCE;
+    }
+
+    @Override
+    public AsyncQueryEntry startAsyncQueryEntry(String queryType, String queryText,
+            MessageSupplier messageSupplier, TimerName syncTimerName, TimerName asyncTimerName) {
+        return NopAsyncQueryEntry.INSTANCE;
+    }
+
+    @Override
+    public AsyncTraceEntry startAsyncTraceEntry(MessageSupplier messageSupplier,
+            TimerName syncTimerName, TimerName asyncTimerName) {
+        return NopAsyncQueryEntry.INSTANCE;
+    }
+
+    @Override
+    public Timer startTimer(TimerName timerName) {
+        return NopTimer.INSTANCE;
+    }
+
+    @Override
+    public AuxThreadContext createAuxThreadContext() {
+        return new UnsampledAuxThreadContext(this, transactionRegistry);
+    }
+
+    @Override
+    public void setTransactionType(@Nullable String transactionType) {
+        if (Strings.isNullOrEmpty(transactionType)) {
+            return;
+        }
+        setTransactionType(transactionType, OverrideSource.PLUGIN_API);
+    }
+
+    @Override
+    public void setTransactionName(@Nullable String transactionName) {
+        if (Strings.isNullOrEmpty(transactionName)) {
+            return;
+        }
+        setTransactionName(transactionName, OverrideSource.PLUGIN_API);
+    }
+
+    @Override
+    public void setTransactionUser(@Nullable String user) {}
+
+    @Override
+    public void addTransactionAttribute(String name, @Nullable String value) {}
+
+    @Override
+    public void setTransactionSlowThreshold(long threshold, TimeUnit unit) {}
+
+    @Override
+    public void setTransactionError(Throwable t) {
+        error = true;
+    }
+
+    @Override
+    public void setTransactionError(@Nullable String message) {
+        if (Strings.isNullOrEmpty(message)) {
+            return;
+        }
+        error = true;
+    }
+
+    @Override
+    public void setTransactionError(@Nullable String message, Throwable t) {
+        error = true;
+    }
+
+    @Override
+    public void addErrorEntry(Throwable t) {}
+
+    @Override
+    public void addErrorEntry(@Nullable String message) {}
+
+    @Override
+    public void addErrorEntry(@Nullable String message, Throwable t) {}
+
+    @Override
+    public int getCurrentNestingGroupId() {
+        return currentNestingGroupId;
+    }
+
+    @Override
+    public void setCurrentNestingGroupId(int nestingGroupId) {
+        this.currentNestingGroupId = nestingGroupId;
+    }
+
+    private void endInternal(boolean error) {
+        if (durationNanos != -1) {
+            // already ended
+            return;
+        }
+        durationNanos = ticker.read() - startTick;
+        if (error) {
+            this.error = true;
+        }
+        // the entry may be ended by a different thread than the one that started the transaction,
+        // so this clears the thread context of the thread that started the transaction (as long as
+        // that thread has not moved on to another transaction)
+        if (threadContextHolder.get() == this) {
+            threadContextHolder.set(null);
+        }
+        transactionService.onCompletedUnsampledTransaction(this);
+    }
+}
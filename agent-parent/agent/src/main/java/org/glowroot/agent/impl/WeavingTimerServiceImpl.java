@@ -17,6 +17,7 @@ package org.glowroot.agent.impl;
 
 import org.glowroot.agent.config.ConfigService;
 import org.glowroot.agent.model.ThreadContextImpl;
+import org.glowroot.agent.model.ThreadContextPlus;
 import org.glowroot.agent.model.TimerImpl;
 import org.glowroot.agent.plugin.api.TimerName;
 import org.glowroot.agent.plugin.api.config.ConfigListener;
@@ -47,11 +48,13 @@ public class WeavingTimerServiceImpl implements WeavingTimerService {
         if (!enabled) {
             return NopWeavingTimer.INSTANCE;
         }
-        ThreadContextImpl threadContext = transactionRegistry.getCurrentThreadContextHolder().get();
-        if (threadContext == null) {
+        ThreadContextPlus threadContext =
+                transactionRegistry.getCurrentThreadContextHolder().get();
+        if (!(threadContext instanceof ThreadContextImpl)) {
+            // not in a transaction, or in an unsampled transaction
             return NopWeavingTimer.INSTANCE;
         }
-        TimerImpl currentTimer = threadContext.getCurrentTimer();
+        TimerImpl currentTimer = ((ThreadContextImpl) threadContext).getCurrentTimer();
         if (currentTimer == null) {
             return NopWeavingTimer.INSTANCE;
         }
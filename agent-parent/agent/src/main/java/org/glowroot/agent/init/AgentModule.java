@@ -27,6 +27,9 @@ import java.util.concurrent.ThreadFactory;
 import java.util.jar.JarFile;
 
 import javax.annotation.Nullable;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 import com.google.common.base.Joiner;
 import com.google.common.base.Ticker;
@@ -54,14 +57,20 @@ import org.glowroot.agent.impl.WeavingTimerServiceImpl;
 import org.glowroot.agent.live.LiveJvmServiceImpl;
 import org.glowroot.agent.live.LiveTraceRepositoryImpl;
 import org.glowroot.agent.live.LiveWeavingServiceImpl;
+import org.glowroot.agent.live.ReweaveStats;
+import org.glowroot.agent.model.GcActivityTracker;
 import org.glowroot.agent.util.LazyPlatformMBeanServer;
+import org.glowroot.agent.util.LazyPlatformMBeanServer.InitListener;
 import org.glowroot.agent.util.OptionalService;
 import org.glowroot.agent.util.ThreadAllocatedBytes;
 import org.glowroot.agent.util.Tickers;
 import org.glowroot.agent.weaving.AnalyzedWorld;
+import org.glowroot.agent.weaving.AnalyzedWorldStats;
 import org.glowroot.agent.weaving.ExtraBootResourceFinder;
 import org.glowroot.agent.weaving.IsolatedWeavingClassLoader;
+import org.glowroot.agent.weaving.PreInitializeWeavingClasses;
 import org.glowroot.agent.weaving.WeaverImpl;
+import org.glowroot.agent.weaving.WeavingCache;
 import org.glowroot.agent.weaving.WeavingClassFileTransformer;
 import org.glowroot.agent.weaving.WeavingTimerService;
 import org.glowroot.common.live.LiveJvmService;
@@ -69,6 +78,7 @@ import org.glowroot.common.live.LiveTraceRepository;
 import org.glowroot.common.live.LiveWeavingService;
 import org.glowroot.common.util.Clock;
 import org.glowroot.common.util.OnlyUsedByTests;
+import org.glowroot.common.util.Version;
 import org.glowroot.wire.api.Collector;
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -86,6 +96,10 @@ public class AgentModule {
     private static final long ROLLUP_0_INTERVAL_MILLIS =
             Long.getLong("glowroot.internal.rollup.0.intervalMillis", 60 * 1000);
 
+    // caches weaving results on disk to speed up subsequent startups
+    private static final boolean WEAVING_CACHE = Boolean.getBoolean("glowroot.weaving.cache");
+
+    private final Clock clock;
     private final PluginCache pluginCache;
     private final ConfigService configService;
     private final AnalyzedWorld analyzedWorld;
@@ -101,6 +115,7 @@ public class AgentModule {
     private final ScheduledExecutorService scheduledExecutor;
     private final GaugeCollector gaugeCollector;
     private final StackTraceCollector stackTraceCollector;
+    private final GcActivityTracker gcActivityTracker;
 
     private final boolean jvmRetransformClassesSupported;
 
@@ -116,6 +131,7 @@ public class AgentModule {
             @Nullable Instrumentation instrumentation, File baseDir) throws Exception {
 
         Ticker ticker = nullableTicker == null ? Tickers.getTicker() : nullableTicker;
+        this.clock = clock;
         this.pluginCache = pluginCache;
         this.configService = configService;
         transactionRegistry = new TransactionRegistry();
@@ -131,9 +147,22 @@ public class AgentModule {
         weavingTimerService =
                 new WeavingTimerServiceImpl(transactionRegistry, configService, timerNameCache);
 
+        WeavingCache weavingCache = null;
+        if (WEAVING_CACHE) {
+            weavingCache = new WeavingCache(new File(baseDir, "weaving-cache"),
+                    adviceCache.getAdvisorsSupplier(), adviceCache.getShimTypes(),
+                    adviceCache.getMixinTypes(), pluginCache.pluginJars(),
+                    Version.getVersion(AgentModule.class));
+            if (instrumentation != null) {
+                // cache hits skip class analysis, so the classes used by analysis are otherwise
+                // first loaded later on from inside of weaving, which can lead to
+                // ClassCircularityError
+                PreInitializeWeavingClasses.preInitializeClasses();
+            }
+        }
         WeaverImpl weaver = new WeaverImpl(adviceCache.getAdvisorsSupplier(),
                 adviceCache.getShimTypes(), adviceCache.getMixinTypes(), analyzedWorld,
-                weavingTimerService);
+                weavingTimerService, weavingCache);
 
         if (instrumentation == null) {
             // instrumentation is null when debugging with LocalContainer
@@ -163,6 +192,7 @@ public class AgentModule {
                 aggregator, clock, ticker);
 
         OptionalService<ThreadAllocatedBytes> threadAllocatedBytes = ThreadAllocatedBytes.create();
+        gcActivityTracker = new GcActivityTracker();
 
         Random random = new Random();
         UserProfileScheduler userProfileScheduler =
@@ -170,7 +200,8 @@ public class AgentModule {
         GlowrootService glowrootService = new GlowrootServiceImpl(transactionRegistry);
         TransactionServiceImpl transactionService = TransactionServiceImpl.create(
                 transactionRegistry, transactionCollector, configService, timerNameCache,
-                threadAllocatedBytes.getService(), userProfileScheduler, ticker, clock);
+                threadAllocatedBytes.getService(), gcActivityTracker, userProfileScheduler, ticker,
+                clock);
         ConfigServiceFactory configServiceFactory = new ConfigServiceFactory() {
             @Override
             public org.glowroot.agent.plugin.api.config.ConfigService create(String pluginId) {
@@ -184,14 +215,24 @@ public class AgentModule {
                 configServiceFactory);
 
         lazyPlatformMBeanServer = new LazyPlatformMBeanServer();
+        lazyPlatformMBeanServer.addInitListener(new InitListener() {
+            @Override
+            public void postInit(MBeanServer mbeanServer) throws Exception {
+                try {
+                    mbeanServer.registerMBean(new AnalyzedWorldStats(analyzedWorld),
+                            new ObjectName("org.glowroot:type=AnalyzedWorld"));
+                } catch (InstanceAlreadyExistsException e) {
+                    // this happens during unit tests when a non-shared local container is used
+                    // (so that then there are two local containers in the same jvm)
+                    //
+                    // log exception at debug level
+                    logger.debug(e.getMessage(), e);
+                }
+            }
+        });
+        // gauge collection is not started until startGaugeCollection() is called
         gaugeCollector = new GaugeCollector(configService, collector, lazyPlatformMBeanServer,
                 clock, ticker);
-        // using fixed rate to keep gauge collections close to on the second mark
-        long gaugeCollectionIntervalMillis = configService.getGaugeCollectionIntervalMillis();
-        long initialDelay = gaugeCollectionIntervalMillis
-                - (clock.currentTimeMillis() % gaugeCollectionIntervalMillis);
-        gaugeCollector.scheduleWithFixedDelay(initialDelay, gaugeCollectionIntervalMillis,
-                MILLISECONDS);
         stackTraceCollector = StackTraceCollector.create(transactionRegistry, configService,
                 scheduledExecutor, random);
 
@@ -202,8 +243,25 @@ public class AgentModule {
 
         liveTraceRepository = new LiveTraceRepositoryImpl(transactionRegistry, transactionCollector,
                 clock, ticker);
-        liveWeavingService = new LiveWeavingServiceImpl(analyzedWorld, instrumentation,
-                configService, adviceCache, jvmRetransformClassesSupported);
+        LiveWeavingServiceImpl liveWeavingService = new LiveWeavingServiceImpl(analyzedWorld,
+                instrumentation, configService, adviceCache, jvmRetransformClassesSupported);
+        this.liveWeavingService = liveWeavingService;
+        final ReweaveStats reweaveStats = liveWeavingService.getReweaveStats();
+        lazyPlatformMBeanServer.addInitListener(new InitListener() {
+            @Override
+            public void postInit(MBeanServer mbeanServer) throws Exception {
+                try {
+                    mbeanServer.registerMBean(reweaveStats,
+                            new ObjectName("org.glowroot:type=Reweave"));
+                } catch (InstanceAlreadyExistsException e) {
+                    // this happens during unit tests when a non-shared local container is used
+                    // (so that then there are two local containers in the same jvm)
+                    //
+                    // log exception at debug level
+                    logger.debug(e.getMessage(), e);
+                }
+            }
+        });
         liveJvmService = new LiveJvmServiceImpl(lazyPlatformMBeanServer, transactionRegistry,
                 transactionCollector, threadAllocatedBytes.getAvailability());
 
@@ -219,6 +277,22 @@ public class AgentModule {
         }
     }
 
+    // this is separate from the constructor so that the fat agent in fast start mode can defer
+    // gauge collection (and with it the platform mbean server initialization) until after storage
+    // is initialized, since any gauge values collected before then would be dropped anyway
+    //
+    // the gc notification listeners are registered here too, so that they are not added to the
+    // GarbageCollectorMXBeans during the (premain) agent construction
+    public void startGaugeCollection() {
+        gcActivityTracker.startListening();
+        // using fixed rate to keep gauge collections close to on the second mark
+        long gaugeCollectionIntervalMillis = configService.getGaugeCollectionIntervalMillis();
+        long initialDelay = gaugeCollectionIntervalMillis
+                - (clock.currentTimeMillis() % gaugeCollectionIntervalMillis);
+        gaugeCollector.scheduleWithFixedDelay(initialDelay, gaugeCollectionIntervalMillis,
+                MILLISECONDS);
+    }
+
     public ConfigService getConfigService() {
         return configService;
     }
@@ -287,6 +361,7 @@ public class AgentModule {
         aggregator.close();
         gaugeCollector.close();
         stackTraceCollector.close();
+        gcActivityTracker.close();
         scheduledExecutor.shutdown();
         if (!scheduledExecutor.awaitTermination(10, SECONDS)) {
             throw new IllegalStateException("Could not terminate agent scheduled executor");
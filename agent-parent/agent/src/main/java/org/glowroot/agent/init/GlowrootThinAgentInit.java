@@ -72,6 +72,7 @@ public class GlowrootThinAgentInit implements GlowrootAgentInit {
 
         final AgentModule agentModule = new AgentModule(clock, ticker, pluginCache, configService,
                 collectorProxy, instrumentation, baseDir);
+        agentModule.startGaugeCollection();
 
         final AgentConfigUpdater agentConfigUpdater =
                 new ConfigUpdateService(configService, pluginCache);
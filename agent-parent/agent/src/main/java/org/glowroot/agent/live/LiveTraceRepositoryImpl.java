@@ -25,7 +25,6 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
 import com.google.common.base.Ticker;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Ordering;
 
@@ -34,6 +33,7 @@ import org.glowroot.agent.impl.TransactionRegistry;
 import org.glowroot.agent.model.ErrorMessage;
 import org.glowroot.agent.model.TraceCreator;
 import org.glowroot.agent.model.Transaction;
+import org.glowroot.agent.model.TransactionAttributes.Attribute;
 import org.glowroot.common.live.ImmutableTracePoint;
 import org.glowroot.common.live.LiveTraceRepository;
 import org.glowroot.common.util.Clock;
@@ -57,63 +57,51 @@ public class LiveTraceRepositoryImpl implements LiveTraceRepository {
         this.ticker = ticker;
     }
 
-    // checks active traces first, then pending traces (and finally caller should check stored
-    // traces) to make sure that the trace is not missed if it is in transition between these states
     @Override
     public @Nullable Trace.Header getHeader(String serverId, String traceId) throws IOException {
-        for (Transaction transaction : Iterables.concat(transactionRegistry.getTransactions(),
-                transactionCollector.getPendingTransactions())) {
-            if (transaction.getTraceId().equals(traceId)) {
-                return createTraceHeader(transaction);
-            }
+        Transaction transaction = getTransaction(traceId);
+        if (transaction == null) {
+            return null;
         }
-        return null;
+        return createTraceHeader(transaction);
     }
 
     @Override
     public List<Trace.Entry> getEntries(String serverId, String traceId) {
-        for (Transaction transaction : Iterables.concat(transactionRegistry.getTransactions(),
-                transactionCollector.getPendingTransactions())) {
-            if (transaction.getTraceId().equals(traceId)) {
-                return transaction.getEntriesProtobuf(ticker.read());
-            }
+        Transaction transaction = getTransaction(traceId);
+        if (transaction == null) {
+            return ImmutableList.of();
         }
-        return ImmutableList.of();
+        return transaction.getEntriesProtobuf(ticker.read());
     }
 
     @Override
     public @Nullable Profile getMainThreadProfile(String serverId, String traceId)
             throws IOException {
-        for (Transaction transaction : Iterables.concat(transactionRegistry.getTransactions(),
-                transactionCollector.getPendingTransactions())) {
-            if (transaction.getTraceId().equals(traceId)) {
-                return transaction.getMainThreadProfileProtobuf();
-            }
+        Transaction transaction = getTransaction(traceId);
+        if (transaction == null) {
+            return null;
         }
-        return null;
+        return transaction.getMainThreadProfileProtobuf();
     }
 
     @Override
     public @Nullable Profile getAuxThreadProfile(String serverId, String traceId)
             throws IOException {
-        for (Transaction transaction : Iterables.concat(transactionRegistry.getTransactions(),
-                transactionCollector.getPendingTransactions())) {
-            if (transaction.getTraceId().equals(traceId)) {
-                return transaction.getAuxThreadProfileProtobuf();
-            }
+        Transaction transaction = getTransaction(traceId);
+        if (transaction == null) {
+            return null;
         }
-        return null;
+        return transaction.getAuxThreadProfileProtobuf();
     }
 
     @Override
     public @Nullable Trace getFullTrace(String serverId, String traceId) throws IOException {
-        for (Transaction transaction : Iterables.concat(transactionRegistry.getTransactions(),
-                transactionCollector.getPendingTransactions())) {
-            if (transaction.getTraceId().equals(traceId)) {
-                return createFullTrace(transaction);
-            }
+        Transaction transaction = getTransaction(traceId);
+        if (transaction == null) {
+            return null;
         }
-        return null;
+        return createFullTrace(transaction);
     }
 
     @Override
@@ -122,7 +110,7 @@ public class LiveTraceRepositoryImpl implements LiveTraceRepository {
         // include active traces, this is mostly for the case where there is just a single very
         // long running active trace and it would be misleading to display Traces (0) on the tab
         int count = 0;
-        for (Transaction transaction : transactionRegistry.getTransactions()) {
+        for (Transaction transaction : transactionRegistry.getTransactions(transactionType)) {
             // don't include partially stored traces since those are already counted above
             if (matchesActive(transaction, transactionType, transactionName)
                     && !transaction.isPartiallyStored()) {
@@ -137,7 +125,7 @@ public class LiveTraceRepositoryImpl implements LiveTraceRepository {
             String transactionType, @Nullable String transactionName, TracePointFilter filter,
             int limit, long captureTime, long captureTick) {
         List<TracePoint> activeTracePoints = Lists.newArrayList();
-        for (Transaction transaction : transactionRegistry.getTransactions()) {
+        for (Transaction transaction : transactionRegistry.getTransactions(transactionType)) {
             long startTick = transaction.getStartTick();
             if (matches(transaction, traceKind, transactionType, transactionName, filter)
                     && startTick < captureTick) {
@@ -183,6 +171,22 @@ public class LiveTraceRepositoryImpl implements LiveTraceRepository {
         return points;
     }
 
+    // checks active traces first, then pending traces (and finally caller should check stored
+    // traces) to make sure that the trace is not missed if it is in transition between these states
+    private @Nullable Transaction getTransaction(String traceId) {
+        Transaction transaction = transactionRegistry.getTransaction(traceId);
+        if (transaction != null) {
+            return transaction;
+        }
+        // pending transactions are bounded by TransactionCollector.PENDING_LIMIT
+        for (Transaction pendingTransaction : transactionCollector.getPendingTransactions()) {
+            if (pendingTransaction.getTraceId().equals(traceId)) {
+                return pendingTransaction;
+            }
+        }
+        return null;
+    }
+
     @VisibleForTesting
     boolean matchesActive(Transaction transaction, String transactionType,
             @Nullable String transactionName) {
@@ -228,7 +232,20 @@ public class LiveTraceRepositoryImpl implements LiveTraceRepository {
                 && filter.matchesDuration(transaction.getDurationNanos())
                 && filter.matchesError(errorMessage == null ? "" : errorMessage.message())
                 && filter.matchesUser(transaction.getUser())
-                && filter.matchesAttributes(transaction.getAttributes().asMap());
+                && matchesAttributes(transaction, filter);
+    }
+
+    private static boolean matchesAttributes(Transaction transaction, TracePointFilter filter) {
+        if (!filter.hasAttributeFilter()) {
+            // no custom attribute filter
+            return true;
+        }
+        for (Attribute attribute : transaction.getAttributes()) {
+            if (filter.matchesAttribute(attribute.name(), attribute.value())) {
+                return true;
+            }
+        }
+        return false;
     }
 
     private boolean matchesKind(Transaction transaction, TraceKind traceKind) {
@@ -25,42 +25,66 @@ import javax.annotation.Nullable;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Splitter;
+import com.google.common.base.Stopwatch;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ComparisonChain;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Iterables;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Ordering;
 import com.google.common.collect.Sets;
 import org.checkerframework.checker.nullness.qual.RequiresNonNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import org.glowroot.agent.config.ConfigService;
 import org.glowroot.agent.config.InstrumentationConfig;
 import org.glowroot.agent.impl.AdviceCache;
 import org.glowroot.agent.live.ClasspathCache.UiAnalyzedMethod;
+import org.glowroot.agent.weaving.Advice;
 import org.glowroot.agent.weaving.AnalyzedWorld;
 import org.glowroot.common.live.LiveWeavingService;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.GlobalMeta;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.MethodSignature;
+import org.glowroot.wire.api.model.DownstreamServiceOuterClass.ReweaveProgress;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static org.objectweb.asm.Opcodes.ACC_FINAL;
 import static org.objectweb.asm.Opcodes.ACC_SYNCHRONIZED;
 
 public class LiveWeavingServiceImpl implements LiveWeavingService {
 
+    private static final Logger logger = LoggerFactory.getLogger(LiveWeavingServiceImpl.class);
+
     private static final String THE_SINGLE_KEY = "THE_SINGLE_KEY";
     private static final Splitter splitter = Splitter.on(' ').omitEmptyStrings();
 
+    // retransforming all affected classes at once can stall a large application for seconds, so
+    // classes are retransformed in batches, with a pause between batches to let the application
+    // make progress
+    private static final int REWEAVE_BATCH_SIZE =
+            Math.max(1, Integer.getInteger("glowroot.reweave.batchSize", 200));
+    private static final long REWEAVE_BATCH_PAUSE_MILLIS =
+            Long.getLong("glowroot.reweave.batchPauseMillis", 20);
+
     private final AnalyzedWorld analyzedWorld;
     private final @Nullable Instrumentation instrumentation;
     private final ConfigService configService;
     private final AdviceCache adviceCache;
     private final boolean jvmRetransformClassesSupported;
 
+    // the reweave lock is held while determining which classes to retransform and while
+    // retransforming each batch, but not while pausing between batches, so that a concurrent
+    // reweave is not blocked for the duration of a large reweave (interleaving batches is safe since
+    // each batch is woven with the advisors that are current at that time)
+    private final Object reweaveLock = new Object();
+
+    private final ReweaveStats reweaveStats = new ReweaveStats();
+
     // hopefully can simplify someday https://github.com/google/guava/issues/872
     private final LoadingCache<String, ClasspathCache> classpathCache = CacheBuilder.newBuilder()
             .softValues()
@@ -163,6 +187,15 @@ public class LiveWeavingServiceImpl implements LiveWeavingService {
         return reweaveInternal();
     }
 
+    @Override
+    public ReweaveProgress getReweaveProgress(String serverId) {
+        return reweaveStats.toProto();
+    }
+
+    public ReweaveStats getReweaveStats() {
+        return reweaveStats;
+    }
+
     private List<UiAnalyzedMethod> getAnalyzedMethods(String className, String methodName) {
         // use set to remove duplicate methods (e.g. same class loaded by multiple class loaders)
         Set<UiAnalyzedMethod> analyzedMethods = Sets.newHashSet();
@@ -181,29 +214,59 @@ public class LiveWeavingServiceImpl implements LiveWeavingService {
 
     @RequiresNonNull("instrumentation")
     private int reweaveInternal() throws Exception {
-        List<InstrumentationConfig> configs = configService.getInstrumentationConfigs();
-        adviceCache.updateAdvisors(configs, false);
-        Set<String> classNames = Sets.newHashSet();
-        for (InstrumentationConfig config : configs) {
-            String className = config.className();
-            if (!className.isEmpty()) {
-                classNames.add(className);
+        List<Class<?>> classes;
+        List<Class<?>> existingReweavableClasses;
+        List<Class<?>> possibleNewReweavableClasses;
+        int skippedClassCount;
+        synchronized (reweaveLock) {
+            List<InstrumentationConfig> configs = configService.getInstrumentationConfigs();
+            Set<InstrumentationConfig> priorConfigs = adviceCache.getReweavableConfigs();
+            // advice is re-used for unchanged configs (see AdviceCache.updateAdvisors())
+            adviceCache.updateAdvisors(configs, false);
+            Set<Advice> currentAdvisors =
+                    ImmutableSet.copyOf(adviceCache.getAdvisorsSupplier().get());
+            Set<String> classNames = Sets.newHashSet();
+            for (InstrumentationConfig config : configs) {
+                // only new (or changed) configs can apply to classes that are not already woven
+                // with their advice
+                String className = config.className();
+                if (!priorConfigs.contains(config) && !className.isEmpty()) {
+                    classNames.add(className);
+                }
+            }
+            // using linked hash set so that batches are retransformed in a predictable order
+            Set<Class<?>> classSet = Sets.newLinkedHashSet();
+            possibleNewReweavableClasses = getExistingSubClasses(classNames);
+            int priorReweavableClassCount =
+                    analyzedWorld.getClassesWithReweavableAdvice(false).size();
+            // need to remove these classes from AnalyzedWorld, otherwise if a subclass and its
+            // parent class are both in the list and the subclass is re-transformed first, it will
+            // use the old cached AnalyzedClass for its parent which will have the old
+            // AnalyzedMethod advisors
+            //
+            // classes whose reweavable advice is all still current are left alone
+            existingReweavableClasses =
+                    analyzedWorld.getClassesWithStaleReweavableAdvice(currentAdvisors);
+            analyzedWorld.removeClasses(possibleNewReweavableClasses);
+            classSet.addAll(existingReweavableClasses);
+            classSet.addAll(possibleNewReweavableClasses);
+            if (classSet.isEmpty()) {
+                return 0;
             }
+            classes = ImmutableList.copyOf(classSet);
+            skippedClassCount = priorReweavableClassCount - existingReweavableClasses.size();
+            reweaveStats.start(classes.size(), skippedClassCount);
         }
-        Set<Class<?>> classes = Sets.newHashSet();
-        List<Class<?>> possibleNewReweavableClasses = getExistingSubClasses(classNames);
-        // need to remove these classes from AnalyzedWorld, otherwise if a subclass and its parent
-        // class are both in the list and the subclass is re-transformed first, it will use the
-        // old cached AnalyzedClass for its parent which will have the old AnalyzedMethod advisors
-        List<Class<?>> existingReweavableClasses =
-                analyzedWorld.getClassesWithReweavableAdvice(true);
-        analyzedWorld.removeClasses(possibleNewReweavableClasses);
-        classes.addAll(existingReweavableClasses);
-        classes.addAll(possibleNewReweavableClasses);
-        if (classes.isEmpty()) {
-            return 0;
+        try {
+            retransformClassesInBatches(classes);
+        } finally {
+            synchronized (reweaveLock) {
+                reweaveStats.end();
+            }
         }
-        instrumentation.retransformClasses(Iterables.toArray(classes, Class.class));
+        logger.debug("reweave retransformed {} classes (skipped {} unchanged classes), max batch"
+                + " pause {} ms", classes.size(), skippedClassCount,
+                reweaveStats.getMaxBatchPauseMillis());
         List<Class<?>> updatedReweavableClasses =
                 analyzedWorld.getClassesWithReweavableAdvice(false);
         // all existing reweavable classes were woven
@@ -218,6 +281,23 @@ public class LiveWeavingServiceImpl implements LiveWeavingService {
         return count;
     }
 
+    @RequiresNonNull("instrumentation")
+    private void retransformClassesInBatches(List<Class<?>> classes) throws Exception {
+        for (int i = 0; i < classes.size(); i += REWEAVE_BATCH_SIZE) {
+            if (i > 0 && REWEAVE_BATCH_PAUSE_MILLIS > 0) {
+                // not holding the reweave lock here
+                MILLISECONDS.sleep(REWEAVE_BATCH_PAUSE_MILLIS);
+            }
+            List<Class<?>> batch =
+                    classes.subList(i, Math.min(i + REWEAVE_BATCH_SIZE, classes.size()));
+            synchronized (reweaveLock) {
+                Stopwatch stopwatch = Stopwatch.createStarted();
+                instrumentation.retransformClasses(batch.toArray(new Class<?>[batch.size()]));
+                reweaveStats.batchCompleted(batch.size(), stopwatch.elapsed(MILLISECONDS));
+            }
+        }
+    }
+
     @RequiresNonNull("instrumentation")
     private List<Class<?>> getExistingSubClasses(Set<String> classNames) {
         List<Class<?>> classes = Lists.newArrayList();
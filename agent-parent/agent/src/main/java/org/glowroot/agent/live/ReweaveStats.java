@@ -0,0 +1,119 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.live;
+
+import org.glowroot.wire.api.model.DownstreamServiceOuterClass.ReweaveProgress;
+
+// progress of the current (or most recent) reweave, see LiveWeavingServiceImpl
+//
+// the batch pause times are the time spent inside Instrumentation.retransformClasses() for each
+// batch, which is roughly the time that the application may be stalled
+public class ReweaveStats implements ReweaveStatsMXBean {
+
+    // concurrent reweaves can overlap since the reweave lock is not held between batches, in which
+    // case their progress is combined
+    private volatile int inProgressCount;
+    private volatile int classCount;
+    private volatile int completedClassCount;
+    private volatile int skippedClassCount;
+    private volatile int completedBatchCount;
+    private volatile long lastBatchPauseMillis;
+    private volatile long maxBatchPauseMillis;
+    private volatile long totalBatchPauseMillis;
+
+    @Override
+    public boolean isInProgress() {
+        return inProgressCount > 0;
+    }
+
+    @Override
+    public int getClassCount() {
+        return classCount;
+    }
+
+    @Override
+    public int getCompletedClassCount() {
+        return completedClassCount;
+    }
+
+    // classes with reweavable advice that did not need to be reweaved since their advice did not
+    // change
+    @Override
+    public int getSkippedClassCount() {
+        return skippedClassCount;
+    }
+
+    @Override
+    public int getCompletedBatchCount() {
+        return completedBatchCount;
+    }
+
+    @Override
+    public long getLastBatchPauseMillis() {
+        return lastBatchPauseMillis;
+    }
+
+    @Override
+    public long getMaxBatchPauseMillis() {
+        return maxBatchPauseMillis;
+    }
+
+    @Override
+    public long getTotalBatchPauseMillis() {
+        return totalBatchPauseMillis;
+    }
+
+    ReweaveProgress toProto() {
+        return ReweaveProgress.newBuilder()
+                .setInProgress(isInProgress())
+                .setClassCount(classCount)
+                .setCompletedClassCount(completedClassCount)
+                .setSkippedClassCount(skippedClassCount)
+                .setCompletedBatchCount(completedBatchCount)
+                .setMaxBatchPauseMillis(maxBatchPauseMillis)
+                .setTotalBatchPauseMillis(totalBatchPauseMillis)
+                .build();
+    }
+
+    // these are only called by LiveWeavingServiceImpl while holding its reweave lock
+
+    void start(int classCount, int skippedClassCount) {
+        if (inProgressCount == 0) {
+            this.classCount = classCount;
+            completedClassCount = 0;
+            completedBatchCount = 0;
+            lastBatchPauseMillis = 0;
+            maxBatchPauseMillis = 0;
+            totalBatchPauseMillis = 0;
+        } else {
+            this.classCount += classCount;
+        }
+        this.skippedClassCount = skippedClassCount;
+        inProgressCount++;
+    }
+
+    void batchCompleted(int batchClassCount, long pauseMillis) {
+        completedClassCount += batchClassCount;
+        completedBatchCount++;
+        lastBatchPauseMillis = pauseMillis;
+        maxBatchPauseMillis = Math.max(maxBatchPauseMillis, pauseMillis);
+        totalBatchPauseMillis += pauseMillis;
+    }
+
+    void end() {
+        inProgressCount--;
+    }
+}
@@ -16,6 +16,9 @@
 package org.glowroot.agent.model;
 
 import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+import javax.annotation.Nullable;
 
 import com.google.common.base.Ticker;
 import com.google.common.collect.ImmutableList;
@@ -29,22 +32,35 @@ public class AsyncTimerImpl implements CommonTimerImpl {
 
     private static final Ticker ticker = Tickers.getTicker();
 
+    private static final AtomicLongFieldUpdater<AsyncTimerImpl> totalNanosUpdater =
+            AtomicLongFieldUpdater.newUpdater(AsyncTimerImpl.class, "totalNanos");
+
     private final TimerNameImpl timerName;
     private final long startTick;
+    // this is non-null when the transaction has exceeded its limit on async root timers, in which
+    // case this timer is merged into the overflow aggregate when it is stopped
+    private final @Nullable OverflowAggregate overflowAggregate;
 
     private volatile long totalNanos = -1;
 
-    AsyncTimerImpl(TimerNameImpl timerName, long startTick) {
+    AsyncTimerImpl(TimerNameImpl timerName, long startTick,
+            @Nullable OverflowAggregate overflowAggregate) {
         this.timerName = timerName;
         this.startTick = startTick;
+        this.overflowAggregate = overflowAggregate;
     }
 
     public void stop() {
-        totalNanos = ticker.read() - startTick;
+        end(ticker.read());
     }
 
     public void end(long endTick) {
-        totalNanos = endTick - startTick;
+        // only the first end counts, so that a timer ended concurrently from two threads is not
+        // merged into the overflow aggregate twice
+        if (totalNanosUpdater.compareAndSet(this, -1, Math.max(0, endTick - startTick))
+                && overflowAggregate != null) {
+            overflowAggregate.mergeAsyncRootTimer(this);
+        }
     }
 
     @Override
@@ -22,7 +22,6 @@ import java.util.ListIterator;
 import javax.annotation.Nullable;
 
 import com.google.common.base.Strings;
-import com.google.common.collect.ImmutableList;
 import org.immutables.value.Value;
 
 import org.glowroot.common.util.Styles;
@@ -33,7 +32,19 @@ import org.glowroot.wire.api.model.Proto;
 public abstract class ErrorMessage {
 
     public abstract String message();
-    public abstract @Nullable Proto.Throwable throwable();
+    // the throwable's class names, messages and stack traces are captured eagerly (so that the
+    // throwable itself, along with anything it references, is not retained for the life of the
+    // transaction), but they are only converted to protobuf when a trace is actually created, since
+    // most errors captured in trace entries belong to transactions whose traces are never stored
+    public abstract @Nullable CapturedThrowable throwable();
+
+    public @Nullable Proto.Throwable throwableProto() {
+        CapturedThrowable throwable = throwable();
+        if (throwable == null) {
+            return null;
+        }
+        return throwable.toProto();
+    }
 
     public static ErrorMessage from(Throwable t) {
         return from("", t);
@@ -53,13 +64,49 @@ public abstract class ErrorMessage {
         if (msg.isEmpty()) {
             msg = Strings.nullToEmpty(t.getClass().getName());
         }
-        return ImmutableErrorMessage.of(msg, buildThrowableInfo(t, null));
+        return ImmutableErrorMessage.of(msg, CapturedThrowable.capture(t));
+    }
+
+    public static class CapturedThrowable {
+
+        private final String className;
+        private final @Nullable String message;
+        private final StackTraceElement[] stackTrace;
+        private final @Nullable CapturedThrowable cause;
+
+        // the proto is memoized since the same error message can be part of more than one trace
+        // (e.g. partial traces and then the final trace), benign race since building it is
+        // idempotent
+        private volatile @Nullable Proto.Throwable proto;
+
+        private CapturedThrowable(String className, @Nullable String message,
+                StackTraceElement[] stackTrace, @Nullable CapturedThrowable cause) {
+            this.className = className;
+            this.message = message;
+            this.stackTrace = stackTrace;
+            this.cause = cause;
+        }
+
+        private Proto.Throwable toProto() {
+            Proto.Throwable proto = this.proto;
+            if (proto == null) {
+                proto = buildThrowableInfo(this, null);
+                this.proto = proto;
+            }
+            return proto;
+        }
+
+        private static CapturedThrowable capture(Throwable t) {
+            Throwable cause = t.getCause();
+            return new CapturedThrowable(t.getClass().getName(), t.getMessage(),
+                    t.getStackTrace(), cause == null ? null : capture(cause));
+        }
     }
 
-    private static Proto.Throwable buildThrowableInfo(Throwable t,
+    private static Proto.Throwable buildThrowableInfo(CapturedThrowable t,
             @Nullable List<StackTraceElement> causedStackTrace) {
         int framesInCommonWithEnclosing = 0;
-        ImmutableList<StackTraceElement> stackTrace = ImmutableList.copyOf(t.getStackTrace());
+        List<StackTraceElement> stackTrace = Arrays.asList(t.stackTrace);
         if (causedStackTrace != null) {
             ListIterator<StackTraceElement> i = stackTrace.listIterator(stackTrace.size());
             ListIterator<StackTraceElement> j =
@@ -78,8 +125,8 @@ public abstract class ErrorMessage {
             }
         }
         Proto.Throwable.Builder builder = Proto.Throwable.newBuilder()
-                .setClassName(t.getClass().getName());
-        String message = t.getMessage();
+                .setClassName(t.className);
+        String message = t.message;
         if (message != null) {
             builder.setMessage(message);
         }
@@ -87,11 +134,11 @@ public abstract class ErrorMessage {
             builder.addStackTraceElement(toProto(element));
         }
         builder.setFramesInCommonWithEnclosing(framesInCommonWithEnclosing);
-        Throwable cause = t.getCause();
+        CapturedThrowable cause = t.cause;
         if (cause != null) {
             // pass t's original stack trace to construct the nested cause
             // (not stackTraces, which now has common frames removed)
-            builder.setCause(buildThrowableInfo(cause, Arrays.asList(t.getStackTrace())));
+            builder.setCause(buildThrowableInfo(cause, Arrays.asList(t.stackTrace)));
         }
         return builder.build();
     }
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.model;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.glowroot.wire.api.model.TraceOuterClass.Trace;
+
+// tracks cumulative garbage collection counts and times across all transactions, so that each
+// transaction only needs to grab a reference to the current snapshot at start (instead of querying
+// every GarbageCollectorMXBean and building a map of snapshots), and the end snapshot and gc
+// activity are only computed when a trace is actually built
+//
+// the current snapshot is refreshed by gc notifications (available since JDK 7u4 on HotSpot), and
+// when gc notifications are not available (or not yet registered), it falls back to querying the
+// GarbageCollectorMXBeans on each call
+public class GcActivityTracker {
+
+    private static final Logger logger = LoggerFactory.getLogger(GcActivityTracker.class);
+
+    private final ImmutableList<GarbageCollectorMXBean> gcBeans;
+    private final String[] gcBeanNames;
+
+    private final boolean notificationsSupported;
+    private final NotificationListener notificationListener = new GcNotificationListener();
+
+    // this is null until startListening() registers the gc notification listeners, and then it is
+    // refreshed by those notifications
+    private volatile @Nullable GcSnapshot currentSnapshot;
+
+    @GuardedBy("this")
+    private boolean listening;
+
+    // the gc notification listeners are not registered here, since this is constructed early
+    // during agent startup, see startListening()
+    public GcActivityTracker() {
+        gcBeans = ImmutableList.copyOf(ManagementFactory.getGarbageCollectorMXBeans());
+        gcBeanNames = new String[gcBeans.size()];
+        for (int i = 0; i < gcBeanNames.length; i++) {
+            gcBeanNames[i] = gcBeans.get(i).getName();
+        }
+        notificationsSupported = isNotificationsSupported(gcBeans);
+    }
+
+    // this is called from AgentModule.startGaugeCollection(), until then each call to
+    // getCurrentSnapshot() queries the GarbageCollectorMXBeans
+    public synchronized void startListening() {
+        if (!notificationsSupported || listening) {
+            return;
+        }
+        for (GarbageCollectorMXBean gcBean : gcBeans) {
+            ((NotificationEmitter) gcBean).addNotificationListener(notificationListener, null,
+                    null);
+        }
+        listening = true;
+        // taken after adding the listeners in case a gc completes in between
+        currentSnapshot = takeSnapshot();
+    }
+
+    // this is used for transaction start, and the returned snapshot may not yet reflect a gc that
+    // completed in the last few milliseconds (since gc notifications are delivered asynchronously),
+    // in which case that gc is attributed to the transaction
+    GcSnapshot getCurrentSnapshot() {
+        GcSnapshot snapshot = currentSnapshot;
+        if (snapshot != null) {
+            return snapshot;
+        }
+        return takeSnapshot();
+    }
+
+    // this is used for transaction end (which is only needed when a trace is built), so that gc
+    // activity is never under-reported due to notification delay
+    GcSnapshot takeSnapshot() {
+        long[] collectionCounts = new long[gcBeans.size()];
+        long[] collectionTimes = new long[gcBeans.size()];
+        for (int i = 0; i < collectionCounts.length; i++) {
+            GarbageCollectorMXBean gcBean = gcBeans.get(i);
+            collectionCounts[i] = gcBean.getCollectionCount();
+            collectionTimes[i] = gcBean.getCollectionTime();
+        }
+        return new GcSnapshot(collectionCounts, collectionTimes);
+    }
+
+    List<Trace.GarbageCollectionActivity> getGcActivity(GcSnapshot startSnapshot,
+            GcSnapshot endSnapshot) {
+        List<Trace.GarbageCollectionActivity> gcActivity = Lists.newArrayList();
+        for (int i = 0; i < gcBeanNames.length; i++) {
+            long collectionCount =
+                    endSnapshot.collectionCounts[i] - startSnapshot.collectionCounts[i];
+            if (collectionCount == 0) {
+                // no new collections, so don't write it out
+                continue;
+            }
+            gcActivity.add(Trace.GarbageCollectionActivity.newBuilder()
+                    .setCollectorName(gcBeanNames[i])
+                    .setCount(collectionCount)
+                    .setTotalMillis(
+                            endSnapshot.collectionTimes[i] - startSnapshot.collectionTimes[i])
+                    .build());
+        }
+        return gcActivity;
+    }
+
+    public synchronized void close() {
+        if (!listening) {
+            return;
+        }
+        for (GarbageCollectorMXBean gcBean : gcBeans) {
+            try {
+                ((NotificationEmitter) gcBean).removeNotificationListener(notificationListener);
+            } catch (ListenerNotFoundException e) {
+                logger.debug(e.getMessage(), e);
+            }
+        }
+        listening = false;
+        currentSnapshot = null;
+    }
+
+    @VisibleForTesting
+    static boolean isNotificationsSupported(List<GarbageCollectorMXBean> gcBeans) {
+        for (GarbageCollectorMXBean gcBean : gcBeans) {
+            // JVMs that do not emit gc notifications (e.g. prior to JDK 7u4) do not advertise
+            // any in getNotificationInfo()
+            if (!(gcBean instanceof NotificationEmitter)
+                    || ((NotificationEmitter) gcBean).getNotificationInfo().length == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static class GcSnapshot {
+
+        private final long[] collectionCounts;
+        private final long[] collectionTimes;
+
+        private GcSnapshot(long[] collectionCounts, long[] collectionTimes) {
+            this.collectionCounts = collectionCounts;
+            this.collectionTimes = collectionTimes;
+        }
+    }
+
+    private class GcNotificationListener implements NotificationListener {
+        @Override
+        public void handleNotification(Notification notification, @Nullable Object handback) {
+            currentSnapshot = takeSnapshot();
+        }
+    }
+}
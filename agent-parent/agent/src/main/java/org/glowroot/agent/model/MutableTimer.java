@@ -24,7 +24,7 @@ import com.google.common.collect.Lists;
 import org.glowroot.agent.model.TimerImpl.TimerImplSnapshot;
 import org.glowroot.wire.api.model.TraceOuterClass.Trace;
 
-class MutableTimer {
+class MutableTimer implements CommonTimerImpl {
 
     private final String name;
     private final boolean extended;
@@ -46,10 +46,59 @@ class MutableTimer {
         this.childTimers = Lists.newArrayList(nestedTimers);
     }
 
-    String getName() {
+    @Override
+    public String getName() {
         return name;
     }
 
+    @Override
+    public boolean isExtended() {
+        return extended;
+    }
+
+    @Override
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    @Override
+    public long getCount() {
+        return count;
+    }
+
+    @Override
+    public Iterator<MutableTimer> getChildTimers() {
+        return childTimers.iterator();
+    }
+
+    @Override
+    public TimerImplSnapshot getSnapshot() {
+        return ImmutableTimerImplSnapshot.of(totalNanos, count, active);
+    }
+
+    // adds a single completed timing that has no child timers
+    void add(long totalNanos) {
+        this.totalNanos += totalNanos;
+        count++;
+    }
+
+    // adds time to a previously completed timing (see Timer.extend()), so does not increment count
+    void extend(long totalNanos) {
+        this.totalNanos += totalNanos;
+    }
+
+    MutableTimer getOrCreateChildTimer(String name, boolean extended) {
+        for (MutableTimer childTimer : childTimers) {
+            if (name.equals(childTimer.name) && extended == childTimer.extended) {
+                return childTimer;
+            }
+        }
+        MutableTimer childTimer =
+                new MutableTimer(name, extended, 0, 0, new ArrayList<MutableTimer>());
+        childTimers.add(childTimer);
+        return childTimer;
+    }
+
     void merge(CommonTimerImpl timer) {
         TimerImplSnapshot snapshot = timer.getSnapshot();
         count += snapshot.count();
@@ -58,21 +107,8 @@ class MutableTimer {
         Iterator<? extends CommonTimerImpl> i = timer.getChildTimers();
         while (i.hasNext()) {
             CommonTimerImpl toBeMergedChildTimer = i.next();
-            String toBeMergedChildTimerName = toBeMergedChildTimer.getName();
-            boolean extended = toBeMergedChildTimer.isExtended();
-            MutableTimer matchingChildTimer = null;
-            for (MutableTimer childTimer : childTimers) {
-                if (toBeMergedChildTimerName.equals(childTimer.getName())
-                        && extended == childTimer.extended) {
-                    matchingChildTimer = childTimer;
-                    break;
-                }
-            }
-            if (matchingChildTimer == null) {
-                matchingChildTimer = new MutableTimer(toBeMergedChildTimer.getName(),
-                        toBeMergedChildTimer.isExtended(), 0, 0, new ArrayList<MutableTimer>());
-                childTimers.add(matchingChildTimer);
-            }
+            MutableTimer matchingChildTimer = getOrCreateChildTimer(
+                    toBeMergedChildTimer.getName(), toBeMergedChildTimer.isExtended());
             matchingChildTimer.merge(toBeMergedChildTimer);
         }
     }
@@ -38,23 +38,21 @@ import org.glowroot.agent.plugin.api.internal.NopTransactionService.NopTraceEntr
 import org.glowroot.agent.plugin.api.util.FastThreadLocal.Holder;
 import org.glowroot.common.util.UsedByGeneratedBytecode;
 
-import static com.google.common.base.Preconditions.checkNotNull;
-
 public class OptionalThreadContextImpl implements ThreadContextPlus {
 
-    private @MonotonicNonNull ThreadContextImpl threadContext;
+    private @MonotonicNonNull ThreadContextPlus threadContext;
 
     private final TransactionServiceImpl transactionService;
-    private final Holder</*@Nullable*/ ThreadContextImpl> threadContextHolder;
+    private final Holder</*@Nullable*/ ThreadContextPlus> threadContextHolder;
 
     @UsedByGeneratedBytecode
     public static OptionalThreadContextImpl create(TransactionServiceImpl transactionService,
-            Holder</*@Nullable*/ ThreadContextImpl> threadContextHolder) {
+            Holder</*@Nullable*/ ThreadContextPlus> threadContextHolder) {
         return new OptionalThreadContextImpl(transactionService, threadContextHolder);
     }
 
     private OptionalThreadContextImpl(TransactionServiceImpl transactionService,
-            Holder</*@Nullable*/ ThreadContextImpl> threadContextHolder) {
+            Holder</*@Nullable*/ ThreadContextPlus> threadContextHolder) {
         this.transactionService = transactionService;
         this.threadContextHolder = threadContextHolder;
     }
@@ -67,9 +65,12 @@ public class OptionalThreadContextImpl implements ThreadContextPlus {
         }
         TraceEntry traceEntry = transactionService.startTransaction(transactionType,
                 transactionName, messageSupplier, timerName, threadContextHolder);
-        ThreadContextImpl threadContext = threadContextHolder.get();
-        checkNotNull(threadContext);
-        this.threadContext = threadContext;
+        // thread context is an UnsampledTransaction if the transaction was not sampled (see
+        // TransactionSampler), and is null if the transaction could not be started
+        ThreadContextPlus threadContext = threadContextHolder.get();
+        if (threadContext != null) {
+            this.threadContext = threadContext;
+        }
         return traceEntry;
     }
 
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.model;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import org.glowroot.common.util.NotAvailableAware;
+
+// synthetic context that the auxiliary thread contexts and async root timers of a transaction are
+// merged into once the transaction exceeds the limits on the number of these, so that a transaction
+// which fans out into a very large number of executor tasks or async calls does not retain a full
+// thread context (with its own root timer, trace entries and query data) or async timer per task
+//
+// only completed auxiliary thread contexts and stopped async timers are merged, auxiliary thread
+// contexts contribute their timers (including nested timers), queries and thread stats, but not
+// their trace entries (see OverflowAuxThreadContext)
+class OverflowAggregate {
+
+    @GuardedBy("this")
+    private final List<MutableTimer> auxThreadRootTimers = Lists.newArrayList();
+    @GuardedBy("this")
+    private final List<MutableTimer> asyncRootTimers = Lists.newArrayList();
+
+    // key is query type, then query text
+    @GuardedBy("this")
+    private final Map<String, Map<String, QueryData>> queries = Maps.newHashMap();
+
+    // null until the first auxiliary thread context with thread stats is merged
+    @GuardedBy("this")
+    private @Nullable ThreadStats auxThreadStats;
+
+    synchronized void mergeAuxThreadRootTimer(MutableTimer auxThreadRootTimer) {
+        TraceCreator.mergeRootTimer(auxThreadRootTimer, auxThreadRootTimers);
+    }
+
+    synchronized void mergeAsyncRootTimer(AsyncTimerImpl asyncTimer) {
+        TraceCreator.mergeRootTimer(asyncTimer, asyncRootTimers);
+    }
+
+    // the transaction's aggregate query limit is applied here (instead of in each overflowed
+    // auxiliary thread context) so that each distinct query only counts once against the limit
+    synchronized boolean allowQuery(String queryType, String queryText, Transaction transaction) {
+        Map<String, QueryData> queriesForType = queries.get(queryType);
+        if (queriesForType != null && queriesForType.containsKey(queryText)) {
+            return true;
+        }
+        if (!transaction.allowAnotherAggregateQuery()) {
+            return false;
+        }
+        if (queriesForType == null) {
+            queriesForType = Maps.newHashMap();
+            queries.put(queryType, queriesForType);
+        }
+        queriesForType.put(queryText, new QueryData(queryType, queryText, null));
+        return true;
+    }
+
+    // queries must have been allowed first by allowQuery()
+    synchronized void mergeQueries(Iterable<QueryData> toBeMergedQueries) {
+        for (QueryData toBeMergedQuery : toBeMergedQueries) {
+            Map<String, QueryData> queriesForType = queries.get(toBeMergedQuery.getQueryType());
+            if (queriesForType == null) {
+                continue;
+            }
+            QueryData queryData = queriesForType.get(toBeMergedQuery.getQueryText());
+            if (queryData != null) {
+                queryData.merge(toBeMergedQuery);
+            }
+        }
+    }
+
+    synchronized void mergeAuxThreadStats(ThreadStats threadStats) {
+        ThreadStats auxThreadStats = this.auxThreadStats;
+        if (auxThreadStats == null) {
+            this.auxThreadStats = threadStats;
+            return;
+        }
+        this.auxThreadStats = new ThreadStats(
+                NotAvailableAware.add(auxThreadStats.getTotalCpuNanos(),
+                        threadStats.getTotalCpuNanos()),
+                NotAvailableAware.add(auxThreadStats.getTotalBlockedMillis(),
+                        threadStats.getTotalBlockedMillis()),
+                NotAvailableAware.add(auxThreadStats.getTotalWaitedMillis(),
+                        threadStats.getTotalWaitedMillis()),
+                NotAvailableAware.add(auxThreadStats.getTotalAllocatedBytes(),
+                        threadStats.getTotalAllocatedBytes()));
+    }
+
+    // returns copies since merging can continue after the transaction completes
+    synchronized List<CommonTimerImpl> getAuxThreadRootTimers() {
+        return copyOf(auxThreadRootTimers);
+    }
+
+    // returns copies since merging can continue after the transaction completes
+    synchronized List<CommonTimerImpl> getAsyncRootTimers() {
+        return copyOf(asyncRootTimers);
+    }
+
+    // returns copies since merging can continue after the transaction completes
+    synchronized Iterator<QueryData> getQueries() {
+        List<QueryData> copies = Lists.newArrayList();
+        for (Map<String, QueryData> queriesForType : queries.values()) {
+            for (QueryData queryData : queriesForType.values()) {
+                QueryData copy = new QueryData(queryData.getQueryType(),
+                        queryData.getQueryText(), null);
+                copy.merge(queryData);
+                copies.add(copy);
+            }
+        }
+        return copies.iterator();
+    }
+
+    // ThreadStats is immutable, so no need to copy
+    synchronized @Nullable ThreadStats getAuxThreadStats() {
+        return auxThreadStats;
+    }
+
+    private static List<CommonTimerImpl> copyOf(List<MutableTimer> rootTimers) {
+        List<CommonTimerImpl> copies = Lists.newArrayListWithCapacity(rootTimers.size());
+        for (MutableTimer rootTimer : rootTimers) {
+            MutableTimer copy =
+                    MutableTimer.createRootTimer(rootTimer.getName(), rootTimer.isExtended());
+            copy.merge(rootTimer);
+            copies.add(copy);
+        }
+        return copies;
+    }
+}
@@ -0,0 +1,449 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.model;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Ticker;
+
+import org.glowroot.agent.impl.AsyncContextImpl;
+import org.glowroot.agent.impl.TransactionRegistry;
+import org.glowroot.agent.impl.TransactionServiceImpl;
+import org.glowroot.agent.plugin.api.AsyncQueryEntry;
+import org.glowroot.agent.plugin.api.AsyncTraceEntry;
+import org.glowroot.agent.plugin.api.AuxThreadContext;
+import org.glowroot.agent.plugin.api.MessageSupplier;
+import org.glowroot.agent.plugin.api.QueryEntry;
+import org.glowroot.agent.plugin.api.Timer;
+import org.glowroot.agent.plugin.api.TimerName;
+import org.glowroot.agent.plugin.api.TraceEntry;
+import org.glowroot.agent.plugin.api.internal.NopTransactionService.NopAsyncQueryEntry;
+import org.glowroot.agent.plugin.api.internal.NopTransactionService.NopTimer;
+import org.glowroot.agent.plugin.api.internal.NopTransactionService.NopTraceEntry;
+import org.glowroot.agent.plugin.api.util.FastThreadLocal.Holder;
+import org.glowroot.agent.util.ThreadAllocatedBytes;
+
+// auxiliary thread context that is used once a transaction has exceeded its limit on auxiliary
+// thread contexts, it does not retain trace entries, and its timers, queries and thread stats are
+// merged into the transaction's overflow aggregate when it ends (see OverflowAggregate)
+//
+// timers and queries that are still in progress when it ends (e.g. rows that are navigated after
+// the auxiliary thread context has ended) are not captured, and async trace entries are not
+// supported
+//
+// it is still set as the thread context of the auxiliary thread, so that transaction level
+// overrides and errors are still applied to the transaction, and so that the auxiliary thread does
+// not start a separate transaction
+//
+// this is also the root trace entry that is returned to the plugin which started the auxiliary
+// thread context
+class OverflowAuxThreadContext implements TraceEntry, ThreadContextPlus {
+
+    private final Transaction transaction;
+    private final TraceEntryImpl parentTraceEntry;
+    private final MessageSupplier messageSupplier;
+    private final long startTick;
+    private final OverflowAggregate overflowAggregate;
+    private final TransactionRegistry transactionRegistry;
+    private final TransactionServiceImpl transactionService;
+    private final Ticker ticker;
+    private final Holder</*@Nullable*/ ThreadContextPlus> threadContextHolder;
+
+    // below fields are only accessed by the auxiliary thread
+
+    private final MutableTimer rootTimer;
+    private MutableTimer currentTimer;
+
+    private final @Nullable ThreadStatsComponent threadStatsComponent;
+
+    // key is query type, then query text
+    private @Nullable Map<String, Map<String, QueryData>> queries;
+
+    private boolean ended;
+
+    private int currentNestingGroupId;
+
+    OverflowAuxThreadContext(Transaction transaction, TraceEntryImpl parentTraceEntry,
+            MessageSupplier messageSupplier, TimerName timerName, long startTick,
+            boolean captureThreadStats, @Nullable ThreadAllocatedBytes threadAllocatedBytes,
+            OverflowAggregate overflowAggregate, TransactionRegistry transactionRegistry,
+            TransactionServiceImpl transactionService, Ticker ticker,
+            Holder</*@Nullable*/ ThreadContextPlus> threadContextHolder) {
+        this.transaction = transaction;
+        this.parentTraceEntry = parentTraceEntry;
+        this.messageSupplier = messageSupplier;
+        TimerNameImpl timerNameImpl = (TimerNameImpl) timerName;
+        rootTimer = MutableTimer.createRootTimer(timerNameImpl.name(), timerNameImpl.extended());
+        currentTimer = rootTimer;
+        threadStatsComponent =
+                captureThreadStats ? new ThreadStatsComponent(threadAllocatedBytes) : null;
+        this.startTick = startTick;
+        this.overflowAggregate = overflowAggregate;
+        this.transactionRegistry = transactionRegistry;
+        this.transactionService = transactionService;
+        this.ticker = ticker;
+        this.threadContextHolder = threadContextHolder;
+    }
+
+    // TraceEntry methods
+
+    @Override
+    public void end() {
+        endInternal();
+    }
+
+    @Override
+    public void endWithStackTrace(long threshold, TimeUnit unit) {
+        endInternal();
+    }
+
+    @Override
+    public void endWithError(Throwable t) {
+        endInternal();
+    }
+
+    @Override
+    public void endWithError(@Nullable String message) {
+        endInternal();
+    }
+
+    @Override
+    public void endWithError(@Nullable String message, Throwable t) {
+        endInternal();
+    }
+
+    @Override
+    public MessageSupplier getMessageSupplier() {
+        return messageSupplier;
+    }
+
+    // ThreadContextPlus methods
+
+    @Override
+    public TraceEntry startTransaction(String transactionType, String transactionName,
+            MessageSupplier messageSupplier, TimerName timerName) {
+        // already inside of a transaction
+        return NopTraceEntry.INSTANCE;
+    }
+
+    @Override
+    public TraceEntry startTraceEntry(MessageSupplier messageSupplier, TimerName timerName) {
+        return new OverflowTraceEntry(messageSupplier, startNestedTimer(timerName, ticker.read()),
+                null);
+    }
+
+    @Override
+    public QueryEntry startQueryEntry(String queryType, String queryText,
+            MessageSupplier messageSupplier, TimerName timerName) {
+        return startQueryEntry(queryType, queryText, 1, messageSupplier, timerName);
+    }
+
+    @Override
+    public QueryEntry startQueryEntry(String queryType, String queryText, long queryExecutionCount,
+            MessageSupplier messageSupplier, TimerName timerName) {
+        long startTick = ticker.read();
+        QueryData queryData = getOrCreateQueryDataIfPossible(queryType, queryText);
+        if (queryData != null) {
+            queryData.start(startTick, queryExecutionCount);
+        }
+        return new OverflowTraceEntry(messageSupplier, startNestedTimer(timerName, startTick),
+                queryData);
+    }
+
+    @Override
+    public AsyncQueryEntry startAsyncQueryEntry(String queryType, String queryText,
+            MessageSupplier messageSupplier, TimerName syncTimerName, TimerName asyncTimerName) {
+        return NopAsyncQueryEntry.INSTANCE;
+    }
+
+    @Override
+    public AsyncTraceEntry startAsyncTraceEntry(MessageSupplier messageSupplier,
+            TimerName syncTimerName, TimerName asyncTimerName) {
+        return NopAsyncQueryEntry.INSTANCE;
+    }
+
+    @Override
+    public Timer startTimer(TimerName timerName) {
+        OverflowTimer timer = startNestedTimer(timerName, ticker.read());
+        return timer == null ? NopTimer.INSTANCE : timer;
+    }
+
+    @Override
+    public AuxThreadContext createAuxThreadContext() {
+        // further auxiliary threads are still part of the transaction (and will overflow also)
+        return new AsyncContextImpl(transaction, parentTraceEntry, transactionRegistry,
+                transactionService);
+    }
+
+    @Override
+    public void setTransactionType(@Nullable String transactionType) {
+        PluginApiOverrides.setTransactionType(transaction, transactionType);
+    }
+
+    @Override
+    public void setTransactionName(@Nullable String transactionName) {
+        PluginApiOverrides.setTransactionName(transaction, transactionName);
+    }
+
+    @Override
+    public void setTransactionUser(@Nullable String user) {
+        PluginApiOverrides.setTransactionUser(transaction, user);
+    }
+
+    @Override
+    public void addTransactionAttribute(String name, @Nullable String value) {
+        PluginApiOverrides.addTransactionAttribute(transaction, name, value);
+    }
+
+    @Override
+    public void setTransactionSlowThreshold(long threshold, TimeUnit unit) {
+        PluginApiOverrides.setTransactionSlowThreshold(transaction, threshold, unit);
+    }
+
+    @Override
+    public void setTransactionError(Throwable t) {
+        PluginApiOverrides.setTransactionError(transaction, t);
+    }
+
+    @Override
+    public void setTransactionError(@Nullable String message) {
+        PluginApiOverrides.setTransactionError(transaction, message);
+    }
+
+    @Override
+    public void setTransactionError(@Nullable String message, Throwable t) {
+        PluginApiOverrides.setTransactionError(transaction, message, t);
+    }
+
+    @Override
+    public void addErrorEntry(Throwable t) {}
+
+    @Override
+    public void addErrorEntry(@Nullable String message) {}
+
+    @Override
+    public void addErrorEntry(@Nullable String message, Throwable t) {}
+
+    @Override
+    public int getCurrentNestingGroupId() {
+        return currentNestingGroupId;
+    }
+
+    @Override
+    public void setCurrentNestingGroupId(int nestingGroupId) {
+        this.currentNestingGroupId = nestingGroupId;
+    }
+
+    private @Nullable OverflowTimer startNestedTimer(TimerName timerName, long startTick) {
+        TimerNameImpl timerNameImpl = (TimerNameImpl) timerName;
+        if (timerNameImpl.name().equals(currentTimer.getName())
+                && timerNameImpl.extended() == currentTimer.isExtended()) {
+            // self nesting, the current timer is already capturing this time (same as TimerImpl)
+            return null;
+        }
+        return new OverflowTimer(currentTimer,
+                currentTimer.getOrCreateChildTimer(timerNameImpl.name(), timerNameImpl.extended()),
+                startTick, false);
+    }
+
+    private @Nullable QueryData getOrCreateQueryDataIfPossible(String queryType,
+            String queryText) {
+        if (queries == null) {
+            queries = new HashMap<String, Map<String, QueryData>>(2);
+        }
+        Map<String, QueryData> queriesForType = queries.get(queryType);
+        if (queriesForType == null) {
+            queriesForType = new HashMap<String, QueryData>(4);
+            queries.put(queryType, queriesForType);
+        }
+        QueryData queryData = queriesForType.get(queryText);
+        if (queryData == null
+                && overflowAggregate.allowQuery(queryType, queryText, transaction)) {
+            queryData = new QueryData(queryType, queryText, null);
+            queriesForType.put(queryText, queryData);
+        }
+        return queryData;
+    }
+
+    private void endInternal() {
+        if (ended) {
+            return;
+        }
+        ended = true;
+        rootTimer.add(Math.max(0, ticker.read() - startTick));
+        overflowAggregate.mergeAuxThreadRootTimer(rootTimer);
+        if (queries != null) {
+            for (Map<String, QueryData> queriesForType : queries.values()) {
+                overflowAggregate.mergeQueries(queriesForType.values());
+            }
+        }
+        if (threadStatsComponent != null) {
+            threadStatsComponent.onComplete();
+            overflowAggregate.mergeAuxThreadStats(threadStatsComponent.getThreadStats());
+        }
+        if (threadContextHolder.get() == this) {
+            threadContextHolder.set(null);
+        }
+    }
+
+    // thread-confined, so unlike TimerImpl there is no need to be concerned with visibility
+    private class OverflowTimer implements Timer {
+
+        private final MutableTimer parentTimer;
+        private final MutableTimer timer;
+        private final long startTick;
+        // an extension adds time to the prior timing without incrementing the count
+        private final boolean extension;
+
+        private boolean stopped;
+
+        private OverflowTimer(MutableTimer parentTimer, MutableTimer timer, long startTick,
+                boolean extension) {
+            this.parentTimer = parentTimer;
+            this.timer = timer;
+            this.startTick = startTick;
+            this.extension = extension;
+            currentTimer = timer;
+        }
+
+        @Override
+        public void stop() {
+            end(ticker.read());
+        }
+
+        @Override
+        public Timer extend() {
+            OverflowTimer extendedTimer = extend(ticker.read());
+            return extendedTimer == null ? NopTimer.INSTANCE : extendedTimer;
+        }
+
+        private void end(long endTick) {
+            if (stopped) {
+                return;
+            }
+            stopped = true;
+            long durationNanos = Math.max(0, endTick - startTick);
+            if (extension) {
+                timer.extend(durationNanos);
+            } else {
+                timer.add(durationNanos);
+            }
+            currentTimer = parentTimer;
+        }
+
+        private @Nullable OverflowTimer extend(long startTick) {
+            if (currentTimer == parentTimer) {
+                // restarting a previously stopped execution
+                return new OverflowTimer(parentTimer, timer, startTick, true);
+            }
+            if (timer.isExtended()) {
+                return null;
+            }
+            // otherwise can't just restart timer, so need to start an "extended" timer under the
+            // current timer (same as TimerImpl)
+            return new OverflowTimer(currentTimer,
+                    currentTimer.getOrCreateChildTimer(timer.getName(), true), startTick, false);
+        }
+    }
+
+    // same as TraceEntryImpl, the Timer interface is only exposed through the return value of
+    // extend()
+    private class OverflowTraceEntry extends QueryEntryBase implements Timer {
+
+        private final MessageSupplier messageSupplier;
+        // null when self nesting
+        private final @Nullable OverflowTimer timer;
+
+        private @Nullable OverflowTimer extendedTimer;
+        private int selfNestingLevel;
+        private boolean ended;
+
+        private OverflowTraceEntry(MessageSupplier messageSupplier, @Nullable OverflowTimer timer,
+                @Nullable QueryData queryData) {
+            super(queryData);
+            this.messageSupplier = messageSupplier;
+            this.timer = timer;
+        }
+
+        @Override
+        public void end() {
+            endInternal();
+        }
+
+        @Override
+        public void endWithStackTrace(long threshold, TimeUnit unit) {
+            endInternal();
+        }
+
+        @Override
+        public void endWithError(Throwable t) {
+            endInternal();
+        }
+
+        @Override
+        public void endWithError(@Nullable String message) {
+            endInternal();
+        }
+
+        @Override
+        public void endWithError(@Nullable String message, Throwable t) {
+            endInternal();
+        }
+
+        @Override
+        public MessageSupplier getMessageSupplier() {
+            return messageSupplier;
+        }
+
+        @Override
+        public Timer extend() {
+            if (selfNestingLevel++ == 0) {
+                long startTick = ticker.read();
+                extendedTimer = timer == null ? null : timer.extend(startTick);
+                extendQueryData(startTick);
+            }
+            return this;
+        }
+
+        // this is called for stopping an extension
+        @Override
+        public void stop() {
+            if (--selfNestingLevel == 0) {
+                long endTick = ticker.read();
+                if (extendedTimer != null) {
+                    extendedTimer.end(endTick);
+                }
+                endQueryData(endTick);
+            }
+        }
+
+        private void endInternal() {
+            if (ended) {
+                return;
+            }
+            ended = true;
+            long endTick = ticker.read();
+            if (timer != null) {
+                timer.end(endTick);
+            }
+            endQueryData(endTick);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.model;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Strings;
+import com.google.common.primitives.Ints;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.glowroot.agent.model.Transaction.OverrideSource;
+
+// transaction level overrides made through the plugin api ThreadContext, shared by
+// ThreadContextImpl and OverflowAuxThreadContext since both apply them to the same transaction
+class PluginApiOverrides {
+
+    private static final Logger logger = LoggerFactory.getLogger(PluginApiOverrides.class);
+
+    private PluginApiOverrides() {}
+
+    static void setTransactionType(Transaction transaction, @Nullable String transactionType) {
+        if (Strings.isNullOrEmpty(transactionType)) {
+            return;
+        }
+        transaction.setTransactionType(transactionType, OverrideSource.PLUGIN_API);
+    }
+
+    static void setTransactionName(Transaction transaction, @Nullable String transactionName) {
+        if (Strings.isNullOrEmpty(transactionName)) {
+            return;
+        }
+        transaction.setTransactionName(transactionName, OverrideSource.PLUGIN_API);
+    }
+
+    static void setTransactionError(Transaction transaction, Throwable t) {
+        transaction.setError(ErrorMessage.from(t), OverrideSource.PLUGIN_API);
+    }
+
+    static void setTransactionError(Transaction transaction, @Nullable String message) {
+        if (Strings.isNullOrEmpty(message)) {
+            return;
+        }
+        transaction.setError(ErrorMessage.from(message), OverrideSource.PLUGIN_API);
+    }
+
+    static void setTransactionError(Transaction transaction, @Nullable String message,
+            Throwable t) {
+        transaction.setError(ErrorMessage.from(message, t), OverrideSource.PLUGIN_API);
+    }
+
+    static void setTransactionUser(Transaction transaction, @Nullable String user) {
+        if (Strings.isNullOrEmpty(user)) {
+            return;
+        }
+        transaction.setUser(user, OverrideSource.PLUGIN_API);
+    }
+
+    static void addTransactionAttribute(Transaction transaction, String name,
+            @Nullable String value) {
+        if (name == null) {
+            logger.error("addTransactionAttribute(): argument 'name' must be non-null");
+            return;
+        }
+        transaction.addAttribute(name, value);
+    }
+
+    static void setTransactionSlowThreshold(Transaction transaction, long threshold,
+            TimeUnit unit) {
+        if (threshold < 0) {
+            logger.error(
+                    "setTransactionSlowThreshold(): argument 'threshold' must be non-negative");
+            return;
+        }
+        if (unit == null) {
+            logger.error("setTransactionSlowThreshold(): argument 'unit' must be non-null");
+            return;
+        }
+        int thresholdMillis = Ints.saturatedCast(unit.toMillis(threshold));
+        transaction.setSlowThresholdMillis(thresholdMillis, OverrideSource.PLUGIN_API);
+    }
+}
@@ -98,6 +98,13 @@ public class QueryData {
         totalRows += inc;
     }
 
+    // used to merge the queries of overflowed auxiliary thread contexts (see OverflowAggregate)
+    void merge(QueryData queryData) {
+        totalNanos += queryData.totalNanos;
+        executionCount += queryData.executionCount;
+        totalRows += queryData.totalRows;
+    }
+
     public long getTotalNanos() {
         return totalNanos;
     }
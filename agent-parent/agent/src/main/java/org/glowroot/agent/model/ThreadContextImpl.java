@@ -25,11 +25,9 @@ import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nullable;
 
-import com.google.common.base.Strings;
 import com.google.common.base.Ticker;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Multimap;
-import com.google.common.primitives.Ints;
 import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -38,7 +36,6 @@ import org.glowroot.agent.config.ConfigService;
 import org.glowroot.agent.impl.AsyncContextImpl;
 import org.glowroot.agent.impl.TransactionRegistry;
 import org.glowroot.agent.impl.TransactionServiceImpl;
-import org.glowroot.agent.model.Transaction.OverrideSource;
 import org.glowroot.agent.plugin.api.AsyncQueryEntry;
 import org.glowroot.agent.plugin.api.AsyncTraceEntry;
 import org.glowroot.agent.plugin.api.AuxThreadContext;
@@ -95,14 +92,14 @@ public class ThreadContextImpl implements ThreadContextPlus {
 
     private final Ticker ticker;
 
-    private final Holder</*@Nullable*/ ThreadContextImpl> threadContextHolder;
+    private final Holder</*@Nullable*/ ThreadContextPlus> threadContextHolder;
 
     ThreadContextImpl(Transaction transaction, @Nullable TraceEntryImpl parentTraceEntry,
             MessageSupplier messageSupplier, TimerName rootTimerName, long startTick,
             boolean captureThreadStats, @Nullable ThreadAllocatedBytes threadAllocatedBytes,
             boolean auxiliary, TransactionRegistry transactionRegistry,
             TransactionServiceImpl transactionService, ConfigService configService, Ticker ticker,
-            Holder</*@Nullable*/ ThreadContextImpl> threadContextHolder) {
+            Holder</*@Nullable*/ ThreadContextPlus> threadContextHolder) {
         this.transaction = transaction;
         this.parentTraceEntry = parentTraceEntry;
         rootTimer = TimerImpl.createRootTimer(castInitialized(this), (TimerNameImpl) rootTimerName);
@@ -467,68 +464,42 @@ public class ThreadContextImpl implements ThreadContextPlus {
 
     @Override
     public void setTransactionType(@Nullable String transactionType) {
-        if (Strings.isNullOrEmpty(transactionType)) {
-            return;
-        }
-        transaction.setTransactionType(transactionType, OverrideSource.PLUGIN_API);
+        PluginApiOverrides.setTransactionType(transaction, transactionType);
     }
 
     @Override
     public void setTransactionName(@Nullable String transactionName) {
-        if (Strings.isNullOrEmpty(transactionName)) {
-            return;
-        }
-        transaction.setTransactionName(transactionName, OverrideSource.PLUGIN_API);
+        PluginApiOverrides.setTransactionName(transaction, transactionName);
     }
 
     @Override
     public void setTransactionError(Throwable t) {
-        transaction.setError(ErrorMessage.from(t), OverrideSource.PLUGIN_API);
+        PluginApiOverrides.setTransactionError(transaction, t);
     }
 
     @Override
     public void setTransactionError(@Nullable String message) {
-        if (Strings.isNullOrEmpty(message)) {
-            return;
-        }
-        transaction.setError(ErrorMessage.from(message), OverrideSource.PLUGIN_API);
+        PluginApiOverrides.setTransactionError(transaction, message);
     }
 
     @Override
     public void setTransactionError(@Nullable String message, Throwable t) {
-        transaction.setError(ErrorMessage.from(message, t), OverrideSource.PLUGIN_API);
+        PluginApiOverrides.setTransactionError(transaction, message, t);
     }
 
     @Override
     public void setTransactionUser(@Nullable String user) {
-        if (Strings.isNullOrEmpty(user)) {
-            return;
-        }
-        transaction.setUser(user, OverrideSource.PLUGIN_API);
+        PluginApiOverrides.setTransactionUser(transaction, user);
     }
 
     @Override
     public void addTransactionAttribute(String name, @Nullable String value) {
-        if (name == null) {
-            logger.error("addTransactionAttribute(): argument 'name' must be non-null");
-            return;
-        }
-        transaction.addAttribute(name, value);
+        PluginApiOverrides.addTransactionAttribute(transaction, name, value);
     }
 
     @Override
     public void setTransactionSlowThreshold(long threshold, TimeUnit unit) {
-        if (threshold < 0) {
-            logger.error(
-                    "setTransactionSlowThreshold(): argument 'threshold' must be non-negative");
-            return;
-        }
-        if (unit == null) {
-            logger.error("setTransactionSlowThreshold(): argument 'unit' must be non-null");
-            return;
-        }
-        int thresholdMillis = Ints.saturatedCast(unit.toMillis(threshold));
-        transaction.setSlowThresholdMillis(thresholdMillis, OverrideSource.PLUGIN_API);
+        PluginApiOverrides.setTransactionSlowThreshold(transaction, threshold, unit);
     }
 
     public boolean isInTransaction() {
@@ -22,7 +22,6 @@ import java.util.NoSuchElementException;
 import javax.annotation.Nullable;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
-import com.google.common.base.Ticker;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
@@ -32,7 +31,6 @@ import org.slf4j.LoggerFactory;
 
 import org.glowroot.agent.plugin.api.Timer;
 import org.glowroot.agent.plugin.api.TimerName;
-import org.glowroot.agent.util.Tickers;
 import org.glowroot.common.util.Styles;
 import org.glowroot.wire.api.model.TraceOuterClass.Trace;
 
@@ -58,8 +56,6 @@ public class TimerImpl implements Timer, CommonTimerImpl {
 
     private static final Logger logger = LoggerFactory.getLogger(TimerImpl.class);
 
-    private static final Ticker ticker = Tickers.getTicker();
-
     private final ThreadContextImpl threadContext;
     private final @Nullable TimerImpl parent;
     private final TimerNameImpl timerName;
@@ -132,7 +128,9 @@ public class TimerImpl implements Timer, CommonTimerImpl {
             long theTotalNanos = totalNanos;
             // capture startTick before ticker.read() so curr is never < 0
             long theStartTick = startTick;
-            long curr = ticker.read() - theStartTick;
+            // curr can still be slightly < 0 when a timer that uses the coarse ticker was started
+            // with a (precise) tick passed in by a trace entry
+            long curr = Math.max(0, timerName.ticker().read() - theStartTick);
             if (theTotalNanos == 0) {
                 return ImmutableTimerImplSnapshot.of(curr, 1, true);
             } else {
@@ -146,13 +144,13 @@ public class TimerImpl implements Timer, CommonTimerImpl {
     @Override
     public void stop() {
         if (--selfNestingLevel == 0) {
-            endInternal(ticker.read());
+            endInternal(timerName.ticker().read());
         }
     }
 
     @Override
     public Timer extend() {
-        return extend(ticker.read());
+        return extend(timerName.ticker().read());
     }
 
     public void end(long endTick) {
@@ -220,7 +218,7 @@ public class TimerImpl implements Timer, CommonTimerImpl {
             selfNestingLevel++;
             return this;
         }
-        long nestedTimerStartTick = ticker.read();
+        long nestedTimerStartTick = ((TimerNameImpl) timerName).ticker().read();
         return startNestedTimerInternal(timerName, nestedTimerStartTick);
     }
 
@@ -20,9 +20,11 @@ import java.util.concurrent.atomic.AtomicInteger;
 import javax.annotation.Nullable;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
 import org.immutables.value.Value;
 
 import org.glowroot.agent.plugin.api.TimerName;
+import org.glowroot.agent.util.Tickers;
 import org.glowroot.common.util.Styles;
 
 @Value.Immutable
@@ -44,6 +46,13 @@ public abstract class TimerNameImpl implements TimerName {
         return ImmutableTimerNameImpl.of(name(), true);
     }
 
+    // the ticker used by timers with this name when they read the time themselves (as opposed to
+    // when they are passed the time, e.g. by trace entries)
+    @Value.Derived
+    public Ticker ticker() {
+        return Tickers.getTicker(name());
+    }
+
     @Value.Derived
     int specialHashCode() {
         return nextSpecialHashCode.getAndIncrement();
@@ -16,9 +16,8 @@
 package org.glowroot.agent.model;
 
 import java.io.IOException;
-import java.util.Collection;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map.Entry;
 
 import javax.annotation.Nullable;
 
@@ -26,6 +25,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 
+import org.glowroot.agent.model.TransactionAttributes.Attribute;
 import org.glowroot.common.util.NotAvailableAware;
 import org.glowroot.common.util.Styles;
 import org.glowroot.wire.api.model.ProfileOuterClass.Profile;
@@ -115,28 +115,24 @@ public class TraceCreator {
         builder.setTransactionName(transaction.getTransactionName());
         builder.setHeadline(transaction.getHeadline());
         builder.setUser(transaction.getUser());
-        for (Entry<String, Collection<String>> entry : transaction.getAttributes().asMap()
-                .entrySet()) {
-            builder.addAttributeBuilder()
-                    .setName(entry.getKey())
-                    .addAllValue(entry.getValue());
-        }
+        addAttributes(builder, transaction.getAttributes());
         builder.addAllDetailEntry(DetailMapWriter.toProto(transaction.getDetail()));
         if (errorMessage != null) {
             Trace.Error.Builder errorBuilder = builder.getErrorBuilder();
             errorBuilder.setMessage(errorMessage.message());
-            Proto.Throwable throwable = errorMessage.throwable();
+            Proto.Throwable throwable = errorMessage.throwableProto();
             if (throwable != null) {
                 errorBuilder.setException(throwable);
             }
             errorBuilder.build();
         }
         TimerImpl mainThreadRootTimer = transaction.getMainThreadRootTimer();
-        Iterable<TimerImpl> auxThreadRootTimers = transaction.getAuxThreadRootTimers();
+        Iterable<CommonTimerImpl> auxThreadRootTimers = transaction.getAuxThreadRootTimers();
         if (transaction.isAsynchronous()) {
             // the main thread is treated as just another auxiliary thread
             builder.addAllAuxThreadRootTimer(mergeRootTimers(
-                    Iterables.concat(ImmutableList.of(mainThreadRootTimer), auxThreadRootTimers)));
+                    Iterables.concat(ImmutableList.<CommonTimerImpl>of(mainThreadRootTimer),
+                            auxThreadRootTimers)));
         } else {
             builder.setMainThreadRootTimer(mainThreadRootTimer.toProto());
             builder.addAllAuxThreadRootTimer(mergeRootTimers(auxThreadRootTimers));
@@ -174,6 +170,31 @@ public class TraceCreator {
         return builder.build();
     }
 
+    // attribute names and values are case insensitive for display purposes
+    private static void addAttributes(Trace.Header.Builder builder, Attribute[] attributes) {
+        if (attributes.length == 0) {
+            return;
+        }
+        Arrays.sort(attributes, Attribute.DISPLAY_ORDER);
+        Trace.Attribute.Builder attributeBuilder = null;
+        Attribute prior = null;
+        for (Attribute attribute : attributes) {
+            if (attributeBuilder == null || prior == null
+                    || !equalsIgnoreCase(attribute.name(), prior.name())) {
+                attributeBuilder = builder.addAttributeBuilder()
+                        .setName(attribute.name())
+                        .addValue(attribute.value());
+            } else if (!equalsIgnoreCase(attribute.value(), prior.value())) {
+                attributeBuilder.addValue(attribute.value());
+            }
+            prior = attribute;
+        }
+    }
+
+    private static boolean equalsIgnoreCase(String left, String right) {
+        return String.CASE_INSENSITIVE_ORDER.compare(left, right) == 0;
+    }
+
     // merge root timers where possible
     private static List<Trace.Timer> mergeRootTimers(
             Iterable<? extends CommonTimerImpl> toBeMergedRootTimers) {
@@ -188,7 +209,7 @@ public class TraceCreator {
         return rootTimers;
     }
 
-    private static void mergeRootTimer(CommonTimerImpl toBeMergedRootTimer,
+    static void mergeRootTimer(CommonTimerImpl toBeMergedRootTimer,
             List<MutableTimer> rootTimers) {
         for (MutableTimer rootTimer : rootTimers) {
             if (toBeMergedRootTimer.getName().equals(rootTimer.getName())) {
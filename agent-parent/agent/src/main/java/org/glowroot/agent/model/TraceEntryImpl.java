@@ -141,7 +141,7 @@ public class TraceEntryImpl extends QueryEntryBase implements AsyncQueryEntry, T
         if (errorMessage != null) {
             Trace.Error.Builder errorBuilder = builder.getErrorBuilder();
             errorBuilder.setMessage(errorMessage.message());
-            Proto.Throwable throwable = errorMessage.throwable();
+            Proto.Throwable throwable = errorMessage.throwableProto();
             if (throwable != null) {
                 errorBuilder.setException(throwable);
             }
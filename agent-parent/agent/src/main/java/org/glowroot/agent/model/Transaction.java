@@ -17,32 +17,24 @@ package org.glowroot.agent.model;
 
 import java.lang.management.ManagementFactory;
 import java.lang.management.ThreadInfo;
-import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.UUID;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 import javax.annotation.Nullable;
-import javax.annotation.concurrent.GuardedBy;
 
 import com.google.common.base.Function;
 import com.google.common.base.Strings;
-import com.google.common.base.Supplier;
-import com.google.common.base.Suppliers;
 import com.google.common.base.Ticker;
 import com.google.common.collect.ArrayListMultimap;
-import com.google.common.collect.HashMultimap;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Multimap;
-import com.google.common.collect.SetMultimap;
-import com.google.common.collect.TreeMultimap;
 import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -50,14 +42,20 @@ import org.slf4j.LoggerFactory;
 import org.glowroot.agent.config.AdvancedConfig;
 import org.glowroot.agent.config.ConfigService;
 import org.glowroot.agent.impl.TransactionRegistry;
+import org.glowroot.agent.impl.TransactionRegistry.Slot;
 import org.glowroot.agent.impl.TransactionServiceImpl;
 import org.glowroot.agent.impl.UserProfileScheduler;
+import org.glowroot.agent.model.GcActivityTracker.GcSnapshot;
+import org.glowroot.agent.model.TransactionAttributes.Attribute;
 import org.glowroot.agent.plugin.api.Message;
 import org.glowroot.agent.plugin.api.MessageSupplier;
 import org.glowroot.agent.plugin.api.TimerName;
+import org.glowroot.agent.plugin.api.TraceEntry;
 import org.glowroot.agent.plugin.api.internal.ReadableMessage;
 import org.glowroot.agent.plugin.api.util.FastThreadLocal.Holder;
+import org.glowroot.agent.util.AppendOnlyChunkedList;
 import org.glowroot.agent.util.ThreadAllocatedBytes;
+import org.glowroot.agent.util.TraceIds;
 import org.glowroot.common.util.Cancellable;
 import org.glowroot.wire.api.model.TraceOuterClass.Trace;
 
@@ -74,20 +72,22 @@ public class Transaction {
 
     public static final int USE_GENERAL_STORE_THRESHOLD = -1;
 
-    // initial capacity is very important, see ThreadSafeCollectionOfTenBenchmark
-    private static final int ATTRIBUTE_KEYS_INITIAL_CAPACITY = 16;
+    // beyond these limits, auxiliary thread contexts and async root timers are merged into a single
+    // overflow aggregate (see OverflowAggregate)
+    private static final int MAX_AUX_THREAD_CONTEXTS =
+            Integer.getInteger("glowroot.maxAuxThreadContextsPerTransaction", 1000);
+    private static final int MAX_ASYNC_ROOT_TIMERS =
+            Integer.getInteger("glowroot.maxAsyncRootTimersPerTransaction", 1000);
 
-    // this is just to limit memory (and also to limit display size of trace)
-    private static final long ATTRIBUTE_VALUES_PER_KEY_LIMIT = 10000;
+    private static final Attribute[] NO_ATTRIBUTES = new Attribute[0];
 
     private static final AtomicBoolean loggedBackgroundTransactionSuggestion = new AtomicBoolean();
 
-    private final Supplier<UUID> uuid = Suppliers.memoize(new Supplier<UUID>() {
-        @Override
-        public UUID get() {
-            return UUID.randomUUID();
-        }
-    });
+    private static final AtomicReferenceFieldUpdater<Transaction, String> traceIdUpdater =
+            AtomicReferenceFieldUpdater.newUpdater(Transaction.class, String.class, "traceId");
+
+    // lazy generated since trace id is only needed if the trace is stored (or viewed in-flight)
+    private volatile @MonotonicNonNull String traceId;
 
     private final long startTime;
     private final long startTick;
@@ -102,15 +102,17 @@ public class Transaction {
     private volatile @Nullable OverrideSource userOverrideSource;
 
     // lazy loaded to reduce memory when custom attributes are not used
-    @GuardedBy("attributes")
-    private volatile @MonotonicNonNull SetMultimap<String, String> attributes;
+    private volatile @MonotonicNonNull TransactionAttributes attributes;
 
     // trace-level error
     private volatile @Nullable ErrorMessage errorMessage;
     private volatile @Nullable OverrideSource errorMessageOverrideSource;
 
     private final boolean captureThreadStats;
-    private final GcActivityComponent gcActivityComponent;
+    private final GcActivityTracker gcActivityTracker;
+    private final GcSnapshot startGcSnapshot;
+    // this is only set for transactions that will be stored
+    private volatile @MonotonicNonNull GcSnapshot endGcSnapshot;
 
     private final int maxTraceEntriesPerTransaction;
     private final int maxAggregateQueriesPerQueryType;
@@ -149,12 +151,14 @@ public class Transaction {
     private final AtomicInteger aggregateQueryLimitCounter = new AtomicInteger();
 
     private final ThreadContextImpl mainThreadContext;
-    // FIXME impose simple max on number of auxiliary thread contexts (AdvancedConfig)
-    private final List<ThreadContextImpl> auxThreadContexts = Lists.newCopyOnWriteArrayList();
+    private final AppendOnlyChunkedList<ThreadContextImpl> auxThreadContexts =
+            new AppendOnlyChunkedList<ThreadContextImpl>();
     // async root timers are the root timers which do not have corresponding thread context
     // (those corresponding to async trace entries)
-    // FIXME impose simple max on number of async root timers (AdvancedConfig)
-    private final List<AsyncTimerImpl> asyncRootTimers = Lists.newCopyOnWriteArrayList();
+    private final AppendOnlyChunkedList<CommonTimerImpl> asyncRootTimers =
+            new AppendOnlyChunkedList<CommonTimerImpl>();
+    // lazy loaded since most transactions never exceed the limits above
+    private volatile @MonotonicNonNull OverflowAggregate overflowAggregate;
 
     private volatile boolean completed;
     private volatile long endTick;
@@ -162,6 +166,8 @@ public class Transaction {
     private final Ticker ticker;
 
     private final TransactionRegistry transactionRegistry;
+    // set by the transaction registry when the transaction is registered
+    private volatile @MonotonicNonNull Slot registrySlot;
     private final TransactionServiceImpl transactionService;
     private final ConfigService configService;
     private final UserProfileScheduler userProfileScheduler;
@@ -171,16 +177,18 @@ public class Transaction {
             boolean captureThreadStats, int maxTraceEntriesPerTransaction,
             int maxAggregateQueriesPerQueryType,
             @Nullable ThreadAllocatedBytes threadAllocatedBytes,
-            CompletionCallback completionCallback, Ticker ticker,
-            TransactionRegistry transactionRegistry, TransactionServiceImpl transactionService,
-            ConfigService configService, UserProfileScheduler userProfileScheduler,
-            Holder</*@Nullable*/ ThreadContextImpl> threadContextHolder) {
+            GcActivityTracker gcActivityTracker, CompletionCallback completionCallback,
+            Ticker ticker, TransactionRegistry transactionRegistry,
+            TransactionServiceImpl transactionService, ConfigService configService,
+            UserProfileScheduler userProfileScheduler,
+            Holder</*@Nullable*/ ThreadContextPlus> threadContextHolder) {
         this.startTime = startTime;
         this.startTick = startTick;
         this.transactionType = transactionType;
         this.transactionName = transactionName;
         this.captureThreadStats = captureThreadStats;
-        gcActivityComponent = new GcActivityComponent();
+        this.gcActivityTracker = gcActivityTracker;
+        startGcSnapshot = gcActivityTracker.getCurrentSnapshot();
         this.maxTraceEntriesPerTransaction = maxTraceEntriesPerTransaction;
         this.maxAggregateQueriesPerQueryType = maxAggregateQueriesPerQueryType;
         this.completionCallback = completionCallback;
@@ -195,10 +203,16 @@ public class Transaction {
                 threadContextHolder);
     }
 
-    public TraceEntryImpl startAuxThreadContext(TraceEntryImpl parentTraceEntry,
+    public TraceEntry startAuxThreadContext(TraceEntryImpl parentTraceEntry,
             TimerName auxTimerName, long startTick,
-            Holder</*@Nullable*/ ThreadContextImpl> threadContextHolder,
+            Holder</*@Nullable*/ ThreadContextPlus> threadContextHolder,
             @Nullable ThreadAllocatedBytes threadAllocatedBytes) {
+        // the limit is not strictly enforced under concurrent registration, which is ok
+        if (auxThreadContexts.size() >= MAX_AUX_THREAD_CONTEXTS) {
+            // split out to separate method so as not to affect inlining budget of common path
+            return startOverflowAuxThreadContext(parentTraceEntry, auxTimerName, startTick,
+                    threadContextHolder, threadAllocatedBytes);
+        }
         ThreadContextImpl auxThreadContext = new ThreadContextImpl(this, parentTraceEntry,
                 AuxThreadRootMessageSupplier.INSTANCE, auxTimerName, startTick,
                 captureThreadStats, threadAllocatedBytes, true, transactionRegistry,
@@ -208,12 +222,47 @@ public class Transaction {
         return auxThreadContext.getRootEntry();
     }
 
+    private TraceEntry startOverflowAuxThreadContext(TraceEntryImpl parentTraceEntry,
+            TimerName auxTimerName, long startTick,
+            Holder</*@Nullable*/ ThreadContextPlus> threadContextHolder,
+            @Nullable ThreadAllocatedBytes threadAllocatedBytes) {
+        OverflowAuxThreadContext auxThreadContext = new OverflowAuxThreadContext(this,
+                parentTraceEntry, AuxThreadRootMessageSupplier.INSTANCE, auxTimerName, startTick,
+                captureThreadStats, threadAllocatedBytes, getOrCreateOverflowAggregate(),
+                transactionRegistry, transactionService, ticker, threadContextHolder);
+        threadContextHolder.set(auxThreadContext);
+        return auxThreadContext;
+    }
+
     long getStartTime() {
         return startTime;
     }
 
     public String getTraceId() {
-        return uuid.get().toString();
+        String traceId = this.traceId;
+        if (traceId == null) {
+            // race condition is ok, whichever thread sets the trace id first wins
+            String newTraceId = TraceIds.newTraceId();
+            if (traceIdUpdater.compareAndSet(this, null, newTraceId)) {
+                transactionRegistry.onTraceIdGenerated(this, newTraceId);
+                return newTraceId;
+            }
+            // checkNotNull is safe b/c trace id is never set back to null
+            traceId = checkNotNull(this.traceId);
+        }
+        return traceId;
+    }
+
+    public @Nullable String getTraceIdIfGenerated() {
+        return traceId;
+    }
+
+    public @Nullable Slot getRegistrySlot() {
+        return registrySlot;
+    }
+
+    public void setRegistrySlot(Slot registrySlot) {
+        this.registrySlot = registrySlot;
     }
 
     public long getStartTick() {
@@ -251,16 +300,13 @@ public class Transaction {
         return Strings.nullToEmpty(user);
     }
 
-    public ImmutableSetMultimap<String, String> getAttributes() {
+    // returns a new (unordered) array, which the caller is free to modify (e.g. sort)
+    public Attribute[] getAttributes() {
+        TransactionAttributes attributes = this.attributes;
         if (attributes == null) {
-            return ImmutableSetMultimap.of();
-        }
-        SetMultimap<String, String> orderedAttributes =
-                TreeMultimap.create(String.CASE_INSENSITIVE_ORDER, String.CASE_INSENSITIVE_ORDER);
-        synchronized (attributes) {
-            orderedAttributes.putAll(attributes);
+            return NO_ATTRIBUTES;
         }
-        return ImmutableSetMultimap.copyOf(orderedAttributes);
+        return attributes.snapshot();
     }
 
     Map<String, ? extends /*@Nullable*/ Object> getDetail() {
@@ -289,18 +335,32 @@ public class Transaction {
         return mainThreadContext.getRootTimer();
     }
 
-    public Iterable<TimerImpl> getAuxThreadRootTimers() {
+    public Iterable<CommonTimerImpl> getAuxThreadRootTimers() {
         readMemoryBarrier();
-        if (auxThreadContexts.isEmpty()) {
+        OverflowAggregate overflowAggregate = this.overflowAggregate;
+        if (auxThreadContexts.isEmpty() && overflowAggregate == null) {
             // optimization for common case
             return ImmutableList.of();
         }
-        return Iterables.transform(auxThreadContexts, GetRootTimerFunction.INSTANCE);
+        Iterable<CommonTimerImpl> rootTimers =
+                Iterables.transform(auxThreadContexts, GetRootTimerFunction.INSTANCE);
+        if (overflowAggregate == null) {
+            return rootTimers;
+        }
+        return Iterables.concat(rootTimers, overflowAggregate.getAuxThreadRootTimers());
     }
 
-    public List<AsyncTimerImpl> getAsyncRootTimers() {
+    public Iterable<CommonTimerImpl> getAsyncRootTimers() {
         readMemoryBarrier();
-        return asyncRootTimers;
+        OverflowAggregate overflowAggregate = this.overflowAggregate;
+        if (asyncRootTimers.isEmpty() && overflowAggregate == null) {
+            // optimization for common case
+            return ImmutableList.of();
+        }
+        if (overflowAggregate == null) {
+            return asyncRootTimers;
+        }
+        return Iterables.concat(asyncRootTimers, overflowAggregate.getAsyncRootTimers());
     }
 
     // can be called from a non-transaction thread
@@ -310,32 +370,51 @@ public class Transaction {
 
     // can be called from a non-transaction thread
     public Iterable<ThreadStats> getAuxThreadStats() {
-        if (auxThreadContexts.isEmpty()) {
+        OverflowAggregate overflowAggregate = this.overflowAggregate;
+        if (auxThreadContexts.isEmpty() && overflowAggregate == null) {
             return ImmutableList.of();
         }
         if (!captureThreadStats) {
             return ImmutableList.of(ThreadStats.NA);
         }
-        return Iterables.transform(auxThreadContexts, GetThreadStatsFunction.INSTANCE);
+        Iterable<ThreadStats> auxThreadStats =
+                Iterables.transform(auxThreadContexts, GetThreadStatsFunction.INSTANCE);
+        if (overflowAggregate == null) {
+            return auxThreadStats;
+        }
+        ThreadStats overflowAuxThreadStats = overflowAggregate.getAuxThreadStats();
+        if (overflowAuxThreadStats == null) {
+            return auxThreadStats;
+        }
+        return Iterables.concat(auxThreadStats, ImmutableList.of(overflowAuxThreadStats));
     }
 
     // can be called from a non-transaction thread
     List<Trace.GarbageCollectionActivity> getGcActivity() {
-        return gcActivityComponent.getGcActivity();
+        GcSnapshot endGcSnapshot = this.endGcSnapshot;
+        if (endGcSnapshot == null) {
+            // transaction is still active
+            endGcSnapshot = gcActivityTracker.takeSnapshot();
+        }
+        return gcActivityTracker.getGcActivity(startGcSnapshot, endGcSnapshot);
     }
 
     public Iterator<QueryData> getQueries() {
         readMemoryBarrier();
-        if (auxThreadContexts.size() == 1) {
+        OverflowAggregate overflowAggregate = this.overflowAggregate;
+        if (auxThreadContexts.isEmpty() && overflowAggregate == null) {
             // optimization for common case
             return mainThreadContext.getQueries();
         }
         List<Iterator<QueryData>> queries =
-                Lists.newArrayListWithCapacity(auxThreadContexts.size() + 1);
+                Lists.newArrayListWithCapacity(auxThreadContexts.size() + 2);
         queries.add(mainThreadContext.getQueries());
         for (ThreadContextImpl threadContext : auxThreadContexts) {
             queries.add(threadContext.getQueries());
         }
+        if (overflowAggregate != null) {
+            queries.add(overflowAggregate.getQueries());
+        }
         return Iterators.concat(queries.iterator());
     }
 
@@ -440,28 +519,27 @@ public class Transaction {
         return mainThreadContext;
     }
 
-    public List<ThreadContextImpl> getAuxThreadContexts() {
+    public Iterable<ThreadContextImpl> getAuxThreadContexts() {
         return auxThreadContexts;
     }
 
     public void setTransactionType(String transactionType, OverrideSource overrideSource) {
-        if (transactionTypeOverrideSource == null
-                || transactionTypeOverrideSource.priority < overrideSource.priority) {
+        if (overrideSource.overrides(transactionTypeOverrideSource)) {
             this.transactionType = transactionType;
             transactionTypeOverrideSource = overrideSource;
+            transactionRegistry.onTransactionTypeChanged(this);
         }
     }
 
     public void setTransactionName(String transactionName, OverrideSource overrideSource) {
-        if (transactionNameOverrideSource == null
-                || transactionNameOverrideSource.priority < overrideSource.priority) {
+        if (overrideSource.overrides(transactionNameOverrideSource)) {
             this.transactionName = transactionName;
             transactionNameOverrideSource = overrideSource;
         }
     }
 
     public void setUser(String user, OverrideSource overrideSource) {
-        if (userOverrideSource == null || userOverrideSource.priority < overrideSource.priority) {
+        if (overrideSource.overrides(userOverrideSource)) {
             this.user = user;
             userOverrideSource = overrideSource;
             if (userProfileRunnable == null) {
@@ -471,33 +549,32 @@ public class Transaction {
     }
 
     public void addAttribute(String name, @Nullable String value) {
+        TransactionAttributes attributes = this.attributes;
         if (attributes == null) {
-            // no race condition here since only transaction thread calls addAttribute()
-            attributes = HashMultimap.create(ATTRIBUTE_KEYS_INITIAL_CAPACITY, 1);
-        }
-        String val = Strings.nullToEmpty(value);
-        synchronized (attributes) {
-            Collection<String> values = attributes.get(name);
-            if (values.size() < ATTRIBUTE_VALUES_PER_KEY_LIMIT) {
-                values.add(val);
+            // attributes can also be added by auxiliary threads
+            synchronized (this) {
+                attributes = this.attributes;
+                if (attributes == null) {
+                    attributes = new TransactionAttributes();
+                    this.attributes = attributes;
+                }
             }
         }
+        attributes.add(name, Strings.nullToEmpty(value));
     }
 
     public void setError(ErrorMessage errorMessage, OverrideSource overrideSource) {
-        if (errorMessageOverrideSource == null
-                || errorMessageOverrideSource.priority < overrideSource.priority) {
+        if (overrideSource.overrides(errorMessageOverrideSource)) {
             this.errorMessage = errorMessage;
             errorMessageOverrideSource = overrideSource;
         }
     }
 
     public void setSlowThresholdMillis(int slowThresholdMillis, OverrideSource overrideSource) {
-        if (slowThresholdMillisOverrideSource == null
-                || slowThresholdMillisOverrideSource.priority < overrideSource.priority) {
+        if (overrideSource.overrides(slowThresholdMillisOverrideSource)) {
             this.slowThresholdMillis = slowThresholdMillis;
             slowThresholdMillisOverrideSource = overrideSource;
-        } else if (slowThresholdMillisOverrideSource.priority == overrideSource.priority) {
+        } else if (slowThresholdMillisOverrideSource == overrideSource) {
             // use the minimum threshold from the same override source
             this.slowThresholdMillis = Math.min(this.slowThresholdMillis, slowThresholdMillis);
         }
@@ -523,11 +600,30 @@ public class Transaction {
     }
 
     public AsyncTimerImpl startAsyncTimer(TimerName asyncTimerName, long startTick) {
-        AsyncTimerImpl asyncTimer = new AsyncTimerImpl((TimerNameImpl) asyncTimerName, startTick);
+        if (asyncRootTimers.size() >= MAX_ASYNC_ROOT_TIMERS) {
+            return new AsyncTimerImpl((TimerNameImpl) asyncTimerName, startTick,
+                    getOrCreateOverflowAggregate());
+        }
+        AsyncTimerImpl asyncTimer =
+                new AsyncTimerImpl((TimerNameImpl) asyncTimerName, startTick, null);
         asyncRootTimers.add(asyncTimer);
         return asyncTimer;
     }
 
+    private OverflowAggregate getOrCreateOverflowAggregate() {
+        OverflowAggregate overflowAggregate = this.overflowAggregate;
+        if (overflowAggregate == null) {
+            synchronized (auxThreadContexts) {
+                overflowAggregate = this.overflowAggregate;
+                if (overflowAggregate == null) {
+                    overflowAggregate = new OverflowAggregate();
+                    this.overflowAggregate = overflowAggregate;
+                }
+            }
+        }
+        return overflowAggregate;
+    }
+
     boolean isEntryLimitExceeded() {
         return entryLimitCounter.get() > maxTraceEntriesPerTransaction;
     }
@@ -601,7 +697,7 @@ public class Transaction {
     // called by the transaction thread
     public void onCompleteWillStoreTrace(long captureTime) {
         this.captureTime = captureTime;
-        gcActivityComponent.onComplete();
+        endGcSnapshot = gcActivityTracker.takeSnapshot();
     }
 
     long getCaptureTime() {
@@ -631,6 +727,12 @@ public class Transaction {
         private OverrideSource(int priority) {
             this.priority = priority;
         }
+
+        // this is the override rule for every transaction property that has an override source,
+        // and is also used by UnsampledTransaction
+        public boolean overrides(@Nullable OverrideSource currOverrideSource) {
+            return currOverrideSource == null || currOverrideSource.priority < priority;
+        }
     }
 
     private static class AuxThreadRootMessageSupplier extends MessageSupplier {
@@ -646,12 +748,13 @@ public class Transaction {
         }
     }
 
-    private static class GetRootTimerFunction implements Function<ThreadContextImpl, TimerImpl> {
+    private static class GetRootTimerFunction
+            implements Function<ThreadContextImpl, CommonTimerImpl> {
 
         private static final GetRootTimerFunction INSTANCE = new GetRootTimerFunction();
 
         @Override
-        public TimerImpl apply(@Nullable ThreadContextImpl input) {
+        public CommonTimerImpl apply(@Nullable ThreadContextImpl input) {
             checkNotNull(input);
             return input.getRootTimer();
         }
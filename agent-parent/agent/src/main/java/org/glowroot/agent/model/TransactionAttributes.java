@@ -0,0 +1,154 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.model;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+// append-only array of transaction attributes (name/value pairs)
+//
+// attributes are usually only added by the transaction thread, but can also be added by auxiliary
+// threads, so writers are serialized by locking in add(), while readers (e.g. when storing the
+// trace, or when listing active traces) take a snapshot without locking: the writer fully writes
+// each attribute into the array (replacing the array when it needs to grow) before incrementing
+// the volatile size, and the reader reads the size before the array, so it always sees fully
+// written attributes up to the size that it read
+//
+// duplicate name/value pairs are ignored, which is checked by scanning the existing attributes
+// while there are only a handful of them (which is cheaper than hashing), after which a hash index
+// of the values per name is built and used instead, so that adding many values stays linear
+public class TransactionAttributes {
+
+    // this is just to limit memory (and also to limit display size of trace)
+    private static final int VALUES_PER_NAME_LIMIT = 10000;
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    private static final int INDEX_THRESHOLD = 16;
+
+    private volatile Attribute[] attributes = new Attribute[INITIAL_CAPACITY];
+    private volatile int size;
+
+    @GuardedBy("this")
+    private @Nullable Map<String, Set<String>> valuesByName;
+
+    synchronized void add(String name, String value) {
+        Attribute[] attributes = this.attributes;
+        int size = this.size;
+        if (size < INDEX_THRESHOLD) {
+            if (isDuplicateOrOverLimit(attributes, size, name, value)) {
+                return;
+            }
+        } else {
+            Map<String, Set<String>> valuesByName = this.valuesByName;
+            if (valuesByName == null) {
+                valuesByName = buildIndex(attributes, size);
+                this.valuesByName = valuesByName;
+            }
+            Set<String> values = valuesByName.get(name);
+            if (values == null) {
+                values = Sets.newHashSet();
+                valuesByName.put(name, values);
+            } else if (values.contains(value) || values.size() >= VALUES_PER_NAME_LIMIT) {
+                return;
+            }
+            values.add(value);
+        }
+        if (size == attributes.length) {
+            attributes = Arrays.copyOf(attributes, size * 2);
+            attributes[size] = new Attribute(name, value);
+            this.attributes = attributes;
+        } else {
+            attributes[size] = new Attribute(name, value);
+        }
+        this.size = size + 1;
+    }
+
+    // returns a new array, which the caller is free to modify (e.g. sort)
+    Attribute[] snapshot() {
+        int size = this.size;
+        return Arrays.copyOf(attributes, size);
+    }
+
+    private static boolean isDuplicateOrOverLimit(Attribute[] attributes, int size, String name,
+            String value) {
+        int valuesForName = 0;
+        for (int i = 0; i < size; i++) {
+            Attribute attribute = attributes[i];
+            if (attribute.name.equals(name)) {
+                if (attribute.value.equals(value)) {
+                    return true;
+                }
+                valuesForName++;
+            }
+        }
+        return valuesForName >= VALUES_PER_NAME_LIMIT;
+    }
+
+    private static Map<String, Set<String>> buildIndex(Attribute[] attributes, int size) {
+        Map<String, Set<String>> valuesByName = Maps.newHashMap();
+        for (int i = 0; i < size; i++) {
+            Attribute attribute = attributes[i];
+            Set<String> values = valuesByName.get(attribute.name);
+            if (values == null) {
+                values = Sets.newHashSet();
+                valuesByName.put(attribute.name, values);
+            }
+            values.add(attribute.value);
+        }
+        return valuesByName;
+    }
+
+    public static class Attribute {
+
+        // orders by name and then by value, case insensitively, which is the order that attributes
+        // are displayed in
+        public static final Comparator<Attribute> DISPLAY_ORDER = new Comparator<Attribute>() {
+            @Override
+            public int compare(Attribute left, Attribute right) {
+                int result = String.CASE_INSENSITIVE_ORDER.compare(left.name, right.name);
+                if (result != 0) {
+                    return result;
+                }
+                return String.CASE_INSENSITIVE_ORDER.compare(left.value, right.value);
+            }
+        };
+
+        private final String name;
+        private final String value;
+
+        private Attribute(String name, String value) {
+            this.name = name;
+            this.value = value;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public String value() {
+            return value;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.util;
+
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+import javax.annotation.Nullable;
+
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.ImmutableList;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+// lock-free list that only supports appending and iterating, used for registrations that can be
+// added concurrently from many threads (e.g. auxiliary thread contexts of a transaction that fans
+// out into thousands of executor tasks), where CopyOnWriteArrayList would copy the entire array on
+// each add
+//
+// elements are stored in fixed size chunks, so adding never copies existing elements, and an empty
+// list does not allocate anything beyond the list instance itself (which is important since there
+// are a couple of these per transaction and most transactions never add anything to them)
+//
+// iteration is weakly consistent: it sees (at least) all elements whose add() completed before the
+// iterator was created, and it skips slots that have been reserved by a concurrent add() but not
+// yet written
+public class AppendOnlyChunkedList<T> implements Iterable<T> {
+
+    // must be a power of 2
+    private static final int CHUNK_SIZE = 32;
+    private static final int CHUNK_SHIFT = Integer.numberOfTrailingZeros(CHUNK_SIZE);
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicIntegerFieldUpdater<AppendOnlyChunkedList> sizeUpdater =
+            AtomicIntegerFieldUpdater.newUpdater(AppendOnlyChunkedList.class, "size");
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<AppendOnlyChunkedList, Chunk> headUpdater =
+            AtomicReferenceFieldUpdater.newUpdater(AppendOnlyChunkedList.class, Chunk.class,
+                    "head");
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<Chunk, Chunk> nextUpdater =
+            AtomicReferenceFieldUpdater.newUpdater(Chunk.class, Chunk.class, "next");
+
+    // number of reserved slots, which can be slightly ahead of the number of written slots
+    private volatile int size;
+
+    private volatile @Nullable Chunk<T> head;
+    // only a hint, used to avoid walking the chunks from the head on each add
+    private volatile @Nullable Chunk<T> tail;
+
+    public void add(T element) {
+        int index = sizeUpdater.getAndIncrement(this);
+        Chunk<T> chunk = getOrCreateChunk(index >>> CHUNK_SHIFT);
+        chunk.elements.set(index & CHUNK_MASK, element);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        final int size = this.size;
+        if (size == 0) {
+            // optimization for common case
+            return ImmutableList.<T>of().iterator();
+        }
+        final Chunk<T> head = this.head;
+        return new AbstractIterator<T>() {
+            private @Nullable Chunk<T> chunk = head;
+            private int index;
+            @Override
+            protected T computeNext() {
+                while (index < size && chunk != null) {
+                    T element = chunk.elements.get(index & CHUNK_MASK);
+                    if ((++index & CHUNK_MASK) == 0) {
+                        chunk = chunk.next;
+                    }
+                    if (element != null) {
+                        return element;
+                    }
+                }
+                return endOfData();
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private Chunk<T> getOrCreateChunk(int chunkIndex) {
+        Chunk<T> chunk = tail;
+        if (chunk == null || chunk.index > chunkIndex) {
+            chunk = head;
+            if (chunk == null) {
+                headUpdater.compareAndSet(this, null, new Chunk<T>(0));
+                // checkNotNull is safe b/c head is never set back to null
+                chunk = checkNotNull(head);
+            }
+        }
+        while (chunk.index < chunkIndex) {
+            Chunk<T> next = chunk.next;
+            if (next == null) {
+                nextUpdater.compareAndSet(chunk, null, new Chunk<T>(chunk.index + 1));
+                // checkNotNull is safe b/c next is never set back to null
+                next = checkNotNull(chunk.next);
+                tail = next;
+            }
+            chunk = next;
+        }
+        return chunk;
+    }
+
+    private static class Chunk<T> {
+
+        private final int index;
+        private final AtomicReferenceArray<T> elements = new AtomicReferenceArray<T>(CHUNK_SIZE);
+
+        // not private since accessed via field updater from outer class
+        volatile @Nullable Chunk<T> next;
+
+        private Chunk(int index) {
+            this.index = index;
+        }
+    }
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright 2015 the original author or authors.
+ * Copyright 2015-2016 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -15,14 +15,30 @@
  */
 package org.glowroot.agent.util;
 
+import java.util.Set;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.annotation.Nullable;
+
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Ticker;
+import com.google.common.collect.Sets;
+
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
 
 public class Tickers {
 
     private static final boolean USE_DUMMY_TICKER =
             Boolean.getBoolean("glowroot.internal.dummyTicker");
 
+    // names of timers which use the coarse ticker (see getTicker(String) below)
+    private static final Set<String> COARSE_TIMER_NAMES =
+            parseTimerNames(System.getProperty("glowroot.coarseTimerNames", ""));
+
+    // the background thread is only started if there are timers configured to use it
+    private static final @Nullable CoarseTicker COARSE_TICKER =
+            COARSE_TIMER_NAMES.isEmpty() || USE_DUMMY_TICKER ? null : startCoarseTicker();
+
     private Tickers() {}
 
     // normally Ticker should be injected, but in some memory sensitive classes it can be cached
@@ -31,6 +47,18 @@ public class Tickers {
         return getTicker(USE_DUMMY_TICKER);
     }
 
+    // returns the ticker that timers with the given name use when they read the time themselves
+    //
+    // this is the coarse ticker for timers configured via glowroot.coarseTimerNames, which is useful
+    // for very high frequency timers, since System.nanoTime() is the majority of the timer capture
+    // overhead (see comment in TimerImpl)
+    public static Ticker getTicker(String timerName) {
+        if (COARSE_TICKER != null && COARSE_TIMER_NAMES.contains(timerName)) {
+            return COARSE_TICKER;
+        }
+        return getTicker();
+    }
+
     // Nano times roll over every 292 years, so it is important to test differences between nano
     // times instead of direct comparison (e.g. nano2 - nano1 >= 0, not nano1 <= nano2)
     // (see http://java.sun.com/javase/7/docs/api/java/lang/System.html#nanoTime())
@@ -38,6 +66,28 @@ public class Tickers {
         return tick2 - tick1 >= 0;
     }
 
+    // not using Splitter since this class is used during weaving, see PreInitializeWeavingClasses
+    private static Set<String> parseTimerNames(String timerNames) {
+        Set<String> names = Sets.newHashSet();
+        for (String name : timerNames.split(",")) {
+            name = name.trim();
+            if (!name.isEmpty()) {
+                names.add(name);
+            }
+        }
+        return names;
+    }
+
+    private static CoarseTicker startCoarseTicker() {
+        long intervalNanos = MICROSECONDS.toNanos(
+                Math.max(1, Integer.getInteger("glowroot.coarseTicker.intervalMicros", 1000)));
+        CoarseTicker coarseTicker = new CoarseTicker(intervalNanos);
+        Thread thread = new Thread(coarseTicker, "Glowroot-Coarse-Ticker");
+        thread.setDaemon(true);
+        thread.start();
+        return coarseTicker;
+    }
+
     @VisibleForTesting
     static Ticker getTicker(boolean dummyTicker) {
         if (dummyTicker) {
@@ -53,4 +103,36 @@ public class Tickers {
             return 0;
         }
     }
+
+    // returns the value of System.nanoTime() as of the last update by a background thread, so
+    // reading it is just a volatile read, and its values are in the same time base as the system
+    // ticker
+    //
+    // a duration measured with this ticker is either rounded down or up to a multiple of the update
+    // interval, but as long as the timing of what is being measured is independent of the timing of
+    // the updates, the sum of the measured durations over many measurements is still accurate
+    @VisibleForTesting
+    static class CoarseTicker extends Ticker implements Runnable {
+
+        private final long intervalNanos;
+
+        private volatile long tick = System.nanoTime();
+
+        CoarseTicker(long intervalNanos) {
+            this.intervalNanos = intervalNanos;
+        }
+
+        @Override
+        public long read() {
+            return tick;
+        }
+
+        @Override
+        public void run() {
+            while (!Thread.currentThread().isInterrupted()) {
+                LockSupport.parkNanos(intervalNanos);
+                tick = System.nanoTime();
+            }
+        }
+    }
 }
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.util;
+
+import java.security.SecureRandom;
+
+// generates 128-bit trace ids, rendered in the same format as (version 4) UUIDs
+//
+// UUID.randomUUID() goes through a shared SecureRandom instance (which synchronizes on each call),
+// so instead SecureRandom is only used once to seed the generator for this JVM, and each thread
+// then generates ids from its own seed and counter without any contention
+//
+// the most significant 64 bits are derived from the JVM seed, the thread id and the time the
+// thread first generated an id (so they are different for each thread), and the least
+// significant 64 bits are a bijective mix of the thread's counter (so they are different for each
+// id generated by that thread)
+public class TraceIds {
+
+    private static final long NODE_SEED = new SecureRandom().nextLong();
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private static final ThreadLocal<Generator> generators = new ThreadLocal<Generator>() {
+        @Override
+        protected Generator initialValue() {
+            long threadSeed = mix64(NODE_SEED ^ mix64(Thread.currentThread().getId()));
+            threadSeed = mix64(threadSeed ^ System.currentTimeMillis() ^ System.nanoTime());
+            return new Generator(threadSeed);
+        }
+    };
+
+    private TraceIds() {}
+
+    public static String newTraceId() {
+        Generator generator = generators.get();
+        // set version 4 bits
+        long msb = (generator.threadSeed & 0xffffffffffff0fffL) | 0x0000000000004000L;
+        // set IETF variant bits
+        long lsb = (mix64(generator.threadSeed + ++generator.counter * 0x9e3779b97f4a7c15L)
+                & 0x3fffffffffffffffL) | 0x8000000000000000L;
+        return toString(msb, lsb);
+    }
+
+    // same format as UUID.toString()
+    private static String toString(long msb, long lsb) {
+        char[] chars = new char[36];
+        writeHex(chars, 0, msb >>> 32, 8);
+        chars[8] = '-';
+        writeHex(chars, 9, msb >>> 16, 4);
+        chars[13] = '-';
+        writeHex(chars, 14, msb, 4);
+        chars[18] = '-';
+        writeHex(chars, 19, lsb >>> 48, 4);
+        chars[23] = '-';
+        writeHex(chars, 24, lsb, 12);
+        return new String(chars);
+    }
+
+    private static void writeHex(char[] chars, int offset, long value, int digits) {
+        for (int i = offset + digits - 1; i >= offset; i--) {
+            chars[i] = HEX_DIGITS[(int) (value & 0xf)];
+            value >>>= 4;
+        }
+    }
+
+    // this is the finalizer from SplitMix64, which is a bijection on 64-bit values
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    private static class Generator {
+
+        private final long threadSeed;
+        private long counter;
+
+        private Generator(long threadSeed) {
+            this.threadSeed = threadSeed;
+        }
+    }
+}
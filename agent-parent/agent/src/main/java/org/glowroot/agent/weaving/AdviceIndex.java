@@ -0,0 +1,161 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.weaving;
+
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+// index of advisors by their method declaring class name (and class annotation), so that the
+// candidate advisors for a given class can be found without testing the class against every
+// advisor's pattern
+//
+// the candidates are a superset of the matching advisors, and still need to be verified against
+// the full declaring class match (see AdviceMatcher.getAdviceMatchers())
+class AdviceIndex {
+
+    private final List<Advice> advisors;
+
+    // advisors with an exact declaring class name
+    private final Map<String, List<Advice>> exactClassNameAdvisors = Maps.newHashMap();
+    // advisors with a wildcard declaring class name, indexed by the literal prefix before the
+    // first wildcard
+    private final PrefixNode prefixRoot = new PrefixNode();
+    // advisors with no declaring class name, but with a class annotation, indexed by the
+    // annotation descriptor
+    private final Map<String, List<Advice>> classAnnotationAdvisors = Maps.newHashMap();
+    // advisors that cannot be indexed (full regex or no declaring class restriction at all)
+    private final List<Advice> unindexedAdvisors = Lists.newArrayList();
+
+    AdviceIndex(List<Advice> advisors) {
+        this.advisors = advisors;
+        for (Advice advice : advisors) {
+            add(advice);
+        }
+    }
+
+    // used to check if this index is still current
+    List<Advice> getAdvisors() {
+        return advisors;
+    }
+
+    List<Advice> getCandidates(String className, List<String> classAnnotations) {
+        List<Advice> candidates = null;
+        List<Advice> exact = exactClassNameAdvisors.get(className);
+        if (exact != null) {
+            candidates = addAll(candidates, exact);
+        }
+        PrefixNode node = prefixRoot;
+        for (int i = 0; node != null; i++) {
+            if (!node.advisors.isEmpty()) {
+                candidates = addAll(candidates, node.advisors);
+            }
+            if (i == className.length()) {
+                break;
+            }
+            node = node.children.get(className.charAt(i));
+        }
+        if (!classAnnotationAdvisors.isEmpty()) {
+            for (String classAnnotation : classAnnotations) {
+                List<Advice> annotated = classAnnotationAdvisors.get(classAnnotation);
+                if (annotated != null) {
+                    candidates = addAll(candidates, annotated);
+                }
+            }
+        }
+        if (!unindexedAdvisors.isEmpty()) {
+            candidates = addAll(candidates, unindexedAdvisors);
+        }
+        return candidates == null ? ImmutableList.<Advice>of() : candidates;
+    }
+
+    private void add(Advice advice) {
+        String declaringClassName = advice.pointcutMethodDeclaringClassName();
+        if (declaringClassName.isEmpty()) {
+            String classAnnotation = advice.pointcut().classAnnotation();
+            if (classAnnotation.isEmpty()) {
+                unindexedAdvisors.add(advice);
+            } else {
+                // same format as used in AdviceMatcher.isAnnotationMatch()
+                put(classAnnotationAdvisors, 'L' + classAnnotation.replace('.', '/') + ';',
+                        advice);
+            }
+            return;
+        }
+        if (declaringClassName.startsWith("/") && declaringClassName.endsWith("/")) {
+            // full regex
+            unindexedAdvisors.add(advice);
+            return;
+        }
+        // same parsing as AdviceBuilder.buildPattern()
+        for (String part : declaringClassName.split("\\|")) {
+            int index = part.indexOf('*');
+            if (index == -1) {
+                put(exactClassNameAdvisors, part, advice);
+            } else {
+                prefixRoot.getOrCreate(part.substring(0, index)).advisors.add(advice);
+            }
+        }
+    }
+
+    private static void put(Map<String, List<Advice>> map, String key, Advice advice) {
+        List<Advice> list = map.get(key);
+        if (list == null) {
+            list = Lists.newArrayList();
+            map.put(key, list);
+        }
+        list.add(advice);
+    }
+
+    // returns mutable list
+    private static List<Advice> addAll(@Nullable List<Advice> candidates, List<Advice> advisors) {
+        if (candidates == null) {
+            return Lists.newArrayList(advisors);
+        }
+        for (Advice advice : advisors) {
+            // the same advice can be reached via multiple parts of a "|" pattern
+            if (!candidates.contains(advice)) {
+                candidates.add(advice);
+            }
+        }
+        return candidates;
+    }
+
+    private static class PrefixNode {
+
+        private final Map<Character, PrefixNode> children = Maps.newHashMap();
+        private final List<Advice> advisors = Lists.newArrayList();
+
+        private PrefixNode getOrCreate(String prefix) {
+            PrefixNode node = this;
+            for (int i = 0; i < prefix.length(); i++) {
+                char c = prefix.charAt(i);
+                PrefixNode child = node.children.get(c);
+                if (child == null) {
+                    child = new PrefixNode();
+                    node.children.put(c, child);
+                }
+                node = child;
+            }
+            return node;
+        }
+    }
+}
@@ -36,9 +36,13 @@ abstract class AdviceMatcher {
     private static final Logger logger = LoggerFactory.getLogger(AdviceMatcher.class);
 
     static ImmutableList<AdviceMatcher> getAdviceMatchers(String className,
-            List<String> classAnnotations, List<Advice> advisors) {
+            List<String> classAnnotations, AdviceIndex adviceIndex) {
+        List<Advice> candidates = adviceIndex.getCandidates(className, classAnnotations);
+        if (candidates.isEmpty()) {
+            return ImmutableList.of();
+        }
         List<AdviceMatcher> adviceMatchers = Lists.newArrayList();
-        for (Advice advice : advisors) {
+        for (Advice advice : candidates) {
             if (isDeclaringClassMatch(className, classAnnotations, advice)) {
                 adviceMatchers.add(ImmutableAdviceMatcher.of(advice));
             }
@@ -16,6 +16,7 @@
 package org.glowroot.agent.weaving;
 
 import java.lang.reflect.Modifier;
+import java.util.Set;
 
 import javax.annotation.Nullable;
 
@@ -53,4 +54,17 @@ abstract class AnalyzedClass {
         }
         return false;
     }
+
+    // reweavable advice that is no longer current, e.g. because its instrumentation config has
+    // since been changed or removed
+    boolean hasReweavableAdviceNotIn(Set<Advice> currentAdvisors) {
+        for (AnalyzedMethod analyzedMethod : analyzedMethods()) {
+            for (Advice advice : analyzedMethod.advisors()) {
+                if (advice.reweavable() && !currentAdvisors.contains(advice)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
 }
@@ -17,16 +17,17 @@ package org.glowroot.agent.weaving;
 
 import java.io.IOException;
 import java.lang.annotation.Annotation;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.lang.reflect.Method;
 import java.net.URL;
 import java.security.CodeSource;
-import java.util.Collections;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.WeakHashMap;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Nullable;
 
@@ -70,21 +71,22 @@ public class AnalyzedWorld {
     // to through another instance, e.g. Optional<ClassLoader>) so that the keys won't be cleared
     // while their associated class loaders are still being used
     //
+    // using a concurrent map (as opposed to a synchronized WeakHashMap) so that lookups do not
+    // contend when many threads are loading classes in parallel (e.g. app server startup)
+    //
     // not using the much more convenient (and concurrent) guava CacheBuilder since it uses many
     // additional classes that must then be pre-initialized since this is called from inside
     // ClassFileTransformer.transform() (see PreInitializeClasses)
-    private final Map<ClassLoader, ConcurrentMap<String, AnalyzedClass>> world =
-            Collections.synchronizedMap(
-                    new WeakHashMap<ClassLoader, ConcurrentMap<String, AnalyzedClass>>());
-
-    // the analyzed classes for the bootstrap class loader (null) have to be stored separately since
-    // LoadingCache doesn't accept null keys, and using an Optional<ClassLoader> for the key makes
-    // the weakness on the Optional instance which is not strongly referenced from anywhere and
-    // therefore the keys will most likely be cleared while their class loaders are still being used
-    //
-    // intentionally avoiding Maps.newConcurrentMap() for the same reason as above
-    private final ConcurrentMap<String, AnalyzedClass> bootstrapLoaderWorld =
-            new ConcurrentHashMap<String, AnalyzedClass>();
+    private final ConcurrentMap<LoaderKey, LoaderAnalyzedClasses> world =
+            new ConcurrentHashMap<LoaderKey, LoaderAnalyzedClasses>();
+
+    private final ReferenceQueue<ClassLoader> collectedLoaders = new ReferenceQueue<ClassLoader>();
+
+    // the analyzed classes for the bootstrap class loader (null) are stored separately since there
+    // is no class loader instance to use as a weak key
+    private final LoaderAnalyzedClasses bootstrapLoaderWorld;
+
+    private final AtomicLong evictedClassCount = new AtomicLong();
 
     private final Supplier<List<Advice>> advisors;
     private final ImmutableList<ShimType> shimTypes;
@@ -92,27 +94,43 @@ public class AnalyzedWorld {
 
     private final @Nullable ExtraBootResourceFinder extraBootResourceFinder;
 
+    // rebuilt lazily whenever the advisors change
+    private volatile @Nullable AdviceIndex adviceIndex;
+
     public AnalyzedWorld(Supplier<List<Advice>> advisors, List<ShimType> shimTypes,
             List<MixinType> mixinTypes, @Nullable ExtraBootResourceFinder extraBootResourceFinder) {
         this.advisors = advisors;
         this.shimTypes = ImmutableList.copyOf(shimTypes);
         this.mixinTypes = ImmutableList.copyOf(mixinTypes);
         this.extraBootResourceFinder = extraBootResourceFinder;
+        bootstrapLoaderWorld = new LoaderAnalyzedClasses(evictedClassCount);
     }
 
     public List<Class<?>> getClassesWithReweavableAdvice(boolean remove) {
         List<Class<?>> classes = Lists.newArrayList();
         for (ClassLoader loader : getClassLoaders()) {
-            classes.addAll(getClassesWithReweavableAdvice(loader, remove));
+            classes.addAll(getClassesWithReweavableAdvice(loader, null, remove));
         }
-        classes.addAll(getClassesWithReweavableAdvice(null, remove));
+        classes.addAll(getClassesWithReweavableAdvice(null, null, remove));
+        return classes;
+    }
+
+    // returns (and removes) only the classes with reweavable advice that is not in the current
+    // advisors, since classes whose reweavable advice is all still current do not need to be
+    // reweaved
+    public List<Class<?>> getClassesWithStaleReweavableAdvice(Set<Advice> currentAdvisors) {
+        List<Class<?>> classes = Lists.newArrayList();
+        for (ClassLoader loader : getClassLoaders()) {
+            classes.addAll(getClassesWithReweavableAdvice(loader, currentAdvisors, true));
+        }
+        classes.addAll(getClassesWithReweavableAdvice(null, currentAdvisors, true));
         return classes;
     }
 
     public void removeClasses(List<Class<?>> classes) {
-        for (Map<String, AnalyzedClass> map : getWorldValues()) {
+        for (LoaderAnalyzedClasses loaderAnalyzedClasses : world.values()) {
             for (Class<?> clazz : classes) {
-                map.remove(clazz.getName());
+                loaderAnalyzedClasses.remove(clazz.getName());
             }
         }
         for (Class<?> clazz : classes) {
@@ -121,14 +139,42 @@ public class AnalyzedWorld {
     }
 
     public ImmutableList<ClassLoader> getClassLoaders() {
-        synchronized (world) {
-            return ImmutableList.copyOf(world.keySet());
+        List<ClassLoader> loaders = Lists.newArrayList();
+        for (LoaderKey loaderKey : world.keySet()) {
+            ClassLoader loader = loaderKey.get();
+            if (loader != null) {
+                loaders.add(loader);
+            }
         }
+        return ImmutableList.copyOf(loaders);
+    }
+
+    int getClassLoaderCount() {
+        return world.size();
+    }
+
+    int getRetainedClassCount() {
+        int count = bootstrapLoaderWorld.getRetainedClassCount();
+        for (LoaderAnalyzedClasses loaderAnalyzedClasses : world.values()) {
+            count += loaderAnalyzedClasses.getRetainedClassCount();
+        }
+        return count;
+    }
+
+    int getSoftClassCount() {
+        int count = bootstrapLoaderWorld.getSoftClassCount();
+        for (LoaderAnalyzedClasses loaderAnalyzedClasses : world.values()) {
+            count += loaderAnalyzedClasses.getSoftClassCount();
+        }
+        return count;
+    }
+
+    long getEvictedClassCount() {
+        return evictedClassCount.get();
     }
 
     void add(AnalyzedClass analyzedClass, @Nullable ClassLoader loader) {
-        ConcurrentMap<String, AnalyzedClass> loaderAnalyzedClasses = getAnalyzedClasses(loader);
-        loaderAnalyzedClasses.put(analyzedClass.name(), analyzedClass);
+        getAnalyzedClasses(loader).put(analyzedClass);
     }
 
     // it's ok if there are duplicates in the returned list (e.g. an interface that appears twice
@@ -147,6 +193,20 @@ public class AnalyzedWorld {
         return getOrCreateAnalyzedClass(className, loader);
     }
 
+    AdviceIndex getAdviceIndex(List<Advice> advisors) {
+        AdviceIndex adviceIndex = this.adviceIndex;
+        if (adviceIndex != null && adviceIndex.getAdvisors() == advisors) {
+            return adviceIndex;
+        }
+        adviceIndex = new AdviceIndex(advisors);
+        if (advisors == this.advisors.get()) {
+            // don't replace the shared index with one for the advisors of a single class that has
+            // been merged with its @Instrument annotations
+            this.adviceIndex = adviceIndex;
+        }
+        return adviceIndex;
+    }
+
     List<Advice> mergeInstrumentAnnotations(List<Advice> advisors, byte[] classBytes,
             @Nullable ClassLoader loader, String className) {
         byte[] marker = "Lorg/glowroot/agent/api/Instrument$".getBytes(Charsets.UTF_8);
@@ -210,18 +270,16 @@ public class AnalyzedWorld {
     private AnalyzedClass getOrCreateAnalyzedClass(String className, @Nullable ClassLoader loader)
             throws ClassNotFoundException, IOException {
         ClassLoader analyzedClassLoader = getAnalyzedLoader(className, loader);
-        ConcurrentMap<String, AnalyzedClass> loaderAnalyzedClasses =
-                getAnalyzedClasses(analyzedClassLoader);
+        LoaderAnalyzedClasses loaderAnalyzedClasses = getAnalyzedClasses(analyzedClassLoader);
         AnalyzedClass analyzedClass = loaderAnalyzedClasses.get(className);
         if (analyzedClass == null) {
             if (loader != analyzedClassLoader) {
                 // this class may have been looked up and stored previously in loader's map, and
                 // then subsequently loaded into it's true class loader (analyzedClassLoader)
-                ConcurrentMap<String, AnalyzedClass> currLoaderAnalyzedClasses =
-                        getAnalyzedClasses(loader);
+                LoaderAnalyzedClasses currLoaderAnalyzedClasses = getAnalyzedClasses(loader);
                 analyzedClass = currLoaderAnalyzedClasses.get(className);
                 if (analyzedClass != null) {
-                    analyzedClass = putAnalyzedClass(loaderAnalyzedClasses, analyzedClass);
+                    analyzedClass = loaderAnalyzedClasses.putIfAbsent(analyzedClass);
                     // remove it from the "incorrect" class loader
                     currLoaderAnalyzedClasses.remove(className);
                     // this
@@ -229,31 +287,21 @@ public class AnalyzedWorld {
                 }
             }
             analyzedClass = createAnalyzedClass(className, analyzedClassLoader);
-            analyzedClass = putAnalyzedClass(loaderAnalyzedClasses, analyzedClass);
-        }
-        return analyzedClass;
-    }
-
-    private AnalyzedClass putAnalyzedClass(
-            ConcurrentMap<String, AnalyzedClass> loaderAnalyzedClasses,
-            AnalyzedClass analyzedClass) {
-        AnalyzedClass existingAnalyzedClass =
-                loaderAnalyzedClasses.putIfAbsent(analyzedClass.name(), analyzedClass);
-        if (existingAnalyzedClass != null) {
             // (rare) concurrent AnalyzedClass creation, use the one that made it into the map
-            return existingAnalyzedClass;
+            analyzedClass = loaderAnalyzedClasses.putIfAbsent(analyzedClass);
         }
         return analyzedClass;
     }
 
     private List<Class<?>> getClassesWithReweavableAdvice(@Nullable ClassLoader loader,
-            boolean remove) {
+            @Nullable Set<Advice> currentAdvisors, boolean remove) {
         List<Class<?>> classes = Lists.newArrayList();
-        ConcurrentMap<String, AnalyzedClass> loaderAnalyzedClasses = getAnalyzedClasses(loader);
-        for (Entry<String, AnalyzedClass> innerEntry : loaderAnalyzedClasses.entrySet()) {
-            if (innerEntry.getValue().hasReweavableAdvice()) {
+        LoaderAnalyzedClasses loaderAnalyzedClasses = getAnalyzedClasses(loader);
+        for (AnalyzedClass analyzedClass : loaderAnalyzedClasses.getRetainedClasses()) {
+            if (currentAdvisors == null ? analyzedClass.hasReweavableAdvice()
+                    : analyzedClass.hasReweavableAdviceNotIn(currentAdvisors)) {
                 try {
-                    classes.add(Class.forName(innerEntry.getKey(), false, loader));
+                    classes.add(Class.forName(analyzedClass.name(), false, loader));
                 } catch (ClassNotFoundException e) {
                     logger.warn(e.getMessage(), e);
                 }
@@ -374,7 +422,7 @@ public class AnalyzedWorld {
         }
         // the class loaded by Class.forName() above was not previously loaded which means
         // weaving was bypassed since ClassFileTransformer.transform() is not re-entrant
-        analyzedClass = createAnalyzedClassPlanC(clazz, advisors.get());
+        analyzedClass = createAnalyzedClassPlanC(clazz, getAdviceIndex(advisors.get()));
         if (analyzedClass.isInterface()) {
             return analyzedClass;
         }
@@ -397,30 +445,31 @@ public class AnalyzedWorld {
         return analyzedClass;
     }
 
-    private ConcurrentMap<String, AnalyzedClass> getAnalyzedClasses(@Nullable ClassLoader loader) {
+    private LoaderAnalyzedClasses getAnalyzedClasses(@Nullable ClassLoader loader) {
         if (loader == null) {
             return bootstrapLoaderWorld;
-        } else {
-            // this synchronization is for atomicity of get/put
-            synchronized (world) {
-                ConcurrentMap<String, AnalyzedClass> map = world.get(loader);
-                if (map == null) {
-                    map = new ConcurrentHashMap<String, AnalyzedClass>();
-                    world.put(loader, map);
-                }
-                return map;
-            }
         }
+        LoaderAnalyzedClasses loaderAnalyzedClasses = world.get(new LoaderKey(loader));
+        if (loaderAnalyzedClasses != null) {
+            return loaderAnalyzedClasses;
+        }
+        expungeCollectedLoaders();
+        loaderAnalyzedClasses = new LoaderAnalyzedClasses(evictedClassCount);
+        LoaderAnalyzedClasses existing = world.putIfAbsent(
+                new LoaderKey(loader, collectedLoaders), loaderAnalyzedClasses);
+        return existing == null ? loaderAnalyzedClasses : existing;
     }
 
-    private ImmutableList<ConcurrentMap<String, AnalyzedClass>> getWorldValues() {
-        synchronized (world) {
-            return ImmutableList.copyOf(world.values());
+    private void expungeCollectedLoaders() {
+        Reference<? extends ClassLoader> loaderKey;
+        while ((loaderKey = collectedLoaders.poll()) != null) {
+            world.remove(loaderKey);
         }
     }
 
     // now that the type has been loaded anyways, build the analyzed class via reflection
-    private static AnalyzedClass createAnalyzedClassPlanC(Class<?> clazz, List<Advice> advisors) {
+    private static AnalyzedClass createAnalyzedClassPlanC(Class<?> clazz,
+            AdviceIndex adviceIndex) {
         ImmutableAnalyzedClass.Builder classBuilder = ImmutableAnalyzedClass.builder();
         classBuilder.modifiers(clazz.getModifiers());
         classBuilder.name(clazz.getName());
@@ -436,7 +485,7 @@ public class AnalyzedWorld {
             classAnnotations.add(annotation.annotationType().getName());
         }
         List<AdviceMatcher> adviceMatchers =
-                AdviceMatcher.getAdviceMatchers(clazz.getName(), classAnnotations, advisors);
+                AdviceMatcher.getAdviceMatchers(clazz.getName(), classAnnotations, adviceIndex);
         for (Method method : clazz.getDeclaredMethods()) {
             if (method.isSynthetic()) {
                 // don't add synthetic methods to the analyzed model
@@ -485,6 +534,43 @@ public class AnalyzedWorld {
         return matchingAdvisors;
     }
 
+    // identity based weak reference to a class loader, used as key in the world map
+    //
+    // a new (non-queued) key is created for each lookup, which is cheap compared to synchronizing
+    // on a shared map
+    private static class LoaderKey extends WeakReference<ClassLoader> {
+
+        private final int hashCode;
+
+        private LoaderKey(ClassLoader loader) {
+            super(loader);
+            hashCode = System.identityHashCode(loader);
+        }
+
+        private LoaderKey(ClassLoader loader, ReferenceQueue<ClassLoader> queue) {
+            super(loader, queue);
+            hashCode = System.identityHashCode(loader);
+        }
+
+        @Override
+        public boolean equals(@Nullable Object obj) {
+            if (obj == this) {
+                return true;
+            }
+            if (!(obj instanceof LoaderKey)) {
+                return false;
+            }
+            ClassLoader loader = get();
+            // cleared keys are only equal to themselves (so that they can be expunged)
+            return loader != null && loader == ((LoaderKey) obj).get();
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
     @Value.Immutable
     @Styles.AllParameters
     abstract static class ParseContext {
@@ -75,7 +75,8 @@ class ClassAnalyzer {
                 .superName(superClassName)
                 .addAllInterfaceNames(interfaceNames);
         adviceMatchers =
-                AdviceMatcher.getAdviceMatchers(className, thinClass.annotations(), advisors);
+                AdviceMatcher.getAdviceMatchers(className, thinClass.annotations(),
+                        analyzedWorld.getAdviceIndex(advisors));
         if (Modifier.isInterface(thinClass.access())) {
             superAnalyzedClasses = ImmutableList.of();
             matchedShimTypes = getMatchedShimTypes(shimTypes, className,
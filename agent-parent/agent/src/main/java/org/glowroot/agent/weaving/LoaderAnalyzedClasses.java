@@ -0,0 +1,144 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.weaving;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+// the analyzed classes for a single class loader
+//
+// analyzed classes that have advice, shims or mixins are always retained, but analyzed classes that
+// have none of those (which is the vast majority) are only needed when analyzing their subclasses,
+// and so they are only softly retained, since they can always be re-created from their class file
+// (see AnalyzedWorld.createAnalyzedClass())
+//
+// intentionally avoiding guava CacheBuilder, see comment in AnalyzedWorld
+class LoaderAnalyzedClasses {
+
+    private final ConcurrentMap<String, AnalyzedClass> retainedClasses =
+            new ConcurrentHashMap<String, AnalyzedClass>();
+
+    private final ConcurrentMap<String, SoftAnalyzedClass> softClasses =
+            new ConcurrentHashMap<String, SoftAnalyzedClass>();
+
+    private final ReferenceQueue<AnalyzedClass> queue = new ReferenceQueue<AnalyzedClass>();
+
+    private final AtomicLong evictedCount;
+
+    LoaderAnalyzedClasses(AtomicLong evictedCount) {
+        this.evictedCount = evictedCount;
+    }
+
+    @Nullable
+    AnalyzedClass get(String className) {
+        AnalyzedClass analyzedClass = retainedClasses.get(className);
+        if (analyzedClass != null) {
+            return analyzedClass;
+        }
+        SoftAnalyzedClass softAnalyzedClass = softClasses.get(className);
+        return softAnalyzedClass == null ? null : softAnalyzedClass.get();
+    }
+
+    void put(AnalyzedClass analyzedClass) {
+        expungeEvictedClasses();
+        String className = analyzedClass.name();
+        if (isRetained(analyzedClass)) {
+            retainedClasses.put(className, analyzedClass);
+            softClasses.remove(className);
+        } else {
+            softClasses.put(className, new SoftAnalyzedClass(analyzedClass, queue));
+            retainedClasses.remove(className);
+        }
+    }
+
+    // returns the analyzed class that made it into the map
+    AnalyzedClass putIfAbsent(AnalyzedClass analyzedClass) {
+        expungeEvictedClasses();
+        String className = analyzedClass.name();
+        AnalyzedClass existing = get(className);
+        if (existing != null) {
+            return existing;
+        }
+        if (isRetained(analyzedClass)) {
+            existing = retainedClasses.putIfAbsent(className, analyzedClass);
+            return existing == null ? analyzedClass : existing;
+        }
+        SoftAnalyzedClass softAnalyzedClass = new SoftAnalyzedClass(analyzedClass, queue);
+        SoftAnalyzedClass existingSoftAnalyzedClass =
+                softClasses.putIfAbsent(className, softAnalyzedClass);
+        if (existingSoftAnalyzedClass != null) {
+            existing = existingSoftAnalyzedClass.get();
+            if (existing != null) {
+                return existing;
+            }
+            // existing one was evicted in the meantime
+            softClasses.put(className, softAnalyzedClass);
+        }
+        return analyzedClass;
+    }
+
+    void remove(String className) {
+        retainedClasses.remove(className);
+        softClasses.remove(className);
+    }
+
+    // soft analyzed classes never have advice, so this includes all analyzed classes with
+    // reweavable advice
+    Collection<AnalyzedClass> getRetainedClasses() {
+        return retainedClasses.values();
+    }
+
+    int getRetainedClassCount() {
+        return retainedClasses.size();
+    }
+
+    // this may include evicted classes that have not been expunged yet
+    int getSoftClassCount() {
+        return softClasses.size();
+    }
+
+    private void expungeEvictedClasses() {
+        SoftAnalyzedClass softAnalyzedClass;
+        while ((softAnalyzedClass = (SoftAnalyzedClass) queue.poll()) != null) {
+            // only remove if it has not already been replaced
+            if (softClasses.remove(softAnalyzedClass.className, softAnalyzedClass)) {
+                evictedCount.getAndIncrement();
+            }
+        }
+    }
+
+    private static boolean isRetained(AnalyzedClass analyzedClass) {
+        return !analyzedClass.analyzedMethods().isEmpty() || !analyzedClass.shimTypes().isEmpty()
+                || !analyzedClass.mixinTypes().isEmpty();
+    }
+
+    private static class SoftAnalyzedClass extends SoftReference<AnalyzedClass> {
+
+        private final String className;
+
+        private SoftAnalyzedClass(AnalyzedClass analyzedClass,
+                ReferenceQueue<AnalyzedClass> queue) {
+            super(analyzedClass, queue);
+            className = analyzedClass.name();
+        }
+    }
+}
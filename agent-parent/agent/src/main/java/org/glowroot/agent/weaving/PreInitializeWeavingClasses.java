@@ -286,6 +286,7 @@ public class PreInitializeWeavingClasses {
         types.add("org.glowroot.agent.plugin.api.weaving.Shim");
         types.add("org.glowroot.agent.util.Reflections");
         types.add("org.glowroot.agent.util.Tickers");
+        types.add("org.glowroot.agent.util.Tickers$CoarseTicker");
         types.add("org.glowroot.agent.util.Tickers$DummyTicker");
         types.add("org.glowroot.agent.weaving.Advice");
         types.add("org.glowroot.agent.weaving.Advice$AdviceOrdering");
@@ -294,10 +295,13 @@ public class PreInitializeWeavingClasses {
         types.add("org.glowroot.agent.weaving.AdviceBuilder");
         types.add("org.glowroot.agent.weaving.AdviceBuilder$1");
         types.add("org.glowroot.agent.weaving.AdviceBuilder$AdviceConstructionException");
+        types.add("org.glowroot.agent.weaving.AdviceIndex");
+        types.add("org.glowroot.agent.weaving.AdviceIndex$PrefixNode");
         types.add("org.glowroot.agent.weaving.AdviceMatcher");
         types.add("org.glowroot.agent.weaving.AnalyzedClass");
         types.add("org.glowroot.agent.weaving.AnalyzedMethod");
         types.add("org.glowroot.agent.weaving.AnalyzedWorld");
+        types.add("org.glowroot.agent.weaving.AnalyzedWorld$LoaderKey");
         types.add("org.glowroot.agent.weaving.AnalyzedWorld$ParseContext");
         types.add("org.glowroot.agent.weaving.BootstrapMetaHolders");
         types.add("org.glowroot.agent.weaving.BootstrapMetaHolders$ClassMetaHolder");
@@ -343,6 +347,8 @@ public class PreInitializeWeavingClasses {
                 + "$TraceEntryAnnotationVisitor");
         types.add("org.glowroot.agent.weaving.InstrumentationSeekerClassVisitor"
                 + "$TransactionAnnotationVisitor");
+        types.add("org.glowroot.agent.weaving.LoaderAnalyzedClasses");
+        types.add("org.glowroot.agent.weaving.LoaderAnalyzedClasses$SoftAnalyzedClass");
         types.add("org.glowroot.agent.weaving.MixinType");
         types.add("org.glowroot.agent.weaving.ParameterKind");
         types.add("org.glowroot.agent.weaving.ShimType");
@@ -354,6 +360,8 @@ public class PreInitializeWeavingClasses {
         types.add("org.glowroot.agent.weaving.WeaverImpl");
         types.add("org.glowroot.agent.weaving.WeaverImpl$ComputeFramesClassWriter");
         types.add("org.glowroot.agent.weaving.WeaverImpl$JSRInlinerClassVisitor");
+        types.add("org.glowroot.agent.weaving.WeavingCache");
+        types.add("org.glowroot.agent.weaving.WeavingCache$CurrentDir");
         types.add("org.glowroot.agent.weaving.WeavingClassFileTransformer");
         types.add("org.glowroot.agent.weaving.WeavingClassVisitor");
         types.add("org.glowroot.agent.weaving.WeavingClassVisitor$InitMixins");
@@ -471,7 +479,9 @@ public class PreInitializeWeavingClasses {
         types.add("org.glowroot.agent.weaving.Advice$1");
         types.add("org.glowroot.agent.weaving.AnalyzedClass$1");
         types.add("org.glowroot.agent.weaving.AnalyzedMethod$1");
+        types.add("org.glowroot.agent.weaving.AdviceIndex$1");
         types.add("org.glowroot.agent.weaving.AnalyzedMethodKey$1");
+        types.add("org.glowroot.agent.weaving.AnalyzedWorld$1");
         types.add("org.glowroot.agent.weaving.BootstrapMetaHolders$1");
         types.add("org.glowroot.agent.weaving.FelixOsgiHackClassVisitor$1");
         types.add("org.glowroot.agent.weaving.ImmutableAnalyzedClass$1");
@@ -484,9 +494,11 @@ public class PreInitializeWeavingClasses {
         types.add("org.glowroot.agent.weaving.ImmutableThinClass$1");
         types.add("org.glowroot.agent.weaving.ImmutableThinMethod$1");
         types.add("org.glowroot.agent.weaving.InstrumentationSeekerClassVisitor$1");
+        types.add("org.glowroot.agent.weaving.LoaderAnalyzedClasses$1");
         types.add("org.glowroot.agent.weaving.MethodMetaGroup$1");
         types.add("org.glowroot.agent.weaving.ThinClassVisitor$1");
         types.add("org.glowroot.agent.weaving.WeaverImpl$1");
+        types.add("org.glowroot.agent.weaving.WeavingCache$1");
         types.add("org.glowroot.agent.weaving.WeavingClassVisitor$1");
         // this is a special class generated by javac (but not by the eclipse compiler) to handle
         // enum switch statements
@@ -21,6 +21,7 @@ import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.security.CodeSource;
 import java.util.List;
+import java.util.Map;
 
 import javax.annotation.Nullable;
 
@@ -28,6 +29,7 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.StandardSystemProperty;
 import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
 import com.google.common.io.Files;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassVisitor;
@@ -42,6 +44,7 @@ import org.glowroot.agent.weaving.AnalyzedWorld.ParseContext;
 import org.glowroot.agent.weaving.WeavingTimerService.WeavingTimer;
 
 import static org.objectweb.asm.Opcodes.ASM5;
+import static org.objectweb.asm.Opcodes.V1_6;
 
 public class WeaverImpl implements Weaver {
 
@@ -55,15 +58,17 @@ public class WeaverImpl implements Weaver {
     private final ImmutableList<MixinType> mixinTypes;
     private final AnalyzedWorld analyzedWorld;
     private final WeavingTimerService weavingTimerService;
+    private final @Nullable WeavingCache weavingCache;
 
     public WeaverImpl(Supplier<List<Advice>> advisors, List<ShimType> shimTypes,
             List<MixinType> mixinTypes, AnalyzedWorld analyzedWorld,
-            WeavingTimerService weavingTimerService) {
+            WeavingTimerService weavingTimerService, @Nullable WeavingCache weavingCache) {
         this.advisors = advisors;
         this.shimTypes = ImmutableList.copyOf(shimTypes);
         this.mixinTypes = ImmutableList.copyOf(mixinTypes);
         this.analyzedWorld = analyzedWorld;
         this.weavingTimerService = weavingTimerService;
+        this.weavingCache = weavingCache;
     }
 
     @Override
@@ -84,7 +89,20 @@ public class WeaverImpl implements Weaver {
 
     private byte/*@Nullable*/[] weaveUnderTimer(byte[] classBytes, String className,
             @Nullable CodeSource codeSource, @Nullable ClassLoader loader) {
-        List<Advice> advisors = analyzedWorld.mergeInstrumentAnnotations(this.advisors.get(),
+        List<Advice> currAdvisors = this.advisors.get();
+        // this is checked before the class is even parsed, so that on restart, classes that did not
+        // need weaving skip parsing and analysis entirely (their analyzed class is then created
+        // lazily by AnalyzedWorld if it is ever needed, e.g. when analyzing a sub type)
+        //
+        // the marker is not keyed by the analyzed super types (since those are not known until
+        // after analysis), so unlike cached woven bytes, it is not invalidated when only a super
+        // type changes (e.g. upgrading a library jar but not the application jar that extends it),
+        // though any advice or instrumentation config change still invalidates the whole cache
+        if (weavingCache != null
+                && weavingCache.isNoWeavingNeeded(classBytes, className, loader, currAdvisors)) {
+            return null;
+        }
+        List<Advice> advisors = analyzedWorld.mergeInstrumentAnnotations(currAdvisors,
                 classBytes, loader, className);
         ThinClassVisitor accv = new ThinClassVisitor();
         new ClassReader(classBytes).accept(accv, ClassReader.SKIP_FRAMES + ClassReader.SKIP_CODE);
@@ -101,13 +119,59 @@ public class WeaverImpl implements Weaver {
                 mixinTypes, loader, analyzedWorld, codeSource);
         if (classAnalyzer.isShortCircuitBeforeAnalyzeMethods()) {
             analyzedWorld.add(classAnalyzer.getAnalyzedClass(), loader);
+            putNoWeavingNeeded(classBytes, className, loader, advisors, currAdvisors,
+                    maybeFelixBytes);
             return maybeFelixBytes;
         }
         classAnalyzer.analyzeMethods();
         if (!classAnalyzer.isWeavingRequired()) {
             analyzedWorld.add(classAnalyzer.getAnalyzedClass(), loader);
+            putNoWeavingNeeded(classBytes, className, loader, advisors, currAdvisors,
+                    maybeFelixBytes);
             return maybeFelixBytes;
         }
+        // for classes that need weaving, analysis is still performed before checking the cache so
+        // that the cache key can include the analyzed super types, and so that the analyzed class
+        // is registered with AnalyzedWorld the same as when weaving
+        //
+        // @Instrument annotations generate advice classes in the class loader as a side effect of
+        // mergeInstrumentAnnotations(), so those results are never cached
+        //
+        // similarly, @BindClassMeta and @BindMethodMeta generate (and define) a MetaHolder class as
+        // a side effect of weaving, and its name comes from a per-JVM counter, so the woven bytes
+        // would refer to a MetaHolder that is not defined (or is a different one) after a restart
+        if (weavingCache == null || advisors != currAdvisors || maybeFelixBytes != null
+                || hasMetaHolder(classAnalyzer)) {
+            return weave(classBytes, className, codeSource, loader, maybeFelixBytes,
+                    classAnalyzer);
+        }
+        List<AnalyzedClass> superAnalyzedClasses = classAnalyzer.getSuperAnalyzedClasses();
+        byte[] wovenBytes =
+                weavingCache.get(classBytes, className, loader, advisors, superAnalyzedClasses);
+        if (wovenBytes != null) {
+            analyzedWorld.add(classAnalyzer.getAnalyzedClass(), loader);
+            return wovenBytes;
+        }
+        wovenBytes = weave(classBytes, className, codeSource, loader, null, classAnalyzer);
+        if (wovenBytes != null) {
+            weavingCache.put(classBytes, className, loader, advisors, superAnalyzedClasses,
+                    wovenBytes);
+        }
+        return wovenBytes;
+    }
+
+    private void putNoWeavingNeeded(byte[] classBytes, String className,
+            @Nullable ClassLoader loader, List<Advice> advisors, List<Advice> currAdvisors,
+            byte /*@Nullable*/[] maybeFelixBytes) {
+        // see comment in weaveUnderTimer() for why @Instrument annotation advice is not cached
+        if (weavingCache != null && advisors == currAdvisors && maybeFelixBytes == null) {
+            weavingCache.putNoWeavingNeeded(classBytes, className, loader, currAdvisors);
+        }
+    }
+
+    private byte /*@Nullable*/[] weave(byte[] classBytes, String className,
+            @Nullable CodeSource codeSource, @Nullable ClassLoader loader,
+            byte /*@Nullable*/[] maybeFelixBytes, ClassAnalyzer classAnalyzer) {
         // from http://www.oracle.com/technetwork/java/javase/compatibility-417013.html:
         //
         // "Classfiles with version number 51 are exclusively verified using the type-checking
@@ -120,16 +184,25 @@ public class WeaverImpl implements Weaver {
         // stackmap information to be consistent with the bytecode in order to pass
         // verification."
         //
-        ClassWriter cw = new ComputeFramesClassWriter(ClassWriter.COMPUTE_FRAMES, analyzedWorld,
-                loader, codeSource, className);
+        // classfiles prior to version 50 do not have stack map frames at all, so the (expensive)
+        // frame computation, which needs to resolve common super classes via the analyzed world,
+        // is skipped for those
+        //
+        // the class writer is given the class reader so that asm copies methods that are not woven
+        // as-is (see WeavingClassVisitor.visitMethod()), which preserves their original stack map
+        // frames instead of re-computing them
+        int flags = getMajorVersion(classBytes) < V1_6 ? ClassWriter.COMPUTE_MAXS
+                : ClassWriter.COMPUTE_FRAMES;
+        ClassReader cr = new ClassReader(maybeFelixBytes == null ? classBytes : maybeFelixBytes);
+        ClassWriter cw = new ComputeFramesClassWriter(cr, flags, analyzedWorld, loader,
+                codeSource, className);
         WeavingClassVisitor cv =
                 new WeavingClassVisitor(cw, loader, classAnalyzer.getAnalyzedClass(),
                         classAnalyzer.getMethodsThatOnlyNowFulfillAdvice(),
                         classAnalyzer.getMatchedShimTypes(), classAnalyzer.getMatchedMixinTypes(),
                         classAnalyzer.getMethodAdvisors(), analyzedWorld);
-        ClassReader cr = new ClassReader(maybeFelixBytes == null ? classBytes : maybeFelixBytes);
         try {
-            cr.accept(new JSRInlinerClassVisitor(cv), ClassReader.SKIP_FRAMES);
+            cr.accept(cv, ClassReader.SKIP_FRAMES);
         } catch (RuntimeException e) {
             logger.error("unable to weave {}: {}", className, e.getMessage(), e);
             try {
@@ -148,6 +221,33 @@ public class WeaverImpl implements Weaver {
         return transformedBytes;
     }
 
+    private static boolean hasMetaHolder(ClassAnalyzer classAnalyzer) {
+        for (List<Advice> methodAdvisors : classAnalyzer.getMethodAdvisors().values()) {
+            if (hasMetaHolder(methodAdvisors)) {
+                return true;
+            }
+        }
+        for (AnalyzedMethod analyzedMethod : classAnalyzer.getMethodsThatOnlyNowFulfillAdvice()) {
+            if (hasMetaHolder(analyzedMethod.advisors())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasMetaHolder(List<Advice> advisors) {
+        for (Advice advice : advisors) {
+            if (!advice.classMetaTypes().isEmpty() || !advice.methodMetaTypes().isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int getMajorVersion(byte[] classBytes) {
+        return ((classBytes[6] & 0xFF) << 8) | (classBytes[7] & 0xFF);
+    }
+
     private static void verify(byte[] transformedBytes, @Nullable ClassLoader loader,
             byte[] originalBytes, String className) {
         String originalBytesVerifyError = verify(originalBytes, loader);
@@ -221,6 +321,10 @@ public class WeaverImpl implements Weaver {
         private final @Nullable ClassLoader loader;
         private final ParseContext parseContext;
 
+        // asm asks for the same pairs of types many times while computing frames (at least once
+        // per merge point), and each uncached lookup walks the analyzed type hierarchy
+        private final Map<String, String> commonSuperClasses = Maps.newHashMap();
+
         public ComputeFramesClassWriter(int flags, AnalyzedWorld analyzedWorld,
                 @Nullable ClassLoader loader, @Nullable CodeSource codeSource, String className) {
             super(flags);
@@ -229,18 +333,34 @@ public class WeaverImpl implements Weaver {
             this.parseContext = ImmutableParseContext.of(className, codeSource);
         }
 
+        private ComputeFramesClassWriter(ClassReader classReader, int flags,
+                AnalyzedWorld analyzedWorld, @Nullable ClassLoader loader,
+                @Nullable CodeSource codeSource, String className) {
+            super(classReader, flags);
+            this.analyzedWorld = analyzedWorld;
+            this.loader = loader;
+            this.parseContext = ImmutableParseContext.of(className, codeSource);
+        }
+
         // implements logic similar to org.objectweb.asm.ClassWriter.getCommonSuperClass()
         @Override
         protected String getCommonSuperClass(String type1, String type2) {
             if (type1.equals("java/lang/Object") || type2.equals("java/lang/Object")) {
                 return "java/lang/Object";
             }
+            String key = type1 + ':' + type2;
+            String commonSuperClass = commonSuperClasses.get(key);
+            if (commonSuperClass != null) {
+                return commonSuperClass;
+            }
             try {
-                return getCommonSuperClassInternal(type1, type2);
+                commonSuperClass = getCommonSuperClassInternal(type1, type2);
             } catch (IOException e) {
                 logger.error(e.getMessage(), e);
                 return "java/lang/Object";
             }
+            commonSuperClasses.put(key, commonSuperClass);
+            return commonSuperClass;
         }
 
         private String getCommonSuperClassInternal(String type1, String type2) throws IOException {
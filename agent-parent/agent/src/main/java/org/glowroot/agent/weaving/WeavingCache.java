@@ -0,0 +1,310 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.weaving;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// on-disk cache of weaving results, so that on restart, unchanged classes can skip analysis and
+// weaving
+//
+// there are two kinds of entries, both stored under a directory named by the fingerprint of the
+// current advisors, shim types, mixin types, glowroot version and plugin jars (so any change to
+// those invalidates the cache):
+//
+// * "no weaving needed" markers, keyed by a hash of the original class bytes, the class loader
+//   type and the class name, which are checked before the class is parsed, so that the (vast
+//   majority of) classes that do not need weaving skip parsing and analysis entirely on restart
+//
+// * woven bytes, keyed additionally by the analyzed super types (so a change to a super class or
+//   interface, e.g. picking up new advice, invalidates the entries of its sub types), which are
+//   checked after analysis (see WeaverImpl)
+public class WeavingCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(WeavingCache.class);
+
+    // bump this when the entry format or cache key changes
+    private static final int CACHE_FORMAT = 3;
+
+    private static final String NO_WEAVING_NEEDED_SUFFIX = ".none";
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final File cacheDir;
+    private final String staticFingerprint;
+
+    private volatile @Nullable CurrentDir currentDir;
+
+    public WeavingCache(File cacheDir, Supplier<List<Advice>> advisors, List<ShimType> shimTypes,
+            List<MixinType> mixinTypes, List<File> pluginJars, String agentVersion) {
+        this.cacheDir = cacheDir;
+        StringBuilder sb = new StringBuilder();
+        sb.append(CACHE_FORMAT);
+        sb.append('\n');
+        sb.append(agentVersion);
+        sb.append('\n');
+        for (ShimType shimType : shimTypes) {
+            sb.append(shimType);
+            sb.append('\n');
+        }
+        for (MixinType mixinType : mixinTypes) {
+            sb.append(mixinType);
+            sb.append('\n');
+        }
+        for (File jarFile : pluginJars) {
+            sb.append(jarFile.getAbsolutePath());
+            sb.append(':');
+            sb.append(jarFile.length());
+            sb.append(':');
+            sb.append(jarFile.lastModified());
+            sb.append('\n');
+        }
+        staticFingerprint = sb.toString();
+        // clean up entries from prior advisor fingerprints
+        String currentDirName = getCurrentDir(advisors.get()).dir.getName();
+        File[] files = cacheDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (!file.getName().equals(currentDirName)) {
+                    delete(file);
+                }
+            }
+        }
+    }
+
+    boolean isNoWeavingNeeded(byte[] classBytes, String className, @Nullable ClassLoader loader,
+            List<Advice> advisors) {
+        return getNoWeavingNeededFile(classBytes, className, loader, advisors).exists();
+    }
+
+    void putNoWeavingNeeded(byte[] classBytes, String className, @Nullable ClassLoader loader,
+            List<Advice> advisors) {
+        write(getNoWeavingNeededFile(classBytes, className, loader, advisors), new byte[0]);
+    }
+
+    // returns the woven bytes, or null if not found in the cache
+    byte /*@Nullable*/[] get(byte[] classBytes, String className, @Nullable ClassLoader loader,
+            List<Advice> advisors, List<AnalyzedClass> superAnalyzedClasses) {
+        File file = getFile(classBytes, className, loader, advisors, superAnalyzedClasses);
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            byte[] bytes = new byte[(int) file.length()];
+            DataInputStream in = new DataInputStream(new FileInputStream(file));
+            try {
+                in.readFully(bytes);
+            } finally {
+                in.close();
+            }
+            if (bytes.length == 0) {
+                return null;
+            }
+            return bytes;
+        } catch (IOException e) {
+            logger.debug(e.getMessage(), e);
+            return null;
+        }
+    }
+
+    void put(byte[] classBytes, String className, @Nullable ClassLoader loader,
+            List<Advice> advisors, List<AnalyzedClass> superAnalyzedClasses, byte[] wovenBytes) {
+        write(getFile(classBytes, className, loader, advisors, superAnalyzedClasses), wovenBytes);
+    }
+
+    private File getNoWeavingNeededFile(byte[] classBytes, String className,
+            @Nullable ClassLoader loader, List<Advice> advisors) {
+        String key = toHex(newDigest(classBytes, className, loader).digest());
+        File dir = new File(getCurrentDir(advisors).dir, key.substring(0, 2));
+        return new File(dir, key.substring(2) + NO_WEAVING_NEEDED_SUFFIX);
+    }
+
+    private File getFile(byte[] classBytes, String className, @Nullable ClassLoader loader,
+            List<Advice> advisors, List<AnalyzedClass> superAnalyzedClasses) {
+        MessageDigest digest = newDigest(classBytes, className, loader);
+        digest.update((byte) 0);
+        digest.update(getBytes(getHierarchyFingerprint(superAnalyzedClasses)));
+        String key = toHex(digest.digest());
+        // split into sub-directories to avoid very large directories
+        File dir = new File(getCurrentDir(advisors).dir, key.substring(0, 2));
+        return new File(dir, key.substring(2));
+    }
+
+    private static void write(File file, byte[] bytes) {
+        try {
+            File parentDir = file.getParentFile();
+            if (!parentDir.exists() && !parentDir.mkdirs() && !parentDir.exists()) {
+                throw new IOException("Could not create directory: " + parentDir.getPath());
+            }
+            // write to temp file first and then rename, so that concurrent readers (including
+            // other JVMs sharing the same base dir) never see a partial entry
+            //
+            // not using File.createTempFile() since initializing File$TempDirectory (which uses
+            // SecureRandom) from inside weaving can fail
+            File tempFile = new File(parentDir, file.getName() + '.'
+                    + Thread.currentThread().getId() + '.' + System.nanoTime() + ".tmp");
+            FileOutputStream out = new FileOutputStream(tempFile);
+            try {
+                out.write(bytes);
+            } finally {
+                out.close();
+            }
+            if (!tempFile.renameTo(file) && !tempFile.delete()) {
+                logger.debug("could not delete temp file: {}", tempFile.getPath());
+            }
+        } catch (IOException e) {
+            logger.debug(e.getMessage(), e);
+        }
+    }
+
+    private static MessageDigest newDigest(byte[] classBytes, String className,
+            @Nullable ClassLoader loader) {
+        MessageDigest digest = newMessageDigest();
+        digest.update(getBytes(loader == null ? "" : loader.getClass().getName()));
+        digest.update((byte) 0);
+        digest.update(getBytes(className));
+        digest.update((byte) 0);
+        digest.update(classBytes);
+        return digest;
+    }
+
+    private CurrentDir getCurrentDir(List<Advice> advisors) {
+        CurrentDir currentDir = this.currentDir;
+        if (currentDir != null && currentDir.advisors == advisors) {
+            return currentDir;
+        }
+        StringBuilder sb = new StringBuilder(staticFingerprint);
+        for (Advice advice : advisors) {
+            sb.append(advice.adviceType().getInternalName());
+            sb.append(':');
+            sb.append(advice.pointcut());
+            sb.append('\n');
+        }
+        MessageDigest digest = newMessageDigest();
+        String fingerprint = toHex(digest.digest(getBytes(sb.toString())));
+        currentDir = new CurrentDir(advisors, new File(cacheDir, fingerprint));
+        this.currentDir = currentDir;
+        return currentDir;
+    }
+
+    // includes everything from the analyzed super types that the analysis and weaving of a sub type
+    // depends on (advice is identified by its advice type, since the pointcuts are already part of
+    // the directory fingerprint)
+    private static String getHierarchyFingerprint(List<AnalyzedClass> superAnalyzedClasses) {
+        StringBuilder sb = new StringBuilder();
+        for (AnalyzedClass analyzedClass : superAnalyzedClasses) {
+            sb.append(analyzedClass.modifiers());
+            sb.append(' ');
+            sb.append(analyzedClass.name());
+            sb.append(':');
+            sb.append(analyzedClass.superName());
+            sb.append(':');
+            sb.append(analyzedClass.interfaceNames());
+            sb.append('\n');
+            for (AnalyzedMethod analyzedMethod : analyzedClass.analyzedMethods()) {
+                sb.append(analyzedMethod.modifiers());
+                sb.append(' ');
+                sb.append(analyzedMethod.returnType());
+                sb.append(' ');
+                sb.append(analyzedMethod.name());
+                sb.append(analyzedMethod.parameterTypes());
+                appendAdviceTypes(sb, analyzedMethod.advisors());
+                appendAdviceTypes(sb, analyzedMethod.declaredOnlyAdvisors());
+                sb.append('\n');
+            }
+            for (ShimType shimType : analyzedClass.shimTypes()) {
+                sb.append(shimType.iface().getInternalName());
+                sb.append('\n');
+            }
+            for (MixinType mixinType : analyzedClass.mixinTypes()) {
+                sb.append(mixinType.implementation().getInternalName());
+                sb.append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void appendAdviceTypes(StringBuilder sb, List<Advice> advisors) {
+        sb.append(':');
+        for (Advice advice : advisors) {
+            sb.append(advice.adviceType().getInternalName());
+            sb.append(',');
+        }
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                delete(f);
+            }
+        }
+        if (!file.delete()) {
+            logger.debug("could not delete file: {}", file.getPath());
+        }
+    }
+
+    private static MessageDigest newMessageDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-1 is required to be supported by every implementation of the Java platform
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] getBytes(String str) {
+        try {
+            return str.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            // UTF-8 is required to be supported by every implementation of the Java platform
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+
+    private static class CurrentDir {
+
+        private final List<Advice> advisors;
+        private final File dir;
+
+        private CurrentDir(List<Advice> advisors, File dir) {
+            this.advisors = advisors;
+            this.dir = dir;
+        }
+    }
+}
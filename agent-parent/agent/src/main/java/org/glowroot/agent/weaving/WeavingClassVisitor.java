@@ -40,6 +40,7 @@ import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.commons.AdviceAdapter;
 import org.objectweb.asm.commons.GeneratorAdapter;
+import org.objectweb.asm.commons.JSRInlinerAdapter;
 import org.objectweb.asm.commons.Method;
 import org.objectweb.asm.commons.RemappingMethodAdapter;
 import org.objectweb.asm.commons.SimpleRemapper;
@@ -146,12 +147,20 @@ class WeavingClassVisitor extends ClassVisitor {
             return cw.visitMethod(access, name, desc, signature, exceptions);
         }
         if (isInitWithMixins(name)) {
-            return visitInitWithMixins(access, name, desc, signature, exceptions, matchingAdvisors);
+            MethodVisitor mv = visitInitWithMixins(access, name, desc, signature, exceptions,
+                    matchingAdvisors);
+            return new JSRInlinerAdapter(mv, access, name, desc, signature, exceptions);
         }
         if (matchingAdvisors.isEmpty()) {
+            // returning the class writer's method visitor directly (without any adapter in
+            // between) lets asm copy the original method bytes, including its stack map frames
             return cw.visitMethod(access, name, desc, signature, exceptions);
         }
-        return visitMethodWithAdvice(access, name, desc, signature, exceptions, matchingAdvisors);
+        MethodVisitor mv = visitMethodWithAdvice(access, name, desc, signature, exceptions,
+                matchingAdvisors);
+        // jsr/ret need to be inlined before frames can be computed, which is only needed for the
+        // methods that are woven
+        return new JSRInlinerAdapter(mv, access, name, desc, signature, exceptions);
     }
 
     @Override
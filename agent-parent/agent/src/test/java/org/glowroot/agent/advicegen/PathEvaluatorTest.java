@@ -17,8 +17,10 @@ package org.glowroot.agent.advicegen;
 
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import org.junit.Test;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -119,6 +121,35 @@ public class PathEvaluatorTest {
         assertThat(value).isEqualTo("eeeeee");
     }
 
+    @Test
+    public void shouldTestRemainingPathWithDifferentRuntimeClasses() throws Exception {
+        // given
+        PathEvaluator pathEvaluator = new PathEvaluator(Object.class, "str");
+        // when
+        List<Object> values = Lists.newArrayList();
+        for (int i = 0; i < 20; i++) {
+            values.add(pathEvaluator.evaluateOnBase(new B()));
+            values.add(pathEvaluator.evaluateOnBase(new D()));
+            values.add(pathEvaluator.evaluateOnBase(new C()));
+        }
+        // then
+        for (int i = 0; i < 20; i++) {
+            assertThat(values.subList(i * 3, i * 3 + 3)).containsExactly("abc", "xyz", null);
+        }
+    }
+
+    @Test
+    public void shouldTestRemainingPathOnMap() throws Exception {
+        // given
+        PathEvaluator pathEvaluator = new PathEvaluator(Object.class, "size");
+        Map<String, String> map = Maps.newHashMap();
+        map.put("size", "large");
+        // when
+        Object value = pathEvaluator.evaluateOnBase(map);
+        // then
+        assertThat(value).isEqualTo("large");
+    }
+
     @SuppressWarnings("unused")
     private static class SomeObject {
 
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.fat.storage;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import org.glowroot.wire.api.model.CollectorServiceOuterClass.GaugeValue;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class GaugeValueBlocksTest {
+
+    @Test
+    public void shouldRoundTripRegularValues() {
+        // given
+        GaugeValueBlocks.Encoder encoder = new GaugeValueBlocks.Encoder();
+        for (int i = 0; i < 720; i++) {
+            encoder.add(1000000 + i * 5000, 123.5, 1);
+        }
+        // when
+        byte[] bytes = encoder.toByteArray();
+        List<GaugeValue> gaugeValues = GaugeValueBlocks.decode(bytes);
+        // then
+        assertThat(gaugeValues).hasSize(720);
+        for (int i = 0; i < 720; i++) {
+            GaugeValue gaugeValue = gaugeValues.get(i);
+            assertThat(gaugeValue.getCaptureTime()).isEqualTo(1000000 + i * 5000);
+            assertThat(gaugeValue.getValue()).isEqualTo(123.5);
+            assertThat(gaugeValue.getWeight()).isEqualTo(1);
+        }
+        // roughly one bit per capture time, value and weight (compared with 720 * 24 bytes)
+        assertThat(bytes.length).isLessThan(400);
+    }
+
+    @Test
+    public void shouldRoundTripIrregularValues() {
+        // given
+        Random random = new Random(0);
+        long[] captureTimes = new long[1000];
+        double[] values = new double[1000];
+        long[] weights = new long[1000];
+        long captureTime = 1000000;
+        for (int i = 0; i < 1000; i++) {
+            // mostly small jitter, with occasional large gaps
+            captureTime += i % 100 == 0 ? random.nextInt(Integer.MAX_VALUE)
+                    : 5000 + random.nextInt(5000) - 2500;
+            captureTimes[i] = captureTime;
+            values[i] = i % 10 == 0 ? random.nextLong() : random.nextDouble() * 1000;
+            weights[i] = i % 7 == 0 ? random.nextLong() : 5000 + random.nextInt(10);
+        }
+        GaugeValueBlocks.Encoder encoder = new GaugeValueBlocks.Encoder();
+        for (int i = 0; i < 1000; i++) {
+            encoder.add(captureTimes[i], values[i], weights[i]);
+        }
+        // when
+        List<GaugeValue> gaugeValues = GaugeValueBlocks.decode(encoder.toByteArray());
+        // then
+        assertThat(gaugeValues).hasSize(1000);
+        for (int i = 0; i < 1000; i++) {
+            GaugeValue gaugeValue = gaugeValues.get(i);
+            assertThat(gaugeValue.getCaptureTime()).isEqualTo(captureTimes[i]);
+            assertThat(gaugeValue.getValue()).isEqualTo(values[i]);
+            assertThat(gaugeValue.getWeight()).isEqualTo(weights[i]);
+        }
+    }
+
+    @Test
+    public void shouldRoundTripSpecialValues() {
+        // given
+        double[] values = {0, -0.0, Double.NaN, Double.MAX_VALUE, Double.MIN_VALUE,
+                Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, 1, 1, -1};
+        GaugeValueBlocks.Encoder encoder = new GaugeValueBlocks.Encoder();
+        for (int i = 0; i < values.length; i++) {
+            encoder.add(i, values[i], 0);
+        }
+        // when
+        List<GaugeValue> gaugeValues = GaugeValueBlocks.decode(encoder.toByteArray());
+        // then
+        for (int i = 0; i < values.length; i++) {
+            assertThat(Double.doubleToRawLongBits(gaugeValues.get(i).getValue()))
+                    .isEqualTo(Double.doubleToRawLongBits(values[i]));
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.fat.storage;
+
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.glowroot.agent.fat.storage.util.DataSource;
+import org.glowroot.common.util.Clock;
+import org.glowroot.storage.repo.ConfigRepository;
+import org.glowroot.wire.api.model.CollectorServiceOuterClass.GaugeValue;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class GaugeValueDaoTest {
+
+    private static final String SERVER_ID = "";
+
+    private static final String GAUGE_NAME = "java.lang:type=Memory:HeapMemoryUsage/used";
+
+    private static final long HOUR = 3600000;
+
+    private DataSource dataSource;
+    private GaugeDao gaugeDao;
+    private ConfigRepository configRepository;
+    private Clock clock;
+    private GaugeValueDao gaugeValueDao;
+
+    @Before
+    public void beforeEachTest() throws Exception {
+        dataSource = new DataSource();
+        gaugeDao = new GaugeDao(dataSource);
+        configRepository = mock(ConfigRepository.class);
+        clock = mock(Clock.class);
+        gaugeValueDao = new GaugeValueDao(dataSource, gaugeDao, configRepository, clock);
+    }
+
+    @After
+    public void afterEachTest() throws Exception {
+        dataSource.close();
+    }
+
+    @Test
+    public void shouldNotSealBlockBeforeItHasBeenRolledUp() throws Exception {
+        // given
+        store(60000, 1);
+        // when
+        store(HOUR - 60000, 2);
+        // then
+        assertThat(countBlocks()).isZero();
+        assertThat(countUnsealedValues()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldSealBlock() throws Exception {
+        // given
+        store(60000, 1);
+        store(HOUR - 60000, 2);
+        // when
+        store(HOUR, 3);
+        // then
+        assertThat(countBlocks()).isEqualTo(1);
+        assertThat(countUnsealedValues()).isZero();
+    }
+
+    @Test
+    public void shouldSkipEmptyBlocks() throws Exception {
+        // given
+        store(60000, 1);
+        store(3 * HOUR + 60000, 2);
+        // when
+        store(4 * HOUR + 60000, 3);
+        // then
+        assertThat(countBlocks()).isEqualTo(2);
+        assertThat(countUnsealedValues()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldSealBlockAfterRestart() throws Exception {
+        // given
+        store(60000, 1);
+        store(HOUR + 60000, 2);
+        gaugeValueDao = new GaugeValueDao(dataSource, gaugeDao, configRepository, clock);
+        // when
+        store(2 * HOUR + 60000, 3);
+        // then
+        assertThat(countBlocks()).isEqualTo(2);
+        assertThat(countUnsealedValues()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldReadAcrossSealedAndUnsealedValues() throws Exception {
+        // given
+        store(60000, 1);
+        store(HOUR, 2);
+        store(HOUR + 60000, 3);
+        // when
+        List<GaugeValue> gaugeValues =
+                gaugeValueDao.readGaugeValues(SERVER_ID, GAUGE_NAME, 0, HOUR + 60000, 0);
+        // then
+        assertThat(gaugeValues).hasSize(3);
+        assertThat(gaugeValues.get(0).getCaptureTime()).isEqualTo(60000);
+        assertThat(gaugeValues.get(0).getValue()).isEqualTo(1);
+        assertThat(gaugeValues.get(1).getCaptureTime()).isEqualTo(HOUR);
+        assertThat(gaugeValues.get(1).getValue()).isEqualTo(2);
+        assertThat(gaugeValues.get(2).getCaptureTime()).isEqualTo(HOUR + 60000);
+        assertThat(gaugeValues.get(2).getValue()).isEqualTo(3);
+    }
+
+    @Test
+    public void shouldReadOnlyRequestedRangeOfSealedBlock() throws Exception {
+        // given
+        store(60000, 1);
+        store(120000, 2);
+        store(HOUR, 3);
+        store(HOUR + 60000, 4);
+        // when
+        List<GaugeValue> gaugeValues =
+                gaugeValueDao.readGaugeValues(SERVER_ID, GAUGE_NAME, 120000, HOUR, 0);
+        // then
+        assertThat(gaugeValues).hasSize(2);
+        assertThat(gaugeValues.get(0).getCaptureTime()).isEqualTo(120000);
+        assertThat(gaugeValues.get(1).getCaptureTime()).isEqualTo(HOUR);
+    }
+
+    @Test
+    public void shouldNotReturnDuplicateAtBlockBoundary() throws Exception {
+        // given
+        store(60000, 1);
+        store(HOUR, 2);
+        store(HOUR + 60000, 3);
+        // simulate JVM termination in between sealing the block and deleting the sealed values
+        Long gaugeId = gaugeDao.getGaugeId(GAUGE_NAME);
+        dataSource.update("insert into gauge_value_rollup_0 (gauge_id, capture_time, value,"
+                + " weight) values (?, ?, ?, ?)", gaugeId, HOUR, 2.0, 1L);
+        // when
+        List<GaugeValue> gaugeValues =
+                gaugeValueDao.readGaugeValues(SERVER_ID, GAUGE_NAME, 0, HOUR + 60000, 0);
+        // then
+        assertThat(gaugeValues).hasSize(3);
+        assertThat(gaugeValues.get(0).getCaptureTime()).isEqualTo(60000);
+        assertThat(gaugeValues.get(1).getCaptureTime()).isEqualTo(HOUR);
+        assertThat(gaugeValues.get(2).getCaptureTime()).isEqualTo(HOUR + 60000);
+    }
+
+    private void store(long captureTime, double value) throws Exception {
+        when(clock.currentTimeMillis()).thenReturn(captureTime + 1);
+        gaugeValueDao.store(SERVER_ID, ImmutableList.of(GaugeValue.newBuilder()
+                .setGaugeName(GAUGE_NAME)
+                .setCaptureTime(captureTime)
+                .setValue(value)
+                .setWeight(1)
+                .build()));
+    }
+
+    private long countBlocks() throws Exception {
+        return dataSource.queryForLong("select count(*) from gauge_value_block_rollup_0");
+    }
+
+    private long countUnsealedValues() throws Exception {
+        return dataSource.queryForLong("select count(*) from gauge_value_rollup_0");
+    }
+}
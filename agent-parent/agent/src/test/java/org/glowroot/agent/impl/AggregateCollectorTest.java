@@ -0,0 +1,88 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.impl;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import org.glowroot.agent.impl.UnsampledAggregates.UnsampledAggregate;
+import org.glowroot.agent.model.ThreadStats;
+import org.glowroot.agent.model.TimerImpl;
+import org.glowroot.agent.model.Transaction;
+import org.glowroot.common.model.LazyHistogram.ScratchBuffer;
+import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class AggregateCollectorTest {
+
+    @Test
+    public void shouldScaleUpBySampledTransactionCount() throws Exception {
+        // given
+        AggregateCollector aggregateCollector = new AggregateCollector("a name", 100);
+        aggregateCollector.add(mockTransaction());
+        aggregateCollector.mergeMainThreadRootTimer(mockRootTimer());
+        UnsampledAggregate unsampledAggregate = new UnsampledAggregate();
+        for (int i = 0; i < 3; i++) {
+            unsampledAggregate.add(MILLISECONDS.toNanos(100), false);
+        }
+        aggregateCollector.mergeUnsampled(unsampledAggregate);
+        // when
+        Aggregate aggregate = aggregateCollector.build(new ScratchBuffer());
+        // then
+        assertThat(aggregate.getTransactionCount()).isEqualTo(4);
+        assertThat(aggregate.getTotalDurationNanos()).isEqualTo(MILLISECONDS.toNanos(400));
+        assertThat(aggregate.getMainThreadRootTimerCount()).isEqualTo(1);
+        Aggregate.Timer rootTimer = aggregate.getMainThreadRootTimer(0);
+        assertThat(rootTimer.getTotalNanos()).isEqualTo(MILLISECONDS.toNanos(360));
+        assertThat(rootTimer.getCount()).isEqualTo(8);
+    }
+
+    @Test
+    public void shouldNotScaleWithoutUnsampledTransactions() throws Exception {
+        // given
+        AggregateCollector aggregateCollector = new AggregateCollector("a name", 100);
+        aggregateCollector.add(mockTransaction());
+        aggregateCollector.mergeMainThreadRootTimer(mockRootTimer());
+        // when
+        Aggregate aggregate = aggregateCollector.build(new ScratchBuffer());
+        // then
+        assertThat(aggregate.getTransactionCount()).isEqualTo(1);
+        Aggregate.Timer rootTimer = aggregate.getMainThreadRootTimer(0);
+        assertThat(rootTimer.getTotalNanos()).isEqualTo(MILLISECONDS.toNanos(90));
+        assertThat(rootTimer.getCount()).isEqualTo(2);
+    }
+
+    private static Transaction mockTransaction() {
+        Transaction transaction = mock(Transaction.class);
+        when(transaction.getDurationNanos()).thenReturn(MILLISECONDS.toNanos(100));
+        when(transaction.getMainThreadStats()).thenReturn(ThreadStats.NA);
+        when(transaction.getAuxThreadStats()).thenReturn(ImmutableList.<ThreadStats>of());
+        return transaction;
+    }
+
+    private static TimerImpl mockRootTimer() {
+        TimerImpl rootTimer = mock(TimerImpl.class);
+        when(rootTimer.getName()).thenReturn("mock timer");
+        when(rootTimer.getTotalNanos()).thenReturn(MILLISECONDS.toNanos(90));
+        when(rootTimer.getCount()).thenReturn(2L);
+        when(rootTimer.getChildTimers()).thenReturn(ImmutableList.<TimerImpl>of().iterator());
+        return rootTimer;
+    }
+}
@@ -18,7 +18,11 @@ package org.glowroot.agent.impl;
 import java.io.File;
 import java.util.List;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
 
+import javax.annotation.Nullable;
+
+import com.google.common.base.Ticker;
 import com.google.common.collect.ImmutableList;
 import org.junit.Test;
 import org.mockito.invocation.InvocationOnMock;
@@ -26,19 +30,33 @@ import org.mockito.stubbing.Answer;
 
 import org.glowroot.agent.config.ConfigService;
 import org.glowroot.agent.config.ImmutableAdvancedConfig;
+import org.glowroot.agent.model.CommonTimerImpl;
+import org.glowroot.agent.model.GcActivityTracker;
+import org.glowroot.agent.model.ImmutableTimerNameImpl;
 import org.glowroot.agent.model.QueryData;
+import org.glowroot.agent.model.ThreadContextPlus;
 import org.glowroot.agent.model.ThreadStats;
 import org.glowroot.agent.model.TimerImpl;
+import org.glowroot.agent.model.TraceEntryImpl;
 import org.glowroot.agent.model.Transaction;
+import org.glowroot.agent.model.Transaction.CompletionCallback;
+import org.glowroot.agent.plugin.api.MessageSupplier;
+import org.glowroot.agent.plugin.api.QueryEntry;
+import org.glowroot.agent.plugin.api.TimerName;
+import org.glowroot.agent.plugin.api.TraceEntry;
+import org.glowroot.agent.plugin.api.util.FastThreadLocal;
+import org.glowroot.agent.plugin.api.util.FastThreadLocal.Holder;
 import org.glowroot.common.util.Clock;
 import org.glowroot.wire.api.Collector;
 import org.glowroot.wire.api.model.AgentConfigOuterClass.AgentConfig;
+import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
 import org.glowroot.wire.api.model.AggregateOuterClass.AggregatesByType;
 import org.glowroot.wire.api.model.CollectorServiceOuterClass.GaugeValue;
 import org.glowroot.wire.api.model.CollectorServiceOuterClass.LogEvent;
 import org.glowroot.wire.api.model.CollectorServiceOuterClass.ProcessInfo;
 import org.glowroot.wire.api.model.TraceOuterClass.Trace;
 
+import static com.google.common.base.Preconditions.checkNotNull;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Matchers.any;
@@ -67,19 +85,7 @@ public class AggregatorTest {
         Aggregator aggregator = new Aggregator(scheduledExecutorService, aggregateCollector,
                 configService, 1000, Clock.systemClock());
 
-        Transaction transaction = mock(Transaction.class);
-        TimerImpl mainThreadRootTimer = mock(TimerImpl.class);
-        when(mainThreadRootTimer.getName()).thenReturn("mock timer");
-        when(mainThreadRootTimer.getChildTimers())
-                .thenReturn(ImmutableList.<TimerImpl>of().iterator());
-        when(transaction.getTransactionType()).thenReturn("a type");
-        when(transaction.getTransactionName()).thenReturn("a name");
-        when(transaction.getDurationNanos()).thenReturn(MILLISECONDS.toNanos(123));
-        when(transaction.getMainThreadRootTimer()).thenReturn(mainThreadRootTimer);
-        when(transaction.getQueries()).thenReturn(ImmutableList.<QueryData>of().iterator());
-        when(transaction.getMainThreadStats()).thenReturn(ThreadStats.NA);
-        when(transaction.getAuxThreadRootTimers()).thenReturn(ImmutableList.<TimerImpl>of());
-        when(transaction.getAuxThreadStats()).thenReturn(ImmutableList.<ThreadStats>of());
+        Transaction transaction = mockTransaction();
         // when
         int count = 0;
         long firstCaptureTime = aggregator.add(transaction);
@@ -104,15 +110,199 @@ public class AggregatorTest {
         aggregator.close();
     }
 
+    @Test
+    public void shouldMergeUnsampledTransactionsOnFlush() throws InterruptedException {
+        // given
+        ScheduledExecutorService scheduledExecutorService = mock(ScheduledExecutorService.class);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                Runnable runnable = (Runnable) invocation.getArguments()[0];
+                runnable.run();
+                return null;
+            }
+        }).when(scheduledExecutorService).execute(any(Runnable.class));
+        MockCollector aggregateCollector = new MockCollector();
+        ConfigService configService = mock(ConfigService.class);
+        when(configService.getAdvancedConfig())
+                .thenReturn(ImmutableAdvancedConfig.builder().build());
+        MockClock clock = new MockClock(1500);
+        Aggregator aggregator =
+                new Aggregator(scheduledExecutorService, aggregateCollector, configService,
+                        1000, clock);
+        Transaction transaction = mockTransaction();
+        UnsampledTransaction unsampledTransaction = mock(UnsampledTransaction.class);
+        when(unsampledTransaction.getTransactionType()).thenReturn("a type");
+        when(unsampledTransaction.getTransactionName()).thenReturn("a name");
+        when(unsampledTransaction.getDurationNanos()).thenReturn(MILLISECONDS.toNanos(100));
+        when(unsampledTransaction.isError()).thenReturn(true);
+        // when
+        for (int i = 0; i < 3; i++) {
+            aggregator.add(unsampledTransaction);
+        }
+        aggregator.add(transaction);
+        // next interval
+        clock.currentTimeMillis = 2500;
+        aggregator.add(transaction);
+        // then
+        // aggregation is done in a separate thread, so give it a little time to complete
+        long start = System.currentTimeMillis();
+        while (System.currentTimeMillis() - start < 5000) {
+            if (aggregateCollector.getTotalNanos() > 0) {
+                break;
+            }
+        }
+        assertThat(aggregateCollector.getTransactionCount()).isEqualTo(4);
+        assertThat(aggregateCollector.getErrorCount()).isEqualTo(3);
+        assertThat(aggregateCollector.getTotalNanos())
+                .isEqualTo(MILLISECONDS.toNanos(3 * 100 + 123));
+        assertThat(aggregateCollector.getTransactionAggregateCount()).isEqualTo(1);
+        aggregator.close();
+    }
+
+    @Test
+    public void shouldIncludeOverflowAuxThreadContextsInTotals() throws InterruptedException {
+        // given
+        ScheduledExecutorService scheduledExecutorService = mock(ScheduledExecutorService.class);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                Runnable runnable = (Runnable) invocation.getArguments()[0];
+                runnable.run();
+                return null;
+            }
+        }).when(scheduledExecutorService).execute(any(Runnable.class));
+        MockCollector aggregateCollector = new MockCollector();
+        ConfigService configService = mock(ConfigService.class);
+        when(configService.getAdvancedConfig())
+                .thenReturn(ImmutableAdvancedConfig.builder().build());
+        MockClock clock = new MockClock(1500);
+        Aggregator aggregator =
+                new Aggregator(scheduledExecutorService, aggregateCollector, configService,
+                        1000, clock);
+        Ticker ticker = new Ticker() {
+            private final AtomicLong tick = new AtomicLong();
+            @Override
+            public long read() {
+                return tick.addAndGet(1000);
+            }
+        };
+        Holder</*@Nullable*/ ThreadContextPlus> threadContextHolder =
+                new FastThreadLocal</*@Nullable*/ ThreadContextPlus>().getHolder();
+        Transaction transaction = new Transaction(1500, ticker.read(), "a type", "a name",
+                mock(MessageSupplier.class), ImmutableTimerNameImpl.of("mock timer", false),
+                false, 100, 500, null, mock(GcActivityTracker.class),
+                mock(CompletionCallback.class), ticker, mock(TransactionRegistry.class),
+                mock(TransactionServiceImpl.class), configService,
+                mock(UserProfileScheduler.class), threadContextHolder);
+        TraceEntryImpl parentTraceEntry = transaction.getMainThreadContext().getRootEntry();
+        TimerName auxTimerName = ImmutableTimerNameImpl.of("auxiliary thread", false);
+        TimerName queryTimerName = ImmutableTimerNameImpl.of("jdbc query", false);
+        // when
+        // default limit is 1000 auxiliary thread contexts per transaction
+        int auxThreadContextCount = 1010;
+        for (int i = 0; i < auxThreadContextCount; i++) {
+            TraceEntry auxThreadRootEntry = transaction.startAuxThreadContext(parentTraceEntry,
+                    auxTimerName, ticker.read(), threadContextHolder, null);
+            ThreadContextPlus auxThreadContext = checkNotNull(threadContextHolder.get());
+            QueryEntry queryEntry = auxThreadContext.startQueryEntry("SQL", "select 1",
+                    mock(MessageSupplier.class), queryTimerName);
+            queryEntry.incrementCurrRow();
+            queryEntry.end();
+            auxThreadRootEntry.end();
+        }
+        aggregator.add(transaction);
+        // next interval
+        clock.currentTimeMillis = 2500;
+        aggregator.add(mockTransaction());
+        // then
+        // aggregation is done in a separate thread, so give it a little time to complete
+        long start = System.currentTimeMillis();
+        while (System.currentTimeMillis() - start < 5000) {
+            if (aggregateCollector.getTotalNanos() > 0) {
+                break;
+            }
+        }
+        Aggregate overallAggregate = checkNotNull(aggregateCollector.getOverallAggregate());
+        assertThat(overallAggregate.getAuxThreadRootTimerCount()).isEqualTo(1);
+        Aggregate.Timer auxThreadRootTimer = overallAggregate.getAuxThreadRootTimer(0);
+        assertThat(auxThreadRootTimer.getName()).isEqualTo("auxiliary thread");
+        assertThat(auxThreadRootTimer.getCount()).isEqualTo(auxThreadContextCount);
+        assertThat(auxThreadRootTimer.getChildTimerCount()).isEqualTo(1);
+        assertThat(auxThreadRootTimer.getChildTimer(0).getName()).isEqualTo("jdbc query");
+        assertThat(auxThreadRootTimer.getChildTimer(0).getCount())
+                .isEqualTo(auxThreadContextCount);
+        assertThat(overallAggregate.getQueriesByTypeCount()).isEqualTo(1);
+        assertThat(overallAggregate.getQueriesByType(0).getQueryCount()).isEqualTo(1);
+        Aggregate.Query query = overallAggregate.getQueriesByType(0).getQuery(0);
+        assertThat(query.getText()).isEqualTo("select 1");
+        assertThat(query.getExecutionCount()).isEqualTo(auxThreadContextCount);
+        assertThat(query.getTotalRows()).isEqualTo(auxThreadContextCount);
+        aggregator.close();
+    }
+
+    private static Transaction mockTransaction() {
+        Transaction transaction = mock(Transaction.class);
+        TimerImpl mainThreadRootTimer = mock(TimerImpl.class);
+        when(mainThreadRootTimer.getName()).thenReturn("mock timer");
+        when(mainThreadRootTimer.getChildTimers())
+                .thenReturn(ImmutableList.<TimerImpl>of().iterator());
+        when(transaction.getTransactionType()).thenReturn("a type");
+        when(transaction.getTransactionName()).thenReturn("a name");
+        when(transaction.getDurationNanos()).thenReturn(MILLISECONDS.toNanos(123));
+        when(transaction.getMainThreadRootTimer()).thenReturn(mainThreadRootTimer);
+        when(transaction.getQueries()).thenReturn(ImmutableList.<QueryData>of().iterator());
+        when(transaction.getMainThreadStats()).thenReturn(ThreadStats.NA);
+        when(transaction.getAuxThreadRootTimers()).thenReturn(ImmutableList.<CommonTimerImpl>of());
+        when(transaction.getAsyncRootTimers()).thenReturn(ImmutableList.<CommonTimerImpl>of());
+        when(transaction.getAuxThreadStats()).thenReturn(ImmutableList.<ThreadStats>of());
+        return transaction;
+    }
+
+    private static class MockClock extends Clock {
+
+        // volatile needed for visibility from other thread
+        private volatile long currentTimeMillis;
+
+        private MockClock(long currentTimeMillis) {
+            this.currentTimeMillis = currentTimeMillis;
+        }
+
+        @Override
+        public long currentTimeMillis() {
+            return currentTimeMillis;
+        }
+    }
+
     private static class MockCollector implements Collector {
 
         // volatile needed for visibility from other thread
         private volatile double totalNanos;
+        private volatile long transactionCount;
+        private volatile long errorCount;
+        private volatile int transactionAggregateCount;
+        private volatile @Nullable Aggregate overallAggregate;
 
         private double getTotalNanos() {
             return totalNanos;
         }
 
+        private long getTransactionCount() {
+            return transactionCount;
+        }
+
+        private long getErrorCount() {
+            return errorCount;
+        }
+
+        private int getTransactionAggregateCount() {
+            return transactionAggregateCount;
+        }
+
+        private @Nullable Aggregate getOverallAggregate() {
+            return overallAggregate;
+        }
+
         @Override
         public void init(File glowrootBaseDir, ProcessInfo processInfo, AgentConfig agentConfig,
                 AgentConfigUpdater agentConfigUpdater) {}
@@ -121,7 +311,14 @@ public class AggregatorTest {
         public void collectAggregates(long captureTime, List<AggregatesByType> aggregatesByType) {
             // only capture first non-zero value
             if (totalNanos == 0 && !aggregatesByType.isEmpty()) {
-                totalNanos = aggregatesByType.get(0).getOverallAggregate().getTotalDurationNanos();
+                AggregatesByType aggregates = aggregatesByType.get(0);
+                Aggregate overallAggregate = aggregates.getOverallAggregate();
+                this.overallAggregate = overallAggregate;
+                transactionCount = overallAggregate.getTransactionCount();
+                errorCount = overallAggregate.getErrorCount();
+                transactionAggregateCount = aggregates.getTransactionAggregateCount();
+                // totalNanos is written last since it is what the test waits on
+                totalNanos = overallAggregate.getTotalDurationNanos();
             }
         }
 
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.impl;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import org.glowroot.agent.impl.TransactionRegistry.Slot;
+import org.glowroot.agent.model.Transaction;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doCallRealMethod;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class TransactionRegistryTest {
+
+    private TransactionRegistry transactionRegistry;
+
+    @Before
+    public void beforeEachTest() {
+        transactionRegistry = new TransactionRegistry();
+    }
+
+    @Test
+    public void shouldIndexByTraceId() {
+        // given
+        Transaction transaction = mockTransaction("tt");
+        transactionRegistry.addTransaction(transaction);
+        // when
+        transactionRegistry.onTraceIdGenerated(transaction, "abc");
+        // then
+        assertThat(transactionRegistry.getTransaction("abc")).isSameAs(transaction);
+        assertThat(transactionRegistry.getTransaction("xyz")).isNull();
+    }
+
+    @Test
+    public void shouldRemoveFromTraceIdIndex() {
+        // given
+        Transaction transaction = mockTransaction("tt");
+        transactionRegistry.addTransaction(transaction);
+        transactionRegistry.onTraceIdGenerated(transaction, "abc");
+        when(transaction.getTraceIdIfGenerated()).thenReturn("abc");
+        // when
+        transactionRegistry.removeTransaction(transaction);
+        // then
+        assertThat(transactionRegistry.getTransaction("abc")).isNull();
+    }
+
+    @Test
+    public void shouldNotIndexTraceIdGeneratedAfterRemoval() {
+        // given
+        Transaction transaction = mockTransaction("tt");
+        transactionRegistry.addTransaction(transaction);
+        transactionRegistry.removeTransaction(transaction);
+        // when
+        transactionRegistry.onTraceIdGenerated(transaction, "abc");
+        // then
+        assertThat(transactionRegistry.getTransaction("abc")).isNull();
+    }
+
+    @Test
+    public void shouldFilterByTransactionType() {
+        // given
+        Transaction transaction1 = mockTransaction("tt");
+        Transaction transaction2 = mockTransaction("uu");
+        // when
+        transactionRegistry.addTransaction(transaction1);
+        // (simulating async transaction that is still active when the thread starts another)
+        transactionRegistry.addTransaction(transaction2);
+        // then
+        assertThat(transactionRegistry.getTransactions("tt")).containsExactly(transaction1);
+        assertThat(transactionRegistry.getTransactions("uu")).containsExactly(transaction2);
+        assertThat(transactionRegistry.getTransactions("vv")).isEmpty();
+        assertThat(transactionRegistry.getTransactions()).hasSize(2);
+    }
+
+    @Test
+    public void shouldReindexOnTransactionTypeChange() {
+        // given
+        Transaction transaction = mockTransaction("tt");
+        transactionRegistry.addTransaction(transaction);
+        // when
+        when(transaction.getTransactionType()).thenReturn("uu");
+        transactionRegistry.onTransactionTypeChanged(transaction);
+        // then
+        assertThat(transactionRegistry.getTransactions("tt")).isEmpty();
+        assertThat(transactionRegistry.getTransactions("uu")).containsExactly(transaction);
+    }
+
+    @Test
+    public void shouldReindexReusedThreadSlot() {
+        // given
+        Transaction transaction1 = mockTransaction("tt");
+        Transaction transaction2 = mockTransaction("uu");
+        transactionRegistry.addTransaction(transaction1);
+        transactionRegistry.removeTransaction(transaction1);
+        // when
+        transactionRegistry.addTransaction(transaction2);
+        // then
+        assertThat(transactionRegistry.getTransactions("tt")).isEmpty();
+        assertThat(transactionRegistry.getTransactions("uu")).containsExactly(transaction2);
+    }
+
+    @Test
+    public void shouldReuseThreadSlot() {
+        // given
+        Transaction transaction1 = mockTransaction("tt");
+        Transaction transaction2 = mockTransaction("tt");
+        transactionRegistry.addTransaction(transaction1);
+        transactionRegistry.removeTransaction(transaction1);
+        // when
+        transactionRegistry.addTransaction(transaction2);
+        // then
+        assertThat(transaction2.getRegistrySlot()).isSameAs(transaction1.getRegistrySlot());
+        assertThat(transactionRegistry.getTransactions()).containsExactly(transaction2);
+    }
+
+    @Test
+    public void shouldNotClearThreadSlotReusedByAnotherTransaction() {
+        // given
+        Transaction transaction1 = mockTransaction("tt");
+        Transaction transaction2 = mockTransaction("tt");
+        transactionRegistry.addTransaction(transaction1);
+        transactionRegistry.removeTransaction(transaction1);
+        transactionRegistry.addTransaction(transaction2);
+        // when
+        transactionRegistry.removeTransaction(transaction1);
+        // then
+        assertThat(transactionRegistry.getTransactions()).containsExactly(transaction2);
+    }
+
+    @Test
+    public void shouldRegisterFromMultipleThreads() throws Exception {
+        // given
+        final Transaction transaction1 = mockTransaction("tt");
+        final Transaction transaction2 = mockTransaction("tt");
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                transactionRegistry.addTransaction(transaction2);
+            }
+        });
+        // when
+        transactionRegistry.addTransaction(transaction1);
+        thread.start();
+        thread.join();
+        // then
+        assertThat(transactionRegistry.getTransactions()).containsOnly(transaction1,
+                transaction2);
+        // and when
+        transactionRegistry.removeTransaction(transaction2);
+        // then
+        assertThat(transactionRegistry.getTransactions()).containsExactly(transaction1);
+    }
+
+    @Test
+    public void shouldRemoveSingleUseSlot() {
+        // given
+        Transaction transaction1 = mockTransaction("tt");
+        transactionRegistry.addTransaction(transaction1);
+        // when
+        for (int i = 0; i < 10; i++) {
+            // (simulating async transaction that is still active when the thread starts another)
+            Transaction transaction2 = mockTransaction("tt");
+            transactionRegistry.addTransaction(transaction2);
+            transactionRegistry.removeTransaction(transaction2);
+        }
+        // then
+        assertThat(transactionRegistry.getSlotCount()).isEqualTo(1);
+        assertThat(transactionRegistry.getTransactions()).containsExactly(transaction1);
+    }
+
+    @Test
+    public void shouldRemoveSlotOfTerminatedThreadWhenNewThreadRegisters() throws Exception {
+        // given
+        for (int i = 0; i < 10; i++) {
+            final Transaction transaction = mockTransaction("tt");
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    transactionRegistry.addTransaction(transaction);
+                    transactionRegistry.removeTransaction(transaction);
+                }
+            });
+            thread.start();
+            thread.join();
+        }
+        // when
+        transactionRegistry.addTransaction(mockTransaction("tt"));
+        // then
+        assertThat(transactionRegistry.getSlotCount()).isEqualTo(1);
+    }
+
+    private static Transaction mockTransaction(String transactionType) {
+        Transaction transaction = mock(Transaction.class);
+        when(transaction.getTransactionType()).thenReturn(transactionType);
+        doCallRealMethod().when(transaction).setRegistrySlot(any(Slot.class));
+        when(transaction.getRegistrySlot()).thenCallRealMethod();
+        return transaction;
+    }
+}
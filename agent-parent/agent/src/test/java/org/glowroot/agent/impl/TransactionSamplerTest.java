@@ -0,0 +1,98 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.impl;
+
+import org.junit.Test;
+
+import org.glowroot.agent.config.ConfigService;
+import org.glowroot.agent.config.ImmutableAdvancedConfig;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class TransactionSamplerTest {
+
+    @Test
+    public void shouldBeDisabledByDefault() {
+        // given
+        TransactionSampler transactionSampler = new TransactionSampler(100, 0);
+        // then
+        assertThat(transactionSampler.isEnabled()).isFalse();
+    }
+
+    @Test
+    public void shouldSampleNothingWithZeroPercentage() {
+        // given
+        TransactionSampler transactionSampler = new TransactionSampler(0, 0);
+        // then
+        assertThat(transactionSampler.isEnabled()).isTrue();
+        for (int i = 0; i < 100; i++) {
+            assertThat(transactionSampler.isSampled("a name", 0)).isFalse();
+        }
+    }
+
+    @Test
+    public void shouldSamplePercentage() {
+        // given
+        TransactionSampler transactionSampler = new TransactionSampler(25, 0);
+        // when
+        int sampled = 0;
+        for (int i = 0; i < 100000; i++) {
+            if (transactionSampler.isSampled("a name", 0)) {
+                sampled++;
+            }
+        }
+        // then
+        assertThat(sampled).isBetween(23000, 27000);
+    }
+
+    @Test
+    public void shouldRateLimitPerTransactionName() {
+        // given
+        TransactionSampler transactionSampler = new TransactionSampler(100, 3);
+        long tick = SECONDS.toNanos(1234);
+        // then
+        for (int i = 0; i < 3; i++) {
+            assertThat(transactionSampler.isSampled("a name", tick)).isTrue();
+        }
+        assertThat(transactionSampler.isSampled("a name", tick)).isFalse();
+        assertThat(transactionSampler.isSampled("a name", tick + 999999999)).isFalse();
+        assertThat(transactionSampler.isSampled("another name", tick)).isTrue();
+        // next second
+        assertThat(transactionSampler.isSampled("a name", tick + SECONDS.toNanos(1))).isTrue();
+    }
+
+    @Test
+    public void shouldPickUpAdvancedConfigChanges() {
+        // given
+        ConfigService configService = mock(ConfigService.class);
+        when(configService.getAdvancedConfig())
+                .thenReturn(ImmutableAdvancedConfig.builder().build());
+        TransactionSampler transactionSampler = TransactionSampler.create(configService);
+        transactionSampler.onChange();
+        assertThat(transactionSampler.isEnabled()).isFalse();
+        // when
+        when(configService.getAdvancedConfig()).thenReturn(ImmutableAdvancedConfig.builder()
+                .samplingPercentage(0)
+                .build());
+        transactionSampler.onChange();
+        // then
+        assertThat(transactionSampler.isEnabled()).isTrue();
+        assertThat(transactionSampler.isSampled("a name", 0)).isFalse();
+    }
+}
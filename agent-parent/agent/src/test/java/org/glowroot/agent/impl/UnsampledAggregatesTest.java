@@ -0,0 +1,67 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.impl;
+
+import org.junit.Test;
+
+import org.glowroot.agent.impl.UnsampledAggregates.UnsampledAggregate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+public class UnsampledAggregatesTest {
+
+    @Test
+    public void shouldMergeIntoOverallOnlyBeyondMaxTransactionNames() {
+        // given
+        UnsampledAggregates unsampledAggregates = new UnsampledAggregates(1);
+        unsampledAggregates.add(mockUnsampledTransaction("a name"));
+        unsampledAggregates.add(mockUnsampledTransaction("another name"));
+        AggregateIntervalCollector intervalCollector = mock(AggregateIntervalCollector.class);
+        // when
+        unsampledAggregates.mergeInto(intervalCollector);
+        // then
+        verify(intervalCollector).mergeUnsampled(eq("a type"), eq("a name"),
+                any(UnsampledAggregate.class));
+        verify(intervalCollector).mergeUnsampled(eq("a type"), (String) isNull(),
+                any(UnsampledAggregate.class));
+        verifyNoMoreInteractions(intervalCollector);
+    }
+
+    @Test
+    public void shouldRejectAddAfterMerge() {
+        // given
+        UnsampledAggregates unsampledAggregates = new UnsampledAggregates(100);
+        // when
+        unsampledAggregates.mergeInto(mock(AggregateIntervalCollector.class));
+        // then
+        assertThat(unsampledAggregates.add(mockUnsampledTransaction("a name"))).isFalse();
+    }
+
+    private static UnsampledTransaction mockUnsampledTransaction(String transactionName) {
+        UnsampledTransaction unsampledTransaction = mock(UnsampledTransaction.class);
+        when(unsampledTransaction.getTransactionType()).thenReturn("a type");
+        when(unsampledTransaction.getTransactionName()).thenReturn(transactionName);
+        when(unsampledTransaction.getDurationNanos()).thenReturn(1000L);
+        return unsampledTransaction;
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.impl;
+
+import java.util.List;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.Lists;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import org.glowroot.agent.model.ThreadContextPlus;
+import org.glowroot.agent.model.Transaction.OverrideSource;
+import org.glowroot.agent.plugin.api.AuxThreadContext;
+import org.glowroot.agent.plugin.api.MessageSupplier;
+import org.glowroot.agent.plugin.api.TimerName;
+import org.glowroot.agent.plugin.api.TraceEntry;
+import org.glowroot.agent.plugin.api.internal.NopTransactionService.NopTraceEntry;
+import org.glowroot.agent.plugin.api.util.FastThreadLocal;
+import org.glowroot.agent.plugin.api.util.FastThreadLocal.Holder;
+import org.glowroot.wire.api.Collector;
+import org.glowroot.wire.api.model.AggregateOuterClass.AggregatesByType;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class UnsampledTransactionTest {
+
+    private Holder<ThreadContextPlus> threadContextHolder;
+    private TransactionRegistry transactionRegistry;
+    private UnsampledTransaction unsampledTransaction;
+
+    @Before
+    public void beforeEachTest() {
+        threadContextHolder = new FastThreadLocal<ThreadContextPlus>().getHolder();
+        transactionRegistry = new TransactionRegistry();
+        unsampledTransaction = new UnsampledTransaction("a type", "a name",
+                mock(MessageSupplier.class), 0, mock(Ticker.class),
+                mock(TransactionServiceImpl.class), transactionRegistry, threadContextHolder);
+        threadContextHolder.set(unsampledTransaction);
+    }
+
+    @Test
+    public void shouldClearThreadContextOnEnd() {
+        // when
+        unsampledTransaction.end();
+        // then
+        assertThat(threadContextHolder.get()).isNull();
+    }
+
+    @Test
+    public void shouldNotClearOtherThreadContextOnEnd() {
+        // given
+        ThreadContextPlus otherThreadContext = mock(ThreadContextPlus.class);
+        threadContextHolder.set(otherThreadContext);
+        // when
+        unsampledTransaction.end();
+        // then
+        assertThat(threadContextHolder.get()).isSameAs(otherThreadContext);
+    }
+
+    @Test
+    public void shouldBindAuxThreadForSpanOfAuxThreadContext() throws Exception {
+        // given
+        final AuxThreadContext auxThreadContext = unsampledTransaction.createAuxThreadContext();
+        final List<Object> results = Lists.newArrayList();
+        // when
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                TraceEntry traceEntry = auxThreadContext.start();
+                results.add(transactionRegistry.isInTransaction());
+                results.add(transactionRegistry.getCurrentThreadContextHolder().get()
+                        .startTransaction("another type", "another name",
+                                mock(MessageSupplier.class), mock(TimerName.class)));
+                transactionRegistry.getCurrentThreadContextHolder().get()
+                        .setTransactionName("aux name");
+                traceEntry.end();
+                results.add(transactionRegistry.isInTransaction());
+            }
+        });
+        thread.start();
+        thread.join();
+        // then
+        assertThat(results).hasSize(3);
+        assertThat(results.get(0)).isEqualTo(true);
+        assertThat(results.get(1)).isSameAs(NopTraceEntry.INSTANCE);
+        assertThat(results.get(2)).isEqualTo(false);
+        assertThat(unsampledTransaction.getTransactionName()).isEqualTo("aux name");
+    }
+
+    @Test
+    public void shouldRecordAggregateUnderOverriddenTransactionTypeAndName() throws Exception {
+        // given
+        AggregateIntervalCollector aggregateIntervalCollector =
+                new AggregateIntervalCollector(0, 1000, 100, 100);
+        Collector collector = mock(Collector.class);
+        // when
+        unsampledTransaction.setTransactionType("another type");
+        unsampledTransaction.setTransactionName("another name");
+        unsampledTransaction.end();
+        aggregateIntervalCollector.add(unsampledTransaction);
+        aggregateIntervalCollector.flush(collector);
+        // then
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<AggregatesByType>> captor =
+                (ArgumentCaptor<List<AggregatesByType>>) (ArgumentCaptor<?>) ArgumentCaptor
+                        .forClass(List.class);
+        verify(collector).collectAggregates(anyLong(), captor.capture());
+        List<AggregatesByType> aggregatesByTypeList = captor.getValue();
+        assertThat(aggregatesByTypeList).hasSize(1);
+        AggregatesByType aggregatesByType = aggregatesByTypeList.get(0);
+        assertThat(aggregatesByType.getTransactionType()).isEqualTo("another type");
+        assertThat(aggregatesByType.getOverallAggregate().getTransactionCount()).isEqualTo(1);
+        assertThat(aggregatesByType.getTransactionAggregateCount()).isEqualTo(1);
+        assertThat(aggregatesByType.getTransactionAggregate(0).getTransactionName())
+                .isEqualTo("another name");
+    }
+
+    @Test
+    public void shouldNotOverrideHigherPriorityTransactionName() {
+        // when
+        unsampledTransaction.setTransactionName("user name", OverrideSource.USER_API);
+        unsampledTransaction.setTransactionName("plugin name");
+        // then
+        assertThat(unsampledTransaction.getTransactionName()).isEqualTo("user name");
+    }
+
+    @Test
+    public void shouldMarkErrorFromPlugin() {
+        // when
+        unsampledTransaction.setTransactionError("an error");
+        unsampledTransaction.end();
+        // then
+        assertThat(unsampledTransaction.isError()).isTrue();
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.model;
+
+import org.junit.Test;
+
+import org.glowroot.wire.api.model.Proto;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ErrorMessageTest {
+
+    @Test
+    public void shouldCaptureThrowableEagerly() {
+        // given
+        Exception cause = new IllegalStateException("the cause");
+        Exception exception = new RuntimeException("the exception", cause);
+        // when
+        ErrorMessage errorMessage = ErrorMessage.from(exception);
+        // changes to the throwable after capture are not reflected
+        exception.setStackTrace(new StackTraceElement[0]);
+        // then
+        Proto.Throwable throwable = errorMessage.throwableProto();
+        assertThat(errorMessage.message()).isEqualTo("the exception");
+        assertThat(throwable.getClassName()).isEqualTo(RuntimeException.class.getName());
+        assertThat(throwable.getMessage()).isEqualTo("the exception");
+        assertThat(throwable.getStackTraceElementCount()).isGreaterThan(0);
+        Proto.Throwable causeThrowable = throwable.getCause();
+        assertThat(causeThrowable.getClassName()).isEqualTo(IllegalStateException.class.getName());
+        assertThat(causeThrowable.getMessage()).isEqualTo("the cause");
+        // cause was created one line above the exception, in the same method
+        assertThat(causeThrowable.getStackTraceElementCount()).isEqualTo(1);
+        assertThat(causeThrowable.getFramesInCommonWithEnclosing()).isGreaterThan(0);
+    }
+
+    @Test
+    public void shouldMemoizeThrowableProto() {
+        // given
+        ErrorMessage errorMessage = ErrorMessage.from(new RuntimeException());
+        // when
+        Proto.Throwable throwable1 = errorMessage.throwableProto();
+        Proto.Throwable throwable2 = errorMessage.throwableProto();
+        // then
+        assertThat(throwable1).isNotNull();
+        assertThat(throwable2).isSameAs(throwable1);
+    }
+
+    @Test
+    public void shouldNotHaveThrowableProtoWithoutThrowable() {
+        // given
+        ErrorMessage errorMessage = ErrorMessage.from("a message");
+        // then
+        assertThat(errorMessage.throwable()).isNull();
+        assertThat(errorMessage.throwableProto()).isNull();
+    }
+}
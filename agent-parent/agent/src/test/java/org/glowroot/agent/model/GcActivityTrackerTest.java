@@ -0,0 +1,59 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.model;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import org.glowroot.agent.model.GcActivityTracker.GcSnapshot;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class GcActivityTrackerTest {
+
+    @Test
+    public void shouldNotUseNotificationsUntilStarted() {
+        // given
+        GcActivityTracker gcActivityTracker = new GcActivityTracker();
+        // when
+        GcSnapshot snapshot1 = gcActivityTracker.getCurrentSnapshot();
+        GcSnapshot snapshot2 = gcActivityTracker.getCurrentSnapshot();
+        // then
+        assertThat(snapshot2).isNotSameAs(snapshot1);
+    }
+
+    @Test
+    public void shouldUseNotificationsOnceStarted() {
+        Assume.assumeTrue(GcActivityTracker
+                .isNotificationsSupported(ManagementFactory.getGarbageCollectorMXBeans()));
+        // given
+        GcActivityTracker gcActivityTracker = new GcActivityTracker();
+        // when
+        gcActivityTracker.startListening();
+        // calling twice is harmless
+        gcActivityTracker.startListening();
+        GcSnapshot snapshot1 = gcActivityTracker.getCurrentSnapshot();
+        GcSnapshot snapshot2 = gcActivityTracker.getCurrentSnapshot();
+        gcActivityTracker.close();
+        GcSnapshot snapshot3 = gcActivityTracker.getCurrentSnapshot();
+        // then
+        // a gc in between the two calls is not expected
+        assertThat(snapshot2).isSameAs(snapshot1);
+        assertThat(snapshot3).isNotSameAs(snapshot1);
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.model;
+
+import java.util.Iterator;
+import java.util.List;
+
+import com.google.common.base.Ticker;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.glowroot.agent.impl.TransactionRegistry;
+import org.glowroot.agent.impl.TransactionServiceImpl;
+import org.glowroot.agent.plugin.api.MessageSupplier;
+import org.glowroot.agent.plugin.api.QueryEntry;
+import org.glowroot.agent.plugin.api.internal.NopTransactionService.NopTraceEntry;
+import org.glowroot.agent.plugin.api.util.FastThreadLocal;
+import org.glowroot.agent.plugin.api.util.FastThreadLocal.Holder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class OverflowAggregateTest {
+
+    private OverflowAggregate overflowAggregate;
+
+    @Before
+    public void beforeEachTest() {
+        overflowAggregate = new OverflowAggregate();
+    }
+
+    @Test
+    public void shouldMergeAsyncTimerOnlyOnce() {
+        // given
+        AsyncTimerImpl asyncTimer = new AsyncTimerImpl(
+                ImmutableTimerNameImpl.of("async", false), 1000, overflowAggregate);
+        // when
+        asyncTimer.end(3000);
+        asyncTimer.end(5000);
+        // then
+        List<CommonTimerImpl> rootTimers = overflowAggregate.getAsyncRootTimers();
+        assertThat(rootTimers).hasSize(1);
+        assertThat(rootTimers.get(0).getCount()).isEqualTo(1);
+        assertThat(rootTimers.get(0).getTotalNanos()).isEqualTo(2000);
+        assertThat(asyncTimer.getTotalNanos()).isEqualTo(2000);
+    }
+
+    @Test
+    public void shouldMergeOverflowAuxThreadContexts() {
+        // given
+        Ticker ticker = mock(Ticker.class);
+        when(ticker.read()).thenReturn(3000L, 8000L);
+        Holder</*@Nullable*/ ThreadContextPlus> threadContextHolder =
+                new FastThreadLocal</*@Nullable*/ ThreadContextPlus>().getHolder();
+        // when
+        for (int i = 0; i < 2; i++) {
+            OverflowAuxThreadContext auxThreadContext =
+                    newOverflowAuxThreadContext(1000, ticker, threadContextHolder);
+            threadContextHolder.set(auxThreadContext);
+            auxThreadContext.end();
+            // ending again has no effect
+            auxThreadContext.end();
+        }
+        // then
+        List<CommonTimerImpl> rootTimers = overflowAggregate.getAuxThreadRootTimers();
+        assertThat(rootTimers).hasSize(1);
+        assertThat(rootTimers.get(0).getName()).isEqualTo("auxiliary thread");
+        assertThat(rootTimers.get(0).getCount()).isEqualTo(2);
+        assertThat(rootTimers.get(0).getTotalNanos()).isEqualTo(2000 + 7000);
+        assertThat(threadContextHolder.get()).isNull();
+    }
+
+    @Test
+    public void shouldMergeNestedTimersAndQueries() {
+        // given
+        Ticker ticker = new Ticker() {
+            private long tick;
+            @Override
+            public long read() {
+                return tick += 1000;
+            }
+        };
+        Transaction transaction = mock(Transaction.class);
+        when(transaction.allowAnotherAggregateQuery()).thenReturn(true);
+        Holder</*@Nullable*/ ThreadContextPlus> threadContextHolder =
+                new FastThreadLocal</*@Nullable*/ ThreadContextPlus>().getHolder();
+        // when
+        for (int i = 0; i < 2; i++) {
+            OverflowAuxThreadContext auxThreadContext = new OverflowAuxThreadContext(transaction,
+                    mock(TraceEntryImpl.class), mock(MessageSupplier.class),
+                    ImmutableTimerNameImpl.of("auxiliary thread", false), ticker.read(), false,
+                    null, overflowAggregate, mock(TransactionRegistry.class),
+                    mock(TransactionServiceImpl.class), ticker, threadContextHolder);
+            threadContextHolder.set(auxThreadContext);
+            auxThreadContext.startTimer(ImmutableTimerNameImpl.of("nested", false)).stop();
+            QueryEntry queryEntry = auxThreadContext.startQueryEntry("SQL", "select 1",
+                    mock(MessageSupplier.class), ImmutableTimerNameImpl.of("jdbc query", false));
+            queryEntry.incrementCurrRow();
+            queryEntry.incrementCurrRow();
+            queryEntry.end();
+            auxThreadContext.end();
+        }
+        // then
+        List<CommonTimerImpl> rootTimers = overflowAggregate.getAuxThreadRootTimers();
+        assertThat(rootTimers).hasSize(1);
+        assertThat(rootTimers.get(0).getCount()).isEqualTo(2);
+        Iterator<? extends CommonTimerImpl> childTimers = rootTimers.get(0).getChildTimers();
+        CommonTimerImpl nestedTimer = childTimers.next();
+        assertThat(nestedTimer.getName()).isEqualTo("nested");
+        assertThat(nestedTimer.getCount()).isEqualTo(2);
+        assertThat(nestedTimer.getTotalNanos()).isEqualTo(2 * 1000);
+        CommonTimerImpl queryTimer = childTimers.next();
+        assertThat(queryTimer.getName()).isEqualTo("jdbc query");
+        assertThat(queryTimer.getCount()).isEqualTo(2);
+        assertThat(childTimers.hasNext()).isFalse();
+        Iterator<QueryData> queries = overflowAggregate.getQueries();
+        QueryData queryData = queries.next();
+        assertThat(queryData.getQueryText()).isEqualTo("select 1");
+        assertThat(queryData.getExecutionCount()).isEqualTo(2);
+        assertThat(queryData.getTotalRows()).isEqualTo(4);
+        assertThat(queryData.getTotalNanos()).isEqualTo(2 * 1000);
+        assertThat(queries.hasNext()).isFalse();
+    }
+
+    @Test
+    public void shouldNotStartTransactionInsideOverflowAuxThreadContext() {
+        // given
+        OverflowAuxThreadContext auxThreadContext = newOverflowAuxThreadContext(1000,
+                mock(Ticker.class), new FastThreadLocal</*@Nullable*/ ThreadContextPlus>()
+                        .getHolder());
+        // when
+        Object traceEntry = auxThreadContext.startTransaction("tt", "tn",
+                mock(MessageSupplier.class), ImmutableTimerNameImpl.of("t", false));
+        // then
+        assertThat(traceEntry).isSameAs(NopTraceEntry.INSTANCE);
+    }
+
+    private OverflowAuxThreadContext newOverflowAuxThreadContext(long startTick, Ticker ticker,
+            Holder</*@Nullable*/ ThreadContextPlus> threadContextHolder) {
+        return new OverflowAuxThreadContext(mock(Transaction.class), mock(TraceEntryImpl.class),
+                mock(MessageSupplier.class), ImmutableTimerNameImpl.of("auxiliary thread", false),
+                startTick, false, null, overflowAggregate, mock(TransactionRegistry.class),
+                mock(TransactionServiceImpl.class), ticker, threadContextHolder);
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.model;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import org.glowroot.agent.model.TransactionAttributes.Attribute;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TransactionAttributesTest {
+
+    @Test
+    public void shouldIgnoreDuplicates() {
+        // given
+        TransactionAttributes attributes = new TransactionAttributes();
+        // when
+        attributes.add("a", "1");
+        attributes.add("a", "1");
+        attributes.add("a", "2");
+        attributes.add("b", "1");
+        // then
+        Attribute[] snapshot = attributes.snapshot();
+        assertThat(snapshot).hasSize(3);
+        assertThat(snapshot[0].name()).isEqualTo("a");
+        assertThat(snapshot[0].value()).isEqualTo("1");
+        assertThat(snapshot[1].name()).isEqualTo("a");
+        assertThat(snapshot[1].value()).isEqualTo("2");
+        assertThat(snapshot[2].name()).isEqualTo("b");
+        assertThat(snapshot[2].value()).isEqualTo("1");
+    }
+
+    @Test
+    public void shouldGrow() {
+        // given
+        TransactionAttributes attributes = new TransactionAttributes();
+        Attribute[] initialSnapshot = attributes.snapshot();
+        // when
+        for (int i = 0; i < 100; i++) {
+            attributes.add("a" + i, "");
+        }
+        // then
+        assertThat(initialSnapshot).isEmpty();
+        Attribute[] snapshot = attributes.snapshot();
+        assertThat(snapshot).hasSize(100);
+        for (int i = 0; i < 100; i++) {
+            assertThat(snapshot[i].name()).isEqualTo("a" + i);
+        }
+    }
+
+    @Test
+    public void shouldLimitValuesPerName() {
+        // given
+        TransactionAttributes attributes = new TransactionAttributes();
+        // when
+        for (int i = 0; i < 10001; i++) {
+            attributes.add("a", Integer.toString(i));
+        }
+        attributes.add("b", "");
+        // then
+        Attribute[] snapshot = attributes.snapshot();
+        assertThat(snapshot).hasSize(10001);
+        assertThat(snapshot[9999].value()).isEqualTo("9999");
+        assertThat(snapshot[10000].name()).isEqualTo("b");
+    }
+
+    @Test
+    public void shouldIgnoreDuplicatesOnceIndexed() {
+        // given
+        TransactionAttributes attributes = new TransactionAttributes();
+        // when
+        for (int i = 0; i < 100; i++) {
+            attributes.add("a", Integer.toString(i % 50));
+            attributes.add("b" + (i % 25), "");
+        }
+        // then
+        Attribute[] snapshot = attributes.snapshot();
+        assertThat(snapshot).hasSize(75);
+    }
+
+    @Test
+    public void shouldNotLoseAttributesAddedConcurrently() throws Exception {
+        // given
+        final TransactionAttributes attributes = new TransactionAttributes();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<Void>> futures = Lists.newArrayList();
+        // when
+        for (int i = 0; i < 4; i++) {
+            final String name = "a" + i;
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    for (int j = 0; j < 1000; j++) {
+                        attributes.add(name, Integer.toString(j));
+                        attributes.add("shared", Integer.toString(j));
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<Void> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        // then
+        Attribute[] snapshot = attributes.snapshot();
+        assertThat(snapshot).hasSize(5000);
+        for (Attribute attribute : snapshot) {
+            assertThat(attribute).isNotNull();
+        }
+    }
+}
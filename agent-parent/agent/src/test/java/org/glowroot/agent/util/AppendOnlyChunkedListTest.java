@@ -0,0 +1,107 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.util;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AppendOnlyChunkedListTest {
+
+    @Test
+    public void testEmpty() {
+        // given
+        AppendOnlyChunkedList<String> list = new AppendOnlyChunkedList<String>();
+        // then
+        assertThat(list.isEmpty()).isTrue();
+        assertThat(list.size()).isEqualTo(0);
+        assertThat(list).isEmpty();
+    }
+
+    @Test
+    public void testAddAcrossChunks() {
+        // given
+        AppendOnlyChunkedList<Integer> list = new AppendOnlyChunkedList<Integer>();
+        List<Integer> expected = Lists.newArrayList();
+        // when
+        for (int i = 0; i < 100; i++) {
+            list.add(i);
+            expected.add(i);
+        }
+        // then
+        assertThat(list.isEmpty()).isFalse();
+        assertThat(list.size()).isEqualTo(100);
+        assertThat(ImmutableList.copyOf(list)).isEqualTo(expected);
+    }
+
+    @Test
+    public void testIteratorDoesNotSeeLaterAdds() {
+        // given
+        AppendOnlyChunkedList<Integer> list = new AppendOnlyChunkedList<Integer>();
+        list.add(1);
+        // when
+        List<Integer> elements = Lists.newArrayList();
+        for (Integer element : list) {
+            elements.add(element);
+            list.add(element + 1);
+        }
+        // then
+        assertThat(elements).containsExactly(1);
+        assertThat(list).containsExactly(1, 2);
+    }
+
+    @Test
+    public void testConcurrentAdds() throws Exception {
+        // given
+        final AppendOnlyChunkedList<Integer> list = new AppendOnlyChunkedList<Integer>();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        final CountDownLatch latch = new CountDownLatch(1);
+        // when
+        for (int i = 0; i < 8; i++) {
+            final int offset = i * 1000;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        latch.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    for (int j = 0; j < 1000; j++) {
+                        list.add(offset + j);
+                    }
+                }
+            });
+        }
+        latch.countDown();
+        executor.shutdown();
+        assertThat(executor.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+        // then
+        assertThat(list.size()).isEqualTo(8000);
+        List<Integer> elements = Lists.newArrayList(list);
+        assertThat(elements).hasSize(8000);
+        assertThat(elements).doesNotHaveDuplicates();
+    }
+}
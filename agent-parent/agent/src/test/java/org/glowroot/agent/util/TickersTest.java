@@ -18,6 +18,7 @@ package org.glowroot.agent.util;
 import com.google.common.base.Ticker;
 import org.junit.Test;
 
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static org.assertj.core.api.Assertions.assertThat;
 
 public class TickersTest {
@@ -27,4 +28,20 @@ public class TickersTest {
         Ticker ticker = Tickers.getTicker(true);
         assertThat(ticker.read()).isEqualTo(0);
     }
+
+    @Test
+    public void testCoarseTicker() throws Exception {
+        // given
+        Tickers.CoarseTicker ticker = new Tickers.CoarseTicker(MILLISECONDS.toNanos(1));
+        long tick = ticker.read();
+        // then
+        assertThat(ticker.read()).isEqualTo(tick);
+        Thread thread = new Thread(ticker);
+        thread.start();
+        Thread.sleep(50);
+        assertThat(ticker.read() - tick).isGreaterThan(MILLISECONDS.toNanos(10));
+        assertThat(System.nanoTime() - ticker.read()).isGreaterThanOrEqualTo(0);
+        thread.interrupt();
+        thread.join();
+    }
 }
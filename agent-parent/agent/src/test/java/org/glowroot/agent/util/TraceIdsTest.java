@@ -0,0 +1,71 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.util;
+
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TraceIdsTest {
+
+    @Test
+    public void shouldGenerateUuidFormat() {
+        // when
+        String traceId = TraceIds.newTraceId();
+        // then
+        UUID uuid = UUID.fromString(traceId);
+        assertThat(uuid.toString()).isEqualTo(traceId);
+        assertThat(uuid.version()).isEqualTo(4);
+        assertThat(uuid.variant()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldGenerateUniqueIdsAcrossThreads() throws Exception {
+        // given
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<List<String>>> futures = Lists.newArrayList();
+        // when
+        for (int i = 0; i < 4; i++) {
+            futures.add(executor.submit(new Callable<List<String>>() {
+                @Override
+                public List<String> call() {
+                    List<String> traceIds = Lists.newArrayList();
+                    for (int j = 0; j < 10000; j++) {
+                        traceIds.add(TraceIds.newTraceId());
+                    }
+                    return traceIds;
+                }
+            }));
+        }
+        Set<String> traceIds = Sets.newHashSet();
+        for (Future<List<String>> future : futures) {
+            traceIds.addAll(future.get());
+        }
+        executor.shutdown();
+        // then
+        assertThat(traceIds).hasSize(40000);
+    }
+}
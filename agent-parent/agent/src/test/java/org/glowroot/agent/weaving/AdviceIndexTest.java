@@ -0,0 +1,80 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.weaving;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+import org.objectweb.asm.Type;
+
+import org.glowroot.agent.plugin.api.weaving.Pointcut;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AdviceIndexTest {
+
+    private final Pointcut pointcut = OnlyForThePointcut.class.getAnnotation(Pointcut.class);
+
+    private final Pointcut annotationPointcut =
+            OnlyForTheAnnotationPointcut.class.getAnnotation(Pointcut.class);
+
+    private final Advice exactAdvice = createAdvice(pointcut, "a.b.C");
+    private final Advice wildcardAdvice = createAdvice(pointcut, "a.b.*");
+    private final Advice alternationAdvice = createAdvice(pointcut, "x.Y|a.b.C*");
+    private final Advice regexAdvice = createAdvice(pointcut, "/.*Z/");
+    private final Advice annotationAdvice = createAdvice(annotationPointcut, "");
+
+    private final AdviceIndex adviceIndex = new AdviceIndex(ImmutableList.of(exactAdvice,
+            wildcardAdvice, alternationAdvice, regexAdvice, annotationAdvice));
+
+    @Test
+    public void shouldFindCandidates() {
+        assertThat(adviceIndex.getCandidates("a.b.C", ImmutableList.<String>of()))
+                .containsOnly(exactAdvice, wildcardAdvice, alternationAdvice, regexAdvice);
+        assertThat(adviceIndex.getCandidates("a.b.D", ImmutableList.<String>of()))
+                .containsOnly(wildcardAdvice, regexAdvice);
+        assertThat(adviceIndex.getCandidates("x.Y", ImmutableList.<String>of()))
+                .containsOnly(alternationAdvice, regexAdvice);
+        assertThat(adviceIndex.getCandidates("a.c.D", ImmutableList.of("Lx/Annotation;")))
+                .containsOnly(regexAdvice, annotationAdvice);
+    }
+
+    @Test
+    public void shouldFindNoCandidates() {
+        AdviceIndex adviceIndex = new AdviceIndex(ImmutableList.of(exactAdvice, wildcardAdvice));
+        assertThat(adviceIndex.getCandidates("a.c.D", ImmutableList.<String>of())).isEmpty();
+        assertThat(adviceIndex.getCandidates("a", ImmutableList.<String>of())).isEmpty();
+        assertThat(adviceIndex.getCandidates("", ImmutableList.<String>of())).isEmpty();
+    }
+
+    private static Advice createAdvice(Pointcut pointcut, String declaringClassName) {
+        return ImmutableAdvice.builder()
+                .pointcut(pointcut)
+                .pointcutClassName(declaringClassName)
+                .pointcutMethodDeclaringClassName(declaringClassName)
+                .adviceType(Type.getType(AdviceIndexTest.class))
+                .reweavable(false)
+                .hasBindThreadContext(false)
+                .hasBindOptionalThreadContext(false)
+                .build();
+    }
+
+    @Pointcut(className = "dummy", methodName = "dummy", methodParameterTypes = {})
+    private static class OnlyForThePointcut {}
+
+    @Pointcut(className = "", classAnnotation = "x.Annotation", methodName = "dummy",
+            methodParameterTypes = {})
+    private static class OnlyForTheAnnotationPointcut {}
+}
@@ -49,6 +49,13 @@ public class ComputeFramesClassWriterTest {
         assertCommonSuperClass(C.class, I.class, I.class);
     }
 
+    @Test
+    public void shouldFindCommonSuperClassWhenCached() {
+        assertCommonSuperClass(C.class, Y.class, B.class);
+        assertCommonSuperClass(Y.class, C.class, B.class);
+        assertCommonSuperClass(C.class, Y.class, B.class);
+    }
+
     private <R, S extends R, T extends R> void assertCommonSuperClass(Class<S> class1,
             Class<T> class2, Class<R> commonSuperClass) {
 
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.weaving;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LoaderAnalyzedClassesTest {
+
+    @Test
+    public void shouldSoftlyRetainClassesWithoutAdvice() {
+        // given
+        LoaderAnalyzedClasses loaderAnalyzedClasses = new LoaderAnalyzedClasses(new AtomicLong());
+        AnalyzedClass plainClass = ImmutableAnalyzedClass.builder()
+                .modifiers(0)
+                .name("a.Plain")
+                .superName("java.lang.Object")
+                .build();
+        AnalyzedClass advisedClass = ImmutableAnalyzedClass.builder()
+                .modifiers(0)
+                .name("a.Advised")
+                .superName("java.lang.Object")
+                .addAnalyzedMethods(ImmutableAnalyzedMethod.builder()
+                        .name("m")
+                        .returnType("void")
+                        .modifiers(0)
+                        .build())
+                .build();
+        // when
+        loaderAnalyzedClasses.put(plainClass);
+        loaderAnalyzedClasses.put(advisedClass);
+        // then
+        assertThat(loaderAnalyzedClasses.get("a.Plain")).isSameAs(plainClass);
+        assertThat(loaderAnalyzedClasses.get("a.Advised")).isSameAs(advisedClass);
+        assertThat(loaderAnalyzedClasses.getSoftClassCount()).isEqualTo(1);
+        assertThat(loaderAnalyzedClasses.getRetainedClassCount()).isEqualTo(1);
+        assertThat(loaderAnalyzedClasses.getRetainedClasses()).containsOnly(advisedClass);
+    }
+
+    @Test
+    public void shouldReturnExistingOnPutIfAbsent() {
+        // given
+        LoaderAnalyzedClasses loaderAnalyzedClasses = new LoaderAnalyzedClasses(new AtomicLong());
+        AnalyzedClass analyzedClass = ImmutableAnalyzedClass.builder()
+                .modifiers(0)
+                .name("a.Plain")
+                .superName("java.lang.Object")
+                .build();
+        AnalyzedClass otherAnalyzedClass = ImmutableAnalyzedClass.builder()
+                .modifiers(0)
+                .name("a.Plain")
+                .superName("java.lang.Object")
+                .build();
+        // when
+        AnalyzedClass first = loaderAnalyzedClasses.putIfAbsent(analyzedClass);
+        AnalyzedClass second = loaderAnalyzedClasses.putIfAbsent(otherAnalyzedClass);
+        loaderAnalyzedClasses.remove("a.Plain");
+        // then
+        assertThat(first).isSameAs(analyzedClass);
+        assertThat(second).isSameAs(analyzedClass);
+        assertThat(loaderAnalyzedClasses.get("a.Plain")).isNull();
+    }
+}
@@ -27,6 +27,11 @@ import com.google.common.collect.Lists;
 import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FrameNode;
+import org.objectweb.asm.tree.MethodNode;
 
 import org.glowroot.agent.plugin.api.weaving.Mixin;
 import org.glowroot.agent.plugin.api.weaving.OptionalReturn;
@@ -844,7 +849,8 @@ public class WeaverTest {
         AnalyzedWorld analyzedWorld = new AnalyzedWorld(advisorsSupplier,
                 ImmutableList.<ShimType>of(), ImmutableList.<MixinType>of(), null);
         WeaverImpl weaver = new WeaverImpl(advisorsSupplier, ImmutableList.<ShimType>of(),
-                ImmutableList.<MixinType>of(), analyzedWorld, NopWeavingTimerService.INSTANCE);
+                ImmutableList.<MixinType>of(), analyzedWorld, NopWeavingTimerService.INSTANCE,
+                null);
         isolatedWeavingClassLoader.setWeaver(weaver);
         Misc test = isolatedWeavingClassLoader.newInstance(BasicMisc.class, Misc.class);
         // when
@@ -1440,6 +1446,42 @@ public class WeaverTest {
         assertThat(SomeAspectThreadLocals.onAfterCount.get()).isEqualTo(1);
     }
 
+    @Test
+    public void shouldPreserveStackMapFramesOfMethodsThatAreNotWoven() throws Exception {
+        // given
+        LazyDefinedClass implClass =
+                GeneratePreservedFramesBytecode.generatePreservedFramesBytecode();
+        Supplier<List<Advice>> advisors = Suppliers.<List<Advice>>ofInstance(ImmutableList
+                .of(new AdviceBuilder(MoreNotPerfectBytecodeAdvice.class).build()));
+        AnalyzedWorld analyzedWorld = new AnalyzedWorld(advisors, ImmutableList.<ShimType>of(),
+                ImmutableList.<MixinType>of(), null);
+        WeaverImpl weaver = new WeaverImpl(advisors, ImmutableList.<ShimType>of(),
+                ImmutableList.<MixinType>of(), analyzedWorld, NopWeavingTimerService.INSTANCE,
+                null);
+        // when
+        byte[] wovenBytes = weaver.weave(implClass.bytes(), implClass.type().getInternalName(),
+                null, null);
+        // then
+        assertThat(wovenBytes).isNotNull();
+        ClassNode classNode = new ClassNode();
+        new ClassReader(wovenBytes).accept(classNode, 0);
+        @SuppressWarnings("unchecked")
+        List<MethodNode> methodNodes = classNode.methods;
+        List<Object> frameStacks = Lists.newArrayList();
+        for (MethodNode methodNode : methodNodes) {
+            if (!methodNode.name.equals("pick")) {
+                continue;
+            }
+            for (AbstractInsnNode insnNode : methodNode.instructions.toArray()) {
+                if (insnNode instanceof FrameNode && ((FrameNode) insnNode).stack != null) {
+                    frameStacks.addAll(((FrameNode) insnNode).stack);
+                }
+            }
+        }
+        // asm would have computed java/lang/String if the frames had been re-computed
+        assertThat(frameStacks).containsExactly("java/lang/Object");
+    }
+
     public static <S, T extends S> S newWovenObject(Class<T> implClass, Class<S> bridgeClass,
             Class<?> adviceOrShimOrMixinClass, Class<?>... extraBridgeClasses) throws Exception {
         // SomeAspectThreadLocals is passed as bridgeable so that the static thread locals will be
@@ -1470,7 +1512,7 @@ public class WeaverTest {
         AnalyzedWorld analyzedWorld =
                 new AnalyzedWorld(advisorsSupplier, shimTypes, mixinTypes, null);
         WeaverImpl weaver = new WeaverImpl(advisorsSupplier, shimTypes, mixinTypes, analyzedWorld,
-                NopWeavingTimerService.INSTANCE);
+                NopWeavingTimerService.INSTANCE, null);
         isolatedWeavingClassLoader.setWeaver(weaver);
         return isolatedWeavingClassLoader.newInstance(implClass, bridgeClass);
     }
@@ -1506,7 +1548,7 @@ public class WeaverTest {
         AnalyzedWorld analyzedWorld =
                 new AnalyzedWorld(advisorsSupplier, shimTypes, mixinTypes, null);
         WeaverImpl weaver = new WeaverImpl(advisorsSupplier, shimTypes, mixinTypes, analyzedWorld,
-                NopWeavingTimerService.INSTANCE);
+                NopWeavingTimerService.INSTANCE, null);
         isolatedWeavingClassLoader.setWeaver(weaver);
 
         String className = toBeDefinedImplClass.type().getClassName();
@@ -1520,8 +1562,8 @@ public class WeaverTest {
         Assume.assumeFalse(StandardSystemProperty.JAVA_VERSION.value().startsWith("1.6"));
     }
 
-    private static class NopWeavingTimerService implements WeavingTimerService {
-        private static final NopWeavingTimerService INSTANCE = new NopWeavingTimerService();
+    static class NopWeavingTimerService implements WeavingTimerService {
+        static final NopWeavingTimerService INSTANCE = new NopWeavingTimerService();
         @Override
         public WeavingTimer start() {
             return NopWeavingTimer.INSTANCE;
@@ -0,0 +1,266 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.weaving;
+
+import java.io.File;
+import java.util.List;
+
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import com.google.common.io.Resources;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+
+import org.glowroot.agent.weaving.SomeAspect.BasicAdvice;
+import org.glowroot.agent.weaving.SomeAspect.BindClassMetaAdvice;
+import org.glowroot.agent.weaving.SomeAspect.BindMethodMetaAdvice;
+import org.glowroot.agent.weaving.SomeAspect.BindReceiverAdvice;
+import org.glowroot.agent.weaving.SomeAspect.TestClassMeta;
+import org.glowroot.agent.weaving.SomeAspect.TestMethodMeta;
+import org.glowroot.agent.weaving.SomeAspectThreadLocals.IntegerThreadLocal;
+import org.glowroot.agent.weaving.WeaverTest.NopWeavingTimerService;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+public class WeavingCacheTest {
+
+    private File cacheDir;
+
+    @Before
+    public void beforeEachTest() {
+        cacheDir = Files.createTempDir();
+        SomeAspectThreadLocals.resetThreadLocals();
+    }
+
+    @After
+    public void afterEachTest() {
+        delete(cacheDir);
+    }
+
+    @Test
+    public void shouldReturnCachedWeavingResults() throws Exception {
+        // given
+        Supplier<List<Advice>> advisors = Suppliers.<List<Advice>>ofInstance(
+                ImmutableList.of(new AdviceBuilder(BasicAdvice.class).build()));
+        byte[] wovenClassBytes = getClassBytes(BasicMisc.class);
+        byte[] notWovenClassBytes = getClassBytes(SuperBasic.class);
+        String wovenClassName = ClassNames.toInternalName(BasicMisc.class.getName());
+        String notWovenClassName = ClassNames.toInternalName(SuperBasic.class.getName());
+        byte[] wovenBytes = newWeaver(advisors, newAnalyzedWorld(advisors))
+                .weave(wovenClassBytes, wovenClassName, null, null);
+        byte[] notWovenBytes = newWeaver(advisors, newAnalyzedWorld(advisors))
+                .weave(notWovenClassBytes, notWovenClassName, null, null);
+        // when
+        WeavingCache weavingCache = newWeavingCache(advisors);
+        byte[] cachedWovenBytes = weavingCache.get(wovenClassBytes, wovenClassName, null,
+                advisors.get(), getSuperAnalyzedClasses(wovenClassBytes, advisors));
+        byte[] cachedNotWovenBytes = weavingCache.get(notWovenClassBytes, notWovenClassName,
+                null, advisors.get(), getSuperAnalyzedClasses(notWovenClassBytes, advisors));
+        // then
+        assertThat(wovenBytes).isNotNull();
+        assertThat(cachedWovenBytes).isEqualTo(wovenBytes);
+        assertThat(weavingCache.isNoWeavingNeeded(wovenClassBytes, wovenClassName, null,
+                advisors.get())).isFalse();
+        assertThat(notWovenBytes).isNull();
+        assertThat(cachedNotWovenBytes).isNull();
+        assertThat(weavingCache.isNoWeavingNeeded(notWovenClassBytes, notWovenClassName, null,
+                advisors.get())).isTrue();
+    }
+
+    @Test
+    public void shouldNotAnalyzeClassOnNoWeavingNeededCacheHit() throws Exception {
+        // given
+        Supplier<List<Advice>> advisors = Suppliers.<List<Advice>>ofInstance(
+                ImmutableList.of(new AdviceBuilder(BasicAdvice.class).build()));
+        byte[] classBytes = getClassBytes(SuperBasic.class);
+        String className = ClassNames.toInternalName(SuperBasic.class.getName());
+        newWeaver(advisors, newAnalyzedWorld(advisors)).weave(classBytes, className, null, null);
+        // when
+        // class analysis (ClassAnalyzer) cannot be performed without the analyzed world
+        AnalyzedWorld analyzedWorld = mock(AnalyzedWorld.class);
+        byte[] cachedBytes =
+                newWeaver(advisors, analyzedWorld).weave(classBytes, className, null, null);
+        // then
+        assertThat(cachedBytes).isNull();
+        verifyZeroInteractions(analyzedWorld);
+    }
+
+    @Test
+    public void shouldRegisterAnalyzedClassOnCacheHit() throws Exception {
+        // given
+        Supplier<List<Advice>> advisors = Suppliers.<List<Advice>>ofInstance(
+                ImmutableList.of(new AdviceBuilder(BasicAdvice.class).build()));
+        byte[] classBytes = getClassBytes(BasicMisc.class);
+        String className = ClassNames.toInternalName(BasicMisc.class.getName());
+        AnalyzedWorld analyzedWorld = newAnalyzedWorld(advisors);
+        byte[] wovenBytes = newWeaver(advisors, analyzedWorld).weave(classBytes, className, null,
+                null);
+        // when
+        AnalyzedWorld otherAnalyzedWorld = newAnalyzedWorld(advisors);
+        byte[] cachedWovenBytes = newWeaver(advisors, otherAnalyzedWorld).weave(classBytes,
+                className, null, null);
+        // then
+        assertThat(cachedWovenBytes).isEqualTo(wovenBytes);
+        assertThat(getClassCount(otherAnalyzedWorld)).isEqualTo(getClassCount(analyzedWorld));
+    }
+
+    @Test
+    public void shouldInvalidateOnSuperTypeChange() throws Exception {
+        // given
+        Supplier<List<Advice>> advisors = Suppliers.<List<Advice>>ofInstance(
+                ImmutableList.of(new AdviceBuilder(BasicAdvice.class).build()));
+        byte[] classBytes = getClassBytes(BasicMisc.class);
+        String className = ClassNames.toInternalName(BasicMisc.class.getName());
+        newWeaver(advisors, newAnalyzedWorld(advisors)).weave(classBytes, className, null, null);
+        List<AnalyzedClass> superAnalyzedClasses = getSuperAnalyzedClasses(classBytes, advisors);
+        // when
+        List<AnalyzedClass> changedSuperAnalyzedClasses = Lists.newArrayList();
+        changedSuperAnalyzedClasses.add(ImmutableAnalyzedClass.copyOf(superAnalyzedClasses.get(0))
+                .withInterfaceNames("org.glowroot.agent.weaving.Misc"));
+        changedSuperAnalyzedClasses
+                .addAll(superAnalyzedClasses.subList(1, superAnalyzedClasses.size()));
+        // then
+        WeavingCache weavingCache = newWeavingCache(advisors);
+        assertThat(weavingCache.get(classBytes, className, null, advisors.get(),
+                superAnalyzedClasses)).isNotNull();
+        assertThat(weavingCache.get(classBytes, className, null, advisors.get(),
+                changedSuperAnalyzedClasses)).isNull();
+    }
+
+    @Test
+    public void shouldInvalidateOnAdvisorChange() throws Exception {
+        // given
+        Supplier<List<Advice>> advisors = Suppliers.<List<Advice>>ofInstance(
+                ImmutableList.of(new AdviceBuilder(BasicAdvice.class).build()));
+        Supplier<List<Advice>> otherAdvisors = Suppliers.<List<Advice>>ofInstance(
+                ImmutableList.of(new AdviceBuilder(BindReceiverAdvice.class).build()));
+        byte[] classBytes = getClassBytes(BasicMisc.class);
+        String className = ClassNames.toInternalName(BasicMisc.class.getName());
+        newWeaver(advisors, newAnalyzedWorld(advisors)).weave(classBytes, className, null, null);
+        // when
+        WeavingCache weavingCache = newWeavingCache(otherAdvisors);
+        // then
+        assertThat(weavingCache.get(classBytes, className, null, otherAdvisors.get(),
+                getSuperAnalyzedClasses(classBytes, otherAdvisors))).isNull();
+        assertThat(cacheDir.list()).isEmpty();
+    }
+
+    @Test
+    public void shouldBindClassMetaAfterRestart() throws Exception {
+        // given
+        Supplier<List<Advice>> advisors = Suppliers.<List<Advice>>ofInstance(
+                ImmutableList.of(new AdviceBuilder(BindClassMetaAdvice.class).build()));
+        newWovenObject(advisors, TestClassMeta.class).execute1();
+        SomeAspectThreadLocals.resetThreadLocals();
+        // when
+        newWovenObject(advisors, TestClassMeta.class).execute1();
+        // then
+        assertThat(getCacheEntries(cacheDir)).isEmpty();
+        assertThat(SomeAspectThreadLocals.onBeforeClassMeta.get().getClazzName())
+                .isEqualTo(BasicMisc.class.getName());
+    }
+
+    @Test
+    public void shouldBindMethodMetaAfterRestart() throws Exception {
+        // given
+        Supplier<List<Advice>> advisors = Suppliers.<List<Advice>>ofInstance(
+                ImmutableList.of(new AdviceBuilder(BindMethodMetaAdvice.class).build()));
+        newWovenObject(advisors, TestMethodMeta.class).executeWithArgs("one", 2);
+        SomeAspectThreadLocals.resetThreadLocals();
+        // when
+        newWovenObject(advisors, TestMethodMeta.class).executeWithArgs("one", 2);
+        // then
+        assertThat(getCacheEntries(cacheDir)).isEmpty();
+        assertThat(SomeAspectThreadLocals.onBeforeMethodMeta.get().getDeclaringClassName())
+                .isEqualTo(BasicMisc.class.getName());
+        assertThat(SomeAspectThreadLocals.onBeforeMethodMeta.get().getParameterTypeNames())
+                .containsExactly(String.class.getName(), int.class.getName());
+    }
+
+    // each call simulates a jvm restart, using a fresh class loader, analyzed world and weaver, but
+    // the same cache dir
+    private Misc newWovenObject(Supplier<List<Advice>> advisors, Class<?> metaClass)
+            throws Exception {
+        IsolatedWeavingClassLoader loader = new IsolatedWeavingClassLoader(Misc.class,
+                SomeAspectThreadLocals.class, IntegerThreadLocal.class, metaClass);
+        loader.setWeaver(newWeaver(advisors, newAnalyzedWorld(advisors)));
+        return loader.newInstance(BasicMisc.class, Misc.class);
+    }
+
+    private WeaverImpl newWeaver(Supplier<List<Advice>> advisors, AnalyzedWorld analyzedWorld) {
+        return new WeaverImpl(advisors, ImmutableList.<ShimType>of(),
+                ImmutableList.<MixinType>of(), analyzedWorld, NopWeavingTimerService.INSTANCE,
+                newWeavingCache(advisors));
+    }
+
+    private WeavingCache newWeavingCache(Supplier<List<Advice>> advisors) {
+        return new WeavingCache(cacheDir, advisors, ImmutableList.<ShimType>of(),
+                ImmutableList.<MixinType>of(), ImmutableList.<File>of(), "test");
+    }
+
+    private static AnalyzedWorld newAnalyzedWorld(Supplier<List<Advice>> advisors) {
+        return new AnalyzedWorld(advisors, ImmutableList.<ShimType>of(),
+                ImmutableList.<MixinType>of(), null);
+    }
+
+    private static List<AnalyzedClass> getSuperAnalyzedClasses(byte[] classBytes,
+            Supplier<List<Advice>> advisors) {
+        ThinClassVisitor accv = new ThinClassVisitor();
+        new ClassReader(classBytes).accept(accv, ClassReader.SKIP_FRAMES + ClassReader.SKIP_CODE);
+        return new ClassAnalyzer(accv.getThinClass(), advisors.get(), ImmutableList.<ShimType>of(),
+                ImmutableList.<MixinType>of(), null, newAnalyzedWorld(advisors), null)
+                        .getSuperAnalyzedClasses();
+    }
+
+    private static int getClassCount(AnalyzedWorld analyzedWorld) {
+        return analyzedWorld.getRetainedClassCount() + analyzedWorld.getSoftClassCount();
+    }
+
+    private static byte[] getClassBytes(Class<?> clazz) throws Exception {
+        return Resources.toByteArray(Resources.getResource(
+                ClassNames.toInternalName(clazz.getName()) + ".class"));
+    }
+
+    private static List<File> getCacheEntries(File file) {
+        List<File> entries = Lists.newArrayList();
+        File[] files = file.listFiles();
+        if (files == null) {
+            entries.add(file);
+        } else {
+            for (File f : files) {
+                entries.addAll(getCacheEntries(f));
+            }
+        }
+        return entries;
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                delete(f);
+            }
+        }
+        file.delete();
+    }
+}
@@ -110,4 +110,20 @@ public class Glowroot {
     public static void setTransactionSlowThreshold(long threshold, TimeUnit unit) {
         glowrootService.setTransactionSlowThreshold(threshold, unit);
     }
+
+    /**
+     * Returns the trace id of the current transaction, e.g. for including in log messages so that
+     * they can be correlated with the trace.
+     * 
+     * Note that the trace is only stored if the transaction exceeds the slow trace threshold (or
+     * ends with an error and error capture is enabled), so the trace id will not always refer to a
+     * stored trace.
+     * 
+     * If there is no current transaction, this method returns {@code null}. This is also the case
+     * when the current transaction was not sampled (Configuration &gt; Advanced &gt; Sampling
+     * percentage), since no trace is ever captured for an unsampled transaction.
+     */
+    public static @Nullable String getTraceId() {
+        return glowrootService.getTraceId();
+    }
 }
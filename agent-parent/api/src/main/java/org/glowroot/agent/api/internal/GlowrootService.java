@@ -30,4 +30,7 @@ public interface GlowrootService {
     void addTransactionAttribute(String name, @Nullable String value);
 
     void setTransactionSlowThreshold(long threshold, TimeUnit unit);
+
+    @Nullable
+    String getTraceId();
 }
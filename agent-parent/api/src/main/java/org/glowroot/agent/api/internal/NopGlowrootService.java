@@ -37,4 +37,9 @@ public class NopGlowrootService implements GlowrootService {
 
     @Override
     public void setTransactionSlowThreshold(long threshold, TimeUnit unit) {}
+
+    @Override
+    public @Nullable String getTraceId() {
+        return null;
+    }
 }
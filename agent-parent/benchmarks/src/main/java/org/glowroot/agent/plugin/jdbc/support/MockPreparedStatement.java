@@ -148,7 +148,7 @@ public class MockPreparedStatement implements PreparedStatement {
 
     @Override
     public int[] executeBatch() throws SQLException {
-        return null;
+        return new int[0];
     }
 
     @Override
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.logger;
+
+import java.util.concurrent.TimeUnit;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.helpers.NOPAppender;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.glowroot.microbenchmarks.support.TransactionWorthy;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class LogbackBenchmark extends TransactionWorthy {
+
+    private static final int LOG_CALLS = 100;
+
+    private static final Logger logger = LoggerFactory.getLogger(LogbackBenchmark.class);
+
+    private final Object arg1 = new Object();
+    private final Object arg2 = new Object();
+
+    @Setup
+    public void setup() {
+        // log to a no-op appender so that the benchmark measures the per log call overhead
+        LoggerContext loggerContext = (LoggerContext) LoggerFactory.getILoggerFactory();
+        NOPAppender<ILoggingEvent> appender = new NOPAppender<ILoggingEvent>();
+        appender.setContext(loggerContext);
+        appender.start();
+        ch.qos.logback.classic.Logger rootLogger =
+                loggerContext.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME);
+        rootLogger.detachAndStopAllAppenders();
+        rootLogger.addAppender(appender);
+        rootLogger.setLevel(Level.DEBUG);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOG_CALLS)
+    public void debug() {
+        doSomethingTransactionWorthy2();
+    }
+
+    @Override
+    public void doSomethingTransactionWorthy2() {
+        for (int i = 0; i < LOG_CALLS; i++) {
+            logger.debug("abc {} def {}", arg1, arg2);
+        }
+    }
+}
@@ -20,7 +20,9 @@ import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.security.Principal;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.LinkedHashMap;
 import java.util.Locale;
 import java.util.Map;
 
@@ -41,6 +43,17 @@ import javax.servlet.http.Part;
 
 public class MockHttpRequest implements HttpServletRequest {
 
+    private static final Map<String, String[]> parameterMap;
+
+    static {
+        Map<String, String[]> map = new LinkedHashMap<String, String[]>();
+        map.put("q", new String[] {"glowroot"});
+        map.put("page", new String[] {"2"});
+        map.put("sort", new String[] {"name", "date"});
+        map.put("userPassword", new String[] {"secret"});
+        parameterMap = Collections.unmodifiableMap(map);
+    }
+
     @Override
     public Object getAttribute(String name) {
         return null;
@@ -81,7 +94,8 @@ public class MockHttpRequest implements HttpServletRequest {
 
     @Override
     public String getParameter(String name) {
-        return null;
+        String[] values = parameterMap.get(name);
+        return values == null ? null : values[0];
     }
 
     @Override
@@ -96,7 +110,7 @@ public class MockHttpRequest implements HttpServletRequest {
 
     @Override
     public Map<String, String[]> getParameterMap() {
-        return null;
+        return parameterMap;
     }
 
     @Override
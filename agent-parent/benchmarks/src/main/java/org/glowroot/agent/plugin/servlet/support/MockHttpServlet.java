@@ -23,5 +23,8 @@ import javax.servlet.http.HttpServletResponse;
 public class MockHttpServlet extends HttpServlet {
 
     @Override
-    protected void service(HttpServletRequest req, HttpServletResponse resp) {}
+    protected void service(HttpServletRequest req, HttpServletResponse resp) {
+        // this triggers request parameter capture
+        req.getParameter("q");
+    }
 }
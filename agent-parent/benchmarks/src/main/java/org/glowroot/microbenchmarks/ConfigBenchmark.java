@@ -0,0 +1,58 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.microbenchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import org.glowroot.microbenchmarks.support.ConfigWorthy;
+import org.glowroot.microbenchmarks.support.TransactionWorthy;
+
+// simulates a transaction that passes through many plugin pointcuts which are disabled via plugin
+// properties, which is the most common per-transaction config access
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class ConfigBenchmark extends TransactionWorthy {
+
+    private static final int CONFIG_READS = 100;
+
+    private ConfigWorthy configWorthy;
+
+    @Setup
+    public void setup() {
+        configWorthy = new ConfigWorthy();
+    }
+
+    @Benchmark
+    public void execute() {
+        doSomethingTransactionWorthy2();
+    }
+
+    @Override
+    public void doSomethingTransactionWorthy2() {
+        for (int i = 0; i < CONFIG_READS; i++) {
+            configWorthy.doSomethingConfigWorthy();
+        }
+    }
+}
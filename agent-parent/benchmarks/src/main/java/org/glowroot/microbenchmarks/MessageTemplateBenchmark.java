@@ -0,0 +1,79 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.microbenchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import org.glowroot.microbenchmarks.support.MessageWorthy;
+import org.glowroot.microbenchmarks.support.MessageWorthyArg;
+import org.glowroot.microbenchmarks.support.TransactionWorthy;
+
+// measures trace entries from config-based instrumentation whose message template has this and arg
+// paths, which are evaluated (via GenericMessageSupplier) when the trace entry is started
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class MessageTemplateBenchmark extends TransactionWorthy {
+
+    @Param
+    private PathType pathType;
+
+    private MessageWorthy messageWorthy;
+    private MessageWorthyArg arg;
+
+    @Setup
+    public void setup() {
+        messageWorthy = new MessageWorthy();
+        arg = new MessageWorthyArg("the arg", new MessageWorthyArg("the child", null));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(2000)
+    public void execute() throws Exception {
+        doSomethingTransactionWorthy2();
+    }
+
+    // using the config-based transaction since plugin aspects are only loaded from plugin jars
+    @Override
+    public void doSomethingTransactionWorthy2() {
+        switch (pathType) {
+            case DECLARED_TYPE:
+                for (int i = 0; i < 2000; i++) {
+                    messageWorthy.doSomethingMessageWorthy(arg);
+                }
+                break;
+            case RUNTIME_TYPE:
+                for (int i = 0; i < 2000; i++) {
+                    messageWorthy.doSomethingMessageWorthy2(arg);
+                }
+                break;
+        }
+    }
+
+    public enum PathType {
+        DECLARED_TYPE, RUNTIME_TYPE
+    }
+}
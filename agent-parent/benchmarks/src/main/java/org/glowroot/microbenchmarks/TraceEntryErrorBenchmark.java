@@ -0,0 +1,66 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.microbenchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import org.glowroot.microbenchmarks.support.TraceEntryWorthy;
+import org.glowroot.microbenchmarks.support.TransactionWorthy;
+
+// simulates a fast successful transaction with trace entries that end with (handled) errors, whose
+// trace is not stored
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class TraceEntryErrorBenchmark extends TransactionWorthy {
+
+    private static final int ERROR_ENTRIES = 100;
+
+    private TraceEntryWorthy traceEntryWorthy;
+    private Exception exception;
+
+    @Setup
+    public void setup() {
+        traceEntryWorthy = new TraceEntryWorthy();
+        exception = new Exception("a handled error", new Exception("a cause"));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ERROR_ENTRIES)
+    public void execute() {
+        doSomethingTransactionWorthy2();
+    }
+
+    @Override
+    public void doSomethingTransactionWorthy2() {
+        for (int i = 0; i < ERROR_ENTRIES; i++) {
+            try {
+                traceEntryWorthy.doSomethingTraceEntryWorthyThatFails(exception);
+            } catch (Exception e) {
+                // handled
+            }
+        }
+    }
+}
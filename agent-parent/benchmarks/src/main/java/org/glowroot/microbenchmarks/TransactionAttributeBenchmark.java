@@ -0,0 +1,52 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.microbenchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import org.glowroot.agent.api.Glowroot;
+import org.glowroot.microbenchmarks.support.TransactionWorthy;
+
+// transaction with a typical number of attributes added by plugins
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class TransactionAttributeBenchmark extends TransactionWorthy {
+
+    @Benchmark
+    public void execute() {
+        doSomethingTransactionWorthy2();
+    }
+
+    @Override
+    public void doSomethingTransactionWorthy2() {
+        Glowroot.addTransactionAttribute("Request method", "GET");
+        Glowroot.addTransactionAttribute("Request host", "localhost");
+        Glowroot.addTransactionAttribute("Request port", "8080");
+        Glowroot.addTransactionAttribute("Request query string", "a=b");
+        Glowroot.addTransactionAttribute("Session id", "abc");
+        Glowroot.addTransactionAttribute("User agent", "xyz");
+        Glowroot.addTransactionAttribute("Tenant", "t1");
+        Glowroot.addTransactionAttribute("Tenant", "t1");
+    }
+}
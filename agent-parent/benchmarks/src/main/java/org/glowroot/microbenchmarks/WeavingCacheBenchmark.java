@@ -0,0 +1,25 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.microbenchmarks;
+
+import org.openjdk.jmh.annotations.Fork;
+
+// same as WeavingBenchmark, but with the on-disk weaving cache enabled
+//
+// the first fork populates the weaving cache, and subsequent forks measure startup weaving with a
+// warm weaving cache
+@Fork(value = 3, jvmArgsAppend = "-Dglowroot.weaving.cache=true")
+public class WeavingCacheBenchmark extends WeavingBenchmark {}
@@ -21,6 +21,10 @@ public class TraceEntryWorthy {
 
     public void doSomethingTraceEntryWorthy2() {}
 
+    public void doSomethingTraceEntryWorthyThatFails(Exception exception) throws Exception {
+        throw exception;
+    }
+
     public String getName() {
         return "the name";
     }
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.tests;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Files;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import org.glowroot.agent.api.Glowroot;
+import org.glowroot.agent.it.harness.AppUnderTest;
+import org.glowroot.agent.it.harness.TempDirs;
+import org.glowroot.agent.it.harness.TransactionMarker;
+import org.glowroot.agent.it.harness.impl.LocalContainer;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FastStartIT {
+
+    private static File baseDir;
+    private static int uiPort;
+    private static LocalContainer container;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        baseDir = TempDirs.createTempDir("glowroot-test-basedir");
+        uiPort = getAvailablePort();
+        Files.write("{\"ui\":{\"port\":" + uiPort + "}}", new File(baseDir, "config.json"),
+                Charsets.UTF_8);
+        // empty collector host so that the fat agent is used
+        container = new LocalContainer(baseDir, true,
+                ImmutableMap.of("glowroot.collector.host", "", "glowroot.fast.start", "true"));
+    }
+
+    @AfterClass
+    public static void tearDown() throws Exception {
+        container.close();
+        TempDirs.deleteRecursively(baseDir);
+    }
+
+    @After
+    public void afterEachTest() throws Exception {
+        container.checkAndReset();
+    }
+
+    @Test
+    public void shouldWeaveBeforeDeferredStorageIsInitialized() throws Exception {
+        // ShouldBeInsideTransaction throws if the transaction marker was not woven
+        container.executeNoExpectedTrace(ShouldBeInsideTransaction.class);
+    }
+
+    @Test
+    public void shouldStartUiAfterDeferredStorageIsInitialized() throws Exception {
+        // given
+        // when
+        int responseCode = getResponseCodeWhenUiIsUp("/");
+        // then
+        assertThat(responseCode).isEqualTo(200);
+    }
+
+    private static int getResponseCodeWhenUiIsUp(String path) throws Exception {
+        URL url = new URL("http://localhost:" + uiPort + path);
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        while (true) {
+            try {
+                HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+                try {
+                    return connection.getResponseCode();
+                } finally {
+                    connection.disconnect();
+                }
+            } catch (IOException e) {
+                // storage and the embedded ui are initialized in the background in fast start mode
+                if (stopwatch.elapsed(SECONDS) > 60) {
+                    throw e;
+                }
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    private static int getAvailablePort() throws IOException {
+        ServerSocket serverSocket = new ServerSocket(0);
+        int port = serverSocket.getLocalPort();
+        serverSocket.close();
+        return port;
+    }
+
+    public static class ShouldBeInsideTransaction implements AppUnderTest, TransactionMarker {
+        @Override
+        public void executeApp() {
+            transactionMarker();
+        }
+        @Override
+        public void transactionMarker() {
+            if (Glowroot.getTraceId() == null) {
+                throw new IllegalStateException("Transaction was expected");
+            }
+        }
+    }
+}
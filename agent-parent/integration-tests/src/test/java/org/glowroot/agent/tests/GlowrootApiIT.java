@@ -96,6 +96,18 @@ public class GlowrootApiIT {
         // then
     }
 
+    @Test
+    public void shouldGetTraceId() throws Exception {
+        // given
+        // when
+        Trace trace = container.execute(GetTraceId.class);
+        // then
+        assertThat(trace.getHeader().getAttributeList().size()).isEqualTo(1);
+        Trace.Attribute attribute = trace.getHeader().getAttributeList().get(0);
+        assertThat(attribute.getName()).isEqualTo("trace id");
+        assertThat(attribute.getValueList()).containsExactly(trace.getId());
+    }
+
     public static class SetTransactionType implements AppUnderTest, TransactionMarker {
 
         @Override
@@ -160,4 +172,17 @@ public class GlowrootApiIT {
             Glowroot.setTransactionSlowThreshold(Long.MAX_VALUE, MILLISECONDS);
         }
     }
+
+    public static class GetTraceId implements AppUnderTest, TransactionMarker {
+
+        @Override
+        public void executeApp() throws Exception {
+            transactionMarker();
+        }
+
+        @Override
+        public void transactionMarker() throws Exception {
+            Glowroot.addTransactionAttribute("trace id", Glowroot.getTraceId());
+        }
+    }
 }
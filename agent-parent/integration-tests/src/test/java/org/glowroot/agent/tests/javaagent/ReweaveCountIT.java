@@ -66,6 +66,34 @@ public class ReweaveCountIT {
         assertThat(reweaveCount).isEqualTo(2);
     }
 
+    @Test
+    public void shouldNotReweaveClassesWithUnchangedAdvice() throws Exception {
+        container.executeNoExpectedTrace(ShouldLoadClassesForWeaving.class);
+        InstrumentationConfig config = InstrumentationConfig.newBuilder()
+                .setClassName("org.glowroot.agent.tests.javaagent.ReweaveCountIT$AAA")
+                .setMethodName("x")
+                .setMethodReturnType("")
+                .setCaptureKind(CaptureKind.TIMER)
+                .setTimerName("x")
+                .build();
+        InstrumentationConfig otherConfig = InstrumentationConfig.newBuilder()
+                .setClassName("org.glowroot.agent.tests.javaagent.ReweaveCountIT$DDD")
+                .setMethodName("y")
+                .setMethodReturnType("")
+                .setCaptureKind(CaptureKind.TIMER)
+                .setTimerName("y")
+                .build();
+        int reweaveCount =
+                container.getConfigService().updateInstrumentationConfigs(ImmutableList.of(config));
+        assertThat(reweaveCount).isEqualTo(2);
+        reweaveCount = container.getConfigService()
+                .updateInstrumentationConfigs(ImmutableList.of(config, otherConfig));
+        assertThat(reweaveCount).isEqualTo(0);
+        reweaveCount = container.getConfigService()
+                .updateInstrumentationConfigs(ImmutableList.<InstrumentationConfig>of());
+        assertThat(reweaveCount).isEqualTo(2);
+    }
+
     public static class ShouldLoadClassesForWeaving implements AppUnderTest {
         @Override
         public void executeApp() {
@@ -36,6 +36,7 @@ import org.glowroot.wire.api.model.Proto.OptionalInt32;
 import org.glowroot.wire.api.model.TraceOuterClass.Trace;
 
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.assertj.core.api.Assertions.assertThat;
 
 public class ExecutorIT {
@@ -114,6 +115,17 @@ public class ExecutorIT {
         assertThat(header.getEntryCount()).isZero();
     }
 
+    @Test
+    public void shouldAggregateAuxThreadsBeyondLimit() throws Exception {
+        // when
+        Trace trace = container.execute(DoSomeManyRunnableWork.class);
+        // then
+        Trace.Header header = trace.getHeader();
+        assertThat(header.getAuxThreadRootTimerCount()).isEqualTo(1);
+        assertThat(header.getAuxThreadRootTimer(0).getName()).isEqualTo("auxiliary thread");
+        assertThat(header.getAuxThreadRootTimer(0).getCount()).isEqualTo(1500);
+    }
+
     @Test
     public void shouldNotCaptureAlreadyCompletedFutureGet() throws Exception {
         // given
@@ -263,6 +275,28 @@ public class ExecutorIT {
         }
     }
 
+    public static class DoSomeManyRunnableWork implements AppUnderTest, TransactionMarker {
+
+        @Override
+        public void executeApp() throws Exception {
+            transactionMarker();
+        }
+
+        @Override
+        public void transactionMarker() throws Exception {
+            ExecutorService executor = Executors.newFixedThreadPool(4);
+            // more than the default limit of 1000 auxiliary thread contexts per transaction
+            for (int i = 0; i < 1500; i++) {
+                executor.submit(new Runnable() {
+                    @Override
+                    public void run() {}
+                });
+            }
+            executor.shutdown();
+            executor.awaitTermination(10, SECONDS);
+        }
+    }
+
     public static class CallFutureGetOnAlreadyCompletedFuture
             implements AppUnderTest, TransactionMarker {
 
@@ -16,11 +16,12 @@
 package org.glowroot.agent.plugin.jdbc;
 
 import java.util.Collection;
+import java.util.List;
 
 import javax.annotation.Nullable;
 
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Queues;
+import com.google.common.collect.Lists;
 import com.google.common.hash.HashCode;
 
 import org.glowroot.agent.plugin.jdbc.message.BindParameterList;
@@ -31,28 +32,44 @@ class PreparedStatementMirror extends StatementMirror {
 
     private static final int PARAMETERS_INITIAL_CAPACITY = 20;
 
+    // only this many parameter sets are captured per batch (the batch size is still tracked), so
+    // that large batch inserts do not retain (and copy) the parameters for every single row
+    static final int MAX_BATCHED_PARAMETER_SETS = 100;
+
     private final String sql;
     // ok for this field to be non-volatile since it is only temporary storage for a single thread
     // while that thread is setting parameter values into the prepared statement and executing it
-    private BindParameterList parameters;
+    //
+    // this is only created once a parameter is captured, so that there is no allocation when bind
+    // parameter capture is disabled
+    private @Nullable BindParameterList parameters;
     private boolean parametersCopied;
     // ok for this field to be non-volatile since it is only temporary storage for a single thread
     // while that thread is setting parameter values into the prepared statement and executing it
-    private @Nullable Collection<BindParameterList> batchedParameters;
+    //
+    // not using a concurrent collection since this list is never modified after it is handed off
+    // to the message supplier (see clearBatch())
+    private @Nullable List<BindParameterList> batchedParameters;
+    private int batchSize;
 
     public PreparedStatementMirror(String sql) {
         this.sql = sql;
-        // TODO delay creation to optimize case when bind parameter capture is disabled
-        parameters = new BindParameterList(PARAMETERS_INITIAL_CAPACITY);
     }
 
     public void addBatch() {
         // synchronization isn't an issue here as this method is called only by the monitored thread
+        batchSize++;
+        if (parameters == null) {
+            // bind parameter capture is disabled
+            return;
+        }
         if (batchedParameters == null) {
-            batchedParameters = Queues.newConcurrentLinkedQueue();
+            batchedParameters = Lists.newArrayList();
+        }
+        if (batchedParameters.size() < MAX_BATCHED_PARAMETER_SETS) {
+            batchedParameters.add(parameters);
+            parametersCopied = true;
         }
-        batchedParameters.add(parameters);
-        parametersCopied = true;
     }
 
     public Collection<BindParameterList> getBatchedParameters() {
@@ -73,24 +90,54 @@ class PreparedStatementMirror extends StatementMirror {
     }
 
     int getBatchSize() {
-        return batchedParameters == null ? 0 : batchedParameters.size();
+        return batchSize;
     }
 
     // remember parameterIndex starts at 1 not 0
     public void setParameterValue(int parameterIndex, @Nullable Object object) {
-        if (parametersCopied) {
+        getParametersForUpdate().set(parameterIndex - 1, object);
+    }
+
+    // remember parameterIndex starts at 1 not 0
+    public void setIntParameterValue(int parameterIndex, int x) {
+        getParametersForUpdate().setInt(parameterIndex - 1, x);
+    }
+
+    // remember parameterIndex starts at 1 not 0
+    public void setLongParameterValue(int parameterIndex, long x) {
+        getParametersForUpdate().setLong(parameterIndex - 1, x);
+    }
+
+    // remember parameterIndex starts at 1 not 0
+    public void setDoubleParameterValue(int parameterIndex, double x) {
+        getParametersForUpdate().setDouble(parameterIndex - 1, x);
+    }
+
+    private BindParameterList getParametersForUpdate() {
+        BindParameterList parameters = this.parameters;
+        if (parameters == null || parametersCopied) {
             // separate method for less common path to not impact inlining budget of fast(er) path
-            copyParameters();
+            return createOrCopyParameters();
         }
-        parameters.set(parameterIndex - 1, object);
+        return parameters;
     }
 
-    private void copyParameters() {
-        parameters = BindParameterList.copyOf(parameters);
+    private BindParameterList createOrCopyParameters() {
+        BindParameterList parameters = this.parameters;
+        if (parameters == null) {
+            parameters = new BindParameterList(PARAMETERS_INITIAL_CAPACITY);
+        } else {
+            parameters = BindParameterList.copyOf(parameters);
+        }
+        this.parameters = parameters;
         parametersCopied = false;
+        return parameters;
     }
 
     public void clearParameters() {
+        if (parameters == null) {
+            return;
+        }
         if (parametersCopied) {
             parameters = new BindParameterList(parameters.size());
             parametersCopied = false;
@@ -101,13 +148,9 @@ class PreparedStatementMirror extends StatementMirror {
 
     @Override
     public void clearBatch() {
-        if (parametersCopied) {
-            parameters = new BindParameterList(parameters.size());
-            parametersCopied = false;
-        } else {
-            parameters.clear();
-        }
+        clearParameters();
         batchedParameters = null;
+        batchSize = 0;
     }
 
     static class ByteArrayParameterValue {
@@ -99,7 +99,7 @@ public class StatementAspect {
 
     @Pointcut(className = "java.sql.PreparedStatement",
             methodName = "setArray|setBigDecimal"
-                    + "|setBoolean|setByte|setDate|setDouble|setFloat|setInt|setLong|setNString"
+                    + "|setBoolean|setByte|setDate|setFloat|setNString"
                     + "|setRef|setRowId|setShort|setString|setTime|setTimestamp|setURL",
             methodParameterTypes = {"int", "*", ".."})
     public static class SetXAdvice {
@@ -118,6 +118,62 @@ public class StatementAspect {
         }
     }
 
+    // setInt, setLong and setDouble have their own advice so that the values do not need to be
+    // boxed (see BindParameterList)
+    @Pointcut(className = "java.sql.PreparedStatement", methodName = "setInt",
+            methodParameterTypes = {"int", "int"})
+    public static class SetIntAdvice {
+        @IsEnabled
+        public static boolean isEnabled() {
+            return captureBindParameters.value();
+        }
+        @OnReturn
+        public static void onReturn(@BindReceiver HasStatementMirror preparedStatement,
+                @BindParameter int parameterIndex, @BindParameter int x) {
+            PreparedStatementMirror mirror =
+                    (PreparedStatementMirror) preparedStatement.glowroot$getStatementMirror();
+            if (mirror != null) {
+                mirror.setIntParameterValue(parameterIndex, x);
+            }
+        }
+    }
+
+    @Pointcut(className = "java.sql.PreparedStatement", methodName = "setLong",
+            methodParameterTypes = {"int", "long"})
+    public static class SetLongAdvice {
+        @IsEnabled
+        public static boolean isEnabled() {
+            return captureBindParameters.value();
+        }
+        @OnReturn
+        public static void onReturn(@BindReceiver HasStatementMirror preparedStatement,
+                @BindParameter int parameterIndex, @BindParameter long x) {
+            PreparedStatementMirror mirror =
+                    (PreparedStatementMirror) preparedStatement.glowroot$getStatementMirror();
+            if (mirror != null) {
+                mirror.setLongParameterValue(parameterIndex, x);
+            }
+        }
+    }
+
+    @Pointcut(className = "java.sql.PreparedStatement", methodName = "setDouble",
+            methodParameterTypes = {"int", "double"})
+    public static class SetDoubleAdvice {
+        @IsEnabled
+        public static boolean isEnabled() {
+            return captureBindParameters.value();
+        }
+        @OnReturn
+        public static void onReturn(@BindReceiver HasStatementMirror preparedStatement,
+                @BindParameter int parameterIndex, @BindParameter double x) {
+            PreparedStatementMirror mirror =
+                    (PreparedStatementMirror) preparedStatement.glowroot$getStatementMirror();
+            if (mirror != null) {
+                mirror.setDoubleParameterValue(parameterIndex, x);
+            }
+        }
+    }
+
     @Pointcut(className = "java.sql.PreparedStatement",
             methodName = "setAsciiStream|setBinaryStream|setBlob|setCharacterStream|setClob"
                     + "|setNCharacterStream|setNClob|setSQLXML|setUnicodeStream",
@@ -562,7 +618,7 @@ public class StatementAspect {
             String queryText = mirror.getSql();
             int batchSize = mirror.getBatchSize();
             if (captureBindParameters.value()) {
-                messageSupplier = new BatchPreparedStatementMessageSupplier(queryText,
+                messageSupplier = new BatchPreparedStatementMessageSupplier(queryText, batchSize,
                         mirror.getBatchedParameters());
             } else {
                 messageSupplier =
@@ -24,11 +24,15 @@ public class BatchPreparedStatementMessageSupplier extends MessageSupplier {
 
     private final String sql;
 
+    private final int batchSize;
+
+    // this only contains the first parameter sets of large batches
     private final Collection<BindParameterList> batchedParameters;
 
-    public BatchPreparedStatementMessageSupplier(String sql,
+    public BatchPreparedStatementMessageSupplier(String sql, int batchSize,
             Collection<BindParameterList> batchedParameters) {
         this.sql = sql;
+        this.batchSize = batchSize;
         this.batchedParameters = batchedParameters;
     }
 
@@ -36,7 +40,6 @@ public class BatchPreparedStatementMessageSupplier extends MessageSupplier {
     public Message get() {
         StringBuilder sb = new StringBuilder();
         sb.append("jdbc execution: ");
-        int batchSize = batchedParameters.size();
         if (batchSize > 1) {
             // print out number of batches to make it easy to identify
             sb.append(batchSize);
@@ -46,6 +49,9 @@ public class BatchPreparedStatementMessageSupplier extends MessageSupplier {
         for (BindParameterList oneParameters : batchedParameters) {
             PreparedStatementMessageSupplier.appendParameters(sb, oneParameters);
         }
+        if (!batchedParameters.isEmpty() && batchedParameters.size() < batchSize) {
+            sb.append(" ...");
+        }
         return Message.from(sb.toString());
     }
 }
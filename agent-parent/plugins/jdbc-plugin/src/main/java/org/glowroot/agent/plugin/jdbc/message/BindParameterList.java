@@ -17,26 +17,37 @@ package org.glowroot.agent.plugin.jdbc.message;
 
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 import javax.annotation.Nullable;
 
-import com.google.common.collect.Iterators;
-
 // micro-optimized list for bind parameters
+//
+// int, long and double parameters are stored unboxed (and only boxed when the message is
+// rendered), since batch inserts can set a very large number of these
 public class BindParameterList implements Iterable</*@Nullable*/ Object> {
 
+    // markers stored in the parameters array for parameters whose value is in the primitives array
+    private static final Object INT_MARKER = new Object();
+    private static final Object LONG_MARKER = new Object();
+    private static final Object DOUBLE_MARKER = new Object();
+
     private @Nullable Object[] parameters;
+    // lazily created on first primitive parameter
+    private long /*@Nullable*/[] primitives;
     private int size;
 
     public static BindParameterList copyOf(BindParameterList bindParameterList) {
-        return new BindParameterList(bindParameterList.parameters, bindParameterList.size);
+        return new BindParameterList(bindParameterList.parameters, bindParameterList.primitives,
+                bindParameterList.size);
     }
 
     public BindParameterList(int capacity) {
         parameters = new Object[capacity];
     }
 
-    private BindParameterList(@Nullable Object[] parameters, int size) {
+    private BindParameterList(@Nullable Object[] parameters, long /*@Nullable*/[] primitives,
+            int size) {
         if (parameters.length == size) {
             this.parameters = parameters.clone();
         } else {
@@ -45,24 +56,29 @@ public class BindParameterList implements Iterable</*@Nullable*/ Object> {
             this.parameters = new Object[size];
             System.arraycopy(parameters, 0, this.parameters, 0, size);
         }
+        if (primitives != null) {
+            this.primitives = new long[size];
+            System.arraycopy(primitives, 0, this.primitives, 0, Math.min(size, primitives.length));
+        }
         this.size = size;
     }
 
     public void set(int i, @Nullable Object parameter) {
-        int capacity = parameters.length;
-        if (i >= capacity) {
-            // using same capacity increase formula as ArrayList
-            capacity = capacity + (capacity >> 1);
-            if (i >= capacity) {
-                capacity = i + 1;
-            }
-            parameters = Arrays.copyOf(parameters, capacity);
-        }
+        ensureCapacity(i);
         parameters[i] = parameter;
-        int newSize = i + 1;
-        if (newSize > size) {
-            size = newSize;
-        }
+        updateSize(i);
+    }
+
+    public void setInt(int i, int parameter) {
+        setPrimitive(i, INT_MARKER, parameter);
+    }
+
+    public void setLong(int i, long parameter) {
+        setPrimitive(i, LONG_MARKER, parameter);
+    }
+
+    public void setDouble(int i, double parameter) {
+        setPrimitive(i, DOUBLE_MARKER, Double.doubleToRawLongBits(parameter));
     }
 
     public int size() {
@@ -80,6 +96,70 @@ public class BindParameterList implements Iterable</*@Nullable*/ Object> {
 
     @Override
     public Iterator</*@Nullable*/ Object> iterator() {
-        return Iterators.limit(Iterators.forArray(parameters), size);
+        return new Iterator</*@Nullable*/ Object>() {
+            private int i;
+            @Override
+            public boolean hasNext() {
+                return i < size;
+            }
+            @Override
+            public @Nullable Object next() {
+                if (i >= size) {
+                    throw new NoSuchElementException();
+                }
+                return get(i++);
+            }
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private @Nullable Object get(int i) {
+        Object parameter = parameters[i];
+        if (primitives == null) {
+            return parameter;
+        }
+        if (parameter == INT_MARKER) {
+            return (int) primitives[i];
+        } else if (parameter == LONG_MARKER) {
+            return primitives[i];
+        } else if (parameter == DOUBLE_MARKER) {
+            return Double.longBitsToDouble(primitives[i]);
+        } else {
+            return parameter;
+        }
+    }
+
+    private void setPrimitive(int i, Object marker, long value) {
+        ensureCapacity(i);
+        if (primitives == null) {
+            primitives = new long[parameters.length];
+        } else if (primitives.length < parameters.length) {
+            primitives = Arrays.copyOf(primitives, parameters.length);
+        }
+        parameters[i] = marker;
+        primitives[i] = value;
+        updateSize(i);
+    }
+
+    private void ensureCapacity(int i) {
+        int capacity = parameters.length;
+        if (i >= capacity) {
+            // using same capacity increase formula as ArrayList
+            capacity = capacity + (capacity >> 1);
+            if (i >= capacity) {
+                capacity = i + 1;
+            }
+            parameters = Arrays.copyOf(parameters, capacity);
+        }
+    }
+
+    private void updateSize(int i) {
+        int newSize = i + 1;
+        if (newSize > size) {
+            size = newSize;
+        }
     }
 }
@@ -116,6 +116,23 @@ public class BatchIT {
                 .isEqualTo("jdbc execution: 2 x insert into employee (name) values (?) => 2 rows");
     }
 
+    @Test
+    public void testLargeBatchPreparedStatement() throws Exception {
+        // given
+        // when
+        Trace trace = container.execute(ExecuteLargeBatchPreparedStatement.class);
+        // then
+        List<Trace.Entry> entries = trace.getEntryList();
+        assertThat(entries).hasSize(1);
+        StringBuilder sb = new StringBuilder();
+        sb.append("jdbc execution: 200 x insert into employee (name) values (?)");
+        for (int i = 0; i < 100; i++) {
+            sb.append(" [" + i + "]");
+        }
+        sb.append(" ... => 200 rows");
+        assertThat(entries.get(0).getMessage()).isEqualTo(sb.toString());
+    }
+
     @Test
     public void testBatchStatement() throws Exception {
         // given
@@ -244,6 +261,35 @@ public class BatchIT {
         }
     }
 
+    public static class ExecuteLargeBatchPreparedStatement
+            implements AppUnderTest, TransactionMarker {
+        private Connection connection;
+        @Override
+        public void executeApp() throws Exception {
+            connection = Connections.createConnection();
+            connection.setAutoCommit(false);
+            try {
+                transactionMarker();
+            } finally {
+                Connections.closeConnection(connection);
+            }
+        }
+        @Override
+        public void transactionMarker() throws Exception {
+            PreparedStatement preparedStatement =
+                    connection.prepareStatement("insert into employee (name) values (?)");
+            try {
+                for (int i = 0; i < 200; i++) {
+                    preparedStatement.setInt(1, i);
+                    preparedStatement.addBatch();
+                }
+                preparedStatement.executeBatch();
+            } finally {
+                preparedStatement.close();
+            }
+        }
+    }
+
     public static class ExecuteBatchStatement implements AppUnderTest, TransactionMarker {
         private Connection connection;
         @Override
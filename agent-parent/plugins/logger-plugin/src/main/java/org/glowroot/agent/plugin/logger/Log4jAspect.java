@@ -20,6 +20,7 @@ import java.util.Enumeration;
 import javax.annotation.Nullable;
 
 import org.glowroot.agent.plugin.api.Agent;
+import org.glowroot.agent.plugin.api.Message;
 import org.glowroot.agent.plugin.api.MessageSupplier;
 import org.glowroot.agent.plugin.api.ThreadContext;
 import org.glowroot.agent.plugin.api.TimerName;
@@ -93,22 +94,27 @@ public class Log4jAspect {
         public static TraceEntry onBefore(ThreadContext context, @BindReceiver Logger logger,
                 @BindParameter @Nullable String fqcn, @BindParameter @Nullable Level level,
                 @BindParameter @Nullable Object message, @BindParameter @Nullable Throwable t) {
-            String messageText = String.valueOf(message);
             int lvl = level == null ? 0 : level.toInt();
+            String loggerName =
+                    lvl <= DEBUG_INT ? LoggerPlugin.getShortName(logger.getName()) : null;
+            if (lvl < WARN_INT && LoggerPlugin.isEffectivelyImmutable(message)) {
+                // the message text is only needed up front for the transaction error, which is
+                // only set for warn or higher, so message toString() is deferred until the trace
+                // entry message is actually needed (see LogbackAspect)
+                return context.startTraceEntry(
+                        new LogMessageSupplier(getLevelStr(lvl), loggerName, message), timerName);
+            }
+            String messageText = String.valueOf(message);
             if (LoggerPlugin.markTraceAsError(lvl >= ERROR_INT, lvl >= WARN_INT, t != null)) {
                 context.setTransactionError(messageText);
             }
-            if (lvl <= DEBUG_INT) {
-                // include logger name for debug or lower
-                String loggerName = LoggerPlugin.getShortName(logger.getName());
-                return context.startTraceEntry(
-                        MessageSupplier.from("log {}: {} {}", getLevelStr(lvl), loggerName,
-                                messageText),
-                        timerName);
-            } else {
+            if (loggerName == null) {
                 return context.startTraceEntry(
                         MessageSupplier.from("log {}: {}", getLevelStr(lvl), messageText),
                         timerName);
+            } else {
+                return context.startTraceEntry(MessageSupplier.from("log {}: {} {}",
+                        getLevelStr(lvl), loggerName, messageText), timerName);
             }
         }
         @OnAfter
@@ -148,4 +154,37 @@ public class Log4jAspect {
                 return "unknown (" + lvl + ")";
         }
     }
+
+    // only used when the message is effectively immutable (see
+    // LoggerPlugin.isEffectivelyImmutable()), so converting it later gives the same message text
+    private static class LogMessageSupplier extends MessageSupplier {
+
+        private final String levelStr;
+        private final @Nullable String loggerName;
+        private final @Nullable Object message;
+
+        private LogMessageSupplier(String levelStr, @Nullable String loggerName,
+                @Nullable Object message) {
+            this.levelStr = levelStr;
+            this.loggerName = loggerName;
+            this.message = message;
+        }
+
+        @Override
+        public Message get() {
+            String messageText;
+            try {
+                messageText = String.valueOf(message);
+            } catch (Throwable t) {
+                // same as org.slf4j.helpers.MessageFormatter.safeObjectAppend(), since this is
+                // called while the trace is being stored, which must not fail
+                messageText = "[FAILED toString()]";
+            }
+            if (loggerName == null) {
+                return Message.from("log {}: {}", levelStr, messageText);
+            } else {
+                return Message.from("log {}: {} {}", levelStr, loggerName, messageText);
+            }
+        }
+    }
 }
@@ -21,6 +21,7 @@ import org.slf4j.helpers.FormattingTuple;
 import org.slf4j.helpers.MessageFormatter;
 
 import org.glowroot.agent.plugin.api.Agent;
+import org.glowroot.agent.plugin.api.Message;
 import org.glowroot.agent.plugin.api.MessageSupplier;
 import org.glowroot.agent.plugin.api.ThreadContext;
 import org.glowroot.agent.plugin.api.TimerName;
@@ -71,10 +72,26 @@ public class LogbackAspect {
                 @BindParameter @Nullable Level level, @BindParameter @Nullable String message,
                 @BindParameter @Nullable Object/*@Nullable*/[] params,
                 @BindParameter @Nullable Throwable throwable) {
+            int lvl = level == null ? 0 : level.toInt();
+            if (lvl < WARN_INT && (throwable != null || !hasThrowableCandidate(params))
+                    && LoggerPlugin.isEffectivelyImmutable(params)) {
+                // the formatted message is not needed up front (it is only needed for the
+                // transaction error and the trace entry error, which are only set for warn or
+                // higher), so formatting is deferred until the trace entry message is actually
+                // needed, which often never happens (e.g. when the transaction is not stored, or
+                // when the trace entry limit is exceeded)
+                String loggerName =
+                        lvl <= DEBUG_INT ? LoggerPlugin.getShortName(logger.getName()) : null;
+                // params array is copied since the caller can re-use it after the log call
+                TraceEntry traceEntry = context.startTraceEntry(
+                        new LogMessageSupplier(getLevelStr(lvl), loggerName, message,
+                                params == null ? null : params.clone()),
+                        timerName);
+                return new LogAdviceTraveler(traceEntry, lvl, null, throwable);
+            }
             FormattingTuple formattingTuple = MessageFormatter.arrayFormat(message, params);
             Throwable t = throwable == null ? formattingTuple.getThrowable() : throwable;
             String formattedMessage = nullToEmpty(formattingTuple.getMessage());
-            int lvl = level == null ? 0 : level.toInt();
             if (LoggerPlugin.markTraceAsError(lvl >= ERROR_INT, lvl >= WARN_INT, t != null)) {
                 context.setTransactionError(formattedMessage);
             }
@@ -94,17 +111,26 @@ public class LogbackAspect {
         @OnAfter
         public static void onAfter(@BindTraveler LogAdviceTraveler traveler) {
             Throwable t = traveler.throwable;
+            String formattedMessage = traveler.formattedMessage;
             if (t != null) {
                 // intentionally not passing message since it is already the trace entry message
                 traveler.traceEntry.endWithError(t);
-            } else if (traveler.level >= WARN_INT) {
-                traveler.traceEntry.endWithError(traveler.formattedMessage);
+            } else if (traveler.level >= WARN_INT && formattedMessage != null) {
+                traveler.traceEntry.endWithError(formattedMessage);
             } else {
                 traveler.traceEntry.end();
             }
         }
     }
 
+    // same check as org.slf4j.helpers.MessageFormatter.getThrowableCandidate(), which is not
+    // public, in which case the message is formatted eagerly since the formatting determines
+    // whether the last argument is the throwable or is consumed by the message pattern
+    private static boolean hasThrowableCandidate(@Nullable Object/*@Nullable*/[] params) {
+        return params != null && params.length > 0
+                && params[params.length - 1] instanceof Throwable;
+    }
+
     private static String nullToEmpty(@Nullable String s) {
         return s == null ? "" : s;
     }
@@ -134,10 +160,12 @@ public class LogbackAspect {
 
         private final TraceEntry traceEntry;
         private final int level;
-        private final String formattedMessage;
+        // this is null when the message formatting is deferred (see LogMessageSupplier)
+        private final @Nullable String formattedMessage;
         private final @Nullable Throwable throwable;
 
-        private LogAdviceTraveler(TraceEntry traceEntry, int level, String formattedMessage,
+        private LogAdviceTraveler(TraceEntry traceEntry, int level,
+                @Nullable String formattedMessage,
                 @Nullable Throwable throwable) {
             this.traceEntry = traceEntry;
             this.level = level;
@@ -145,4 +173,33 @@ public class LogbackAspect {
             this.throwable = throwable;
         }
     }
+
+    // only used when the arguments are effectively immutable (see
+    // LoggerPlugin.isEffectivelyImmutable()), so formatting them later gives the same message
+    private static class LogMessageSupplier extends MessageSupplier {
+
+        private final String levelStr;
+        private final @Nullable String loggerName;
+        private final @Nullable String messagePattern;
+        private final @Nullable Object/*@Nullable*/[] params;
+
+        private LogMessageSupplier(String levelStr, @Nullable String loggerName,
+                @Nullable String messagePattern, @Nullable Object/*@Nullable*/[] params) {
+            this.levelStr = levelStr;
+            this.loggerName = loggerName;
+            this.messagePattern = messagePattern;
+            this.params = params;
+        }
+
+        @Override
+        public Message get() {
+            String formattedMessage =
+                    nullToEmpty(MessageFormatter.arrayFormat(messagePattern, params).getMessage());
+            if (loggerName == null) {
+                return Message.from("log {}: {}", levelStr, formattedMessage);
+            } else {
+                return Message.from("log {}: {} - {}", levelStr, loggerName, formattedMessage);
+            }
+        }
+    }
 }
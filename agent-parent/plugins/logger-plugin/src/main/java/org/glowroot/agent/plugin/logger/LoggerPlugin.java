@@ -49,6 +49,33 @@ class LoggerPlugin {
         return false;
     }
 
+    // message formatting is only deferred when the arguments are effectively immutable, since
+    // otherwise toString() would run later on a different thread (racing with the application),
+    // could see a later state of the argument (or fail, e.g. lazy loading proxies after their
+    // session is closed), and the argument object graph would be retained until the transaction
+    // completes
+    static boolean isEffectivelyImmutable(@Nullable Object arg) {
+        if (arg == null || arg instanceof String || arg instanceof Enum) {
+            return true;
+        }
+        Class<?> clazz = arg.getClass();
+        return clazz == Integer.class || clazz == Long.class || clazz == Boolean.class
+                || clazz == Character.class || clazz == Double.class || clazz == Float.class
+                || clazz == Short.class || clazz == Byte.class;
+    }
+
+    static boolean isEffectivelyImmutable(@Nullable Object/*@Nullable*/[] args) {
+        if (args == null) {
+            return true;
+        }
+        for (Object arg : args) {
+            if (!isEffectivelyImmutable(arg)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     static String getShortName(@Nullable String loggerName) {
         if (loggerName == null) {
             return "null";
@@ -322,6 +322,18 @@ public class Log4jIT {
         assertThat(fatalEntry.getError().getMessage()).isEqualTo("fgh____null");
     }
 
+    @Test
+    public void testLogWithMutableMessage() throws Exception {
+        // given
+        // when
+        Trace trace = container.execute(ShouldLogWithMutableMessage.class);
+        // then
+        List<Trace.Entry> entries = trace.getEntryList();
+        assertThat(entries).hasSize(2);
+        assertThat(entries.get(0).getMessage()).isEqualTo("log info: cde_m c");
+        assertThat(entries.get(1).getMessage()).isEqualTo("log info: cde_m d");
+    }
+
     public static class ShouldLog implements AppUnderTest, TransactionMarker {
         private static final Logger logger = Logger.getLogger(ShouldLog.class);
         @Override
@@ -574,4 +586,22 @@ public class Log4jIT {
             logger.l7dlog(Level.FATAL, "fgh____null", new Object[] {"f_", "g_", "h_"}, null);
         }
     }
+
+    public static class ShouldLogWithMutableMessage implements AppUnderTest, TransactionMarker {
+        private static final Logger logger = Logger.getLogger(ShouldLogWithMutableMessage.class);
+        @Override
+        public void executeApp() {
+            transactionMarker();
+        }
+        @Override
+        public void transactionMarker() {
+            // the trace entry message must be captured at the time of the log call
+            StringBuilder sb = new StringBuilder("cde_m c");
+            logger.info(sb);
+            sb.setLength(0);
+            sb.append("cde_m d");
+            logger.info(sb);
+            sb.append("e");
+        }
+    }
 }
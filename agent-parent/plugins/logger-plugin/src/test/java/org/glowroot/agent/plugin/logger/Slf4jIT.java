@@ -218,6 +218,18 @@ public class Slf4jIT {
         }
     }
 
+    @Test
+    public void testLogWithMutableParameter() throws Exception {
+        // given
+        // when
+        Trace trace = container.execute(ShouldLogWithMutableParameter.class);
+        // then
+        List<Trace.Entry> entries = trace.getEntryList();
+        assertThat(entries).hasSize(2);
+        assertThat(entries.get(0).getMessage()).isEqualTo("log info: cde_m c");
+        assertThat(entries.get(1).getMessage()).isEqualTo("log info: cde_m d");
+    }
+
     public static class ShouldLog implements AppUnderTest, TransactionMarker {
         private static final Logger logger = LoggerFactory.getLogger(ShouldLog.class);
         @Override
@@ -354,4 +366,23 @@ public class Slf4jIT {
             logger.error("efg_3_t {} {} {}", "e", "f", "g", new IllegalStateException("567"));
         }
     }
+
+    public static class ShouldLogWithMutableParameter implements AppUnderTest, TransactionMarker {
+        private static final Logger logger =
+                LoggerFactory.getLogger(ShouldLogWithMutableParameter.class);
+        @Override
+        public void executeApp() {
+            transactionMarker();
+        }
+        @Override
+        public void transactionMarker() {
+            // the trace entry message must be captured at the time of the log call
+            StringBuilder sb = new StringBuilder("c");
+            logger.info("cde_m {}", sb);
+            sb.setLength(0);
+            sb.append("d");
+            logger.info("cde_m {}", sb);
+            sb.append("e");
+        }
+    }
 }
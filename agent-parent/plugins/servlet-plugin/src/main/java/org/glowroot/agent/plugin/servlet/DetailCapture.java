@@ -17,10 +17,8 @@ package org.glowroot.agent.plugin.servlet;
 
 import java.util.Enumeration;
 import java.util.List;
-import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.regex.Pattern;
 
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
@@ -43,8 +41,11 @@ class DetailCapture {
 
     static ImmutableMap<String, Object> captureRequestParameters(
             Map<String, String[]> requestParameters) {
-        ImmutableList<Pattern> capturePatterns = ServletPluginProperties.captureRequestParameters();
-        ImmutableList<Pattern> maskPatterns = ServletPluginProperties.maskRequestParameters();
+        NameMatcher captureMatcher = ServletPluginProperties.captureRequestParameters();
+        if (captureMatcher.isEmpty()) {
+            return ImmutableMap.of();
+        }
+        NameMatcher maskMatcher = ServletPluginProperties.maskRequestParameters();
         ImmutableMap.Builder<String, Object> map = ImmutableMap.builder();
         for (Entry<String, String[]> entry : requestParameters.entrySet()) {
             String name = entry.getKey();
@@ -52,12 +53,10 @@ class DetailCapture {
                 // null check just to be safe in case this is a very strange servlet container
                 continue;
             }
-            // converted to lower case for case-insensitive matching (patterns are lower case)
-            String keyLowerCase = name.toLowerCase(Locale.ENGLISH);
-            if (!matchesOneOf(keyLowerCase, capturePatterns)) {
+            if (!captureMatcher.matches(name)) {
                 continue;
             }
-            if (matchesOneOf(keyLowerCase, maskPatterns)) {
+            if (maskMatcher.matches(name)) {
                 map.put(name, "****");
                 continue;
             }
@@ -75,8 +74,8 @@ class DetailCapture {
     }
 
     static ImmutableMap<String, Object> captureRequestHeaders(HttpServletRequest request) {
-        ImmutableList<Pattern> capturePatterns = ServletPluginProperties.captureRequestHeaders();
-        if (capturePatterns.isEmpty()) {
+        NameMatcher captureMatcher = ServletPluginProperties.captureRequestHeaders();
+        if (captureMatcher.isEmpty()) {
             return ImmutableMap.of();
         }
         Map<String, Object> requestHeaders = Maps.newHashMap();
@@ -90,9 +89,7 @@ class DetailCapture {
                 // null check just to be safe in case this is a very strange servlet container
                 continue;
             }
-            // converted to lower case for case-insensitive matching (patterns are lower case)
-            String keyLowerCase = name.toLowerCase(Locale.ENGLISH);
-            if (!matchesOneOf(keyLowerCase, capturePatterns)) {
+            if (!captureMatcher.matches(name)) {
                 continue;
             }
             Enumeration<String> values = request.getHeaders(name);
@@ -103,15 +100,6 @@ class DetailCapture {
         return ImmutableMap.copyOf(requestHeaders);
     }
 
-    static boolean matchesOneOf(String key, List<Pattern> patterns) {
-        for (Pattern pattern : patterns) {
-            if (pattern.matcher(key).matches()) {
-                return true;
-            }
-        }
-        return false;
-    }
-
     private static void captureRequestHeader(String name, Enumeration<String> values,
             Map<String, Object> requestHeaders) {
         if (!values.hasMoreElements()) {
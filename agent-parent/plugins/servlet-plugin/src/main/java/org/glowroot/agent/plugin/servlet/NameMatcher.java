@@ -0,0 +1,158 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.servlet;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+
+// case-insensitive matching of names (e.g. request parameter and header names) against a list of
+// patterns where the wildcard '*' is supported anywhere in the pattern
+//
+// patterns without wildcards are matched via a hash set, and the remaining patterns are pre-split
+// into their literal segments, so matching does not go through java.util.regex at all
+//
+// match results are also cached by (case-sensitive) name, since the same small set of names (e.g.
+// standard request headers) is matched over and over, and this also avoids lower-casing the name
+// on each request
+class NameMatcher {
+
+    // bounded since names can be chosen by the client (e.g. arbitrary request parameter names)
+    private static final int MAX_CACHED_NAMES = 1000;
+
+    private static final NameMatcher EMPTY = new NameMatcher(ImmutableSet.<String>of(),
+            ImmutableList.<WildcardPattern>of(), false);
+
+    private final ImmutableSet<String> exactNames;
+    private final ImmutableList<WildcardPattern> wildcardPatterns;
+    private final boolean matchesAll;
+    private final boolean empty;
+
+    private final ConcurrentMap<String, Boolean> cache = new ConcurrentHashMap<String, Boolean>();
+
+    private NameMatcher(ImmutableSet<String> exactNames,
+            ImmutableList<WildcardPattern> wildcardPatterns, boolean matchesAll) {
+        this.exactNames = exactNames;
+        this.wildcardPatterns = wildcardPatterns;
+        this.matchesAll = matchesAll;
+        empty = exactNames.isEmpty() && wildcardPatterns.isEmpty() && !matchesAll;
+    }
+
+    static NameMatcher create(Iterable<String> patterns) {
+        ImmutableSet.Builder<String> exactNames = ImmutableSet.builder();
+        List<WildcardPattern> wildcardPatterns = Lists.newArrayList();
+        boolean matchesAll = false;
+        for (String pattern : patterns) {
+            // converted to lower case for case-insensitive matching
+            String patternLowerCase = pattern.toLowerCase(Locale.ENGLISH);
+            if (patternLowerCase.indexOf('*') == -1) {
+                exactNames.add(patternLowerCase);
+            } else if (patternLowerCase.replace("*", "").isEmpty()) {
+                matchesAll = true;
+            } else {
+                wildcardPatterns.add(new WildcardPattern(patternLowerCase));
+            }
+        }
+        if (matchesAll) {
+            return new NameMatcher(ImmutableSet.<String>of(), ImmutableList.<WildcardPattern>of(),
+                    true);
+        }
+        NameMatcher nameMatcher = new NameMatcher(exactNames.build(),
+                ImmutableList.copyOf(wildcardPatterns), false);
+        return nameMatcher.empty ? EMPTY : nameMatcher;
+    }
+
+    static NameMatcher empty() {
+        return EMPTY;
+    }
+
+    boolean isEmpty() {
+        return empty;
+    }
+
+    boolean matches(String name) {
+        if (matchesAll) {
+            return true;
+        }
+        if (empty) {
+            return false;
+        }
+        Boolean cached = cache.get(name);
+        if (cached != null) {
+            return cached;
+        }
+        boolean matches = matchesInternal(name.toLowerCase(Locale.ENGLISH));
+        if (cache.size() < MAX_CACHED_NAMES) {
+            cache.put(name, matches);
+        }
+        return matches;
+    }
+
+    private boolean matchesInternal(String nameLowerCase) {
+        if (exactNames.contains(nameLowerCase)) {
+            return true;
+        }
+        for (WildcardPattern wildcardPattern : wildcardPatterns) {
+            if (wildcardPattern.matches(nameLowerCase)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static class WildcardPattern {
+
+        private final String prefix;
+        private final String suffix;
+        // literal segments between the first and last wildcard, which must appear in order
+        private final ImmutableList<String> middles;
+
+        private WildcardPattern(String pattern) {
+            // pattern contains at least one wildcard
+            String[] segments = pattern.split("\\*", -1);
+            prefix = segments[0];
+            suffix = segments[segments.length - 1];
+            List<String> middles = Lists.newArrayList();
+            for (int i = 1; i < segments.length - 1; i++) {
+                if (!segments[i].isEmpty()) {
+                    middles.add(segments[i]);
+                }
+            }
+            this.middles = ImmutableList.copyOf(middles);
+        }
+
+        private boolean matches(String name) {
+            int from = prefix.length();
+            int to = name.length() - suffix.length();
+            if (to < from || !name.startsWith(prefix) || !name.endsWith(suffix)) {
+                return false;
+            }
+            for (String middle : middles) {
+                int index = name.indexOf(middle, from);
+                if (index == -1 || index + middle.length() > to) {
+                    return false;
+                }
+                from = index + middle.length();
+            }
+            return true;
+        }
+    }
+}
@@ -15,14 +15,8 @@
  */
 package org.glowroot.agent.plugin.servlet;
 
-import java.util.List;
-import java.util.Locale;
-import java.util.regex.Pattern;
-
 import com.google.common.base.Splitter;
-import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Lists;
 
 import org.glowroot.agent.plugin.api.Agent;
 import org.glowroot.agent.plugin.api.config.ConfigListener;
@@ -42,10 +36,10 @@ class ServletPluginProperties {
 
     private static final Splitter splitter = Splitter.on(',').trimResults().omitEmptyStrings();
 
-    private static volatile ImmutableList<Pattern> captureRequestParameters = ImmutableList.of();
-    private static volatile ImmutableList<Pattern> maskRequestParameters = ImmutableList.of();
-    private static volatile ImmutableList<Pattern> captureRequestHeaders = ImmutableList.of();
-    private static volatile ImmutableList<Pattern> captureResponseHeaders = ImmutableList.of();
+    private static volatile NameMatcher captureRequestParameters = NameMatcher.empty();
+    private static volatile NameMatcher maskRequestParameters = NameMatcher.empty();
+    private static volatile NameMatcher captureRequestHeaders = NameMatcher.empty();
+    private static volatile NameMatcher captureResponseHeaders = NameMatcher.empty();
 
     private static volatile String sessionUserAttributePath = "";
     private static volatile ImmutableSet<String> captureSessionAttributePaths = ImmutableSet.of();
@@ -62,19 +56,19 @@ class ServletPluginProperties {
 
     private ServletPluginProperties() {}
 
-    static ImmutableList<Pattern> captureRequestParameters() {
+    static NameMatcher captureRequestParameters() {
         return captureRequestParameters;
     }
 
-    static ImmutableList<Pattern> maskRequestParameters() {
+    static NameMatcher maskRequestParameters() {
         return maskRequestParameters;
     }
 
-    static ImmutableList<Pattern> captureRequestHeaders() {
+    static NameMatcher captureRequestHeaders() {
         return captureRequestHeaders;
     }
 
-    static ImmutableList<Pattern> captureResponseHeaders() {
+    static NameMatcher captureResponseHeaders() {
         return captureResponseHeaders;
     }
 
@@ -93,10 +87,10 @@ class ServletPluginProperties {
     }
 
     private static void updateCache() {
-        captureRequestParameters = buildPatternList(CAPTURE_REQUEST_PARAMS_PROPERTY_NAME);
-        maskRequestParameters = buildPatternList(MASK_REQUEST_PARAMS_PROPERTY_NAME);
-        captureRequestHeaders = buildPatternList(CAPTURE_REQUEST_HEADER_PROPERTY_NAME);
-        captureResponseHeaders = buildPatternList(CAPTURE_RESPONSE_HEADER_PROPERTY_NAME);
+        captureRequestParameters = buildNameMatcher(CAPTURE_REQUEST_PARAMS_PROPERTY_NAME);
+        maskRequestParameters = buildNameMatcher(MASK_REQUEST_PARAMS_PROPERTY_NAME);
+        captureRequestHeaders = buildNameMatcher(CAPTURE_REQUEST_HEADER_PROPERTY_NAME);
+        captureResponseHeaders = buildNameMatcher(CAPTURE_RESPONSE_HEADER_PROPERTY_NAME);
         sessionUserAttributePath =
                 configService.getStringProperty(SESSION_USER_ATTRIBUTE_PROPERTY_NAME).value();
         String captureSessionAttributesText =
@@ -106,14 +100,9 @@ class ServletPluginProperties {
         captureSessionAttributeNames = buildCaptureSessionAttributeNames();
     }
 
-    private static ImmutableList<Pattern> buildPatternList(String propertyName) {
-        String captureRequestParametersText = configService.getStringProperty(propertyName).value();
-        List<Pattern> captureParameters = Lists.newArrayList();
-        for (String parameter : splitter.split(captureRequestParametersText)) {
-            // converted to lower case for case-insensitive matching
-            captureParameters.add(buildRegexPattern(parameter.toLowerCase(Locale.ENGLISH)));
-        }
-        return ImmutableList.copyOf(captureParameters);
+    private static NameMatcher buildNameMatcher(String propertyName) {
+        String patternsText = configService.getStringProperty(propertyName).value();
+        return NameMatcher.create(splitter.split(patternsText));
     }
 
     private static ImmutableSet<String> buildCaptureSessionAttributeNames() {
@@ -128,12 +117,4 @@ class ServletPluginProperties {
         }
         return names.build();
     }
-
-    private static Pattern buildRegexPattern(String wildcardPattern) {
-        // convert * into .* and quote the rest of the text using \Q...\E
-        String regex = "\\Q" + wildcardPattern.replace("*", "\\E.*\\Q") + "\\E";
-        // strip off unnecessary \\Q\\E in case * appeared at beginning or end of part
-        regex = regex.replace("\\Q\\E", "");
-        return Pattern.compile(regex);
-    }
 }
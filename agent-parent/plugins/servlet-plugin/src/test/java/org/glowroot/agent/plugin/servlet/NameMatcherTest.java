@@ -0,0 +1,75 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.servlet;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class NameMatcherTest {
+
+    @Test
+    public void shouldMatchExactNamesCaseInsensitively() {
+        NameMatcher nameMatcher = NameMatcher.create(ImmutableList.of("Content-Type", "abc"));
+        assertThat(nameMatcher.matches("content-type")).isTrue();
+        assertThat(nameMatcher.matches("CONTENT-TYPE")).isTrue();
+        assertThat(nameMatcher.matches("ABC")).isTrue();
+        assertThat(nameMatcher.matches("abcd")).isFalse();
+        assertThat(nameMatcher.matches("")).isFalse();
+    }
+
+    @Test
+    public void shouldMatchWildcards() {
+        NameMatcher nameMatcher =
+                NameMatcher.create(ImmutableList.of("x-*", "*password*", "a*b*c"));
+        assertThat(nameMatcher.matches("X-Forwarded-For")).isTrue();
+        assertThat(nameMatcher.matches("x-")).isTrue();
+        assertThat(nameMatcher.matches("xx-")).isFalse();
+        assertThat(nameMatcher.matches("userPassword")).isTrue();
+        assertThat(nameMatcher.matches("password")).isTrue();
+        assertThat(nameMatcher.matches("passwor")).isFalse();
+        assertThat(nameMatcher.matches("abc")).isTrue();
+        assertThat(nameMatcher.matches("a123b456c")).isTrue();
+        assertThat(nameMatcher.matches("acb")).isFalse();
+        assertThat(nameMatcher.matches("abcb")).isFalse();
+        // segments must not overlap
+        assertThat(nameMatcher.matches("ac")).isFalse();
+    }
+
+    @Test
+    public void shouldMatchAll() {
+        NameMatcher nameMatcher = NameMatcher.create(ImmutableList.of("abc", "*"));
+        assertThat(nameMatcher.isEmpty()).isFalse();
+        assertThat(nameMatcher.matches("anything")).isTrue();
+    }
+
+    @Test
+    public void shouldMatchNothing() {
+        NameMatcher nameMatcher = NameMatcher.create(ImmutableList.<String>of());
+        assertThat(nameMatcher.isEmpty()).isTrue();
+        assertThat(nameMatcher.matches("anything")).isFalse();
+    }
+
+    @Test
+    public void shouldReturnCachedResult() {
+        NameMatcher nameMatcher = NameMatcher.create(ImmutableList.of("*-id"));
+        assertThat(nameMatcher.matches("Request-Id")).isTrue();
+        assertThat(nameMatcher.matches("Request-Id")).isTrue();
+        assertThat(nameMatcher.matches("Request-Ids")).isFalse();
+        assertThat(nameMatcher.matches("Request-Ids")).isFalse();
+    }
+}
@@ -53,6 +53,8 @@ import org.glowroot.wire.api.model.DownstreamServiceOuterClass.MatchingMethodNam
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.MethodSignature;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.MethodSignaturesRequest;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.PreloadClasspathCacheRequest;
+import org.glowroot.wire.api.model.DownstreamServiceOuterClass.ReweaveProgress;
+import org.glowroot.wire.api.model.DownstreamServiceOuterClass.ReweaveProgressRequest;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.ReweaveRequest;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.ServerRequest;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.ThreadDump;
@@ -198,6 +200,14 @@ public class DownstreamServiceImpl implements DownstreamService {
         return connectedAgent.reweave();
     }
 
+    ReweaveProgress reweaveProgress(String serverId) throws Exception {
+        ConnectedAgent connectedAgent = connectedAgents.get(serverId);
+        if (connectedAgent == null) {
+            throw new AgentNotConnectedException();
+        }
+        return connectedAgent.reweaveProgress();
+    }
+
     private class ConnectedAgent {
 
         private final AtomicLong nextRequestId = new AtomicLong();
@@ -394,6 +404,14 @@ public class DownstreamServiceImpl implements DownstreamService {
             return response.getReweaveResponse().getClassUpdateCount();
         }
 
+        private ReweaveProgress reweaveProgress() throws Exception {
+            ClientResponse response = sendRequest(ServerRequest.newBuilder()
+                    .setRequestId(nextRequestId.getAndIncrement())
+                    .setReweaveProgressRequest(ReweaveProgressRequest.getDefaultInstance())
+                    .build());
+            return response.getReweaveProgressResponse().getReweaveProgress();
+        }
+
         private ClientResponse sendRequest(ServerRequest request) throws Exception {
             ResponseHolder responseHolder = new ResponseHolder();
             responseHolders.put(request.getRequestId(), responseHolder);
@@ -16,7 +16,19 @@
 package org.glowroot.central;
 
 import java.io.IOException;
-
+import java.lang.management.ManagementFactory;
+
+import javax.management.ObjectName;
+
+import io.grpc.ForwardingServerCall.SimpleForwardingServerCall;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Server;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.ServerInterceptors;
+import io.grpc.Status;
 import io.grpc.netty.NettyServerBuilder;
 import io.grpc.stub.StreamObserver;
 import org.slf4j.Logger;
@@ -26,6 +38,7 @@ import org.glowroot.central.storage.ServerDao;
 import org.glowroot.storage.repo.AggregateRepository;
 import org.glowroot.storage.repo.GaugeValueRepository;
 import org.glowroot.storage.repo.TraceRepository;
+import org.glowroot.wire.api.RetryAfter;
 import org.glowroot.wire.api.model.CollectorServiceGrpc;
 import org.glowroot.wire.api.model.CollectorServiceGrpc.CollectorService;
 import org.glowroot.wire.api.model.CollectorServiceOuterClass.AggregateMessage;
@@ -39,10 +52,27 @@ import org.glowroot.wire.api.model.CollectorServiceOuterClass.TraceMessage;
 import org.glowroot.wire.api.model.DownstreamServiceGrpc;
 import org.glowroot.wire.api.model.Proto;
 
+import static java.util.concurrent.TimeUnit.SECONDS;
+
 public class GrpcServer {
 
     private static final Logger logger = LoggerFactory.getLogger(GrpcServer.class);
 
+    private static final int INGEST_THREADS = Integer.getInteger("glowroot.central.ingestThreads",
+            Runtime.getRuntime().availableProcessors() * 2);
+
+    private static final int INGEST_QUEUE_SIZE_PER_AGENT =
+            Integer.getInteger("glowroot.central.ingestQueueSizePerAgent", 100);
+
+    // this is sent back to the agent in the RetryAfter.SECONDS_KEY trailer when its ingest queue is
+    // full
+    private static final int INGEST_RETRY_AFTER_SECONDS =
+            Integer.getInteger("glowroot.central.ingestRetryAfterSeconds", 5);
+
+    // on shutdown, data that has already been queued is given this long to be stored
+    private static final int INGEST_DRAIN_TIMEOUT_SECONDS =
+            Integer.getInteger("glowroot.central.ingestDrainTimeoutSeconds", 30);
+
     private final ServerDao serverDao;
     private final AggregateRepository aggregateRepository;
     private final GaugeValueRepository gaugeValueRepository;
@@ -50,6 +80,10 @@ public class GrpcServer {
 
     private final DownstreamServiceImpl downstreamService;
 
+    private final IngestExecutor ingestExecutor;
+
+    private final Server server;
+
     public GrpcServer(int port, ServerDao serverDao, AggregateRepository aggregateRepository,
             GaugeValueRepository gaugeValueRepository, TraceRepository traceRepository)
                     throws IOException {
@@ -59,9 +93,13 @@ public class GrpcServer {
         this.traceRepository = traceRepository;
 
         downstreamService = new DownstreamServiceImpl();
+        ingestExecutor = new IngestExecutor(INGEST_THREADS, INGEST_QUEUE_SIZE_PER_AGENT);
+        registerMBean(ingestExecutor, IngestExecutor.OBJECT_NAME);
 
-        NettyServerBuilder.forPort(port)
-                .addService(CollectorServiceGrpc.bindService(new CollectorServiceImpl()))
+        server = NettyServerBuilder.forPort(port)
+                .addService(ServerInterceptors.intercept(
+                        CollectorServiceGrpc.bindService(new CollectorServiceImpl()),
+                        new RetryAfterInterceptor()))
                 .addService(DownstreamServiceGrpc.bindService(downstreamService))
                 .build()
                 .start();
@@ -71,6 +109,32 @@ public class GrpcServer {
         return downstreamService;
     }
 
+    void close() throws InterruptedException {
+        // stop accepting new data before stopping the ingest workers
+        server.shutdown();
+        ingestExecutor.close(SECONDS.toMillis(INGEST_DRAIN_TIMEOUT_SECONDS));
+        unregisterMBean(IngestExecutor.OBJECT_NAME);
+    }
+
+    private static void registerMBean(Object mbean, String objectName) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(mbean,
+                    ObjectName.getInstance(objectName));
+        } catch (Exception e) {
+            // the mbean is only used for monitoring, so this is not fatal
+            logger.warn(e.getMessage(), e);
+        }
+    }
+
+    private static void unregisterMBean(String objectName) {
+        try {
+            ManagementFactory.getPlatformMBeanServer()
+                    .unregisterMBean(ObjectName.getInstance(objectName));
+        } catch (Exception e) {
+            logger.warn(e.getMessage(), e);
+        }
+    }
+
     private class CollectorServiceImpl implements CollectorService {
 
         @Override
@@ -92,44 +156,26 @@ public class GrpcServer {
         @Override
         public void collectAggregates(AggregateMessage request,
                 StreamObserver<EmptyMessage> responseObserver) {
-            try {
+            ingest(request.getServerId(), responseObserver, () -> {
                 aggregateRepository.store(request.getServerId(), request.getCaptureTime(),
                         request.getAggregatesByTypeList());
-            } catch (Throwable t) {
-                logger.error(t.getMessage(), t);
-                responseObserver.onError(t);
-                return;
-            }
-            responseObserver.onNext(EmptyMessage.getDefaultInstance());
-            responseObserver.onCompleted();
+            });
         }
 
         @Override
         public void collectGaugeValues(GaugeValueMessage request,
                 StreamObserver<EmptyMessage> responseObserver) {
-            try {
+            ingest(request.getServerId(), responseObserver, () -> {
                 gaugeValueRepository.store(request.getServerId(), request.getGaugeValuesList());
-            } catch (Throwable t) {
-                logger.error(t.getMessage(), t);
-                responseObserver.onError(t);
-                return;
-            }
-            responseObserver.onNext(EmptyMessage.getDefaultInstance());
-            responseObserver.onCompleted();
+            });
         }
 
         @Override
         public void collectTrace(TraceMessage request,
                 StreamObserver<EmptyMessage> responseObserver) {
-            try {
+            ingest(request.getServerId(), responseObserver, () -> {
                 traceRepository.collect(request.getServerId(), request.getTrace());
-            } catch (Throwable t) {
-                logger.error(t.getMessage(), t);
-                responseObserver.onError(t);
-                return;
-            }
-            responseObserver.onNext(EmptyMessage.getDefaultInstance());
-            responseObserver.onCompleted();
+            });
         }
 
         @Override
@@ -153,5 +199,51 @@ public class GrpcServer {
             responseObserver.onNext(EmptyMessage.getDefaultInstance());
             responseObserver.onCompleted();
         }
+
+        private void ingest(String serverId, StreamObserver<EmptyMessage> responseObserver,
+                IngestTask task) {
+            boolean accepted = ingestExecutor.execute(serverId, () -> {
+                try {
+                    task.run();
+                } catch (Throwable t) {
+                    logger.error(t.getMessage(), t);
+                    responseObserver.onError(t);
+                    return;
+                }
+                responseObserver.onNext(EmptyMessage.getDefaultInstance());
+                responseObserver.onCompleted();
+            });
+            if (!accepted) {
+                logger.debug("ingest queue is full for agent: {}", serverId);
+                responseObserver.onError(Status.RESOURCE_EXHAUSTED
+                        .withDescription("ingest queue is full")
+                        .asRuntimeException());
+            }
+        }
+    }
+
+    // RESOURCE_EXHAUSTED is only returned by the collector service when it is shedding load, so
+    // this attaches the retry delay to every such response
+    private static class RetryAfterInterceptor implements ServerInterceptor {
+
+        @Override
+        public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(
+                MethodDescriptor<ReqT, RespT> method, ServerCall<RespT> call, Metadata headers,
+                ServerCallHandler<ReqT, RespT> next) {
+            return next.startCall(method, new SimpleForwardingServerCall<RespT>(call) {
+                @Override
+                public void close(Status status, Metadata trailers) {
+                    if (status.getCode() == Status.Code.RESOURCE_EXHAUSTED) {
+                        trailers.put(RetryAfter.SECONDS_KEY,
+                                Integer.toString(INGEST_RETRY_AFTER_SECONDS));
+                    }
+                    super.close(status, trailers);
+                }
+            }, headers);
+        }
+    }
+
+    private interface IngestTask {
+        void run() throws Exception;
     }
 }
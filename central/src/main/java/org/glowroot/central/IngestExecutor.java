@@ -0,0 +1,349 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.central;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+// executes storage work for collected data on a dedicated pool of worker threads (instead of on
+// the gRPC callback thread), with a bounded queue per agent, and with the worker threads taking
+// turns across agents (round robin) so that one agent replaying a large backlog cannot starve the
+// others
+//
+// queue depth and rejection counts are exposed via IngestExecutorMXBean
+class IngestExecutor implements IngestExecutorMXBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(IngestExecutor.class);
+
+    static final String OBJECT_NAME = "org.glowroot.central:type=IngestExecutor";
+
+    private final int maxQueueSizePerAgent;
+
+    private final ConcurrentMap<String, AgentQueue> agentQueues = Maps.newConcurrentMap();
+
+    // agents that have pending tasks, in round robin order, each agent is in here at most once
+    private final BlockingQueue<AgentQueue> readyAgentQueues = new LinkedBlockingQueue<>();
+
+    private final ExecutorService workerExecutor;
+    private final ScheduledExecutorService statsExecutor;
+
+    // this is incremented before closed is checked (see execute()), so once close() has set closed,
+    // it can wait for this to reach zero knowing that no more tasks will be queued
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final Object drainLock = new Object();
+    private volatile boolean closed;
+
+    private final AtomicLong completedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    IngestExecutor(int numWorkerThreads, int maxQueueSizePerAgent) {
+        this.maxQueueSizePerAgent = maxQueueSizePerAgent;
+        ThreadFactory threadFactory = new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("Glowroot-Ingest-%d")
+                .build();
+        workerExecutor = Executors.newFixedThreadPool(numWorkerThreads, threadFactory);
+        for (int i = 0; i < numWorkerThreads; i++) {
+            workerExecutor.execute(new Worker());
+        }
+        statsExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("Glowroot-Ingest-Stats")
+                .build());
+        statsExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                logStats();
+            }
+        }, 1, 1, MINUTES);
+    }
+
+    // returns false if the agent's queue is full (or if this is closed), in which case the task is
+    // not executed
+    boolean execute(String serverId, Runnable task) {
+        pendingCount.incrementAndGet();
+        if (closed) {
+            decrementPendingCount();
+            rejectedCount.incrementAndGet();
+            return false;
+        }
+        AgentQueue agentQueue = agentQueues.get(serverId);
+        if (agentQueue == null) {
+            agentQueue = new AgentQueue(serverId);
+            AgentQueue existing = agentQueues.putIfAbsent(serverId, agentQueue);
+            if (existing != null) {
+                agentQueue = existing;
+            }
+        }
+        boolean schedule;
+        synchronized (agentQueue) {
+            if (agentQueue.tasks.size() >= maxQueueSizePerAgent) {
+                agentQueue.rejectedCount++;
+                agentQueue.totalRejectedCount++;
+                rejectedCount.incrementAndGet();
+                decrementPendingCount();
+                return false;
+            }
+            agentQueue.tasks.add(new QueuedTask(task, System.nanoTime()));
+            schedule = !agentQueue.scheduled;
+            agentQueue.scheduled = true;
+        }
+        if (schedule) {
+            readyAgentQueues.add(agentQueue);
+        }
+        return true;
+    }
+
+    // new tasks are rejected from this point on, and tasks that are already queued are given a
+    // chance to complete (since their agents are waiting on the responses), tasks that are still
+    // queued after the drain timeout are discarded, the agents will send that data again
+    void close(long drainTimeoutMillis) throws InterruptedException {
+        closed = true;
+        statsExecutor.shutdown();
+        long deadline = System.currentTimeMillis() + drainTimeoutMillis;
+        synchronized (drainLock) {
+            long remainingMillis = drainTimeoutMillis;
+            while (pendingCount.get() > 0 && remainingMillis > 0) {
+                drainLock.wait(remainingMillis);
+                remainingMillis = deadline - System.currentTimeMillis();
+            }
+        }
+        if (pendingCount.get() > 0) {
+            logger.warn("timed out waiting for ingest queues to drain, discarding {} queued tasks",
+                    pendingCount.get());
+        }
+        // interrupts the workers that are waiting for a task
+        workerExecutor.shutdownNow();
+        if (!workerExecutor.awaitTermination(10, SECONDS)) {
+            logger.warn("timed out waiting for ingest worker threads to terminate");
+        }
+    }
+
+    @Override
+    public int getQueueDepth() {
+        int queueDepth = 0;
+        for (AgentQueue agentQueue : agentQueues.values()) {
+            synchronized (agentQueue) {
+                queueDepth += agentQueue.tasks.size();
+            }
+        }
+        return queueDepth;
+    }
+
+    @Override
+    public long getCompletedCount() {
+        return completedCount.get();
+    }
+
+    @Override
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    @Override
+    public Map<String, Integer> getQueueDepthPerAgent() {
+        Map<String, Integer> queueDepths = Maps.newTreeMap();
+        for (AgentQueue agentQueue : agentQueues.values()) {
+            synchronized (agentQueue) {
+                queueDepths.put(agentQueue.serverId, agentQueue.tasks.size());
+            }
+        }
+        return queueDepths;
+    }
+
+    @Override
+    public Map<String, Long> getRejectedCountPerAgent() {
+        Map<String, Long> rejectedCounts = Maps.newTreeMap();
+        for (AgentQueue agentQueue : agentQueues.values()) {
+            synchronized (agentQueue) {
+                rejectedCounts.put(agentQueue.serverId, agentQueue.totalRejectedCount);
+            }
+        }
+        return rejectedCounts;
+    }
+
+    Map<String, IngestStats> getAndResetStats() {
+        Map<String, IngestStats> stats = Maps.newTreeMap();
+        for (AgentQueue agentQueue : agentQueues.values()) {
+            synchronized (agentQueue) {
+                stats.put(agentQueue.serverId, new IngestStats(agentQueue.tasks.size(),
+                        agentQueue.completedCount, agentQueue.rejectedCount,
+                        agentQueue.totalLatencyNanos, agentQueue.maxLatencyNanos));
+                agentQueue.completedCount = 0;
+                agentQueue.rejectedCount = 0;
+                agentQueue.totalLatencyNanos = 0;
+                agentQueue.maxLatencyNanos = 0;
+            }
+        }
+        return stats;
+    }
+
+    private void decrementPendingCount() {
+        if (pendingCount.decrementAndGet() == 0 && closed) {
+            synchronized (drainLock) {
+                drainLock.notifyAll();
+            }
+        }
+    }
+
+    private void logStats() {
+        if (!logger.isDebugEnabled()) {
+            return;
+        }
+        for (Map.Entry<String, IngestStats> entry : getAndResetStats().entrySet()) {
+            IngestStats stats = entry.getValue();
+            if (stats.getCompletedCount() == 0 && stats.getRejectedCount() == 0) {
+                continue;
+            }
+            logger.debug("ingest stats for agent {}: completed={}, rejected={}, queued={},"
+                    + " avg latency={} ms, max latency={} ms", entry.getKey(),
+                    stats.getCompletedCount(), stats.getRejectedCount(), stats.getQueueSize(),
+                    NANOSECONDS.toMillis(stats.getAverageLatencyNanos()),
+                    NANOSECONDS.toMillis(stats.getMaxLatencyNanos()));
+        }
+    }
+
+    private class Worker implements Runnable {
+
+        @Override
+        public void run() {
+            while (true) {
+                AgentQueue agentQueue;
+                try {
+                    agentQueue = readyAgentQueues.take();
+                } catch (InterruptedException e) {
+                    // only happens on shutdown
+                    return;
+                }
+                QueuedTask queuedTask;
+                synchronized (agentQueue) {
+                    queuedTask = agentQueue.tasks.remove();
+                }
+                try {
+                    queuedTask.task.run();
+                } catch (Throwable t) {
+                    logger.error(t.getMessage(), t);
+                }
+                long latencyNanos = System.nanoTime() - queuedTask.queuedTick;
+                boolean reschedule;
+                synchronized (agentQueue) {
+                    agentQueue.completedCount++;
+                    agentQueue.totalLatencyNanos += latencyNanos;
+                    agentQueue.maxLatencyNanos =
+                            Math.max(agentQueue.maxLatencyNanos, latencyNanos);
+                    reschedule = !agentQueue.tasks.isEmpty();
+                    agentQueue.scheduled = reschedule;
+                }
+                completedCount.incrementAndGet();
+                decrementPendingCount();
+                if (reschedule) {
+                    // go to the back of the line so that other agents get their turn
+                    readyAgentQueues.add(agentQueue);
+                }
+            }
+        }
+    }
+
+    private static class AgentQueue {
+
+        private final String serverId;
+
+        // all mutable fields are guarded by this
+        private final Queue<QueuedTask> tasks = new ArrayDeque<>();
+        private boolean scheduled;
+
+        // these are reset by getAndResetStats()
+        private long completedCount;
+        private long rejectedCount;
+        private long totalLatencyNanos;
+        private long maxLatencyNanos;
+
+        // this is not reset, see IngestExecutorMXBean
+        private long totalRejectedCount;
+
+        private AgentQueue(String serverId) {
+            this.serverId = serverId;
+        }
+    }
+
+    private static class QueuedTask {
+
+        private final Runnable task;
+        private final long queuedTick;
+
+        private QueuedTask(Runnable task, long queuedTick) {
+            this.task = task;
+            this.queuedTick = queuedTick;
+        }
+    }
+
+    static class IngestStats {
+
+        private final int queueSize;
+        private final long completedCount;
+        private final long rejectedCount;
+        private final long totalLatencyNanos;
+        private final long maxLatencyNanos;
+
+        private IngestStats(int queueSize, long completedCount, long rejectedCount,
+                long totalLatencyNanos, long maxLatencyNanos) {
+            this.queueSize = queueSize;
+            this.completedCount = completedCount;
+            this.rejectedCount = rejectedCount;
+            this.totalLatencyNanos = totalLatencyNanos;
+            this.maxLatencyNanos = maxLatencyNanos;
+        }
+
+        int getQueueSize() {
+            return queueSize;
+        }
+
+        long getCompletedCount() {
+            return completedCount;
+        }
+
+        long getRejectedCount() {
+            return rejectedCount;
+        }
+
+        long getAverageLatencyNanos() {
+            return completedCount == 0 ? 0 : totalLatencyNanos / completedCount;
+        }
+
+        long getMaxLatencyNanos() {
+            return maxLatencyNanos;
+        }
+    }
+}
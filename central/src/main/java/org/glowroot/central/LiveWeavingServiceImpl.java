@@ -20,6 +20,7 @@ import java.util.List;
 import org.glowroot.common.live.LiveWeavingService;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.GlobalMeta;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.MethodSignature;
+import org.glowroot.wire.api.model.DownstreamServiceOuterClass.ReweaveProgress;
 
 class LiveWeavingServiceImpl implements LiveWeavingService {
 
@@ -61,4 +62,9 @@ class LiveWeavingServiceImpl implements LiveWeavingService {
     public int reweave(String serverId) throws Exception {
         return downstreamService.reweave(serverId);
     }
+
+    @Override
+    public ReweaveProgress getReweaveProgress(String serverId) throws Exception {
+        return downstreamService.reweaveProgress(serverId);
+    }
 }
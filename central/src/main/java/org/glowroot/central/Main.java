@@ -18,6 +18,8 @@ package org.glowroot.central;
 import com.datastax.driver.core.Cluster;
 import com.datastax.driver.core.Session;
 import com.datastax.driver.core.SocketOptions;
+import com.datastax.driver.core.policies.DCAwareRoundRobinPolicy;
+import com.datastax.driver.core.policies.TokenAwarePolicy;
 import org.slf4j.bridge.SLF4JBridgeHandler;
 
 import org.glowroot.central.storage.AggregateDao;
@@ -30,7 +32,6 @@ import org.glowroot.central.storage.TransactionTypeDao;
 import org.glowroot.common.live.LiveTraceRepository.LiveTraceRepositoryNop;
 import org.glowroot.common.util.Clock;
 import org.glowroot.common.util.Version;
-import org.glowroot.storage.repo.AggregateRepository;
 import org.glowroot.storage.repo.GaugeValueRepository;
 import org.glowroot.storage.repo.RepoAdmin;
 import org.glowroot.storage.repo.TraceRepository;
@@ -53,6 +54,10 @@ public class Main {
         // FIXME
         Cluster cluster = Cluster.builder()
                 .addContactPoint("127.0.0.1")
+                // token aware routing of prepared statements, so that the parallel reads go
+                // directly to a replica that owns the partition
+                .withLoadBalancingPolicy(
+                        new TokenAwarePolicy(DCAwareRoundRobinPolicy.builder().build()))
                 .build();
         SocketOptions socketOptions = cluster.getConfiguration().getSocketOptions();
         socketOptions.setReadTimeoutMillis(30000);
@@ -69,9 +74,10 @@ public class Main {
         ConfigRepositoryImpl configRepository =
                 new ConfigRepositoryImpl(serverDao, centralConfigDao);
 
-        AggregateRepository aggregateRepository =
+        AggregateDao aggregateRepository =
                 new AggregateDao(session, serverDao, transactionTypeDao, configRepository);
-        TraceRepository traceRepository = new TraceDao(session, serverDao, transactionTypeDao);
+        TraceRepository traceRepository =
+                new TraceDao(session, serverDao, transactionTypeDao, configRepository);
         GaugeValueRepository gaugeValueRepository =
                 new GaugeValueDao(session, serverDao, configRepository);
 
@@ -100,6 +106,16 @@ public class Main {
                 .version(version)
                 .build();
 
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            aggregateRepository.close();
+            cluster.close();
+        }, "Glowroot-Central-Shutdown"));
+
         Thread.sleep(Long.MAX_VALUE);
     }
 
@@ -18,25 +18,43 @@ package org.glowroot.central.storage;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
 import java.util.Date;
+import java.util.Deque;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import javax.annotation.Nullable;
 
 import com.datastax.driver.core.BoundStatement;
 import com.datastax.driver.core.PreparedStatement;
 import com.datastax.driver.core.ResultSet;
 import com.datastax.driver.core.Row;
 import com.datastax.driver.core.Session;
+import com.datastax.driver.core.exceptions.DriverException;
 import com.datastax.driver.core.utils.UUIDs;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Function;
 import com.google.common.base.Strings;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.protobuf.AbstractMessage;
 import com.google.protobuf.ByteString;
-import com.google.protobuf.InvalidProtocolBufferException;
 import com.google.protobuf.Parser;
 import org.immutables.value.Value;
 
@@ -66,6 +84,16 @@ import static com.google.common.base.Preconditions.checkNotNull;
 
 public class AggregateDao implements AggregateRepository {
 
+    // number of rows (at the query's rollup interval) that are read by each parallel query
+    private static final int ROWS_PER_READ_CHUNK =
+            Integer.getInteger("glowroot.central.aggregateRowsPerReadChunk", 100);
+
+    // maximum number of chunk queries that a single read has in flight at any one time, so that a
+    // long time range (e.g. 30 days at rollup level 0) doesn't flood the cluster with queries
+    @VisibleForTesting
+    static final int MAX_CONCURRENT_READ_CHUNKS =
+            Integer.getInteger("glowroot.central.aggregateMaxConcurrentReadChunks", 8);
+
     private static final Table summaryTable = ImmutableTable.builder()
             .partialName("summary")
             .addColumns(ImmutableColumn.of("total_duration_nanos", "double"))
@@ -137,6 +165,9 @@ public class AggregateDao implements AggregateRepository {
     private final TransactionTypeDao transactionTypeDao;
     private final ConfigRepository configRepository;
 
+    // protobuf decoding of read results is done on this executor instead of the calling thread
+    private final ListeningExecutorService readExecutor;
+
     // list index is rollupLevel
     private final Map<Table, List<PreparedStatement>> insertOverallPS;
     private final Map<Table, List<PreparedStatement>> insertTransactionPS;
@@ -156,6 +187,13 @@ public class AggregateDao implements AggregateRepository {
         this.transactionTypeDao = transactionTypeDao;
         this.configRepository = configRepository;
 
+        ThreadFactory threadFactory = new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("Glowroot-Aggregate-Read-%d")
+                .build();
+        readExecutor = MoreExecutors.listeningDecorator(Executors
+                .newFixedThreadPool(Runtime.getRuntime().availableProcessors(), threadFactory));
+
         int count = configRepository.getRollupConfigs().size();
 
         List<Table> tables = ImmutableList.of(summaryTable, errorSummaryTable, overviewTable,
@@ -349,11 +387,7 @@ public class AggregateDao implements AggregateRepository {
     @Override
     public List<OverviewAggregate> readOverviewAggregates(TransactionQuery query)
             throws IOException {
-        BoundStatement boundStatement = createBoundStatement(overviewTable, query);
-        bindQuery(boundStatement, query);
-        ResultSet results = session.execute(boundStatement);
-        List<OverviewAggregate> overviewAggregates = Lists.newArrayList();
-        for (Row row : results) {
+        return readChunked(overviewTable, query, row -> {
             int i = 0;
             long captureTime = checkNotNull(row.getTimestamp(i++)).getTime();
             double totalDurationNanos = row.getDouble(i++);
@@ -381,83 +415,78 @@ public class AggregateDao implements AggregateRepository {
                 builder.auxThreadStats(
                         Aggregate.ThreadStats.parseFrom(ByteString.copyFrom(auxThreadStats)));
             }
-            overviewAggregates.add(builder.build());
-        }
-        return overviewAggregates;
+            return builder.build();
+        });
     }
 
     @Override
     public List<PercentileAggregate> readPercentileAggregates(TransactionQuery query)
-            throws InvalidProtocolBufferException {
-        BoundStatement boundStatement = createBoundStatement(histogramTable, query);
-        bindQuery(boundStatement, query);
-        ResultSet results = session.execute(boundStatement);
-        List<PercentileAggregate> percentileAggregates = Lists.newArrayList();
-        for (Row row : results) {
+            throws IOException {
+        return readChunked(histogramTable, query, row -> {
             long captureTime = checkNotNull(row.getTimestamp(0)).getTime();
             double totalNanos = row.getDouble(1);
             long transactionCount = row.getLong(2);
             ByteBuffer bytes = checkNotNull(row.getBytes(3));
             Aggregate.Histogram histogram =
                     Aggregate.Histogram.parseFrom(ByteString.copyFrom(bytes));
-            percentileAggregates.add(ImmutablePercentileAggregate.builder()
+            return ImmutablePercentileAggregate.builder()
                     .captureTime(captureTime)
                     .totalNanos(totalNanos)
                     .transactionCount(transactionCount)
                     .histogram(histogram)
-                    .build());
-        }
-        return percentileAggregates;
+                    .build();
+        });
     }
 
     @Override
     public List<ThroughputAggregate> readThroughputAggregates(TransactionQuery query)
             throws IOException {
-        BoundStatement boundStatement = createBoundStatement(throughputTable, query);
-        bindQuery(boundStatement, query);
-        ResultSet results = session.execute(boundStatement);
-        List<ThroughputAggregate> throughputAggregates = Lists.newArrayList();
-        for (Row row : results) {
+        return readChunked(throughputTable, query, row -> {
             long captureTime = checkNotNull(row.getTimestamp(0)).getTime();
             long transactionCount = row.getLong(1);
-            throughputAggregates.add(ImmutableThroughputAggregate.builder()
+            return ImmutableThroughputAggregate.builder()
                     .captureTime(captureTime)
                     .transactionCount(transactionCount)
-                    .build());
-        }
-        return throughputAggregates;
+                    .build();
+        });
     }
 
     @Override
     public void mergeInMainThreadProfiles(ProfileCollector mergedProfile, TransactionQuery query)
-            throws InvalidProtocolBufferException {
+            throws IOException {
         mergeInProfiles(mergedProfile, query, mainThreadProfileTable);
     }
 
     @Override
     public void mergeInAuxThreadProfiles(ProfileCollector mergedProfile, TransactionQuery query)
-            throws InvalidProtocolBufferException {
+            throws IOException {
         mergeInProfiles(mergedProfile, query, auxThreadProfileTable);
     }
 
     @Override
     public void mergeInQueries(QueryCollector mergedQueries, TransactionQuery query)
             throws IOException {
-        BoundStatement boundStatement = createBoundStatement(queriesTable, query);
-        bindQuery(boundStatement, query);
-        ResultSet results = session.execute(boundStatement);
-        long captureTime = Long.MIN_VALUE;
-        for (Row row : results) {
-            captureTime = Math.max(captureTime, checkNotNull(row.getTimestamp(0)).getTime());
+        List<CapturedQueries> capturedQueriesList = readChunked(queriesTable, query, row -> {
+            long captureTime = checkNotNull(row.getTimestamp(0)).getTime();
             ByteBuffer byteBuf = checkNotNull(row.getBytes(1));
+            List<QueriesByType> queries = Lists.newArrayList();
             try (InputStream input = new ByteBufferInputStream(byteBuf)) {
                 Parser<QueriesByType> parser = Aggregate.QueriesByType.parser();
                 QueriesByType message;
                 while ((message = parser.parseDelimitedFrom(input)) != null) {
-                    mergedQueries.mergeQueries(message);
-                    mergedQueries.updateLastCaptureTime(captureTime);
+                    queries.add(message);
                 }
             }
+            return ImmutableCapturedQueries.of(captureTime, queries);
+        });
+        // merging is done on this thread since QueryCollector is not thread safe
+        long captureTime = Long.MIN_VALUE;
+        for (CapturedQueries capturedQueries : capturedQueriesList) {
+            captureTime = Math.max(captureTime, capturedQueries.captureTime());
+            for (QueriesByType queries : capturedQueries.queries()) {
+                mergedQueries.mergeQueries(queries);
+                mergedQueries.updateLastCaptureTime(captureTime);
+            }
         }
     }
 
@@ -715,21 +744,99 @@ public class AggregateDao implements AggregateRepository {
     }
 
     private void mergeInProfiles(ProfileCollector mergedProfile, TransactionQuery query,
-            Table profileTable) throws InvalidProtocolBufferException {
-        BoundStatement boundStatement = createBoundStatement(profileTable, query);
-        bindQuery(boundStatement, query);
-        ResultSet results = session.execute(boundStatement);
-        long captureTime = Long.MIN_VALUE;
-        for (Row row : results) {
-            captureTime = Math.max(captureTime, checkNotNull(row.getTimestamp(0)).getTime());
+            Table profileTable) throws IOException {
+        List<CapturedProfile> capturedProfiles = readChunked(profileTable, query, row -> {
+            long captureTime = checkNotNull(row.getTimestamp(0)).getTime();
             ByteBuffer bytes = checkNotNull(row.getBytes(1));
             // TODO optimize this byte copying
             Profile profile = Profile.parseFrom(ByteString.copyFrom(bytes));
-            mergedProfile.mergeProfile(profile);
+            return ImmutableCapturedProfile.of(captureTime, profile);
+        });
+        // merging is done on this thread since ProfileCollector is not thread safe
+        long captureTime = Long.MIN_VALUE;
+        for (CapturedProfile capturedProfile : capturedProfiles) {
+            captureTime = Math.max(captureTime, capturedProfile.captureTime());
+            mergedProfile.mergeProfile(capturedProfile.profile());
             mergedProfile.updateLastCaptureTime(captureTime);
         }
     }
 
+    // the capture time range is split into chunks which are read in parallel (instead of reading
+    // the whole range with a single synchronous query, but with at most MAX_CONCURRENT_READ_CHUNKS
+    // in flight), and the rows of each chunk are decoded on the read executor as soon as that
+    // chunk arrives, results are returned in capture time order
+    private <T> List<T> readChunked(Table table, TransactionQuery query, RowMapper<T> rowMapper)
+            throws IOException {
+        long chunkMillis = configRepository.getRollupConfigs().get(query.rollupLevel())
+                .intervalMillis() * ROWS_PER_READ_CHUNK;
+        return readChunked(query.from(), query.to(), chunkMillis, table.fromInclusive(),
+                (from, to) -> {
+                    BoundStatement boundStatement = createBoundStatement(table, query);
+                    bindQuery(boundStatement, query, from, to);
+                    return session.executeAsync(boundStatement);
+                }, results -> mapRows(results, rowMapper), readExecutor,
+                MAX_CONCURRENT_READ_CHUNKS);
+    }
+
+    @VisibleForTesting
+    static <R, T> List<T> readChunked(long from, long to, long chunkMillis,
+            boolean fromInclusive, ChunkReader<R> chunkReader, ChunkDecoder<R, T> chunkDecoder,
+            Executor executor, int maxConcurrentChunks) throws IOException {
+        List<T> list = Lists.newArrayList();
+        Deque<ListenableFuture<List<T>>> futures = new ArrayDeque<>();
+        try {
+            long chunkFrom = from;
+            while (true) {
+                if (futures.size() == maxConcurrentChunks) {
+                    // the oldest chunk needs to be collected first anyways to keep capture time
+                    // order
+                    list.addAll(getChunk(futures.removeFirst()));
+                }
+                long chunkTo = Math.min(chunkFrom + chunkMillis, to);
+                futures.add(Futures.transform(chunkReader.read(chunkFrom, chunkTo),
+                        new DecodeFunction<R, T>(chunkDecoder), executor));
+                if (chunkTo >= to) {
+                    break;
+                }
+                // chunk boundaries must not overlap
+                chunkFrom = fromInclusive ? chunkTo + 1 : chunkTo;
+            }
+            while (!futures.isEmpty()) {
+                list.addAll(getChunk(futures.removeFirst()));
+            }
+        } catch (IOException | RuntimeException | Error e) {
+            // no point in waiting on (or decoding) the remaining chunks
+            for (ListenableFuture<List<T>> future : futures) {
+                future.cancel(false);
+            }
+            throw e;
+        }
+        return list;
+    }
+
+    // same as session.execute(), this throws the underlying exception instead of wrapping it
+    private static <T> List<T> getChunk(ListenableFuture<List<T>> future) throws IOException {
+        try {
+            return Uninterruptibles.getUninterruptibly(future);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            if (cause instanceof DriverException) {
+                // copy so that the stack trace includes the caller (see getUninterruptibly() in
+                // the driver's DefaultResultSetFuture)
+                throw ((DriverException) cause).copy();
+            }
+            Throwables.propagateIfPossible(cause, IOException.class);
+            throw new IOException(cause);
+        }
+    }
+
+    public void close() {
+        readExecutor.shutdown();
+    }
+
     private static void bindQuery(BoundStatement boundStatement, OverallQuery query) {
         int i = 0;
         boundStatement.setString(i++, query.serverRollup());
@@ -739,6 +846,11 @@ public class AggregateDao implements AggregateRepository {
     }
 
     private static void bindQuery(BoundStatement boundStatement, TransactionQuery query) {
+        bindQuery(boundStatement, query, query.from(), query.to());
+    }
+
+    private static void bindQuery(BoundStatement boundStatement, TransactionQuery query,
+            long from, long to) {
         int i = 0;
         boundStatement.setString(i++, query.serverRollup());
         boundStatement.setString(i++, query.transactionType());
@@ -746,8 +858,17 @@ public class AggregateDao implements AggregateRepository {
         if (transactionName != null) {
             boundStatement.setString(i++, transactionName);
         }
-        boundStatement.setTimestamp(i++, new Date(query.from()));
-        boundStatement.setTimestamp(i++, new Date(query.to()));
+        boundStatement.setTimestamp(i++, new Date(from));
+        boundStatement.setTimestamp(i++, new Date(to));
+    }
+
+    private static <T> List<T> mapRows(ResultSet results, RowMapper<T> rowMapper)
+            throws IOException {
+        List<T> list = Lists.newArrayList();
+        for (Row row : results) {
+            list.add(rowMapper.map(row));
+        }
+        return list;
     }
 
     private static String createTablePS(Table table, boolean transaction, int i) {
@@ -936,4 +1057,51 @@ public class AggregateDao implements AggregateRepository {
         String name();
         String type();
     }
+
+    @Value.Immutable
+    @Styles.AllParameters
+    interface CapturedProfile {
+        long captureTime();
+        Profile profile();
+    }
+
+    @Value.Immutable
+    @Styles.AllParameters
+    interface CapturedQueries {
+        long captureTime();
+        List<QueriesByType> queries();
+    }
+
+    private interface RowMapper<T> {
+        T map(Row row) throws IOException;
+    }
+
+    @VisibleForTesting
+    interface ChunkReader<R> {
+        ListenableFuture<R> read(long from, long to);
+    }
+
+    @VisibleForTesting
+    interface ChunkDecoder<R, T> {
+        List<T> decode(R results) throws IOException;
+    }
+
+    private static class DecodeFunction<R, T> implements Function<R, List<T>> {
+
+        private final ChunkDecoder<R, T> chunkDecoder;
+
+        private DecodeFunction(ChunkDecoder<R, T> chunkDecoder) {
+            this.chunkDecoder = chunkDecoder;
+        }
+
+        @Override
+        public List<T> apply(@Nullable R results) {
+            try {
+                return chunkDecoder.decode(checkNotNull(results));
+            } catch (IOException e) {
+                // unwrapped in readChunked()
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
 }
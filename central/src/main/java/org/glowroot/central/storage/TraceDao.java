@@ -17,8 +17,10 @@ package org.glowroot.central.storage;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
 import java.util.Comparator;
 import java.util.Date;
+import java.util.Deque;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
@@ -30,13 +32,16 @@ import javax.annotation.Nullable;
 import com.datastax.driver.core.BoundStatement;
 import com.datastax.driver.core.PreparedStatement;
 import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
 import com.datastax.driver.core.Row;
 import com.datastax.driver.core.Session;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.primitives.Ints;
 import com.google.protobuf.ByteString;
 import com.google.protobuf.InvalidProtocolBufferException;
 import org.immutables.value.Value;
@@ -58,12 +63,33 @@ import org.glowroot.wire.api.model.ProfileOuterClass.Profile;
 import org.glowroot.wire.api.model.TraceOuterClass.Trace;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static java.util.concurrent.TimeUnit.HOURS;
+import static org.glowroot.central.util.Checkers.castUntainted;
 
 public class TraceDao implements TraceRepository {
 
+    // time bucketed trace point tables are opt-in since they are not compatible with the original
+    // trace point tables (which are partitioned only by server rollup and transaction type/name)
+    private static final boolean BUCKETED =
+            Boolean.getBoolean("glowroot.central.bucketedTraceTables");
+
+    // this must not change once data has been written to the bucketed tables since it is part of
+    // the partition key, it is also used as the TimeWindowCompactionStrategy window size
+    private static final int BUCKET_HOURS =
+            Integer.getInteger("glowroot.central.traceBucketHours", 6);
+
+    private static final long BUCKET_MILLIS = HOURS.toMillis(BUCKET_HOURS);
+
+    // maximum number of bucket queries that a single trace point read has in flight at any one
+    // time, so that a long time range doesn't flood the cluster with queries (same as
+    // AggregateDao's bound on read chunks)
+    private static final int MAX_CONCURRENT_BUCKET_QUERIES =
+            Integer.getInteger("glowroot.central.traceMaxConcurrentBucketQueries", 8);
+
     private final Session session;
     private final ServerDao serverDao;
     private final TransactionTypeDao transactionTypeDao;
+    private final ConfigRepositoryImpl configRepository;
 
     private final PreparedStatement insertOverallSlowPoint;
     private final PreparedStatement insertTransactionSlowPoint;
@@ -87,6 +113,11 @@ public class TraceDao implements TraceRepository {
     private final PreparedStatement readOverallErrorPoint;
     private final PreparedStatement readTransactionErrorPoint;
 
+    private final PreparedStatement readOverallSlowCount;
+    private final PreparedStatement readTransactionSlowCount;
+    private final PreparedStatement readOverallErrorCount;
+    private final PreparedStatement readTransactionErrorCount;
+
     private final PreparedStatement readOverallErrorMessage;
     private final PreparedStatement readTransactionErrorMessage;
 
@@ -95,46 +126,69 @@ public class TraceDao implements TraceRepository {
     private final PreparedStatement deletePartialOverallSlowPoint;
     private final PreparedStatement deletePartialTransactionSlowPoint;
 
-    public TraceDao(Session session, ServerDao serverDao, TransactionTypeDao transactionTypeDao) {
+    public TraceDao(Session session, ServerDao serverDao, TransactionTypeDao transactionTypeDao,
+            ConfigRepositoryImpl configRepository) throws Exception {
         this.session = session;
         this.serverDao = serverDao;
         this.transactionTypeDao = transactionTypeDao;
+        this.configRepository = configRepository;
+
+        // when bucketed, the bucket column is part of the partition key so that partitions stay
+        // bounded, and the tables expire whole sstables at a time (via TTL and
+        // TimeWindowCompactionStrategy) instead of relying on tombstones
+        String bucketColumn = "";
+        String bucketKey = "";
+        String tableOptions = "";
+        if (BUCKETED) {
+            bucketColumn = " bucket timestamp,";
+            bucketKey = ", bucket";
+            tableOptions = castUntainted(" with compaction = { 'class'"
+                    + " : 'TimeWindowCompactionStrategy', 'compaction_window_unit' : 'HOURS',"
+                    + " 'compaction_window_size' : " + BUCKET_HOURS + " }");
+        }
 
-        session.execute("create table if not exists trace_tt_slow_point (server_rollup varchar,"
-                + " transaction_type varchar, capture_time timestamp, server_id varchar,"
-                + " trace_id varchar, duration_nanos bigint, error boolean, user varchar,"
-                + " attributes blob, primary key ((server_rollup, transaction_type), capture_time,"
-                + " server_id, trace_id))");
-
-        session.execute("create table if not exists trace_tn_slow_point (server_rollup varchar,"
-                + " transaction_type varchar, transaction_name varchar, capture_time timestamp,"
-                + " server_id varchar, trace_id varchar, duration_nanos bigint, error boolean,"
-                + " user varchar, attributes blob, primary key ((server_rollup, transaction_type,"
-                + " transaction_name), capture_time, server_id, trace_id))");
+        session.execute("create table if not exists " + table("trace_tt_slow_point")
+                + " (server_rollup varchar," + bucketColumn + " transaction_type varchar,"
+                + " capture_time timestamp, server_id varchar, trace_id varchar,"
+                + " duration_nanos bigint, error boolean, user varchar, attributes blob,"
+                + " primary key ((server_rollup, transaction_type" + bucketKey + "), capture_time,"
+                + " server_id, trace_id))" + tableOptions);
 
-        session.execute("create table if not exists trace_tt_error_point (server_rollup varchar,"
-                + " transaction_type varchar, capture_time timestamp, server_id varchar,"
+        session.execute("create table if not exists " + table("trace_tn_slow_point")
+                + " (server_rollup varchar," + bucketColumn + " transaction_type varchar,"
+                + " transaction_name varchar, capture_time timestamp, server_id varchar,"
+                + " trace_id varchar, duration_nanos bigint, error boolean, user varchar,"
+                + " attributes blob, primary key ((server_rollup, transaction_type,"
+                + " transaction_name" + bucketKey + "), capture_time, server_id, trace_id))"
+                + tableOptions);
+
+        session.execute("create table if not exists " + table("trace_tt_error_point")
+                + " (server_rollup varchar," + bucketColumn + " transaction_type varchar,"
+                + " capture_time timestamp, server_id varchar, trace_id varchar,"
+                + " duration_nanos bigint, error_message varchar, user varchar, attributes blob,"
+                + " primary key ((server_rollup, transaction_type" + bucketKey + "), capture_time,"
+                + " server_id, trace_id))" + tableOptions);
+
+        session.execute("create table if not exists " + table("trace_tn_error_point")
+                + " (server_rollup varchar," + bucketColumn + " transaction_type varchar,"
+                + " transaction_name varchar, capture_time timestamp, server_id varchar,"
                 + " trace_id varchar, duration_nanos bigint, error_message varchar, user varchar,"
-                + " attributes blob, primary key ((server_rollup, transaction_type), capture_time,"
-                + " server_id, trace_id))");
-
-        session.execute("create table if not exists trace_tn_error_point (server_rollup varchar,"
-                + " transaction_type varchar, transaction_name varchar, capture_time timestamp,"
-                + " server_id varchar, trace_id varchar, duration_nanos bigint,"
-                + " error_message varchar, user varchar, attributes blob, primary key"
-                + " ((server_rollup, transaction_type, transaction_name), capture_time, server_id,"
-                + " trace_id))");
-
-        session.execute("create table if not exists trace_tt_error_message (server_rollup varchar,"
-                + " transaction_type varchar, capture_time timestamp, server_id varchar,"
+                + " attributes blob, primary key ((server_rollup, transaction_type,"
+                + " transaction_name" + bucketKey + "), capture_time, server_id, trace_id))"
+                + tableOptions);
+
+        session.execute("create table if not exists " + table("trace_tt_error_message")
+                + " (server_rollup varchar," + bucketColumn + " transaction_type varchar,"
+                + " capture_time timestamp, server_id varchar, trace_id varchar,"
+                + " error_message varchar, primary key ((server_rollup, transaction_type"
+                + bucketKey + "), capture_time, server_id, trace_id))" + tableOptions);
+
+        session.execute("create table if not exists " + table("trace_tn_error_message")
+                + " (server_rollup varchar," + bucketColumn + " transaction_type varchar,"
+                + " transaction_name varchar, capture_time timestamp, server_id varchar,"
                 + " trace_id varchar, error_message varchar, primary key ((server_rollup,"
-                + " transaction_type), capture_time, server_id, trace_id))");
-
-        session.execute("create table if not exists trace_tn_error_message (server_rollup varchar,"
-                + " transaction_type varchar, transaction_name varchar, capture_time timestamp,"
-                + " server_id varchar, trace_id varchar, error_message varchar, primary key"
-                + " ((server_rollup, transaction_type, transaction_name), capture_time, server_id,"
-                + " trace_id))");
+                + " transaction_type, transaction_name" + bucketKey + "), capture_time,"
+                + " server_id, trace_id))" + tableOptions);
 
         session.execute("create table if not exists trace_header (server_id varchar,"
                 + " trace_id varchar, header blob, primary key (server_id, trace_id))");
@@ -153,58 +207,80 @@ public class TraceDao implements TraceRepository {
         // using a counter would be nice since only need sum over capture_time range
         // but counter has no TTL, see https://issues.apache.org/jira/browse/CASSANDRA-2103
         // so adding trace_id to provide uniqueness
-        session.execute("create table if not exists trace_tt_slow_count (server_rollup varchar,"
-                + " transaction_type varchar, capture_time timestamp, server_id varchar,"
-                + " trace_id varchar, primary key ((server_rollup, transaction_type), capture_time,"
-                + " server_id, trace_id))");
-
-        session.execute("create table if not exists trace_tn_slow_count (server_rollup varchar,"
-                + " transaction_type varchar, transaction_name varchar, capture_time timestamp,"
-                + " server_id varchar, trace_id varchar, primary key ((server_rollup,"
-                + " transaction_type, transaction_name), capture_time, server_id, trace_id))");
-
-        session.execute("create table if not exists trace_tt_error (server_rollup varchar,"
-                + " transaction_type varchar, capture_time timestamp, server_id varchar,"
-                + " trace_id varchar, primary key ((server_rollup, transaction_type), capture_time,"
-                + " server_id, trace_id))");
-
-        session.execute("create table if not exists trace_tn_error (server_rollup varchar,"
-                + " transaction_type varchar, transaction_name varchar, capture_time timestamp,"
-                + " server_id varchar, trace_id varchar, primary key ((server_rollup,"
-                + " transaction_type, transaction_name), capture_time, server_id, trace_id))");
-
-        insertOverallSlowPoint = session.prepare("insert into trace_tt_slow_point (server_rollup,"
-                + " transaction_type, capture_time, server_id, trace_id, duration_nanos, error,"
-                + " user, attributes) values (?, ?, ?, ?, ?, ?, ?, ?, ?)");
-
-        insertTransactionSlowPoint = session.prepare("insert into trace_tn_slow_point"
-                + " (server_rollup, transaction_type, transaction_name, capture_time, server_id,"
-                + " trace_id, duration_nanos, error, user, attributes) values"
-                + " (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
-
-        insertOverallSlowCount = session.prepare("insert into trace_tt_slow_count (server_rollup,"
-                + " transaction_type, capture_time, server_id, trace_id) values (?, ?, ?, ?, ?)");
+        session.execute("create table if not exists " + table("trace_tt_slow_count")
+                + " (server_rollup varchar," + bucketColumn + " transaction_type varchar,"
+                + " capture_time timestamp, server_id varchar, trace_id varchar, primary key"
+                + " ((server_rollup, transaction_type" + bucketKey + "), capture_time, server_id,"
+                + " trace_id))" + tableOptions);
+
+        session.execute("create table if not exists " + table("trace_tn_slow_count")
+                + " (server_rollup varchar," + bucketColumn + " transaction_type varchar,"
+                + " transaction_name varchar, capture_time timestamp, server_id varchar,"
+                + " trace_id varchar, primary key ((server_rollup, transaction_type,"
+                + " transaction_name" + bucketKey + "), capture_time, server_id, trace_id))"
+                + tableOptions);
+
+        session.execute("create table if not exists " + table("trace_tt_error")
+                + " (server_rollup varchar," + bucketColumn + " transaction_type varchar,"
+                + " capture_time timestamp, server_id varchar, trace_id varchar, primary key"
+                + " ((server_rollup, transaction_type" + bucketKey + "), capture_time, server_id,"
+                + " trace_id))" + tableOptions);
+
+        session.execute("create table if not exists " + table("trace_tn_error")
+                + " (server_rollup varchar," + bucketColumn + " transaction_type varchar,"
+                + " transaction_name varchar, capture_time timestamp, server_id varchar,"
+                + " trace_id varchar, primary key ((server_rollup, transaction_type,"
+                + " transaction_name" + bucketKey + "), capture_time, server_id, trace_id))"
+                + tableOptions);
+
+        // bucket is always the last bind marker (when bucketed) so that binding is otherwise the
+        // same for both schemas
+        String insertBucket = BUCKETED ? ", bucket" : "";
+        String insertBucketMarker = BUCKETED ? ", ?" : "";
+        String whereBucket = BUCKETED ? " and bucket = ?" : "";
+        // ttl is bound on each insert (instead of using default_time_to_live) so that changes to
+        // the trace expiration apply without altering the tables
+        String insertTtl = BUCKETED ? " using ttl ?" : "";
+
+        insertOverallSlowPoint = session.prepare("insert into " + table("trace_tt_slow_point")
+                + " (server_rollup, transaction_type, capture_time, server_id, trace_id,"
+                + " duration_nanos, error, user, attributes" + insertBucket + ") values"
+                + " (?, ?, ?, ?, ?, ?, ?, ?, ?" + insertBucketMarker + ")" + insertTtl);
 
-        insertTransactionSlowCount = session.prepare("insert into trace_tn_slow_count"
+        insertTransactionSlowPoint = session.prepare("insert into " + table("trace_tn_slow_point")
                 + " (server_rollup, transaction_type, transaction_name, capture_time, server_id,"
-                + " trace_id) values (?, ?, ?, ?, ?, ?)");
+                + " trace_id, duration_nanos, error, user, attributes" + insertBucket + ") values"
+                + " (?, ?, ?, ?, ?, ?, ?, ?, ?, ?" + insertBucketMarker + ")" + insertTtl);
 
-        insertOverallErrorPoint = session.prepare("insert into trace_tt_error_point (server_rollup,"
-                + " transaction_type, capture_time, server_id, trace_id, duration_nanos,"
-                + " error_message, user, attributes) values (?, ?, ?, ?, ?, ?, ?, ?, ?)");
+        insertOverallSlowCount = session.prepare("insert into " + table("trace_tt_slow_count")
+                + " (server_rollup, transaction_type, capture_time, server_id, trace_id"
+                + insertBucket + ") values (?, ?, ?, ?, ?" + insertBucketMarker + ")" + insertTtl);
 
-        insertTransactionErrorPoint = session.prepare("insert into trace_tn_error_point"
+        insertTransactionSlowCount = session.prepare("insert into " + table("trace_tn_slow_count")
                 + " (server_rollup, transaction_type, transaction_name, capture_time, server_id,"
-                + " trace_id, duration_nanos, error_message, user, attributes) values"
-                + " (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+                + " trace_id" + insertBucket + ") values (?, ?, ?, ?, ?, ?" + insertBucketMarker
+                + ")" + insertTtl);
 
-        insertOverallErrorMessage = session.prepare("insert into trace_tt_error_message"
+        insertOverallErrorPoint = session.prepare("insert into " + table("trace_tt_error_point")
                 + " (server_rollup, transaction_type, capture_time, server_id, trace_id,"
-                + " error_message) values (?, ?, ?, ?, ?, ?)");
+                + " duration_nanos, error_message, user, attributes" + insertBucket + ") values"
+                + " (?, ?, ?, ?, ?, ?, ?, ?, ?" + insertBucketMarker + ")" + insertTtl);
 
-        insertTransactionErrorMessage = session.prepare("insert into trace_tn_error_message"
+        insertTransactionErrorPoint = session.prepare("insert into " + table("trace_tn_error_point")
                 + " (server_rollup, transaction_type, transaction_name, capture_time, server_id,"
-                + " trace_id, error_message) values (?, ?, ?, ?, ?, ?, ?)");
+                + " trace_id, duration_nanos, error_message, user, attributes" + insertBucket
+                + ") values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?" + insertBucketMarker + ")" + insertTtl);
+
+        insertOverallErrorMessage = session.prepare("insert into "
+                + table("trace_tt_error_message") + " (server_rollup, transaction_type,"
+                + " capture_time, server_id, trace_id, error_message" + insertBucket + ") values"
+                + " (?, ?, ?, ?, ?, ?" + insertBucketMarker + ")" + insertTtl);
+
+        insertTransactionErrorMessage = session.prepare("insert into "
+                + table("trace_tn_error_message") + " (server_rollup, transaction_type,"
+                + " transaction_name, capture_time, server_id, trace_id, error_message"
+                + insertBucket + ") values (?, ?, ?, ?, ?, ?, ?" + insertBucketMarker + ")"
+                + insertTtl);
 
         insertHeader = session
                 .prepare("insert into trace_header (server_id, trace_id, header) values (?, ?, ?)");
@@ -219,43 +295,68 @@ public class TraceDao implements TraceRepository {
                 + " (server_id, trace_id, profile) values (?, ?, ?)");
 
         readOverallSlowPoint = session.prepare("select server_id, trace_id, capture_time,"
-                + " duration_nanos, error, user, attributes from trace_tt_slow_point"
+                + " duration_nanos, error, user, attributes from " + table("trace_tt_slow_point")
                 + " where server_rollup = ? and transaction_type = ? and capture_time > ?"
-                + " and capture_time <= ?");
+                + " and capture_time <= ?" + whereBucket);
 
         readTransactionSlowPoint = session.prepare("select server_id, trace_id, capture_time,"
-                + " duration_nanos, error, user, attributes from trace_tn_slow_point"
+                + " duration_nanos, error, user, attributes from " + table("trace_tn_slow_point")
                 + " where server_rollup = ? and transaction_type = ? and transaction_name = ?"
-                + " and capture_time > ? and capture_time <= ?");
+                + " and capture_time > ? and capture_time <= ?" + whereBucket);
 
         readOverallErrorPoint = session.prepare("select server_id, trace_id, capture_time,"
-                + " duration_nanos, error_message, user, attributes from trace_tt_error_point"
-                + " where server_rollup = ? and transaction_type = ? and capture_time > ?"
-                + " and capture_time <= ?");
+                + " duration_nanos, error_message, user, attributes from "
+                + table("trace_tt_error_point") + " where server_rollup = ?"
+                + " and transaction_type = ? and capture_time > ? and capture_time <= ?"
+                + whereBucket);
 
         readTransactionErrorPoint = session.prepare("select server_id, trace_id, capture_time,"
-                + " duration_nanos, error_message, user, attributes from trace_tn_error_point"
-                + " where server_rollup = ? and transaction_type = ? and transaction_name = ?"
-                + " and capture_time > ? and capture_time <= ?");
+                + " duration_nanos, error_message, user, attributes from "
+                + table("trace_tn_error_point") + " where server_rollup = ?"
+                + " and transaction_type = ? and transaction_name = ? and capture_time > ?"
+                + " and capture_time <= ?" + whereBucket);
+
+        readOverallSlowCount = session.prepare("select count(*) from "
+                + table("trace_tt_slow_count") + " where server_rollup = ?"
+                + " and transaction_type = ? and capture_time > ? and capture_time <= ?"
+                + whereBucket);
+
+        readTransactionSlowCount = session.prepare("select count(*) from "
+                + table("trace_tn_slow_count") + " where server_rollup = ?"
+                + " and transaction_type = ? and transaction_name = ? and capture_time > ?"
+                + " and capture_time <= ?" + whereBucket);
+
+        readOverallErrorCount = session.prepare("select count(*) from " + table("trace_tt_error")
+                + " where server_rollup = ? and transaction_type = ? and capture_time > ?"
+                + " and capture_time <= ?" + whereBucket);
 
-        readOverallErrorMessage = session.prepare("select capture_time, error_message"
-                + " from trace_tt_error_message where server_rollup = ? and transaction_type = ?"
-                + " and capture_time > ? and capture_time <= ?");
+        readTransactionErrorCount = session.prepare("select count(*) from "
+                + table("trace_tn_error") + " where server_rollup = ? and transaction_type = ?"
+                + " and transaction_name = ? and capture_time > ? and capture_time <= ?"
+                + whereBucket);
 
-        readTransactionErrorMessage = session.prepare("select capture_time, error_message"
-                + " from trace_tn_error_message where server_rollup = ? and transaction_type = ?"
-                + " and transaction_name = ? and capture_time > ? and capture_time <= ?");
+        readOverallErrorMessage = session.prepare("select capture_time, error_message from "
+                + table("trace_tt_error_message") + " where server_rollup = ?"
+                + " and transaction_type = ? and capture_time > ? and capture_time <= ?"
+                + whereBucket);
+
+        readTransactionErrorMessage = session.prepare("select capture_time, error_message from "
+                + table("trace_tn_error_message") + " where server_rollup = ?"
+                + " and transaction_type = ? and transaction_name = ? and capture_time > ?"
+                + " and capture_time <= ?" + whereBucket);
 
         readHeader = session
                 .prepare("select header from trace_header where server_id = ? and trace_id = ?");
 
-        deletePartialOverallSlowPoint = session.prepare("delete from trace_tt_slow_point"
-                + " where server_rollup = ? and transaction_type = ? and capture_time = ?"
-                + " and server_id = ? and trace_id = ?");
+        deletePartialOverallSlowPoint = session.prepare("delete from "
+                + table("trace_tt_slow_point") + " where server_rollup = ?"
+                + " and transaction_type = ? and capture_time = ? and server_id = ?"
+                + " and trace_id = ?" + whereBucket);
 
-        deletePartialTransactionSlowPoint = session.prepare("delete from trace_tn_slow_point"
-                + " where server_rollup = ? and transaction_type = ? and transaction_name = ?"
-                + " and capture_time = ? and server_id = ? and trace_id = ?");
+        deletePartialTransactionSlowPoint = session.prepare("delete from "
+                + table("trace_tn_slow_point") + " where server_rollup = ?"
+                + " and transaction_type = ? and transaction_name = ? and capture_time = ?"
+                + " and server_id = ? and trace_id = ?" + whereBucket);
     }
 
     @Override
@@ -281,6 +382,7 @@ public class TraceDao implements TraceRepository {
                 boundStatement.setBool(i++, header.hasError());
                 boundStatement.setString(i++, Strings.emptyToNull(header.getUser()));
                 boundStatement.setBytes(i++, Messages.toByteBuffer(header.getAttributeList()));
+                bindInsertBucket(boundStatement, i, header.getCaptureTime());
                 session.execute(boundStatement);
 
                 boundStatement = insertTransactionSlowPoint.bind();
@@ -295,6 +397,7 @@ public class TraceDao implements TraceRepository {
                 boundStatement.setBool(i++, header.hasError());
                 boundStatement.setString(i++, Strings.emptyToNull(header.getUser()));
                 boundStatement.setBytes(i++, Messages.toByteBuffer(header.getAttributeList()));
+                bindInsertBucket(boundStatement, i, header.getCaptureTime());
                 session.execute(boundStatement);
 
                 boundStatement = insertOverallSlowCount.bind();
@@ -304,6 +407,7 @@ public class TraceDao implements TraceRepository {
                 boundStatement.setTimestamp(i++, new Date(header.getCaptureTime()));
                 boundStatement.setString(i++, serverId);
                 boundStatement.setString(i++, trace.getId());
+                bindInsertBucket(boundStatement, i, header.getCaptureTime());
                 session.execute(boundStatement);
 
                 boundStatement = insertTransactionSlowCount.bind();
@@ -314,6 +418,7 @@ public class TraceDao implements TraceRepository {
                 boundStatement.setTimestamp(i++, new Date(header.getCaptureTime()));
                 boundStatement.setString(i++, serverId);
                 boundStatement.setString(i++, trace.getId());
+                bindInsertBucket(boundStatement, i, header.getCaptureTime());
                 session.execute(boundStatement);
 
                 if (priorHeader != null) {
@@ -324,6 +429,7 @@ public class TraceDao implements TraceRepository {
                     boundStatement.setTimestamp(i++, new Date(priorHeader.getCaptureTime()));
                     boundStatement.setString(i++, serverId);
                     boundStatement.setString(i++, trace.getId());
+                    bindBucket(boundStatement, i, priorHeader.getCaptureTime());
                     session.execute(boundStatement);
 
                     boundStatement = deletePartialTransactionSlowPoint.bind();
@@ -334,6 +440,7 @@ public class TraceDao implements TraceRepository {
                     boundStatement.setTimestamp(i++, new Date(priorHeader.getCaptureTime()));
                     boundStatement.setString(i++, serverId);
                     boundStatement.setString(i++, trace.getId());
+                    bindBucket(boundStatement, i, priorHeader.getCaptureTime());
                     session.execute(boundStatement);
                 }
             }
@@ -346,6 +453,7 @@ public class TraceDao implements TraceRepository {
                 boundStatement.setString(i++, serverId);
                 boundStatement.setString(i++, trace.getId());
                 boundStatement.setString(i++, header.getError().getMessage());
+                bindInsertBucket(boundStatement, i, header.getCaptureTime());
                 session.execute(boundStatement);
 
                 boundStatement = insertTransactionErrorMessage.bind();
@@ -357,6 +465,7 @@ public class TraceDao implements TraceRepository {
                 boundStatement.setString(i++, serverId);
                 boundStatement.setString(i++, trace.getId());
                 boundStatement.setString(i++, header.getError().getMessage());
+                bindInsertBucket(boundStatement, i, header.getCaptureTime());
                 session.execute(boundStatement);
 
                 boundStatement = insertOverallErrorPoint.bind();
@@ -370,6 +479,7 @@ public class TraceDao implements TraceRepository {
                 boundStatement.setString(i++, header.getError().getMessage());
                 boundStatement.setString(i++, Strings.emptyToNull(header.getUser()));
                 boundStatement.setBytes(i++, Messages.toByteBuffer(header.getAttributeList()));
+                bindInsertBucket(boundStatement, i, header.getCaptureTime());
                 session.execute(boundStatement);
 
                 boundStatement = insertTransactionErrorPoint.bind();
@@ -384,6 +494,7 @@ public class TraceDao implements TraceRepository {
                 boundStatement.setString(i++, header.getError().getMessage());
                 boundStatement.setString(i++, Strings.emptyToNull(header.getUser()));
                 boundStatement.setBytes(i++, Messages.toByteBuffer(header.getAttributeList()));
+                bindInsertBucket(boundStatement, i, header.getCaptureTime());
                 session.execute(boundStatement);
             }
             serverDao.updateLastCaptureTime(serverRollup, serverRollup.equals(serverId));
@@ -431,117 +542,42 @@ public class TraceDao implements TraceRepository {
     @Override
     public Result<TracePoint> readSlowPoints(TraceQuery query, TracePointFilter filter, int limit)
             throws IOException {
-        String transactionName = query.transactionName();
-        if (transactionName == null) {
-            BoundStatement boundStatement = readOverallSlowPoint.bind();
-            boundStatement.setString(0, query.serverRollup());
-            boundStatement.setString(1, query.transactionType());
-            boundStatement.setTimestamp(2, new Date(query.from()));
-            boundStatement.setTimestamp(3, new Date(query.to()));
-            ResultSet results = session.execute(boundStatement);
-            return processPoints(results, filter, limit, false);
-        } else {
-            BoundStatement boundStatement = readTransactionSlowPoint.bind();
-            boundStatement.setString(0, query.serverRollup());
-            boundStatement.setString(1, query.transactionType());
-            boundStatement.setString(2, transactionName);
-            boundStatement.setTimestamp(3, new Date(query.from()));
-            boundStatement.setTimestamp(4, new Date(query.to()));
-            ResultSet results = session.execute(boundStatement);
-            return processPoints(results, filter, limit, false);
-        }
+        List<ResultSet> results =
+                executeQuery(readOverallSlowPoint, readTransactionSlowPoint, query);
+        return processPoints(results, filter, limit, false);
     }
 
     @Override
     public Result<TracePoint> readErrorPoints(TraceQuery query, TracePointFilter filter,
             int limit) throws IOException {
-        String transactionName = query.transactionName();
-        if (transactionName == null) {
-            BoundStatement boundStatement = readOverallErrorPoint.bind();
-            boundStatement.setString(0, query.serverRollup());
-            boundStatement.setString(1, query.transactionType());
-            boundStatement.setTimestamp(2, new Date(query.from()));
-            boundStatement.setTimestamp(3, new Date(query.to()));
-            ResultSet results = session.execute(boundStatement);
-            return processPoints(results, filter, limit, true);
-        } else {
-            BoundStatement boundStatement = readTransactionErrorPoint.bind();
-            boundStatement.setString(0, query.serverRollup());
-            boundStatement.setString(1, query.transactionType());
-            boundStatement.setString(2, transactionName);
-            boundStatement.setTimestamp(3, new Date(query.from()));
-            boundStatement.setTimestamp(4, new Date(query.to()));
-            ResultSet results = session.execute(boundStatement);
-            return processPoints(results, filter, limit, true);
-        }
+        List<ResultSet> results =
+                executeQuery(readOverallErrorPoint, readTransactionErrorPoint, query);
+        return processPoints(results, filter, limit, true);
     }
 
     @Override
     public long readSlowCount(TraceQuery query) {
-        String transactionName = query.transactionName();
-        if (transactionName == null) {
-            ResultSet results = session.execute(
-                    "select count(*) from trace_tt_slow_count where server_rollup = ?"
-                            + " and transaction_type = ? and capture_time > ?"
-                            + " and capture_time <= ?",
-                    query.serverRollup(), query.transactionType(), query.from(), query.to());
-            return results.one().getLong(0);
-        } else {
-            ResultSet results = session.execute(
-                    "select count(*) from trace_tn_slow_count where server_rollup = ?"
-                            + " and transaction_type = ? and transaction_name = ?"
-                            + " and capture_time > ? and capture_time <= ?",
-                    query.serverRollup(), query.transactionType(), transactionName, query.from(),
-                    query.to());
-            return results.one().getLong(0);
-        }
+        List<ResultSet> results =
+                executeQuery(readOverallSlowCount, readTransactionSlowCount, query);
+        return sumCounts(results);
     }
 
     @Override
     public long readErrorCount(TraceQuery query) {
-        String transactionName = query.transactionName();
-        if (transactionName == null) {
-            ResultSet results = session.execute(
-                    "select count(*) from trace_tt_error where server_rollup = ?"
-                            + " and transaction_type = ? and capture_time > ?"
-                            + " and capture_time <= ?",
-                    query.serverRollup(), query.transactionType(), query.from(), query.to());
-            return results.one().getLong(0);
-        } else {
-            ResultSet results = session.execute(
-                    "select count(*) from trace_tn_error where server_rollup = ?"
-                            + " and transaction_type = ? and transaction_name = ?"
-                            + " and capture_time > ? and capture_time <= ?",
-                    query.serverRollup(), query.transactionType(), transactionName, query.from(),
-                    query.to());
-            return results.one().getLong(0);
-        }
+        List<ResultSet> results =
+                executeQuery(readOverallErrorCount, readTransactionErrorCount, query);
+        return sumCounts(results);
     }
 
     @Override
     public ErrorMessageResult readErrorMessages(TraceQuery query, ErrorMessageFilter filter,
             long resolutionMillis, long liveCaptureTime, int limit) throws Exception {
-        BoundStatement boundStatement;
-        String transactionName = query.transactionName();
-        if (transactionName == null) {
-            boundStatement = readOverallErrorMessage.bind();
-            boundStatement.setString(0, query.serverRollup());
-            boundStatement.setString(1, query.transactionType());
-            boundStatement.setTimestamp(2, new Date(query.from()));
-            boundStatement.setTimestamp(3, new Date(query.to()));
-        } else {
-            boundStatement = readTransactionErrorMessage.bind();
-            boundStatement.setString(0, query.serverRollup());
-            boundStatement.setString(1, query.transactionType());
-            boundStatement.setString(2, transactionName);
-            boundStatement.setTimestamp(3, new Date(query.from()));
-            boundStatement.setTimestamp(4, new Date(query.to()));
-        }
-        ResultSet results = session.execute(boundStatement);
+        List<ResultSet> results =
+                executeQuery(readOverallErrorMessage, readTransactionErrorMessage, query);
         // rows are already in order by captureTime, so saving sort step by using linked hash map
         Map<Long, MutableLong> pointCounts = Maps.newLinkedHashMap();
         Map<String, MutableLong> messageCounts = Maps.newHashMap();
-        for (Row row : results) {
+        for (Row row : Iterables.concat(results)) {
             long captureTime = checkNotNull(row.getTimestamp(0)).getTime();
             String errorMessage = checkNotNull(row.getString(1));
             captureTime =
@@ -655,10 +691,42 @@ public class TraceDao implements TraceRepository {
         return Trace.Header.parseFrom(ByteString.copyFrom(bytes));
     }
 
-    private Result<TracePoint> processPoints(ResultSet results, TracePointFilter filter,
+    // when bucketed, this issues one query per bucket in parallel (with at most
+    // MAX_CONCURRENT_BUCKET_QUERIES in flight), and the results are returned in bucket order so
+    // that rows are still in order by capture time
+    private List<ResultSet> executeQuery(PreparedStatement overallPS,
+            PreparedStatement transactionPS, TraceQuery query) {
+        String transactionName = query.transactionName();
+        PreparedStatement preparedStatement =
+                transactionName == null ? overallPS : transactionPS;
+        if (!BUCKETED) {
+            BoundStatement boundStatement = bindQuery(preparedStatement, query, null);
+            return ImmutableList.of(session.execute(boundStatement));
+        }
+        List<ResultSet> results = Lists.newArrayList();
+        Deque<ResultSetFuture> futures = new ArrayDeque<>();
+        long bucket = getBucket(query.from());
+        long lastBucket = getBucket(query.to());
+        while (bucket <= lastBucket) {
+            if (futures.size() == MAX_CONCURRENT_BUCKET_QUERIES) {
+                // the oldest bucket needs to be collected first anyways to keep bucket order
+                results.add(futures.removeFirst().getUninterruptibly());
+            }
+            BoundStatement boundStatement =
+                    bindQuery(preparedStatement, query, new Date(bucket));
+            futures.add(session.executeAsync(boundStatement));
+            bucket += BUCKET_MILLIS;
+        }
+        while (!futures.isEmpty()) {
+            results.add(futures.removeFirst().getUninterruptibly());
+        }
+        return results;
+    }
+
+    private Result<TracePoint> processPoints(List<ResultSet> results, TracePointFilter filter,
             int limit, boolean errorPoints) throws IOException {
         List<TracePoint> tracePoints = Lists.newArrayList();
-        for (Row row : results) {
+        for (Row row : Iterables.concat(results)) {
             int i = 0;
             String serverId = checkNotNull(row.getString(i++));
             String traceId = checkNotNull(row.getString(i++));
@@ -719,6 +787,60 @@ public class TraceDao implements TraceRepository {
         }
     }
 
+    private static BoundStatement bindQuery(PreparedStatement preparedStatement,
+            TraceQuery query, @Nullable Date bucket) {
+        BoundStatement boundStatement = preparedStatement.bind();
+        int i = 0;
+        boundStatement.setString(i++, query.serverRollup());
+        boundStatement.setString(i++, query.transactionType());
+        String transactionName = query.transactionName();
+        if (transactionName != null) {
+            boundStatement.setString(i++, transactionName);
+        }
+        boundStatement.setTimestamp(i++, new Date(query.from()));
+        boundStatement.setTimestamp(i++, new Date(query.to()));
+        if (bucket != null) {
+            boundStatement.setTimestamp(i++, bucket);
+        }
+        return boundStatement;
+    }
+
+    private static void bindBucket(BoundStatement boundStatement, int i, long captureTime) {
+        if (BUCKETED) {
+            boundStatement.setTimestamp(i, new Date(getBucket(captureTime)));
+        }
+    }
+
+    // the ttl bind marker follows the bucket bind marker (see insertTtl)
+    private void bindInsertBucket(BoundStatement boundStatement, int i, long captureTime) {
+        if (BUCKETED) {
+            boundStatement.setTimestamp(i, new Date(getBucket(captureTime)));
+            boundStatement.setInt(i + 1, getTtl());
+        }
+    }
+
+    // read on each insert so that updates to the trace expiration take effect immediately
+    private int getTtl() {
+        return Ints.saturatedCast(
+                HOURS.toSeconds(configRepository.getStorageConfig().traceExpirationHours()));
+    }
+
+    private static long sumCounts(List<ResultSet> results) {
+        long count = 0;
+        for (ResultSet result : results) {
+            count += result.one().getLong(0);
+        }
+        return count;
+    }
+
+    private static long getBucket(long captureTime) {
+        return (captureTime / BUCKET_MILLIS) * BUCKET_MILLIS;
+    }
+
+    private static String table(String name) {
+        return BUCKETED ? name + "_bucketed" : name;
+    }
+
     @Value.Immutable
     @Styles.AllParameters
     interface TraceKey {
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.central;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class IngestExecutorTest {
+
+    private IngestExecutor ingestExecutor;
+
+    private final List<String> executed = new CopyOnWriteArrayList<>();
+    private final CountDownLatch blockingTaskStarted = new CountDownLatch(1);
+    private final CountDownLatch blockingTaskCanComplete = new CountDownLatch(1);
+
+    @Before
+    public void beforeEachTest() {
+        // single worker thread so that execution order is deterministic
+        ingestExecutor = new IngestExecutor(1, 3);
+    }
+
+    @After
+    public void afterEachTest() throws Exception {
+        blockingTaskCanComplete.countDown();
+        ingestExecutor.close(SECONDS.toMillis(10));
+    }
+
+    @Test
+    public void shouldTakeTurnsAcrossAgents() throws Exception {
+        // given
+        executeBlockingTask("agent1");
+        // when
+        execute("agent1", "agent1-1");
+        execute("agent1", "agent1-2");
+        execute("agent1", "agent1-3");
+        execute("agent2", "agent2-1");
+        execute("agent2", "agent2-2");
+        blockingTaskCanComplete.countDown();
+        ingestExecutor.close(SECONDS.toMillis(10));
+        // then
+        assertThat(executed).containsExactly("agent1-blocking", "agent2-1", "agent1-1",
+                "agent2-2", "agent1-2", "agent1-3");
+    }
+
+    @Test
+    public void shouldRejectWhenAgentQueueIsFull() throws Exception {
+        // given
+        executeBlockingTask("agent1");
+        // when
+        boolean accepted1 = execute("agent1", "agent1-1");
+        boolean accepted2 = execute("agent1", "agent1-2");
+        boolean accepted3 = execute("agent1", "agent1-3");
+        boolean accepted4 = execute("agent1", "agent1-4");
+        boolean accepted5 = execute("agent2", "agent2-1");
+        // then
+        assertThat(accepted1).isTrue();
+        assertThat(accepted2).isTrue();
+        assertThat(accepted3).isTrue();
+        assertThat(accepted4).isFalse();
+        // other agents are not affected
+        assertThat(accepted5).isTrue();
+        assertThat(ingestExecutor.getQueueDepth()).isEqualTo(4);
+        assertThat(ingestExecutor.getQueueDepthPerAgent()).containsEntry("agent1", 3)
+                .containsEntry("agent2", 1);
+        assertThat(ingestExecutor.getRejectedCount()).isEqualTo(1);
+        assertThat(ingestExecutor.getRejectedCountPerAgent()).containsEntry("agent1", 1L)
+                .containsEntry("agent2", 0L);
+        assertThat(ingestExecutor.getAndResetStats().get("agent1").getRejectedCount())
+                .isEqualTo(1);
+    }
+
+    @Test
+    public void shouldDrainQueuedTasksOnClose() throws Exception {
+        // given
+        executeBlockingTask("agent1");
+        execute("agent1", "agent1-1");
+        execute("agent2", "agent2-1");
+        // when
+        blockingTaskCanComplete.countDown();
+        ingestExecutor.close(SECONDS.toMillis(10));
+        // then
+        assertThat(executed).hasSize(3).containsOnly("agent1-blocking", "agent1-1",
+                "agent2-1");
+        assertThat(ingestExecutor.getCompletedCount()).isEqualTo(3);
+        assertThat(ingestExecutor.getQueueDepth()).isEqualTo(0);
+        // and new tasks are rejected after close
+        assertThat(execute("agent1", "agent1-2")).isFalse();
+    }
+
+    private void executeBlockingTask(String serverId) throws InterruptedException {
+        ingestExecutor.execute(serverId, () -> {
+            blockingTaskStarted.countDown();
+            try {
+                blockingTaskCanComplete.await(10, SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            executed.add(serverId + "-blocking");
+        });
+        // wait for the worker to take the blocking task off of the agent's queue
+        assertThat(blockingTaskStarted.await(10, SECONDS)).isTrue();
+    }
+
+    private boolean execute(String serverId, String name) {
+        return ingestExecutor.execute(serverId, () -> executed.add(name));
+    }
+}
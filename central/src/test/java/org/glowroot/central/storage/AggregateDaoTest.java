@@ -0,0 +1,241 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.central.storage;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AggregateDaoTest {
+
+    private ExecutorService executor;
+
+    @Before
+    public void beforeEachTest() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void afterEachTest() {
+        executor.shutdown();
+    }
+
+    @Test
+    public void shouldReadSingleChunk() throws Exception {
+        // given
+        RecordingChunkReader chunkReader = new RecordingChunkReader(10, false);
+        // when
+        List<Long> captureTimes = AggregateDao.readChunked(0, 50, 100, false, chunkReader,
+                results -> results, MoreExecutors.directExecutor(), 2);
+        // then
+        assertThat(chunkReader.chunks).containsExactly("0-50");
+        assertThat(captureTimes).containsExactly(10L, 20L, 30L, 40L, 50L);
+    }
+
+    @Test
+    public void shouldReadMultipleChunksWithPartialLastChunk() throws Exception {
+        // given
+        RecordingChunkReader chunkReader = new RecordingChunkReader(10, false);
+        // when
+        List<Long> captureTimes = AggregateDao.readChunked(0, 250, 100, false, chunkReader,
+                results -> results, MoreExecutors.directExecutor(), 2);
+        // then
+        assertThat(chunkReader.chunks).containsExactly("0-100", "100-200", "200-250");
+        assertThat(captureTimes).hasSize(25);
+        assertThat(captureTimes).isSorted();
+        assertThat(captureTimes).doesNotHaveDuplicates();
+        assertThat(captureTimes.get(0)).isEqualTo(10);
+        assertThat(captureTimes.get(24)).isEqualTo(250);
+    }
+
+    @Test
+    public void shouldReadMultipleChunksWithInclusiveFrom() throws Exception {
+        // given
+        RecordingChunkReader chunkReader = new RecordingChunkReader(10, true);
+        // when
+        List<Long> captureTimes = AggregateDao.readChunked(0, 250, 100, true, chunkReader,
+                results -> results, MoreExecutors.directExecutor(), 2);
+        // then
+        assertThat(chunkReader.chunks).containsExactly("0-100", "101-201", "202-250");
+        assertThat(captureTimes).hasSize(26);
+        assertThat(captureTimes).isSorted();
+        assertThat(captureTimes).doesNotHaveDuplicates();
+        assertThat(captureTimes.get(0)).isEqualTo(0);
+        assertThat(captureTimes.get(25)).isEqualTo(250);
+    }
+
+    @Test
+    public void shouldReassembleInCaptureTimeOrderWhenChunksCompleteOutOfOrder()
+            throws Exception {
+        // given
+        RecordingChunkReader chunkReader = new RecordingChunkReader(10, false);
+        chunkReader.executor = executor;
+        chunkReader.reverseDelay = true;
+        // when
+        List<Long> captureTimes = AggregateDao.readChunked(0, 1000, 100, false, chunkReader,
+                results -> results, executor, 10);
+        // then
+        assertThat(chunkReader.chunks).hasSize(10);
+        assertThat(captureTimes).hasSize(100);
+        assertThat(captureTimes).isSorted();
+    }
+
+    @Test
+    public void shouldBoundConcurrentChunks() throws Exception {
+        // given
+        RecordingChunkReader chunkReader = new RecordingChunkReader(10, false);
+        chunkReader.executor = executor;
+        // when
+        List<Long> captureTimes = AggregateDao.readChunked(0, 1000, 100, false, chunkReader,
+                results -> results, executor, 2);
+        // then
+        assertThat(chunkReader.chunks).hasSize(10);
+        assertThat(chunkReader.maxInFlight.get()).isLessThanOrEqualTo(2);
+        assertThat(captureTimes).hasSize(100);
+        assertThat(captureTimes).isSorted();
+    }
+
+    @Test
+    public void shouldPropagateDecodeException() throws Exception {
+        // given
+        RecordingChunkReader chunkReader = new RecordingChunkReader(10, false);
+        IOException exception = new IOException("bad chunk");
+        // when
+        IOException thrown = null;
+        try {
+            AggregateDao.readChunked(0, 250, 100, false, chunkReader, results -> {
+                if (results.contains(150L)) {
+                    throw exception;
+                }
+                return results;
+            }, executor, 2);
+        } catch (IOException e) {
+            thrown = e;
+        }
+        // then
+        assertThat(thrown).isSameAs(exception);
+    }
+
+    @Test
+    public void shouldPropagateReadExceptionUnwrapped() throws Exception {
+        // given
+        IllegalStateException exception = new IllegalStateException("bad read");
+        AggregateDao.ChunkReader<List<Long>> chunkReader =
+                (from, to) -> Futures.immediateFailedFuture(exception);
+        // when
+        IllegalStateException thrown = null;
+        try {
+            AggregateDao.readChunked(0, 250, 100, false, chunkReader, results -> results,
+                    executor, 2);
+        } catch (IllegalStateException e) {
+            thrown = e;
+        }
+        // then
+        assertThat(thrown).isSameAs(exception);
+    }
+
+    @Test
+    public void shouldCancelRemainingChunksOnFailure() throws Exception {
+        // given
+        List<SettableFuture<List<Long>>> futures = Lists.newArrayList();
+        AggregateDao.ChunkReader<List<Long>> chunkReader = (from, to) -> {
+            SettableFuture<List<Long>> future = SettableFuture.create();
+            if (futures.isEmpty()) {
+                // only the first chunk completes, the others stay in flight
+                future.set(Lists.newArrayList());
+            }
+            futures.add(future);
+            return future;
+        };
+        // when
+        IOException thrown = null;
+        try {
+            AggregateDao.readChunked(0, 250, 100, false, chunkReader, results -> {
+                throw new IOException("bad chunk");
+            }, MoreExecutors.directExecutor(), 3);
+        } catch (IOException e) {
+            thrown = e;
+        }
+        // then
+        assertThat(thrown).hasMessage("bad chunk");
+        assertThat(futures).hasSize(3);
+        assertThat(futures.get(1).isCancelled()).isTrue();
+        assertThat(futures.get(2).isCancelled()).isTrue();
+    }
+
+    // returns the capture times of the rows in each chunk, with rows every intervalMillis
+    private static class RecordingChunkReader implements AggregateDao.ChunkReader<List<Long>> {
+
+        private final long intervalMillis;
+        private final boolean fromInclusive;
+
+        private final List<String> chunks = Lists.newCopyOnWriteArrayList();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicInteger maxInFlight = new AtomicInteger();
+
+        // when set, chunks complete asynchronously on this executor
+        private ExecutorService executor;
+        // when set, earlier chunks take longer to complete than later chunks
+        private boolean reverseDelay;
+
+        private RecordingChunkReader(long intervalMillis, boolean fromInclusive) {
+            this.intervalMillis = intervalMillis;
+            this.fromInclusive = fromInclusive;
+        }
+
+        @Override
+        public ListenableFuture<List<Long>> read(long from, long to) {
+            chunks.add(from + "-" + to);
+            List<Long> rows = Lists.newArrayList();
+            for (long captureTime = from; captureTime <= to; captureTime++) {
+                if (captureTime % intervalMillis == 0 && (fromInclusive || captureTime > from)) {
+                    rows.add(captureTime);
+                }
+            }
+            if (executor == null) {
+                return Futures.immediateFuture(rows);
+            }
+            int curr = inFlight.incrementAndGet();
+            maxInFlight.accumulateAndGet(curr, Math::max);
+            SettableFuture<List<Long>> future = SettableFuture.create();
+            long delayMillis = reverseDelay ? Math.max(1, (1000 - from) / 50) : 10;
+            executor.execute(() -> {
+                try {
+                    MILLISECONDS.sleep(delayMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                inFlight.decrementAndGet();
+                future.set(rows);
+            });
+            return future;
+        }
+    }
+}
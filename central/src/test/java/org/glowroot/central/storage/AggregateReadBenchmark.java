@@ -0,0 +1,148 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.central.storage;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.protobuf.ByteString;
+
+import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
+
+import static java.util.concurrent.TimeUnit.DAYS;
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+// measures the latency of a 30 day percentile chart query (histogram aggregates), reading the
+// whole range with a single query and decoding on the calling thread (the original behavior)
+// versus reading in parallel chunks and decoding on a worker pool (AggregateDao.readChunked())
+//
+// this is run via main() since central has no embedded cassandra, instead a local stand-in
+// serves pre-encoded rows with a fixed per-query latency plus a per-row latency, using a small
+// pool to model the limited parallelism of the cassandra node
+public class AggregateReadBenchmark {
+
+    private static final long QUERY_LATENCY_MICROS = 2000;
+    private static final long ROW_LATENCY_MICROS = 20;
+    private static final int STAND_IN_THREADS = 4;
+    private static final int RAW_VALUES_PER_HISTOGRAM = 500;
+
+    private static final int WARMUP_ITERATIONS = 20;
+    private static final int ITERATIONS = 50;
+
+    public static void main(String[] args) throws Exception {
+        ExecutorService standInExecutor =
+                Executors.newFixedThreadPool(STAND_IN_THREADS);
+        ExecutorService readExecutor =
+                Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            for (long intervalMinutes : new long[] {30, 5}) {
+                long intervalMillis = MINUTES.toMillis(intervalMinutes);
+                CassandraStandIn standIn =
+                        new CassandraStandIn(intervalMillis, standInExecutor);
+                long to = DAYS.toMillis(30);
+                double singleMillis = run(standIn, 0, to, to, MoreExecutors.directExecutor());
+                double chunkedMillis =
+                        run(standIn, 0, to, intervalMillis * 100, readExecutor);
+                System.out.format("30 day query at %d minute rollup (%d rows): single query"
+                        + " %.1f ms, chunked %.1f ms%n", intervalMinutes, to / intervalMillis,
+                        singleMillis, chunkedMillis);
+            }
+        } finally {
+            standInExecutor.shutdown();
+            readExecutor.shutdown();
+        }
+    }
+
+    private static double run(CassandraStandIn standIn, long from, long to, long chunkMillis,
+            Executor executor) throws Exception {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            read(standIn, from, to, chunkMillis, executor);
+        }
+        long startTick = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            read(standIn, from, to, chunkMillis, executor);
+        }
+        return NANOSECONDS.toMicros(System.nanoTime() - startTick) / 1000.0 / ITERATIONS;
+    }
+
+    private static void read(CassandraStandIn standIn, long from, long to, long chunkMillis,
+            Executor executor) throws Exception {
+        List<Aggregate.Histogram> histograms = AggregateDao.readChunked(from, to, chunkMillis,
+                false, standIn, rows -> {
+                    List<Aggregate.Histogram> list = Lists.newArrayList();
+                    for (ByteBuffer row : rows) {
+                        list.add(Aggregate.Histogram
+                                .parseFrom(ByteString.copyFrom(row.duplicate())));
+                    }
+                    return list;
+                }, executor, AggregateDao.MAX_CONCURRENT_READ_CHUNKS);
+        if (histograms.size() != (to - from) / standIn.intervalMillis) {
+            throw new IllegalStateException("Unexpected row count: " + histograms.size());
+        }
+    }
+
+    private static class CassandraStandIn implements AggregateDao.ChunkReader<List<ByteBuffer>> {
+
+        private final long intervalMillis;
+        private final ExecutorService executor;
+        private final ByteBuffer row;
+
+        private CassandraStandIn(long intervalMillis, ExecutorService executor) {
+            this.intervalMillis = intervalMillis;
+            this.executor = executor;
+            Random random = new Random();
+            Aggregate.Histogram.Builder histogram = Aggregate.Histogram.newBuilder();
+            long value = 0;
+            for (int i = 0; i < RAW_VALUES_PER_HISTOGRAM; i++) {
+                value += random.nextInt(1000000);
+                histogram.addOrderedRawValue(value);
+            }
+            row = ByteBuffer.wrap(histogram.build().toByteArray());
+        }
+
+        // from is exclusive and to is inclusive, same as the histogram table
+        @Override
+        public ListenableFuture<List<ByteBuffer>> read(long from, long to) {
+            final List<ByteBuffer> rows = Lists.newArrayList();
+            for (long captureTime = from - from % intervalMillis + intervalMillis;
+                    captureTime <= to; captureTime += intervalMillis) {
+                rows.add(row);
+            }
+            final SettableFuture<List<ByteBuffer>> future = SettableFuture.create();
+            long latencyMicros = QUERY_LATENCY_MICROS + rows.size() * ROW_LATENCY_MICROS;
+            // the stand-in thread is occupied for the whole latency, like a busy replica
+            executor.execute(() -> {
+                try {
+                    MICROSECONDS.sleep(latencyMicros);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                future.set(rows);
+            });
+            return future;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.central.storage;
+
+import java.util.List;
+import java.util.Map;
+
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import org.glowroot.common.live.ImmutableTracePointFilter;
+import org.glowroot.common.live.LiveTraceRepository.TracePoint;
+import org.glowroot.common.live.LiveTraceRepository.TracePointFilter;
+import org.glowroot.storage.repo.ImmutableTraceQuery;
+import org.glowroot.storage.repo.Result;
+import org.glowroot.storage.repo.TraceRepository.TraceQuery;
+import org.glowroot.wire.api.model.TraceOuterClass.Trace;
+
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TraceDaoIT {
+
+    // default value of glowroot.central.traceBucketHours
+    private static final long BUCKET_MILLIS = HOURS.toMillis(6);
+
+    // arbitrary bucket boundary
+    private static final long BOUNDARY = 10 * BUCKET_MILLIS;
+
+    private static Cluster cluster;
+    private static Session session;
+    private static TraceDao traceDao;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        // must be set before TraceDao is initialized
+        System.setProperty("glowroot.central.bucketedTraceTables", "true");
+        CassandraWrapper.start();
+        cluster = Cluster.builder().addContactPoint("127.0.0.1").build();
+        session = cluster.connect();
+        session.execute("create keyspace if not exists glowroot_unit_tests with replication ="
+                + " { 'class' : 'SimpleStrategy', 'replication_factor' : 1 }");
+        session.execute("use glowroot_unit_tests");
+
+        ServerDao serverDao = new ServerDao(session);
+        TransactionTypeDao transactionTypeDao = new TransactionTypeDao(session);
+        CentralConfigDao centralConfigDao = new CentralConfigDao(session);
+        ConfigRepositoryImpl configRepository =
+                new ConfigRepositoryImpl(serverDao, centralConfigDao);
+        traceDao = new TraceDao(session, serverDao, transactionTypeDao, configRepository);
+    }
+
+    @AfterClass
+    public static void tearDown() throws Exception {
+        session.close();
+        cluster.close();
+        CassandraWrapper.stop();
+        System.clearProperty("glowroot.central.bucketedTraceTables");
+    }
+
+    @Test
+    public void shouldCreateBucketedTablesWithTimeWindowCompaction() {
+        // when
+        Row row = session.execute("select compaction from system_schema.tables"
+                + " where keyspace_name = 'glowroot_unit_tests'"
+                + " and table_name = 'trace_tt_slow_point_bucketed'").one();
+        // then
+        Map<String, String> compaction = row.getMap(0, String.class, String.class);
+        assertThat(compaction.get("class")).endsWith("TimeWindowCompactionStrategy");
+        assertThat(compaction.get("compaction_window_unit")).isEqualTo("HOURS");
+        assertThat(compaction.get("compaction_window_size")).isEqualTo("6");
+    }
+
+    @Test
+    public void shouldBindTtlOnInsert() throws Exception {
+        // given
+        String serverId = "ttl";
+        // when
+        traceDao.collect(serverId, trace("abc", BOUNDARY, false));
+        // then
+        Row row = session.execute("select ttl(duration_nanos) from trace_tt_slow_point_bucketed"
+                + " where server_rollup = '" + serverId + "' and transaction_type = 'Web'"
+                + " and bucket = " + BOUNDARY).one();
+        // default trace expiration is 7 days
+        long expirationSeconds = HOURS.toSeconds(24 * 7);
+        assertThat(row.getInt(0)).isBetween((int) expirationSeconds - 60,
+                (int) expirationSeconds);
+    }
+
+    @Test
+    public void shouldReadAcrossBucketBoundary() throws Exception {
+        // given
+        String serverId = "boundary";
+        traceDao.collect(serverId, trace("before", BOUNDARY - 1, false));
+        traceDao.collect(serverId, trace("at", BOUNDARY, false));
+        // when
+        List<TracePoint> both = readSlowPoints(serverId, BOUNDARY - 2, BOUNDARY);
+        List<TracePoint> atOnly = readSlowPoints(serverId, BOUNDARY - 1, BOUNDARY);
+        List<TracePoint> beforeOnly = readSlowPoints(serverId, BOUNDARY - 2, BOUNDARY - 1);
+        // then
+        assertThat(both).hasSize(2);
+        assertThat(both.get(0).traceId()).isEqualTo("before");
+        assertThat(both.get(1).traceId()).isEqualTo("at");
+        assertThat(atOnly).hasSize(1);
+        assertThat(atOnly.get(0).traceId()).isEqualTo("at");
+        assertThat(beforeOnly).hasSize(1);
+        assertThat(beforeOnly.get(0).traceId()).isEqualTo("before");
+    }
+
+    @Test
+    public void shouldReadAcrossMultipleBuckets() throws Exception {
+        // given
+        String serverId = "multi";
+        long captureTime3 = BOUNDARY + 2 * BUCKET_MILLIS + 5;
+        traceDao.collect(serverId, trace("one", BOUNDARY - 1, false));
+        traceDao.collect(serverId, trace("two", BOUNDARY, true));
+        traceDao.collect(serverId, trace("three", captureTime3, true));
+        // when
+        List<TracePoint> slowPoints = readSlowPoints(serverId, BOUNDARY - 2, captureTime3);
+        TraceQuery query = query(serverId, BOUNDARY - 2, captureTime3);
+        long slowCount = traceDao.readSlowCount(query);
+        Result<TracePoint> errorPoints = traceDao.readErrorPoints(query, filter(), 100);
+        long errorCount = traceDao.readErrorCount(query);
+        // then
+        assertThat(slowPoints).hasSize(3);
+        assertThat(slowPoints.get(0).traceId()).isEqualTo("one");
+        assertThat(slowPoints.get(1).traceId()).isEqualTo("two");
+        assertThat(slowPoints.get(2).traceId()).isEqualTo("three");
+        assertThat(slowCount).isEqualTo(3);
+        assertThat(errorPoints.records()).hasSize(2);
+        assertThat(errorPoints.records().get(0).traceId()).isEqualTo("two");
+        assertThat(errorPoints.records().get(1).traceId()).isEqualTo("three");
+        assertThat(errorCount).isEqualTo(2);
+    }
+
+    private static List<TracePoint> readSlowPoints(String serverId, long from, long to)
+            throws Exception {
+        return traceDao.readSlowPoints(query(serverId, from, to), filter(), 100).records();
+    }
+
+    private static TraceQuery query(String serverId, long from, long to) {
+        return ImmutableTraceQuery.builder()
+                .serverRollup(serverId)
+                .transactionType("Web")
+                .from(from)
+                .to(to)
+                .build();
+    }
+
+    private static TracePointFilter filter() {
+        return ImmutableTracePointFilter.builder()
+                .durationNanosLow(0)
+                .build();
+    }
+
+    private static Trace trace(String traceId, long captureTime, boolean error) {
+        Trace.Header.Builder header = Trace.Header.newBuilder()
+                .setSlow(true)
+                .setStartTime(captureTime - 1)
+                .setCaptureTime(captureTime)
+                .setDurationNanos(SECONDS.toNanos(1))
+                .setTransactionType("Web")
+                .setTransactionName("/abc")
+                .setHeadline("/abc");
+        if (error) {
+            header.setError(Trace.Error.newBuilder()
+                    .setMessage("an error"));
+        }
+        return Trace.newBuilder()
+                .setId(traceId)
+                .setHeader(header)
+                .build();
+    }
+}
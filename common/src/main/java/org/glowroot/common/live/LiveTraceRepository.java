@@ -88,9 +88,7 @@ public interface LiveTraceRepository {
         }
 
         public boolean matchesAttributes(Map<String, ? extends Collection<String>> attributes) {
-            if (Strings.isNullOrEmpty(attributeName()) && (attributeValueComparator() == null
-                    || Strings.isNullOrEmpty(attributeValue()))) {
-                // no custom attribute filter
+            if (!hasAttributeFilter()) {
                 return true;
             }
             for (Entry<String, ? extends Collection<String>> entry : attributes.entrySet()) {
@@ -111,6 +109,19 @@ public interface LiveTraceRepository {
             return false;
         }
 
+        public boolean hasAttributeFilter() {
+            return !Strings.isNullOrEmpty(attributeName()) || (attributeValueComparator() != null
+                    && !Strings.isNullOrEmpty(attributeValue()));
+        }
+
+        // this is for callers that have attributes as name/value pairs, and should only be called
+        // when hasAttributeFilter() is true
+        public boolean matchesAttribute(String name, String value) {
+            return matchesUsingStringComparator(name, attributeName(), StringComparator.EQUALS)
+                    && matchesUsingStringComparator(value, attributeValue(),
+                            attributeValueComparator());
+        }
+
         private boolean matchesUsingStringComparator(String text, @Nullable String filterText,
                 @Nullable StringComparator filterComparator) throws AssertionError {
             if (filterComparator == null || Strings.isNullOrEmpty(filterText)) {
@@ -19,6 +19,7 @@ import java.util.List;
 
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.GlobalMeta;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.MethodSignature;
+import org.glowroot.wire.api.model.DownstreamServiceOuterClass.ReweaveProgress;
 
 public interface LiveWeavingService {
 
@@ -36,4 +37,6 @@ public interface LiveWeavingService {
             throws Exception;
 
     int reweave(String serverId) throws Exception;
+
+    ReweaveProgress getReweaveProgress(String serverId) throws Exception;
 }
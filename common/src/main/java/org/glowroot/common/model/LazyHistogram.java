@@ -105,6 +105,31 @@ public class LazyHistogram {
         }
     }
 
+    // the histogram being subtracted must have been previously merged into this histogram
+    public void subtract(Aggregate.Histogram toBeSubtractedHistogram) throws DataFormatException {
+        ByteString encodedBytes = toBeSubtractedHistogram.getEncodedBytes();
+        if (encodedBytes.isEmpty()) {
+            List<Long> orderedRawValues = toBeSubtractedHistogram.getOrderedRawValueList();
+            if (histogram == null) {
+                for (long rawValue : orderedRawValues) {
+                    remove(rawValue);
+                }
+            } else {
+                Histogram temp = createHistogram();
+                for (long rawValue : orderedRawValues) {
+                    temp.recordValue(rawValue);
+                }
+                histogram.subtract(temp);
+            }
+        } else {
+            if (histogram == null) {
+                convertValuesToHistogram();
+            }
+            histogram.subtract(
+                    Histogram.decodeFromByteBuffer(encodedBytes.asReadOnlyByteBuffer(), 0));
+        }
+    }
+
     public long getValueAtPercentile(double percentile) {
         if (histogram == null) {
             if (size == 0) {
@@ -130,6 +155,18 @@ public class LazyHistogram {
         }
     }
 
+    private void remove(long value) {
+        for (int i = 0; i < size; i++) {
+            if (values[i] == value) {
+                // shifting preserves sorted order
+                System.arraycopy(values, i + 1, values, i, size - i - 1);
+                size--;
+                return;
+            }
+        }
+        throw new IllegalArgumentException("Value not found in histogram: " + value);
+    }
+
     private void ensureCapacity(int capacity) {
         if (histogram != null) {
             return;
@@ -148,15 +185,20 @@ public class LazyHistogram {
 
     @EnsuresNonNull("histogram")
     private void convertValuesToHistogram() {
-        // tracking nanoseconds, but only at microsecond precision (to save histogram space)
-        histogram = new Histogram(1000, 2000, HISTOGRAM_SIGNIFICANT_DIGITS);
-        histogram.setAutoResize(true);
+        histogram = createHistogram();
         for (int i = 0; i < size; i++) {
             histogram.recordValue(values[i]);
         }
         values = new long[0];
     }
 
+    private static Histogram createHistogram() {
+        // tracking nanoseconds, but only at microsecond precision (to save histogram space)
+        Histogram histogram = new Histogram(1000, 2000, HISTOGRAM_SIGNIFICANT_DIGITS);
+        histogram.setAutoResize(true);
+        return histogram;
+    }
+
     private void sortValues() {
         Arrays.sort(values, 0, size);
         sorted = true;
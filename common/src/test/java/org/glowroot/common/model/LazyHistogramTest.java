@@ -78,6 +78,23 @@ public class LazyHistogramTest {
         shouldDecodeOnTopOfExisting(100000000, 200000000);
     }
 
+    @Test
+    public void shouldTestSubtract() throws Exception {
+        // test smaller numbers in more detail since that is where laziness occurs
+        for (int i = 0; i < 2000000; i += 10000) {
+            shouldTestSubtract(i, i);
+        }
+        shouldTestSubtract(10000000, 10000000);
+        shouldTestSubtract(100000000, 100000000);
+
+        // test smaller numbers in more detail since that is where laziness occurs
+        for (int i = 0; i < 2000000; i += 10000) {
+            shouldTestSubtract(i, 2 * i);
+        }
+        shouldTestSubtract(10000000, 20000000);
+        shouldTestSubtract(100000000, 200000000);
+    }
+
     private void shouldTestPercentiles(int num) {
         // given
         LazyHistogram lazyHistogram = new LazyHistogram();
@@ -152,6 +169,43 @@ public class LazyHistogramTest {
         assertPercentile(lazyHistogram, encodedSize + nonEncodedSize, 99.99);
     }
 
+    private void shouldTestSubtract(int retainedSize, int subtractedSize) throws Exception {
+        // given
+        LazyHistogram retained = new LazyHistogram();
+        for (int i = subtractedSize + retainedSize; i > subtractedSize; i -= 1000) {
+            retained.add(i);
+        }
+        LazyHistogram subtracted = new LazyHistogram();
+        for (int i = subtractedSize; i > 0; i -= 1000) {
+            subtracted.add(i);
+        }
+        Aggregate.Histogram retainedHistogram = retained.toProto(new ScratchBuffer());
+        Aggregate.Histogram subtractedHistogram = subtracted.toProto(new ScratchBuffer());
+        LazyHistogram lazyHistogram = new LazyHistogram();
+        lazyHistogram.merge(subtractedHistogram);
+        lazyHistogram.merge(retainedHistogram);
+        // when
+        lazyHistogram.subtract(subtractedHistogram);
+        // then
+        assertPercentile(lazyHistogram, subtractedSize, retainedSize, 50);
+        assertPercentile(lazyHistogram, subtractedSize, retainedSize, 95);
+        assertPercentile(lazyHistogram, subtractedSize, retainedSize, 99);
+        assertPercentile(lazyHistogram, subtractedSize, retainedSize, 99.9);
+        assertPercentile(lazyHistogram, subtractedSize, retainedSize, 99.99);
+    }
+
+    // asserts percentile of values uniformly distributed over (offset, offset + num]
+    private void assertPercentile(LazyHistogram lazyHistogram, int offset, int num,
+            double percentile) {
+        if (num == 0) {
+            assertThat(lazyHistogram.getValueAtPercentile(percentile)).isEqualTo(0);
+            return;
+        }
+        long low = (long) Math.floor((offset + num * percentile / 100) * 0.99 / 1000) * 1000;
+        long high = (long) Math.ceil((offset + num * percentile / 100) * 1.01 / 1000) * 1000;
+        assertThat(lazyHistogram.getValueAtPercentile(percentile)).isBetween(low, high);
+    }
+
     private void assertPercentile(LazyHistogram lazyHistogram, int num, double percentile) {
         long low = (long) Math.floor(num * percentile * 0.99 / (100 * 1000)) * 1000;
         long high = (long) Math.ceil(num * percentile * 1.01 / (100 * 1000)) * 1000;
@@ -16,9 +16,16 @@
 package org.glowroot.storage.repo.helper;
 
 import java.net.InetAddress;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.List;
 import java.util.Map.Entry;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
 
 import javax.crypto.SecretKey;
 import javax.mail.Address;
@@ -29,10 +36,15 @@ import javax.mail.Session;
 import javax.mail.internet.InternetAddress;
 import javax.mail.internet.MimeMessage;
 
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.immutables.value.Value;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import org.glowroot.common.model.LazyHistogram;
+import org.glowroot.common.util.Styles;
 import org.glowroot.storage.config.AlertConfig;
 import org.glowroot.storage.config.SmtpConfig;
 import org.glowroot.storage.repo.AggregateRepository;
@@ -59,58 +71,108 @@ public class AlertingService {
     private final AggregateRepository aggregateRepository;
     private final RollupLevelService rollupLevelService;
     private final MailService mailService;
+    private final Executor executor;
 
+    // sliding window state is retained between checks so that each check only needs to read and
+    // merge the aggregates captured since the previous check, instead of the whole time period
+    private final ConcurrentMap<AlertKey, AlertWindow> alertWindows = Maps.newConcurrentMap();
+
+    // alerts are checked in parallel using the given executor
     public AlertingService(ConfigRepository configRepository, ServerRepository serverRepository,
             TriggeredAlertRepository triggeredAlertRepository,
             AggregateRepository aggregateRepository, RollupLevelService rollupLevelService,
-            MailService mailService) {
+            MailService mailService, Executor executor) {
         this.configRepository = configRepository;
         this.serverRepository = serverRepository;
         this.triggeredAlertRepository = triggeredAlertRepository;
         this.aggregateRepository = aggregateRepository;
         this.rollupLevelService = rollupLevelService;
         this.mailService = mailService;
+        this.executor = executor;
     }
 
-    public void checkAlerts(long endTime) throws Exception {
+    public void checkAlerts(final long endTime) throws Exception {
+        Set<AlertKey> alertKeys = Sets.newHashSet();
+        List<FutureTask<Void>> futures = Lists.newArrayList();
         for (ServerRollup serverRollup : serverRepository.readServerRollups()) {
-            for (AlertConfig alertConfig : configRepository.getAlertConfigs(serverRollup.name())) {
-                try {
-                    checkAlert(serverRollup.name(), alertConfig, endTime);
-                } catch (Exception e) {
-                    logger.error(e.getMessage(), e);
-                }
+            final String serverRollupName = serverRollup.name();
+            for (final AlertConfig alertConfig : configRepository
+                    .getAlertConfigs(serverRollupName)) {
+                final AlertKey alertKey = ImmutableAlertKey.of(serverRollupName,
+                        alertConfig.version());
+                alertKeys.add(alertKey);
+                FutureTask<Void> future = new FutureTask<Void>(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        try {
+                            checkAlert(serverRollupName, alertConfig, alertKey, endTime);
+                        } catch (Exception e) {
+                            logger.error(e.getMessage(), e);
+                        }
+                        return null;
+                    }
+                });
+                executor.execute(future);
+                futures.add(future);
             }
         }
+        // discard sliding window state for alerts that have been deleted or modified
+        alertWindows.keySet().retainAll(alertKeys);
+        for (FutureTask<Void> future : futures) {
+            future.get();
+        }
     }
 
-    private void checkAlert(String serverRollup, AlertConfig alertConfig, long endTime)
-            throws Exception {
+    private void checkAlert(String serverRollup, AlertConfig alertConfig, AlertKey alertKey,
+            long endTime) throws Exception {
         long startTime = endTime - MINUTES.toMillis(alertConfig.timePeriodMinutes());
         // don't want to include the aggregate at startTime, so add 1
         startTime++;
         int rollupLevel = rollupLevelService.getRollupLevelForView(startTime, endTime);
-        List<PercentileAggregate> percentileAggregates =
-                aggregateRepository.readPercentileAggregates(
-                        ImmutableTransactionQuery.builder()
-                                .serverRollup(serverRollup)
-                                .transactionType(alertConfig.transactionType())
-                                .from(startTime)
-                                .to(endTime)
-                                .rollupLevel(rollupLevel)
-                                .build());
-        long transactionCount = 0;
-        LazyHistogram histogram = new LazyHistogram();
-        for (PercentileAggregate aggregate : percentileAggregates) {
-            transactionCount += aggregate.transactionCount();
-            histogram.merge(aggregate.histogram());
+        AlertWindow alertWindow = alertWindows.get(alertKey);
+        if (alertWindow == null) {
+            alertWindow = new AlertWindow();
+            AlertWindow existingAlertWindow = alertWindows.putIfAbsent(alertKey, alertWindow);
+            if (existingAlertWindow != null) {
+                alertWindow = existingAlertWindow;
+            }
+        }
+        long transactionCount;
+        long valueAtPercentile;
+        synchronized (alertWindow) {
+            if (alertWindow.rollupLevel != rollupLevel || alertWindow.lastEndTime > endTime) {
+                alertWindow.reset(rollupLevel);
+            }
+            alertWindow.evict(startTime);
+            // aggregates can be written after a check has already moved past their capture time
+            // (e.g. an agent retrying after central was unavailable, or a rollup that was not
+            // complete yet), but those are all captured after the latest aggregate that was read,
+            // so only that one (in case it has been rewritten since) and anything after it are
+            // re-read
+            long from = Math.max(startTime, alertWindow.getLatestCaptureTime());
+            alertWindow.removeFrom(from);
+            List<PercentileAggregate> percentileAggregates =
+                    aggregateRepository.readPercentileAggregates(
+                            ImmutableTransactionQuery.builder()
+                                    .serverRollup(serverRollup)
+                                    .transactionType(alertConfig.transactionType())
+                                    .from(from)
+                                    .to(endTime)
+                                    .rollupLevel(rollupLevel)
+                                    .build());
+            for (PercentileAggregate aggregate : percentileAggregates) {
+                alertWindow.add(aggregate);
+            }
+            alertWindow.lastEndTime = endTime;
+            transactionCount = alertWindow.transactionCount;
+            valueAtPercentile =
+                    alertWindow.histogram.getValueAtPercentile(alertConfig.percentile());
         }
         if (transactionCount < alertConfig.minTransactionCount()) {
             // don't clear existing triggered alert
             return;
         }
         boolean previouslyTriggered = triggeredAlertRepository.exists(alertConfig.version());
-        long valueAtPercentile = histogram.getValueAtPercentile(alertConfig.percentile());
         boolean currentlyTriggered =
                 valueAtPercentile >= MILLISECONDS.toNanos(alertConfig.thresholdMillis());
         if (previouslyTriggered && !currentlyTriggered) {
@@ -217,4 +279,58 @@ public class AlertingService {
         }
         return Session.getInstance(props, authenticator);
     }
+
+    @Value.Immutable
+    @Styles.AllParameters
+    interface AlertKey {
+        String serverRollup();
+        String alertConfigVersion();
+    }
+
+    // per-interval histograms within the alert's time period, along with their running merge
+    private static class AlertWindow {
+
+        // all fields are guarded by this
+        private final Deque<PercentileAggregate> aggregates = new ArrayDeque<PercentileAggregate>();
+        private LazyHistogram histogram = new LazyHistogram();
+        private long transactionCount;
+        private int rollupLevel = -1;
+        private long lastEndTime;
+
+        private void reset(int rollupLevel) {
+            aggregates.clear();
+            histogram = new LazyHistogram();
+            transactionCount = 0;
+            this.rollupLevel = rollupLevel;
+            lastEndTime = 0;
+        }
+
+        private long getLatestCaptureTime() {
+            return aggregates.isEmpty() ? 0 : aggregates.getLast().captureTime();
+        }
+
+        private void add(PercentileAggregate aggregate) throws Exception {
+            histogram.merge(aggregate.histogram());
+            transactionCount += aggregate.transactionCount();
+            aggregates.addLast(aggregate);
+        }
+
+        private void evict(long startTime) throws Exception {
+            while (!aggregates.isEmpty() && aggregates.getFirst().captureTime() < startTime) {
+                remove(aggregates.removeFirst());
+            }
+        }
+
+        // removes the aggregates that are about to be re-read so that late writes replace them
+        private void removeFrom(long from) throws Exception {
+            while (!aggregates.isEmpty() && aggregates.getLast().captureTime() >= from) {
+                remove(aggregates.removeLast());
+            }
+        }
+
+        private void remove(PercentileAggregate aggregate) throws Exception {
+            histogram.subtract(aggregate.histogram());
+            transactionCount -= aggregate.transactionCount();
+        }
+    }
 }
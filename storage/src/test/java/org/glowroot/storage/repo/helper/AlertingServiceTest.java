@@ -19,6 +19,7 @@ import javax.crypto.SecretKey;
 import javax.mail.Message;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.MoreExecutors;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -30,6 +31,7 @@ import org.glowroot.storage.config.ImmutableSmtpConfig;
 import org.glowroot.storage.config.SmtpConfig;
 import org.glowroot.storage.repo.AggregateRepository;
 import org.glowroot.storage.repo.AggregateRepository.PercentileAggregate;
+import org.glowroot.storage.repo.AggregateRepository.TransactionQuery;
 import org.glowroot.storage.repo.ConfigRepository;
 import org.glowroot.storage.repo.ImmutablePercentileAggregate;
 import org.glowroot.storage.repo.ImmutableServerRollup;
@@ -42,7 +44,9 @@ import org.glowroot.storage.util.Encryption;
 import org.glowroot.storage.util.MailService;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class AlertingServiceTest {
@@ -84,7 +88,8 @@ public class AlertingServiceTest {
         // given
         setup(1000000);
         AlertingService alertingService = new AlertingService(configRepository, serverRepository,
-                triggeredAlertRepository, aggregateRepository, rollupLevelService, mailService);
+                triggeredAlertRepository, aggregateRepository, rollupLevelService, mailService,
+                MoreExecutors.directExecutor());
         // when
         alertingService.checkAlerts(120000);
         // then
@@ -96,13 +101,128 @@ public class AlertingServiceTest {
         // given
         setup(999000);
         AlertingService alertingService = new AlertingService(configRepository, serverRepository,
-                triggeredAlertRepository, aggregateRepository, rollupLevelService, mailService);
+                triggeredAlertRepository, aggregateRepository, rollupLevelService, mailService,
+                MoreExecutors.directExecutor());
         // when
         alertingService.checkAlerts(120000);
         // then
         assertThat(mailService.getMessage()).isNull();
     }
 
+    @Test
+    public void shouldPickUpAggregateWrittenAfterPreviousCheck() throws Exception {
+        // given
+        AlertConfig alertConfig = ImmutableAlertConfig.builder()
+                .transactionType("tt")
+                .percentile(95)
+                .timePeriodMinutes(5)
+                .thresholdMillis(1)
+                .minTransactionCount(0)
+                .addEmailAddresses("to@example.org")
+                .build();
+        when(configRepository.getAlertConfigs(SERVER_ID))
+                .thenReturn(ImmutableList.of(alertConfig));
+        LazyHistogram lazyHistogram = new LazyHistogram();
+        lazyHistogram.add(1000000);
+        PercentileAggregate aggregate = ImmutablePercentileAggregate.builder()
+                .captureTime(240000)
+                .totalNanos(1000000)
+                .transactionCount(1)
+                .histogram(lazyHistogram.toProto(new ScratchBuffer()))
+                .build();
+        // the aggregate captured at 240000 is not visible yet during the first check
+        ImmutableTransactionQuery query = ImmutableTransactionQuery.builder()
+                .serverRollup(SERVER_ID)
+                .transactionType("tt")
+                .from(60001)
+                .to(360000)
+                .rollupLevel(0)
+                .build();
+        when(aggregateRepository.readPercentileAggregates(query))
+                .thenReturn(ImmutableList.of(aggregate));
+        AlertingService alertingService = new AlertingService(configRepository, serverRepository,
+                triggeredAlertRepository, aggregateRepository, rollupLevelService, mailService,
+                MoreExecutors.directExecutor());
+        alertingService.checkAlerts(300000);
+        assertThat(mailService.getMessage()).isNull();
+        // when
+        alertingService.checkAlerts(360000);
+        // then
+        assertThat(mailService.getMessage()).isNotNull();
+    }
+
+    @Test
+    public void shouldOnlyReadAggregatesAfterLatestAlreadyRead() throws Exception {
+        // given
+        AlertConfig alertConfig = ImmutableAlertConfig.builder()
+                .transactionType("tt")
+                .percentile(95)
+                .timePeriodMinutes(10)
+                .thresholdMillis(1)
+                .minTransactionCount(2)
+                .addEmailAddresses("to@example.org")
+                .build();
+        when(configRepository.getAlertConfigs(SERVER_ID))
+                .thenReturn(ImmutableList.of(alertConfig));
+        PercentileAggregate aggregate1 = createPercentileAggregate(240000, 1000000);
+        PercentileAggregate aggregate2 = createPercentileAggregate(300000, 1000000);
+        ImmutableTransactionQuery firstQuery = ImmutableTransactionQuery.builder()
+                .serverRollup(SERVER_ID)
+                .transactionType("tt")
+                .from(1)
+                .to(600000)
+                .rollupLevel(0)
+                .build();
+        // the aggregate captured at 300000 is not visible yet during the first check
+        when(aggregateRepository.readPercentileAggregates(firstQuery))
+                .thenReturn(ImmutableList.of(aggregate1));
+        ImmutableTransactionQuery secondQuery = ImmutableTransactionQuery.builder()
+                .serverRollup(SERVER_ID)
+                .transactionType("tt")
+                .from(240000)
+                .to(660000)
+                .rollupLevel(0)
+                .build();
+        when(aggregateRepository.readPercentileAggregates(secondQuery))
+                .thenReturn(ImmutableList.of(aggregate1, aggregate2));
+        AlertingService alertingService = new AlertingService(configRepository, serverRepository,
+                triggeredAlertRepository, aggregateRepository, rollupLevelService, mailService,
+                MoreExecutors.directExecutor());
+        alertingService.checkAlerts(600000);
+        assertThat(mailService.getMessage()).isNull();
+        // when
+        alertingService.checkAlerts(660000);
+        // then
+        verify(aggregateRepository).readPercentileAggregates(secondQuery);
+        assertThat(mailService.getMessage()).isNotNull();
+    }
+
+    @Test
+    public void shouldNotDoubleCountReReadAggregate() throws Exception {
+        // given
+        AlertConfig alertConfig = ImmutableAlertConfig.builder()
+                .transactionType("tt")
+                .percentile(95)
+                .timePeriodMinutes(10)
+                .thresholdMillis(1)
+                .minTransactionCount(2)
+                .addEmailAddresses("to@example.org")
+                .build();
+        when(configRepository.getAlertConfigs(SERVER_ID))
+                .thenReturn(ImmutableList.of(alertConfig));
+        PercentileAggregate aggregate = createPercentileAggregate(240000, 1000000);
+        when(aggregateRepository.readPercentileAggregates(any(TransactionQuery.class)))
+                .thenReturn(ImmutableList.of(aggregate));
+        AlertingService alertingService = new AlertingService(configRepository, serverRepository,
+                triggeredAlertRepository, aggregateRepository, rollupLevelService, mailService,
+                MoreExecutors.directExecutor());
+        alertingService.checkAlerts(600000);
+        // when
+        alertingService.checkAlerts(660000);
+        // then
+        assertThat(mailService.getMessage()).isNull();
+    }
+
     @Test
     public void shouldReturnCorrectPercentileName() {
         assertThat(Utils.getPercentileWithSuffix(0)).isEqualTo("0th");
@@ -171,6 +291,18 @@ public class AlertingServiceTest {
                 .thenReturn(ImmutableList.of(aggregate));
     }
 
+    private static PercentileAggregate createPercentileAggregate(long captureTime,
+            long histogramValue) {
+        LazyHistogram lazyHistogram = new LazyHistogram();
+        lazyHistogram.add(histogramValue);
+        return ImmutablePercentileAggregate.builder()
+                .captureTime(captureTime)
+                .totalNanos(histogramValue)
+                .transactionCount(1)
+                .histogram(lazyHistogram.toProto(new ScratchBuffer()))
+                .build();
+    }
+
     static class MockMailService extends MailService {
 
         private Message msg;
@@ -150,16 +150,32 @@ glowroot.controller('ConfigInstrumentationListCtrl', [
     };
 
     $scope.retransformClasses = function (deferred) {
+      // reweave is performed in the background on the server, so poll for its progress
+      function pollReweaveProgress() {
+        $http.get('backend/admin/reweave')
+            .success(function (data) {
+              if (data.inProgress) {
+                $scope.reweaveProgress = data;
+                $timeout(pollReweaveProgress, 500);
+                return;
+              }
+              $scope.reweaveProgress = undefined;
+              $scope.dirty = false;
+              if (data.classes) {
+                var msg = 're-transformed ' + data.classes + ' class' + (data.classes > 1 ? 'es' : '');
+                deferred.resolve('Success (' + msg + ')');
+              } else {
+                deferred.resolve('Success (no classes needed re-transforming)');
+              }
+            })
+            .error(function (data, status) {
+              $scope.reweaveProgress = undefined;
+              httpErrors.handler($scope, deferred)(data, status);
+            });
+      }
+
       $http.post('backend/admin/reweave')
-          .success(function (data) {
-            $scope.dirty = false;
-            if (data.classes) {
-              var msg = 're-transformed ' + data.classes + ' class' + (data.classes > 1 ? 'es' : '');
-              deferred.resolve('Success (' + msg + ')');
-            } else {
-              deferred.resolve('Success (no classes needed re-transforming)');
-            }
-          })
+          .success(pollReweaveProgress)
           .error(httpErrors.handler($scope, deferred));
     };
 
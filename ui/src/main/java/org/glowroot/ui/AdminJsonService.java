@@ -15,8 +15,15 @@
  */
 package org.glowroot.ui;
 
+import java.io.StringWriter;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
 import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.immutables.value.Value;
 
@@ -27,6 +34,7 @@ import org.glowroot.storage.repo.GaugeValueRepository;
 import org.glowroot.storage.repo.RepoAdmin;
 import org.glowroot.storage.repo.TraceRepository;
 import org.glowroot.storage.repo.TransactionTypeRepository;
+import org.glowroot.wire.api.model.DownstreamServiceOuterClass.ReweaveProgress;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -44,6 +52,17 @@ class AdminJsonService {
     private final @Nullable LiveWeavingService liveWeavingService;
     private final RepoAdmin repoAdmin;
 
+    private final Object reweaveLock = new Object();
+    @GuardedBy("reweaveLock")
+    private @Nullable FutureTask<Integer> reweaveTask;
+    // a reweave request that arrives while a reweave is in progress may be for instrumentation
+    // config that the in-progress reweave has already read past, so it is not dropped, instead a
+    // single follow-up reweave is performed once the in-progress reweave completes (any number of
+    // requests that arrive in the meantime are coalesced into that one follow-up reweave, since it
+    // reads the latest instrumentation config)
+    @GuardedBy("reweaveLock")
+    private boolean followUpReweaveRequested;
+
     AdminJsonService(AggregateRepository aggregateRepository, TraceRepository traceRepository,
             TransactionTypeRepository transactionTypeRepository,
             GaugeValueRepository gaugeValueRepository,
@@ -68,11 +87,77 @@ class AdminJsonService {
         repoAdmin.defrag();
     }
 
+    // HttpServer is configured with a very small thread pool to keep number of threads down
+    // (currently only a single thread), and reweave retransforms classes in batches which can take
+    // a while, so reweave is performed in a background thread and its progress is polled via
+    // GET /backend/admin/reweave
     @POST("/backend/admin/reweave")
-    String reweave() throws Exception {
+    void reweave() throws Exception {
+        final LiveWeavingService liveWeavingService = checkNotNull(this.liveWeavingService);
+        synchronized (reweaveLock) {
+            if (reweaveTask != null && !reweaveTask.isDone()) {
+                // reweave is already in progress
+                followUpReweaveRequested = true;
+                return;
+            }
+            reweaveTask = new FutureTask<Integer>(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    int count = 0;
+                    while (true) {
+                        count += liveWeavingService.reweave(SERVER_ID);
+                        synchronized (reweaveLock) {
+                            if (!followUpReweaveRequested) {
+                                return count;
+                            }
+                            followUpReweaveRequested = false;
+                        }
+                    }
+                }
+            });
+            Thread thread = new Thread(reweaveTask);
+            thread.setDaemon(true);
+            thread.setName("Glowroot-Temporary-Thread");
+            thread.start();
+        }
+    }
+
+    @GET("/backend/admin/reweave")
+    String getReweaveProgress() throws Exception {
         checkNotNull(liveWeavingService);
-        int count = liveWeavingService.reweave(SERVER_ID);
-        return "{\"classes\":" + count + "}";
+        FutureTask<Integer> reweaveTask;
+        synchronized (reweaveLock) {
+            reweaveTask = this.reweaveTask;
+        }
+        StringWriter sw = new StringWriter();
+        JsonGenerator jg = mapper.getFactory().createGenerator(sw);
+        jg.writeStartObject();
+        if (reweaveTask != null && reweaveTask.isDone()) {
+            int count;
+            try {
+                count = reweaveTask.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof Exception) {
+                    throw (Exception) cause;
+                }
+                throw e;
+            }
+            jg.writeBooleanField("inProgress", false);
+            jg.writeNumberField("classes", count);
+        } else {
+            ReweaveProgress progress = liveWeavingService.getReweaveProgress(SERVER_ID);
+            jg.writeBooleanField("inProgress", reweaveTask != null || progress.getInProgress());
+            jg.writeNumberField("classCount", progress.getClassCount());
+            jg.writeNumberField("completedClassCount", progress.getCompletedClassCount());
+            jg.writeNumberField("skippedClassCount", progress.getSkippedClassCount());
+            jg.writeNumberField("completedBatchCount", progress.getCompletedBatchCount());
+            jg.writeNumberField("maxBatchPauseMillis", progress.getMaxBatchPauseMillis());
+            jg.writeNumberField("totalBatchPauseMillis", progress.getTotalBatchPauseMillis());
+        }
+        jg.writeEndObject();
+        jg.close();
+        return sw.toString();
     }
 
     @POST("/backend/admin/defrag-data")
@@ -61,6 +61,7 @@ import org.glowroot.wire.api.model.AgentConfigOuterClass.AgentConfig.PluginConfi
 import org.glowroot.wire.api.model.AgentConfigOuterClass.AgentConfig.PluginProperty;
 import org.glowroot.wire.api.model.AgentConfigOuterClass.AgentConfig.TransactionConfig;
 import org.glowroot.wire.api.model.AgentConfigOuterClass.AgentConfig.UserRecordingConfig;
+import org.glowroot.wire.api.model.Proto.OptionalDouble;
 import org.glowroot.wire.api.model.Proto.OptionalInt32;
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -499,6 +500,8 @@ class ConfigJsonService {
         abstract int maxTraceEntriesPerTransaction();
         abstract int maxStackTraceSamplesPerTransaction();
         abstract int mbeanGaugeNotFoundDelaySeconds();
+        abstract double samplingPercentage();
+        abstract int samplingMaxPerSecondPerTransactionName();
         abstract String version();
 
         private AdvancedConfig convert() {
@@ -512,6 +515,10 @@ class ConfigJsonService {
                     .setMaxTraceEntriesPerTransaction(of(maxTraceEntriesPerTransaction()))
                     .setMaxStackTraceSamplesPerTransaction(of(maxStackTraceSamplesPerTransaction()))
                     .setMbeanGaugeNotFoundDelaySeconds(of(mbeanGaugeNotFoundDelaySeconds()))
+                    .setSamplingPercentage(
+                            OptionalDouble.newBuilder().setValue(samplingPercentage()))
+                    .setSamplingMaxPerSecondPerTransactionName(
+                            samplingMaxPerSecondPerTransactionName())
                     .build();
         }
 
@@ -530,6 +537,11 @@ class ConfigJsonService {
                             config.getMaxStackTraceSamplesPerTransaction().getValue())
                     .mbeanGaugeNotFoundDelaySeconds(
                             config.getMbeanGaugeNotFoundDelaySeconds().getValue())
+                    // agents prior to sampling support do not send sampling percentage
+                    .samplingPercentage(config.hasSamplingPercentage()
+                            ? config.getSamplingPercentage().getValue() : 100)
+                    .samplingMaxPerSecondPerTransactionName(
+                            config.getSamplingMaxPerSecondPerTransactionName())
                     .version(Versions.getVersion(config))
                     .build();
         }
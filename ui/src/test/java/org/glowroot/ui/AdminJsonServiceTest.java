@@ -0,0 +1,94 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.ui;
+
+import java.util.concurrent.CountDownLatch;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import org.glowroot.common.live.LiveWeavingService;
+import org.glowroot.storage.repo.AggregateRepository;
+import org.glowroot.storage.repo.GaugeValueRepository;
+import org.glowroot.storage.repo.RepoAdmin;
+import org.glowroot.storage.repo.TraceRepository;
+import org.glowroot.storage.repo.TransactionTypeRepository;
+import org.glowroot.wire.api.model.DownstreamServiceOuterClass.ReweaveProgress;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class AdminJsonServiceTest {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    public void shouldPerformFollowUpReweaveWhenRequestedDuringReweave() throws Exception {
+        // given
+        final CountDownLatch firstReweaveStarted = new CountDownLatch(1);
+        final CountDownLatch firstReweaveCanComplete = new CountDownLatch(1);
+        LiveWeavingService liveWeavingService = mock(LiveWeavingService.class);
+        when(liveWeavingService.reweave(anyString())).thenAnswer(new Answer<Integer>() {
+            private int invocationCount;
+            @Override
+            public Integer answer(InvocationOnMock invocation) throws Exception {
+                if (invocationCount++ == 0) {
+                    firstReweaveStarted.countDown();
+                    firstReweaveCanComplete.await(10, SECONDS);
+                    return 2;
+                }
+                return 3;
+            }
+        });
+        when(liveWeavingService.getReweaveProgress(anyString()))
+                .thenReturn(ReweaveProgress.getDefaultInstance());
+        AdminJsonService adminJsonService = new AdminJsonService(
+                mock(AggregateRepository.class), mock(TraceRepository.class),
+                mock(TransactionTypeRepository.class), mock(GaugeValueRepository.class),
+                liveWeavingService, mock(RepoAdmin.class));
+        adminJsonService.reweave();
+        firstReweaveStarted.await(10, SECONDS);
+        // when
+        adminJsonService.reweave();
+        adminJsonService.reweave();
+        firstReweaveCanComplete.countDown();
+        // then
+        JsonNode progress = waitForReweaveToComplete(adminJsonService);
+        assertThat(progress.get("classes").asInt()).isEqualTo(5);
+        verify(liveWeavingService, times(2)).reweave(anyString());
+    }
+
+    private static JsonNode waitForReweaveToComplete(AdminJsonService adminJsonService)
+            throws Exception {
+        long start = System.currentTimeMillis();
+        while (System.currentTimeMillis() - start < 10000) {
+            JsonNode progress = mapper.readTree(adminJsonService.getReweaveProgress());
+            if (!progress.get("inProgress").asBoolean()) {
+                return progress;
+            }
+            Thread.sleep(10);
+        }
+        throw new AssertionError("Reweave did not complete");
+    }
+}
@@ -0,0 +1,28 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.wire.api;
+
+import io.grpc.Metadata;
+
+public class RetryAfter {
+
+    // trailer sent by central along with RESOURCE_EXHAUSTED when it is shedding load, the value is
+    // the number of seconds the agent should wait before retrying
+    public static final Metadata.Key<String> SECONDS_KEY =
+            Metadata.Key.of("glowroot-retry-after-seconds", Metadata.ASCII_STRING_MARSHALLER);
+
+    private RetryAfter() {}
+}